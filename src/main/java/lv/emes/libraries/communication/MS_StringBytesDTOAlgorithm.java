@@ -0,0 +1,24 @@
+package lv.emes.libraries.communication;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serialization algorithm of texts to UTF-8 encoded bytes.
+ * Can be used as codec of repositories, which store objects in binary form,
+ * for example, {@link lv.emes.libraries.storage.MS_OffHeapCachingRepository}.
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_StringBytesDTOAlgorithm extends MS_DTOMappingAlgorithm<String, byte[]> {
+
+    @Override
+    public byte[] serialize(String objectToSerialize) {
+        return objectToSerialize.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String deserialize(byte[] serializedObject) {
+        return new String(serializedObject, StandardCharsets.UTF_8);
+    }
+}
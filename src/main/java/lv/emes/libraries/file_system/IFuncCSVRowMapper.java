@@ -0,0 +1,19 @@
+package lv.emes.libraries.file_system;
+
+/**
+ * Function to map row of CSV file to object.
+ *
+ * @param <T> type of objects.
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_CSVReader#rows(IFuncCSVRowMapper)
+ */
+@FunctionalInterface
+public interface IFuncCSVRowMapper<T> {
+
+    /**
+     * @param row row of file. It's reused for the next rows, so it must not be stored.
+     * @return object made of values of row.
+     */
+    T map(MS_CSVRow row);
+}
@@ -0,0 +1,220 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * File of records in binary format, which is used by text file repositories configured with
+ * {@link MS_RecordFormatEnum#BINARY}. Every record is pair of value and its expiration time, identified by string.
+ * <p>File starts with header (<b>MSBR</b> and version of format), which is followed by records:
+ * <ul>
+ * <li>length of payload (4 bytes);</li>
+ * <li>payload: expiration time as epoch milliseconds (8 bytes, {@link Long#MIN_VALUE} if record never expires),
+ * length of identifier (4 bytes), UTF-8 bytes of identifier and bytes of value encoded by
+ * {@link MS_IRecordValueCodec};</li>
+ * <li>CRC32 of payload (4 bytes).</li>
+ * </ul>
+ * Reader skips from record to record by their lengths and decodes only what is needed, so there is no character
+ * by character parsing and no escaping of delimiters. Checksum reveals records damaged by interrupted writes.
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+final class MS_BinaryRecordFile {
+
+    private static final byte[] HEADER = {'M', 'S', 'B', 'R', 1};
+    private static final long NO_EXPIRATION = Long.MIN_VALUE;
+    //expiration time and length of identifier
+    private static final int PAYLOAD_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final MS_TextFileRepositorySetup setup;
+    private final MS_IRecordValueCodec codec;
+
+    /**
+     * @param pathToFile path to file of records.
+     * @param setup      setup of repository, which holds codec of record values and sync policy.
+     */
+    MS_BinaryRecordFile(String pathToFile, MS_TextFileRepositorySetup setup) {
+        this.path = Paths.get(pathToFile);
+        this.setup = setup;
+        this.codec = setup.getValueCodec();
+    }
+
+    /**
+     * @return all records in order they are stored in file.
+     * @throws MS_RepositoryDataExchangeException if file cannot be read or it's corrupted.
+     */
+    Map<String, Pair<String, LocalDateTime>> readAll() throws MS_RepositoryDataExchangeException {
+        Map<String, Pair<String, LocalDateTime>> res = new LinkedHashMap<>();
+        scan((payload, length) -> {
+            int identifierLength = ByteBuffer.wrap(payload).getInt(Long.BYTES);
+            res.put(new String(payload, PAYLOAD_HEADER_SIZE, identifierLength, StandardCharsets.UTF_8),
+                    decodeRecord(payload, length, identifierLength));
+            return true;
+        });
+        return res;
+    }
+
+    /**
+     * Finds record comparing bytes of identifiers, so only value of found record is decoded.
+     *
+     * @param identifier identifier of record.
+     * @return record or <code>null</code> if there is no record with such identifier.
+     * @throws MS_RepositoryDataExchangeException if file cannot be read or it's corrupted.
+     */
+    Pair<String, LocalDateTime> read(String identifier) throws MS_RepositoryDataExchangeException {
+        byte[] identifierBytes = identifier.getBytes(StandardCharsets.UTF_8);
+        AtomicReference<Pair<String, LocalDateTime>> found = new AtomicReference<>();
+        scan((payload, length) -> {
+            int identifierLength = ByteBuffer.wrap(payload).getInt(Long.BYTES);
+            if (!regionEquals(payload, PAYLOAD_HEADER_SIZE, identifierBytes, identifierLength))
+                return true;
+            found.set(decodeRecord(payload, length, identifierLength));
+            return false;
+        });
+        return found.get();
+    }
+
+    /**
+     * @return count of records in file.
+     * @throws MS_RepositoryDataExchangeException if file cannot be read or it's corrupted.
+     */
+    int count() throws MS_RepositoryDataExchangeException {
+        int[] count = {0};
+        scan((payload, length) -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    /**
+     * Replaces content of file with given records atomically (see {@link MS_FileSync}).
+     *
+     * @param records records to write.
+     * @throws MS_RepositoryDataExchangeException if file cannot be written.
+     */
+    void writeAll(Map<String, Pair<String, LocalDateTime>> records) throws MS_RepositoryDataExchangeException {
+        CRC32 checksum = new CRC32();
+        MS_FileSync.replace(path, setup, stream -> {
+            DataOutputStream output = new DataOutputStream(stream);
+            output.write(HEADER);
+            for (Map.Entry<String, Pair<String, LocalDateTime>> record : records.entrySet()) {
+                byte[] identifier = record.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] value = codec.encode(record.getValue().getLeft());
+                LocalDateTime expirationTime = record.getValue().getRight();
+                byte[] payload = ByteBuffer.allocate(PAYLOAD_HEADER_SIZE + identifier.length + value.length)
+                        .putLong(expirationTime == null ? NO_EXPIRATION : toEpochMillis(expirationTime))
+                        .putInt(identifier.length)
+                        .put(identifier)
+                        .put(value)
+                        .array();
+                checksum.reset();
+                checksum.update(payload);
+                output.writeInt(payload.length);
+                output.write(payload);
+                output.writeInt((int) checksum.getValue());
+            }
+            output.flush();
+        });
+    }
+
+    //*** Private methods and interfaces ***
+
+    @FunctionalInterface
+    private interface IFuncRecordVisitor {
+        /**
+         * @return false to stop scanning.
+         */
+        boolean visit(byte[] payload, int length);
+    }
+
+    private void scan(IFuncRecordVisitor visitor) throws MS_RepositoryDataExchangeException {
+        long offset = HEADER.length;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            byte[] header = new byte[HEADER.length];
+            int headerLength = input.read(header);
+            if (headerLength <= 0)
+                return; //empty file
+            if (headerLength < HEADER.length)
+                input.readFully(header, headerLength, HEADER.length - headerLength);
+            if (!Arrays.equals(header, HEADER))
+                throw new MS_RepositoryDataExchangeException("File isn't in binary record format " +
+                        "(it can be converted from text format by repository):\n" + path);
+
+            CRC32 checksum = new CRC32();
+            byte[] payload = new byte[256];
+            int firstByte;
+            while ((firstByte = input.read()) >= 0) {
+                int length = firstByte << 24 | input.readUnsignedByte() << 16 | input.readUnsignedByte() << 8 | input.readUnsignedByte();
+                if (length < PAYLOAD_HEADER_SIZE)
+                    throw corruptedRecord(offset, null);
+                if (payload.length < length)
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                input.readFully(payload, 0, length);
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if (input.readInt() != (int) checksum.getValue())
+                    throw corruptedRecord(offset, null);
+                int identifierLength = ByteBuffer.wrap(payload).getInt(Long.BYTES);
+                if (identifierLength < 0 || identifierLength > length - PAYLOAD_HEADER_SIZE)
+                    throw corruptedRecord(offset, null);
+                if (!visitor.visit(payload, length))
+                    return;
+                offset += Integer.BYTES + length + Integer.BYTES;
+            }
+        } catch (EOFException e) {
+            throw corruptedRecord(offset, e);
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to read from file:\n" + path, e);
+        }
+    }
+
+    private Pair<String, LocalDateTime> decodeRecord(byte[] payload, int length, int identifierLength) {
+        long expirationMillis = ByteBuffer.wrap(payload).getLong(0);
+        int valueOffset = PAYLOAD_HEADER_SIZE + identifierLength;
+        return Pair.of(codec.decode(payload, valueOffset, length - valueOffset),
+                expirationMillis == NO_EXPIRATION ? null : fromEpochMillis(expirationMillis));
+    }
+
+    private MS_RepositoryDataExchangeException corruptedRecord(long offset, Exception cause) {
+        return new MS_RepositoryDataExchangeException("Failed to read corrupted record at byte " + offset +
+                " of file:\n" + path, cause);
+    }
+
+    private static boolean regionEquals(byte[] array, int offset, byte[] expected, int length) {
+        if (length != expected.length) return false;
+        for (int i = 0; i < length; i++)
+            if (array[offset + i] != expected[i]) return false;
+        return true;
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMillis(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
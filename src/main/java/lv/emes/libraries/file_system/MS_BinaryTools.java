@@ -10,16 +10,27 @@ import org.apache.commons.compress.utils.IOUtils;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Module consists of methods for binary file I/O.
  * It can be used in various cases while doing file / stream data exchange or manipulations with bytes.
  *
- * @version 2.1.
+ * @version 2.2.
  */
 public class MS_BinaryTools {
+
+    private static final long TRANSFER_FROM_CHUNK_SIZE = 1024 * 1024;
+
     /**
      * Reads file from file system as byte array.
+     * Use {@link #mapFile(String)} to read large file without copying it to Java heap.
      *
      * @param aFileName path to a file.
      * @return byte array or null if failed to read file (most probably due to non-existent file).
@@ -54,10 +65,45 @@ public class MS_BinaryTools {
      * @throws IOException if an I/O error occurs. For example, when for some reason cannot convert <b>in</b> to output binary stream.
      */
     public static void writeFile(InputStream in, String outputFile) throws IOException {
-        OutputStream out = new FileOutputStream(outputFile);
-        IOUtils.copy(in, out);
-        in.close();
-        out.close();
+        copyStream(in, new FileOutputStream(outputFile));
+    }
+
+    /**
+     * Maps whole file to memory for reading. Content of file isn't copied to Java heap: operating system loads
+     * pages of file, when they are accessed, so it's the cheapest way to read large file, especially at random
+     * positions. Mapping stays valid after this method returns, and it's released when buffer is garbage collected.
+     *
+     * @param aFileName path to a file.
+     * @return read-only buffer with content of file.
+     * @throws IOException if file cannot be opened, or if it's larger than {@link Integer#MAX_VALUE} bytes
+     *                     (map it by parts with {@link #mapFile(String, long, long)} then).
+     */
+    public static MappedByteBuffer mapFile(String aFileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(aFileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(String.format("File '%s' is too large to map at once: %d bytes", aFileName, size));
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Maps part of file to memory for reading (see {@link #mapFile(String)}).
+     *
+     * @param aFileName path to a file.
+     * @param position  position in file, at which mapped part starts.
+     * @param size      size of mapped part in bytes, at most {@link Integer#MAX_VALUE}.
+     * @return read-only buffer with content of part of file.
+     * @throws EOFException if part exceeds end of file.
+     * @throws IOException  if file cannot be opened.
+     */
+    public static MappedByteBuffer mapFile(String aFileName, long position, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(aFileName), StandardOpenOption.READ)) {
+            if (position < 0 || size < 0 || position + size > channel.size())
+                throw new EOFException(String.format("Part [%d; %d) is outside of file '%s' of %d bytes",
+                        position, position + size, aFileName, channel.size()));
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
     }
 
     /**
@@ -76,16 +122,83 @@ public class MS_BinaryTools {
     }
 
     /**
-     * Copies data stream. Exception will be stack - traced.
+     * Copies data stream (see {@link #copy(InputStream, OutputStream)}). Both streams are closed afterwards.
      *
      * @param in  Stream that will be copied
      * @param out Stream in which <b>in</b> stream will be copied
      * @throws IOException if an I/O error occurs.
      */
     public static void copyStream(InputStream in, OutputStream out) throws IOException {
-        IOUtils.copy(in, out);
-        in.close();
-        out.close();
+        try (InputStream input = in; OutputStream output = out) {
+            copy(input, output);
+        }
+    }
+
+    /**
+     * Copies the rest of data of <b>in</b> stream to <b>out</b> stream. If both of them are file streams, their
+     * channels are used (see {@link #copy(ReadableByteChannel, WritableByteChannel)}), so data doesn't pass through
+     * Java heap. Otherwise data is copied through pooled buffer. Streams aren't closed.
+     *
+     * @param in  stream to copy from.
+     * @param out stream to copy to.
+     * @return count of copied bytes.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        if (in instanceof FileInputStream && out instanceof FileOutputStream)
+            return copy(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel());
+
+        ByteBuffer buffer = MS_BufferPool.HEAP.acquire();
+        try {
+            byte[] bytes = buffer.array();
+            long copied = 0;
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                out.write(bytes, 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            MS_BufferPool.HEAP.release(buffer);
+        }
+    }
+
+    /**
+     * Copies the rest of data of <b>in</b> channel to <b>out</b> channel keeping it off Java heap:
+     * <ul>
+     * <li>if <b>in</b> is file channel, data is passed by {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * which lets operating system copy data to file or socket directly, without passing it through user space;</li>
+     * <li>if <b>out</b> is file channel, data is passed by {@link FileChannel#transferFrom(ReadableByteChannel, long, long)};</li>
+     * <li>otherwise data is copied through pooled direct buffer.</li>
+     * </ul>
+     * Copying starts at current positions of channels, and positions of file channels are moved to the end of
+     * copied data. Channels must be in blocking mode. They aren't closed.
+     *
+     * @param in  channel to copy from.
+     * @param out channel to copy to.
+     * @return count of copied bytes.
+     * @throws EOFException if file of <b>in</b> channel is truncated while being copied.
+     * @throws IOException  if an I/O error occurs.
+     */
+    public static long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        if (in instanceof FileChannel)
+            return transferTo((FileChannel) in, out);
+        if (out instanceof FileChannel)
+            return transferFrom(in, (FileChannel) out);
+
+        ByteBuffer buffer = MS_BufferPool.DIRECT.acquire();
+        try {
+            long copied = 0;
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    copied += out.write(buffer);
+                buffer.clear();
+            }
+            return copied;
+        } finally {
+            MS_BufferPool.DIRECT.release(buffer);
+        }
     }
 
     /**
@@ -212,4 +325,33 @@ public class MS_BinaryTools {
             return false;
         }
     }
+
+    //*** Private methods ***
+
+    private static long transferTo(FileChannel in, WritableByteChannel out) throws IOException {
+        long start = in.position();
+        long position = start;
+        long size = in.size();
+        //transfer may be partial, so it's repeated until all the data is copied
+        while (position < size) {
+            long transferred = in.transferTo(position, size - position, out);
+            if (transferred == 0 && in.size() <= position)
+                throw new EOFException(String.format("File was truncated while being copied: %d bytes expected, %d bytes copied",
+                        size - start, position - start));
+            position += transferred;
+        }
+        in.position(position);
+        return position - start;
+    }
+
+    private static long transferFrom(ReadableByteChannel in, FileChannel out) throws IOException {
+        long start = out.position();
+        long position = start;
+        long transferred;
+        //blocking channel returns 0 only at the end of data
+        while ((transferred = out.transferFrom(in, position, TRANSFER_FROM_CHUNK_SIZE)) > 0)
+            position += transferred;
+        out.position(position);
+        return position - start;
+    }
 }
@@ -0,0 +1,53 @@
+package lv.emes.libraries.file_system;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of buffers for copying of data, so that copying doesn't allocate new buffer on every call.
+ * <ul>
+ * <li>{@link #DIRECT} buffers are for channels: operating system reads and writes them without copying data to
+ * temporary native buffer, and they stay out of Java heap;</li>
+ * <li>{@link #HEAP} buffers are for streams, which can work only with byte arrays.</li>
+ * </ul>
+ * Buffer must be returned to pool after use. If pool is empty, new buffer is allocated; if it's full, returned buffer
+ * is left to garbage collector. So pool never blocks, and only a few buffers per processor are kept.
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_BinaryTools#copy(java.nio.channels.ReadableByteChannel, java.nio.channels.WritableByteChannel)
+ */
+final class MS_BufferPool {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CAPACITY = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    static final MS_BufferPool DIRECT = new MS_BufferPool(true);
+    static final MS_BufferPool HEAP = new MS_BufferPool(false);
+
+    private final boolean direct;
+    private final BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(CAPACITY);
+
+    private MS_BufferPool(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * @return empty buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return direct ? ByteBuffer.allocateDirect(BUFFER_SIZE) : ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer buffer, which isn't used anymore.
+     */
+    void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+}
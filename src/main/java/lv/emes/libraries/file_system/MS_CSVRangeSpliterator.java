@@ -0,0 +1,247 @@
+package lv.emes.libraries.file_system;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Spliterator of records of CSV file, which can be split to byte ranges aligned to record boundaries, so that
+ * parallel stream parses every range in separate task of fork-join pool.
+ * <p>Line break is boundary of record only if it isn't quoted. So, when quoting is on, boundaries are found by
+ * single sequential scan of bytes of file, which tracks quotes and escapes exactly like {@link MS_CSVRecordParser}
+ * does, but doesn't decode or collect anything. Boundaries are found once, when spliterator is split for the first
+ * time, and ranges are at least <b>minimumRangeSize</b> long. When quoting is off, every line feed is boundary,
+ * so only a few bytes around every boundary are read.
+ * <p>Just like for {@link MS_LineRangeSpliterator}, file is split only if it's in charset, which encodes line feed,
+ * separator, quote and escape characters as single bytes, which never occur inside of other characters.
+ *
+ * @param <T> type of elements made of rows.
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_CSVReader#parallelRows()
+ */
+final class MS_CSVRangeSpliterator<T> implements Spliterator<T> {
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final char separator;
+    private final char quoteChar;
+    private final char escapeChar;
+    private final int[] columns;
+    private final Function<MS_CSVRow, T> converter;
+    private final boolean splittable;
+    private final long minimumRangeSize;
+    private long start;
+    private final long end;
+    //null until the first split; then range of spliterator is from boundaries[first] to boundaries[last]
+    private long[] boundaries;
+    private int first;
+    private int last;
+    //null until traversal starts; range cannot be split after that
+    private MS_CSVRecordParser parser;
+
+    /**
+     * @param channel          channel of file. It isn't closed by spliterator.
+     * @param charset          charset of file.
+     * @param separator        separator of values.
+     * @param quoteChar        quote character or {@link MS_CSVReader#NO_CHARACTER}.
+     * @param escapeChar       escape character or {@link MS_CSVReader#NO_CHARACTER}.
+     * @param columns          indexes of columns to read or null to read all of them.
+     * @param converter        function to make element of stream of row. Row is reused, so it must not be returned.
+     * @param minimumRangeSize ranges smaller than this count of bytes aren't split.
+     * @throws UncheckedIOException if size of file cannot be determined.
+     */
+    MS_CSVRangeSpliterator(FileChannel channel, Charset charset, char separator, char quoteChar, char escapeChar,
+                           int[] columns, Function<MS_CSVRow, T> converter, long minimumRangeSize)
+            throws UncheckedIOException {
+        this.channel = channel;
+        this.charset = charset;
+        this.separator = separator;
+        this.quoteChar = quoteChar;
+        this.escapeChar = escapeChar;
+        this.columns = columns;
+        this.converter = converter;
+        this.splittable = MS_LineRangeSpliterator.isSplittable(charset) && isSingleByte(separator, charset) &&
+                isSingleByte(quoteChar, charset) && isSingleByte(escapeChar, charset);
+        this.minimumRangeSize = minimumRangeSize;
+        this.start = 0;
+        try {
+            this.end = channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MS_CSVRangeSpliterator(MS_CSVRangeSpliterator<T> parent, int first, int last) {
+        this.channel = parent.channel;
+        this.charset = parent.charset;
+        this.separator = parent.separator;
+        this.quoteChar = parent.quoteChar;
+        this.escapeChar = parent.escapeChar;
+        this.columns = parent.columns;
+        this.converter = parent.converter;
+        this.splittable = true;
+        this.minimumRangeSize = parent.minimumRangeSize;
+        this.boundaries = parent.boundaries;
+        this.first = first;
+        this.last = last;
+        this.start = boundaries[first];
+        this.end = boundaries[last];
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (parser == null)
+            parser = new MS_CSVRecordParser(new MS_LineSpliterator(
+                    new MS_LineRangeSpliterator.RangeChannel(channel, start, end), charset),
+                    separator, quoteChar, escapeChar, columns);
+        MS_CSVRow row = parser.next();
+        if (row == null)
+            return false;
+        action.accept(converter.apply(row));
+        return true;
+    }
+
+    /**
+     * @return spliterator of the first half of range, while this one continues with the second half.
+     * @throws UncheckedIOException if file cannot be read.
+     */
+    @Override
+    public Spliterator<T> trySplit() throws UncheckedIOException {
+        if (!splittable || parser != null)
+            return null;
+        if (boundaries == null) {
+            if (end - start < minimumRangeSize * 2)
+                return null;
+            boundaries = findBoundaries();
+            first = 0;
+            last = boundaries.length - 1;
+        }
+        if (last - first < 2)
+            return null; //the rest of range is single record or too small
+        int middle = (first + last) / 2;
+        Spliterator<T> prefix = new MS_CSVRangeSpliterator<>(this, first, middle);
+        first = middle;
+        start = boundaries[middle];
+        return prefix;
+    }
+
+    /**
+     * @return count of bytes in range, which is the upper bound of count of records.
+     */
+    @Override
+    public long estimateSize() {
+        return end - start;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED;
+    }
+
+    //*** Private methods ***
+
+    private static boolean isSingleByte(char c, Charset charset) {
+        if (c == MS_CSVReader.NO_CHARACTER)
+            return true;
+        byte[] bytes = String.valueOf(c).getBytes(charset);
+        return c < 0x80 && bytes.length == 1 && bytes[0] == c;
+    }
+
+    /**
+     * @return positions of record boundaries including start and end of file.
+     */
+    private long[] findBoundaries() {
+        List<Long> found = new ArrayList<>();
+        found.add(start);
+        if (quoteChar == MS_CSVReader.NO_CHARACTER) {
+            long boundary = start;
+            while ((boundary = MS_LineRangeSpliterator.findLineStart(channel, boundary + minimumRangeSize - 1, end)) < end)
+                found.add(boundary);
+        } else {
+            scanQuotedBoundaries(found);
+        }
+        found.add(end);
+
+        long[] result = new long[found.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = found.get(i);
+        return result;
+    }
+
+    /**
+     * Tracks state of the same variables as {@link MS_CSVRecordParser} does. Decision about escape or quote
+     * character depends on the next byte, so it's postponed until that byte is read.
+     */
+    private void scanQuotedBoundaries(List<Long> found) {
+        final int none = 0, escape = 1, quote = 2;
+        byte separatorByte = (byte) separator, quoteByte = (byte) quoteChar, escapeByte = (byte) escapeChar;
+        boolean escaping = escapeChar != MS_CSVReader.NO_CHARACTER;
+        boolean inQuotes = false, inField = false;
+        int postponed = none;
+        long nextBoundary = start + minimumRangeSize;
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = start;
+        try {
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0)
+                    return;
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer.get(i);
+                    if (postponed == escape) {
+                        postponed = none;
+                        if (b == quoteByte || b == escapeByte)
+                            continue; //escaped character
+                    } else if (postponed == quote) {
+                        postponed = none;
+                        inField = !inField;
+                        if (b == quoteByte)
+                            continue; //doubled quote
+                        inQuotes = !inQuotes;
+                    }
+
+                    if (b == '\n' || b == '\r') {
+                        if (inQuotes)
+                            continue;
+                        inField = false;
+                        long lineStart = position + i + 1;
+                        if (b == '\n' && lineStart >= nextBoundary && lineStart < end) {
+                            found.add(lineStart);
+                            nextBoundary = lineStart + minimumRangeSize;
+                        }
+                    } else if (escaping && b == escapeByte) {
+                        if (inQuotes || inField)
+                            postponed = escape;
+                    } else if (b == quoteByte) {
+                        if (inQuotes || inField) {
+                            postponed = quote;
+                        } else {
+                            inQuotes = true;
+                            inField = true;
+                        }
+                    } else if (b == separatorByte && !inQuotes) {
+                        inField = false;
+                    } else {
+                        inField = true;
+                    }
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
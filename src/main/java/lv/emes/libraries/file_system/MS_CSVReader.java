@@ -0,0 +1,316 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads CSV file row by row, so files of any size are processed in constant memory. Rows can be:
+ * <ul>
+ * <li>streamed as arrays of values or as objects made of them by {@link IFuncCSVRowMapper};</li>
+ * <li>streamed in parallel: file is split to byte ranges at boundaries of records (quoted line breaks are
+ * respected), and every range is parsed in separate task of common fork-join pool
+ * (see {@link MS_CSVRangeSpliterator});</li>
+ * <li>passed to callback as {@link MS_CSVRow}, which is reused for every row, so nothing but values is created;</li>
+ * <li>read all at once to list (that's what {@link MS_FileSystemTools#loadCSVFile(String, char, char)} does).</li>
+ * </ul>
+ * Only selected columns can be read: values of other columns aren't even collected.
+ * <p>Values are parsed like <b>au.com.bytecode.opencsv.CSVReader</b> does (see {@link MS_CSVRecordParser}).
+ * Line breaks are the same as for {@link java.io.BufferedReader#readLine()}; line break inside of quoted value
+ * becomes line feed.
+ * <p>Example:
+ * <pre><code>
+ *     try (Stream&lt;Person&gt; persons = new MS_CSVReader("persons.csv").withSeparator(';').withColumns(2, 0)
+ *             .rows(row -&gt; new Person(row.getString(0), row.getInt(1)))) {
+ *         persons.filter(...).forEach(...);
+ *     }</code></pre>
+ * <p>Public methods:
+ * <ul>
+ * <li>rows</li>
+ * <li>parallelRows</li>
+ * <li>forEachRow</li>
+ * <li>readAll</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withSeparator</li>
+ * <li>withQuoteChar</li>
+ * <li>withEscapeChar</li>
+ * <li>withCharset</li>
+ * <li>withColumns</li>
+ * <li>getPathToFile</li>
+ * <li>getSeparator</li>
+ * <li>getQuoteChar</li>
+ * <li>getEscapeChar</li>
+ * <li>getCharset</li>
+ * <li>getColumns</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_CSVReader {
+
+    /**
+     * Character, which turns off quoting or escaping, if it's set as quote or escape character.
+     */
+    public static final char NO_CHARACTER = '\0';
+    public static final char DEFAULT_SEPARATOR = ',';
+    public static final char DEFAULT_ESCAPE_CHAR = '\\';
+
+    private final String pathToFile;
+    private char separator = DEFAULT_SEPARATOR;
+    private char quoteChar = NO_CHARACTER;
+    private char escapeChar = DEFAULT_ESCAPE_CHAR;
+    private Charset charset = StandardCharsets.UTF_8;
+    private int[] columns;
+    private long minimumRangeSize = MS_LineRangeSpliterator.MINIMUM_RANGE_SIZE;
+
+    /**
+     * Creates reader of file with comma separated values in UTF-8 without quoting.
+     *
+     * @param pathToFile path to CSV file.
+     */
+    public MS_CSVReader(String pathToFile) {
+        this.pathToFile = pathToFile;
+    }
+
+    /**
+     * Streams rows of file. Stream must be closed after use.
+     *
+     * @return lazily populated stream of rows.
+     * @throws MS_BadSetupException if separator, quote and escape characters aren't different.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     */
+    public Stream<String[]> rows() throws MS_BadSetupException, UncheckedIOException {
+        return stream(MS_CSVRow::toArray, false);
+    }
+
+    /**
+     * Streams objects made of rows of file. Stream must be closed after use.
+     *
+     * @param mapper function to make object of row.
+     * @param <T>    type of objects.
+     * @return lazily populated stream of objects.
+     * @throws MS_BadSetupException if separator, quote and escape characters aren't different.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     */
+    public <T> Stream<T> rows(IFuncCSVRowMapper<T> mapper) throws MS_BadSetupException, UncheckedIOException {
+        return stream(mapper::map, false);
+    }
+
+    /**
+     * Streams rows of file in parallel. Stream is ordered: <b>forEachOrdered</b>, <b>collect</b> and other
+     * order-preserving operations see rows in order of file. Stream must be closed after use.
+     * <p>Only files in charsets, which encode line feed, separator, quote and escape characters as single bytes
+     * not used by other characters (for example, UTF-8 with ASCII separator), are split. Other files are read
+     * sequentially.
+     *
+     * @return lazily populated parallel stream of rows.
+     * @throws MS_BadSetupException if separator, quote and escape characters aren't different.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     */
+    public Stream<String[]> parallelRows() throws MS_BadSetupException, UncheckedIOException {
+        return stream(MS_CSVRow::toArray, true);
+    }
+
+    /**
+     * Streams objects made of rows of file in parallel (see {@link #parallelRows()}). Stream must be closed after use.
+     *
+     * @param mapper function to make object of row. It's called from multiple threads at the same time.
+     * @param <T>    type of objects.
+     * @return lazily populated parallel stream of objects.
+     * @throws MS_BadSetupException if separator, quote and escape characters aren't different.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     */
+    public <T> Stream<T> parallelRows(IFuncCSVRowMapper<T> mapper) throws MS_BadSetupException, UncheckedIOException {
+        return stream(mapper::map, true);
+    }
+
+    /**
+     * Passes every row of file to <b>action</b> in order of file.
+     *
+     * @param action action to perform for every row. Row is reused for the next rows, so it must not be stored.
+     * @throws MS_BadSetupException  if separator, quote and escape characters aren't different.
+     * @throws FileNotFoundException if file does not exist, is a directory or cannot be opened for reading.
+     * @throws IOException           if file cannot be read.
+     */
+    public void forEachRow(Consumer<MS_CSVRow> action) throws MS_BadSetupException, IOException {
+        read(Function.identity(), action);
+    }
+
+    /**
+     * Reads all the rows of file to list.
+     *
+     * @return list of rows or empty list if file is empty.
+     * @throws MS_BadSetupException  if separator, quote and escape characters aren't different.
+     * @throws FileNotFoundException if file does not exist, is a directory or cannot be opened for reading.
+     * @throws IOException           if file cannot be read.
+     */
+    public List<String[]> readAll() throws MS_BadSetupException, IOException {
+        List<String[]> rows = new ArrayList<>();
+        read(MS_CSVRow::toArray, rows::add);
+        return rows;
+    }
+
+    //*** Setters and getters ***
+
+    /**
+     * @param separator separator of values. Default is comma.
+     * @return reference to reader itself.
+     */
+    public MS_CSVReader withSeparator(char separator) {
+        this.separator = separator;
+        return this;
+    }
+
+    /**
+     * @param quoteChar character used to quote values, which contain separator or line break, or
+     *                  {@link #NO_CHARACTER} to turn quoting off. Default is {@link #NO_CHARACTER}.
+     * @return reference to reader itself.
+     */
+    public MS_CSVReader withQuoteChar(char quoteChar) {
+        this.quoteChar = quoteChar;
+        return this;
+    }
+
+    /**
+     * @param escapeChar character used to escape quote or escape character inside of values, or
+     *                   {@link #NO_CHARACTER} to turn escaping off. Default is backslash.
+     * @return reference to reader itself.
+     */
+    public MS_CSVReader withEscapeChar(char escapeChar) {
+        this.escapeChar = escapeChar;
+        return this;
+    }
+
+    /**
+     * @param charset charset of file. Default is UTF-8.
+     * @return reference to reader itself.
+     */
+    public MS_CSVReader withCharset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * Sets columns to read. Values of every row are placed in order of <b>columns</b>; if row doesn't have some of
+     * them, their values are null.
+     *
+     * @param columns indexes of columns starting from 0, or nothing to read all of them.
+     * @return reference to reader itself.
+     * @throws MS_BadSetupException if some index is negative or repeats.
+     */
+    public MS_CSVReader withColumns(int... columns) throws MS_BadSetupException {
+        if (columns == null || columns.length == 0) {
+            this.columns = null;
+            return this;
+        }
+        int[] sorted = columns.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] < 0)
+            throw new MS_BadSetupException("Index of column cannot be negative: %d", sorted[0]);
+        for (int i = 1; i < sorted.length; i++)
+            if (sorted[i] == sorted[i - 1])
+                throw new MS_BadSetupException("Column %d is selected more than once", sorted[i]);
+        this.columns = columns.clone();
+        return this;
+    }
+
+    MS_CSVReader withMinimumRangeSize(long minimumRangeSize) {
+        this.minimumRangeSize = minimumRangeSize;
+        return this;
+    }
+
+    public String getPathToFile() {
+        return pathToFile;
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+
+    public char getQuoteChar() {
+        return quoteChar;
+    }
+
+    public char getEscapeChar() {
+        return escapeChar;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return indexes of columns to read or null if all of them are read.
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    //*** Private methods ***
+
+    private <T> Stream<T> stream(Function<MS_CSVRow, T> converter, boolean parallel) {
+        FileChannel channel;
+        try {
+            channel = open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            return StreamSupport.stream(spliterator(channel, converter), parallel).onClose(() -> {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    private <T> void read(Function<MS_CSVRow, T> converter, Consumer<? super T> action) throws IOException {
+        try (FileChannel channel = open()) {
+            spliterator(channel, converter).forEachRemaining(action);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private FileChannel open() throws MS_BadSetupException, FileNotFoundException {
+        validate();
+        return new FileInputStream(pathToFile).getChannel();
+    }
+
+    private <T> MS_CSVRangeSpliterator<T> spliterator(FileChannel channel, Function<MS_CSVRow, T> converter) {
+        return new MS_CSVRangeSpliterator<>(channel, charset, separator, quoteChar, escapeChar, columns, converter,
+                minimumRangeSize);
+    }
+
+    private void validate() throws MS_BadSetupException {
+        if (separator == NO_CHARACTER || separator == '\n' || separator == '\r')
+            throw new MS_BadSetupException("Separator of CSV values must be visible character");
+        if (separator == quoteChar || separator == escapeChar || quoteChar != NO_CHARACTER && quoteChar == escapeChar)
+            throw new MS_BadSetupException("Separator [%s], quote [%s] and escape [%s] characters must be different",
+                    separator, quoteChar, escapeChar);
+    }
+}
@@ -0,0 +1,164 @@
+package lv.emes.libraries.file_system;
+
+import java.io.UncheckedIOException;
+
+/**
+ * Parser of records of CSV file, which are read line by line from {@link MS_LineSpliterator}.
+ * <p>Values are parsed the same way as <b>au.com.bytecode.opencsv.CSVReader</b> does (with leading whitespaces
+ * before quoted value ignored), so results of {@link MS_FileSystemTools#loadCSVFile(String, char, char)} stayed
+ * the same after it switched to {@link MS_CSVReader}. There are two differences:
+ * <ul>
+ * <li>state of value never leaks from one record to the next one, so every record is parsed the same way
+ * regardless of where reading of file starts. That's what allows to read ranges of file in parallel;</li>
+ * <li>{@link MS_CSVReader#NO_CHARACTER} turns quoting or escaping off instead of being the character to look for.</li>
+ * </ul>
+ * <p>Lines, builder of value and row are reused for the whole file, and values of columns, which aren't selected,
+ * aren't even collected, so garbage is made only of values returned to caller.
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_CSVRangeSpliterator
+ */
+final class MS_CSVRecordParser {
+
+    private final MS_LineSpliterator lines;
+    private final char separator;
+    private final char quoteChar;
+    private final char escapeChar;
+    private final boolean quoting;
+    private final boolean escaping;
+    //index in row for every column up to the last selected one (-1 if column isn't selected), or null for all columns
+    private final int[] slots;
+    private final int rowSize;
+    private final MS_CSVRow row = new MS_CSVRow();
+    private final StringBuilder value = new StringBuilder();
+    private int column;
+    private boolean columnSelected;
+    private boolean inField;
+
+    /**
+     * @param lines      lines of file.
+     * @param separator  separator of values.
+     * @param quoteChar  quote character or {@link MS_CSVReader#NO_CHARACTER}.
+     * @param escapeChar escape character or {@link MS_CSVReader#NO_CHARACTER}.
+     * @param columns    indexes of columns to read in order they must appear in row, or null to read all of them.
+     */
+    MS_CSVRecordParser(MS_LineSpliterator lines, char separator, char quoteChar, char escapeChar, int[] columns) {
+        this.lines = lines;
+        this.separator = separator;
+        this.quoteChar = quoteChar;
+        this.escapeChar = escapeChar;
+        this.quoting = quoteChar != MS_CSVReader.NO_CHARACTER;
+        this.escaping = escapeChar != MS_CSVReader.NO_CHARACTER;
+        if (columns == null) {
+            slots = null;
+            rowSize = 0;
+        } else {
+            int lastColumn = -1;
+            for (int column : columns)
+                lastColumn = Math.max(lastColumn, column);
+            slots = new int[lastColumn + 1];
+            for (int i = 0; i < slots.length; i++)
+                slots[i] = -1;
+            for (int i = 0; i < columns.length; i++)
+                slots[columns[i]] = i;
+            rowSize = columns.length;
+        }
+    }
+
+    /**
+     * Parses next record, which may span several lines if line break is quoted.
+     *
+     * @return row of record or null if there are no more records. Row is reused for the next record.
+     * @throws UncheckedIOException if file cannot be read.
+     */
+    MS_CSVRow next() throws UncheckedIOException {
+        row.reset(rowSize);
+        value.setLength(0);
+        column = 0;
+        columnSelected = isSelected(0);
+        inField = false;
+
+        boolean inQuotes = false;
+        CharSequence line;
+        while ((line = lines.nextLine()) != null) {
+            inQuotes = parseLine(line, inQuotes);
+            if (!inQuotes)
+                return row;
+        }
+        //record cut by the end of file keeps values, which were complete
+        return inQuotes && column > 0 ? row : null;
+    }
+
+    //*** Private methods ***
+
+    /**
+     * @return true if line ends inside of quoted value, so record continues in the next line.
+     */
+    private boolean parseLine(CharSequence line, boolean inQuotes) {
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (escaping && c == escapeChar) {
+                if ((inQuotes || inField) && i + 1 < length && isEscapable(line.charAt(i + 1)))
+                    append(line.charAt(++i));
+            } else if (quoting && c == quoteChar) {
+                if ((inQuotes || inField) && i + 1 < length && line.charAt(i + 1) == quoteChar) {
+                    append(line.charAt(++i)); //doubled quote
+                } else {
+                    //quote in the middle of value is kept as it is
+                    if (i > 2 && line.charAt(i - 1) != separator && i + 1 < length && line.charAt(i + 1) != separator) {
+                        if (value.length() > 0 && isBlank(value))
+                            value.setLength(0);
+                        else
+                            append(c);
+                    }
+                    inQuotes = !inQuotes;
+                }
+                inField = !inField;
+            } else if (c == separator && !inQuotes) {
+                endValue();
+                inField = false;
+            } else {
+                append(c);
+                inField = true;
+            }
+        }
+
+        if (inQuotes) {
+            append('\n');
+            return true;
+        }
+        endValue();
+        return false;
+    }
+
+    private boolean isEscapable(char c) {
+        return c == escapeChar || quoting && c == quoteChar;
+    }
+
+    private void append(char c) {
+        if (columnSelected)
+            value.append(c);
+    }
+
+    private void endValue() {
+        if (slots == null)
+            row.add(value.toString());
+        else if (columnSelected)
+            row.set(slots[column], value.toString());
+        value.setLength(0);
+        columnSelected = isSelected(++column);
+    }
+
+    private boolean isSelected(int column) {
+        return slots == null || column < slots.length && slots[column] >= 0;
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++)
+            if (!Character.isWhitespace(text.charAt(i)))
+                return false;
+        return true;
+    }
+}
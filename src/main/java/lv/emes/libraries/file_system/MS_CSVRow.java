@@ -0,0 +1,147 @@
+package lv.emes.libraries.file_system;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Row of CSV file read by {@link MS_CSVReader}. Values are accessed by their index in row: if reader is set to read
+ * only some columns (see {@link MS_CSVReader#withColumns(int...)}), index is position of column in that selection.
+ * <p>The same row object and its buffer of values are reused for every row of file (or of range of file, if file is
+ * read in parallel), so row must not be stored: convert it to object of your own or call {@link #toArray()}.
+ * <p>Public methods:
+ * <ul>
+ * <li>size</li>
+ * <li>getString</li>
+ * <li>getInt</li>
+ * <li>getLong</li>
+ * <li>getDouble</li>
+ * <li>getBoolean</li>
+ * <li>get</li>
+ * <li>toArray</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public final class MS_CSVRow {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] values = new String[INITIAL_CAPACITY];
+    private int size;
+
+    MS_CSVRow() {
+    }
+
+    /**
+     * @return count of values in row.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index index of value.
+     * @return value as it is in file or null if row is shorter than selected column.
+     * @throws IndexOutOfBoundsException if there is no value with such index.
+     */
+    public String getString(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size of row: " + size);
+        return values[index];
+    }
+
+    /**
+     * @param index index of value.
+     * @return value converted to integer. Surrounding whitespaces are ignored.
+     * @throws IndexOutOfBoundsException if there is no value with such index.
+     * @throws NumberFormatException     if value isn't integer.
+     */
+    public int getInt(int index) throws IndexOutOfBoundsException, NumberFormatException {
+        return Integer.parseInt(getTrimmed(index));
+    }
+
+    /**
+     * @param index index of value.
+     * @return value converted to long integer. Surrounding whitespaces are ignored.
+     * @throws IndexOutOfBoundsException if there is no value with such index.
+     * @throws NumberFormatException     if value isn't integer.
+     */
+    public long getLong(int index) throws IndexOutOfBoundsException, NumberFormatException {
+        return Long.parseLong(getTrimmed(index));
+    }
+
+    /**
+     * @param index index of value.
+     * @return value converted to double. Surrounding whitespaces are ignored.
+     * @throws IndexOutOfBoundsException if there is no value with such index.
+     * @throws NumberFormatException     if value isn't number.
+     */
+    public double getDouble(int index) throws IndexOutOfBoundsException, NumberFormatException {
+        String value = getTrimmed(index);
+        if (value == null)
+            throw new NumberFormatException("null");
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * @param index index of value.
+     * @return true if value is "true" ignoring case and surrounding whitespaces, otherwise false.
+     * @throws IndexOutOfBoundsException if there is no value with such index.
+     */
+    public boolean getBoolean(int index) throws IndexOutOfBoundsException {
+        return Boolean.parseBoolean(getTrimmed(index));
+    }
+
+    /**
+     * @param index     index of value.
+     * @param converter function to convert value (which can be null) to object of type <b>T</b>.
+     * @param <T>       type of converted value.
+     * @return converted value.
+     * @throws IndexOutOfBoundsException if there is no value with such index.
+     */
+    public <T> T get(int index, Function<String, T> converter) throws IndexOutOfBoundsException {
+        return converter.apply(getString(index));
+    }
+
+    /**
+     * @return copy of values of row, which can be stored.
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    //*** Package-private and private methods ***
+
+    /**
+     * Empties row for the next record of file.
+     *
+     * @param size count of values, which are initially null, or 0 if values are going to be added.
+     */
+    void reset(int size) {
+        if (values.length < size)
+            values = new String[size];
+        Arrays.fill(values, 0, Math.max(this.size, size), null);
+        this.size = size;
+    }
+
+    void add(String value) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    void set(int index, String value) {
+        values[index] = value;
+    }
+
+    private String getTrimmed(int index) {
+        String value = getString(index);
+        return value == null ? null : value.trim();
+    }
+}
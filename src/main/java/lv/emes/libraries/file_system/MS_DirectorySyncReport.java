@@ -0,0 +1,128 @@
+package lv.emes.libraries.file_system;
+
+/**
+ * Results of synchronization of directories by {@link MS_DirectorySynchronizer#synchronize()}.
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getCopiedFileCount</li>
+ * <li>getCopiedBytes</li>
+ * <li>getUnchangedFileCount</li>
+ * <li>getComparedBytes</li>
+ * <li>getDeletedCount</li>
+ * <li>getFailureCount</li>
+ * <li>getElapsedMillis</li>
+ * <li>getBytesPerSecond</li>
+ * <li>getFilesPerSecond</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public final class MS_DirectorySyncReport {
+
+    private final long copiedFileCount;
+    private final long copiedBytes;
+    private final long unchangedFileCount;
+    private final long comparedBytes;
+    private final long deletedCount;
+    private final long failureCount;
+    private final long elapsedNanos;
+
+    MS_DirectorySyncReport(long copiedFileCount, long copiedBytes, long unchangedFileCount, long comparedBytes,
+                           long deletedCount, long failureCount, long elapsedNanos) {
+        this.copiedFileCount = copiedFileCount;
+        this.copiedBytes = copiedBytes;
+        this.unchangedFileCount = unchangedFileCount;
+        this.comparedBytes = comparedBytes;
+        this.deletedCount = deletedCount;
+        this.failureCount = failureCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return count of files, which were new or changed, so they were copied.
+     */
+    public long getCopiedFileCount() {
+        return copiedFileCount;
+    }
+
+    /**
+     * @return total size in bytes of copied files.
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    /**
+     * @return count of files, which were the same in both directories, so they weren't copied.
+     */
+    public long getUnchangedFileCount() {
+        return unchangedFileCount;
+    }
+
+    /**
+     * @return count of bytes read to compare content of files (of both directories).
+     */
+    public long getComparedBytes() {
+        return comparedBytes;
+    }
+
+    /**
+     * @return count of files and directories deleted from destination, because they don't exist in source, or
+     * because they are of different type (file instead of directory or vice versa). Directory with all its content is
+     * counted as one.
+     */
+    public long getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * @return count of files and directories, which couldn't be read, copied or deleted. If it isn't 0,
+     * destination isn't fully synchronized.
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return duration of synchronization in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @return average count of copied bytes per second.
+     */
+    public double getBytesPerSecond() {
+        return perSecond(copiedBytes);
+    }
+
+    /**
+     * @return average count of processed (copied or found unchanged) files per second.
+     */
+    public double getFilesPerSecond() {
+        return perSecond(copiedFileCount + unchangedFileCount);
+    }
+
+    @Override
+    public String toString() {
+        return "MS_DirectorySyncReport{" +
+                "copiedFileCount=" + copiedFileCount +
+                ", copiedBytes=" + copiedBytes +
+                ", unchangedFileCount=" + unchangedFileCount +
+                ", comparedBytes=" + comparedBytes +
+                ", deletedCount=" + deletedCount +
+                ", failureCount=" + failureCount +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", bytesPerSecond=" + String.format("%.0f", getBytesPerSecond()) +
+                ", filesPerSecond=" + String.format("%.1f", getFilesPerSecond()) +
+                '}';
+    }
+
+    //*** Private methods ***
+
+    private double perSecond(long count) {
+        return elapsedNanos <= 0 ? 0 : count * 1_000_000_000d / elapsedNanos;
+    }
+}
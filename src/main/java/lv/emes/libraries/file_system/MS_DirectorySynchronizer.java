@@ -0,0 +1,346 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.tools.logging.MS_Log4Java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes destination directory the same as source directory, doing only work, which is needed:
+ * <ul>
+ * <li>files, which have the same size and time of last modification in both directories, are considered unchanged
+ * and aren't touched. Optionally content of files of the same size is compared by SHA-256 digests instead of
+ * trusting time of last modification;</li>
+ * <li>new and changed files are copied by {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which lets operating system copy data without passing it through Java heap. Every file is copied to temporary file
+ * next to it and then renamed over the old one, so destination never has partially copied file. Time of last
+ * modification is copied as well, so next synchronization finds file unchanged;</li>
+ * <li>files and directories, which don't exist in source, are deleted from destination (unless turned off).</li>
+ * </ul>
+ * Source tree is walked by {@link MS_ParallelFileTreeWalker}, and every file is compared and copied in separate
+ * task of its pool, so many files are processed at the same time even if they are in the same directory.
+ * <p>Files and directories, which cannot be read, copied or deleted, are logged and skipped, so one bad file doesn't
+ * stop synchronization of others; count of them is reported. Nothing is deleted from destination directories and
+ * files, which correspond to source directories and files, which couldn't be read, because their real content is
+ * unknown. Symbolic links of source aren't followed or copied.
+ * <p>Example:
+ * <pre><code>
+ *     MS_DirectorySyncReport report = new MS_DirectorySynchronizer("build/assets", "/srv/www/assets").synchronize();
+ * </code></pre>
+ * <p>Public methods:
+ * <ul>
+ * <li>synchronize</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withContentComparison</li>
+ * <li>withDeletion</li>
+ * <li>withPool</li>
+ * <li>getSource</li>
+ * <li>getDestination</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.1.
+ * @see MS_FileSystemTools#synchronizeDirectory(String, String)
+ */
+public class MS_DirectorySynchronizer {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+    private static final String TEMPORARY_FILE_SUFFIX = ".sync";
+
+    private final Path source;
+    private final Path destination;
+    private boolean contentCompared = false;
+    private boolean deletionEnabled = true;
+    private ForkJoinPool pool;
+
+    /**
+     * @param sourcePath      path to directory to copy from.
+     * @param destinationPath path to directory to copy to. It's created, if it doesn't exist.
+     * @throws MS_BadSetupException if one of directories is inside of the other one.
+     */
+    public MS_DirectorySynchronizer(String sourcePath, String destinationPath) throws MS_BadSetupException {
+        this.source = Paths.get(sourcePath).toAbsolutePath().normalize();
+        this.destination = Paths.get(destinationPath).toAbsolutePath().normalize();
+        if (source.startsWith(destination) || destination.startsWith(source))
+            throw new MS_BadSetupException("Directories cannot be inside of each other: '%s' and '%s'", source, destination);
+    }
+
+    /**
+     * Synchronizes directories.
+     *
+     * @return statistics of synchronization.
+     * @throws NotDirectoryException if source isn't a directory.
+     * @throws IOException           if source cannot be read or destination directory cannot be created.
+     */
+    public MS_DirectorySyncReport synchronize() throws IOException {
+        long startTime = System.nanoTime();
+        if (!Files.isDirectory(source))
+            throw new NotDirectoryException(source.toString());
+        Files.createDirectories(destination);
+
+        Statistics statistics = new Statistics();
+        Set<Path> sourceEntries = ConcurrentHashMap.newKeySet();
+        //entries, which couldn't be read, so their content in destination mustn't be deleted
+        Set<Path> unreadableEntries = ConcurrentHashMap.newKeySet();
+        Queue<ForkJoinTask<?>> fileTasks = new ConcurrentLinkedQueue<>();
+        walker(source).walk(new MS_ParallelFileTreeWalker.Visitor() {
+            @Override
+            public void visit(Path path, BasicFileAttributes attributes) {
+                Path relativePath = source.relativize(path);
+                sourceEntries.add(relativePath);
+                Path target = destination.resolve(relativePath);
+                if (attributes.isDirectory()) {
+                    //directory is visited before walker enters it, so it exists before its files are copied
+                    synchronizeDirectory(target, statistics);
+                } else if (attributes.isRegularFile()) {
+                    ForkJoinTask<?> task = ForkJoinTask.adapt(() -> synchronizeFile(path, attributes, target, statistics));
+                    if (ForkJoinTask.inForkJoinPool())
+                        fileTasks.add(task.fork());
+                    else
+                        task.invoke();
+                }
+            }
+
+            @Override
+            public void failed(Path path, IOException e) {
+                unreadableEntries.add(source.relativize(path));
+                statistics.failures.increment();
+            }
+        });
+        for (ForkJoinTask<?> task : fileTasks)
+            task.join();
+
+        if (deletionEnabled)
+            deleteExtraneousEntries(sourceEntries, unreadableEntries, statistics);
+
+        return new MS_DirectorySyncReport(statistics.copiedFiles.sum(), statistics.copiedBytes.sum(),
+                statistics.unchangedFiles.sum(), statistics.comparedBytes.sum(), statistics.deletions.sum(),
+                statistics.failures.sum(), System.nanoTime() - startTime);
+    }
+
+    //*** Setters and getters ***
+
+    /**
+     * @param contentCompared true to compare content of files of the same size instead of their time of last
+     *                        modification. It's slower, because both files are read, but finds changes, which
+     *                        didn't change time of modification, and doesn't copy files, which were only touched.
+     *                        Default is false.
+     * @return reference to synchronizer itself.
+     */
+    public MS_DirectorySynchronizer withContentComparison(boolean contentCompared) {
+        this.contentCompared = contentCompared;
+        return this;
+    }
+
+    /**
+     * @param deletionEnabled true to delete files and directories of destination, which don't exist in source.
+     *                        Default is true.
+     * @return reference to synchronizer itself.
+     */
+    public MS_DirectorySynchronizer withDeletion(boolean deletionEnabled) {
+        this.deletionEnabled = deletionEnabled;
+        return this;
+    }
+
+    /**
+     * @param pool pool to walk directories and copy files in. By default pool of {@link MS_ParallelFileTreeWalker}
+     *             is used.
+     * @return reference to synchronizer itself.
+     * @throws MS_BadSetupException if <b>pool</b> is <code>null</code>.
+     */
+    public MS_DirectorySynchronizer withPool(ForkJoinPool pool) throws MS_BadSetupException {
+        if (pool == null)
+            throw new MS_BadSetupException("Pool of synchronizer cannot be null");
+        this.pool = pool;
+        return this;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public Path getDestination() {
+        return destination;
+    }
+
+    //*** Private methods and classes ***
+
+    private static final class Statistics {
+        private final LongAdder copiedFiles = new LongAdder();
+        private final LongAdder copiedBytes = new LongAdder();
+        private final LongAdder unchangedFiles = new LongAdder();
+        private final LongAdder comparedBytes = new LongAdder();
+        private final LongAdder deletions = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+    }
+
+    private MS_ParallelFileTreeWalker walker(Path root) {
+        MS_ParallelFileTreeWalker walker = new MS_ParallelFileTreeWalker(root.toString()).withDirectoriesIncluded(true);
+        return pool == null ? walker : walker.withPool(pool);
+    }
+
+    private void synchronizeDirectory(Path target, Statistics statistics) {
+        try {
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS))
+                delete(target, false, statistics);
+            Files.createDirectories(target);
+        } catch (IOException e) {
+            skipped(target, e, statistics);
+        }
+    }
+
+    private void synchronizeFile(Path file, BasicFileAttributes attributes, Path target, Statistics statistics) {
+        try {
+            BasicFileAttributes targetAttributes = null;
+            try {
+                targetAttributes = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException ignored) {
+            }
+            if (targetAttributes != null && targetAttributes.isDirectory()) {
+                delete(target, true, statistics);
+                targetAttributes = null;
+            }
+            if (targetAttributes != null && isUnchanged(file, attributes, target, targetAttributes, statistics)) {
+                statistics.unchangedFiles.increment();
+                return;
+            }
+            statistics.copiedBytes.add(copy(file, attributes, target));
+            statistics.copiedFiles.increment();
+        } catch (IOException e) {
+            skipped(file, e, statistics);
+        }
+    }
+
+    private boolean isUnchanged(Path file, BasicFileAttributes attributes, Path target,
+                                BasicFileAttributes targetAttributes, Statistics statistics) throws IOException {
+        if (!targetAttributes.isRegularFile() || targetAttributes.size() != attributes.size())
+            return false;
+        boolean sameTime = targetAttributes.lastModifiedTime().toMillis() == attributes.lastModifiedTime().toMillis();
+        if (!contentCompared)
+            return sameTime;
+
+        boolean sameContent = Arrays.equals(digest(file), digest(target));
+        statistics.comparedBytes.add(attributes.size() * 2);
+        if (sameContent && !sameTime)
+            Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+        return sameContent;
+    }
+
+    /**
+     * @return count of copied bytes.
+     */
+    private static long copy(Path file, BasicFileAttributes attributes, Path target) throws IOException {
+        //not Files.createTempFile, which would make file readable only by its owner
+        Path temporaryFile = target.resolveSibling("." + target.getFileName() + "." +
+                Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMPORARY_FILE_SUFFIX);
+        try {
+            long copied;
+            try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel output = FileChannel.open(temporaryFile, StandardOpenOption.CREATE_NEW,
+                         StandardOpenOption.WRITE)) {
+                copied = MS_BinaryTools.copy(input, output);
+            }
+            Files.setLastModifiedTime(temporaryFile, attributes.lastModifiedTime());
+            MS_FileSync.move(temporaryFile, target);
+            return copied;
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static byte[] digest(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //every Java platform supports SHA-256
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Walks destination deleting everything, which doesn't exist in source. Directories, which don't exist in source,
+     * aren't entered, but deleted with all their content. Entries, which couldn't be read in source, and content of
+     * them aren't touched.
+     */
+    private void deleteExtraneousEntries(Set<Path> sourceEntries, Set<Path> unreadableEntries, Statistics statistics) {
+        if (unreadableEntries.contains(source.relativize(source)))
+            return; //source directory itself couldn't be listed
+        walker(destination)
+                .withDirectoryFilter(directory -> {
+                    Path relativePath = destination.relativize(directory);
+                    return sourceEntries.contains(relativePath) && !unreadableEntries.contains(relativePath);
+                })
+                .walk(new MS_ParallelFileTreeWalker.Visitor() {
+                    @Override
+                    public void visit(Path path, BasicFileAttributes attributes) {
+                        Path relativePath = destination.relativize(path);
+                        if (sourceEntries.contains(relativePath) || unreadableEntries.contains(relativePath))
+                            return;
+                        try {
+                            delete(path, attributes.isDirectory(), statistics);
+                        } catch (IOException e) {
+                            skipped(path, e, statistics);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Path path, IOException e) {
+                        statistics.failures.increment();
+                    }
+                });
+    }
+
+    private static void delete(Path path, boolean directory, Statistics statistics) throws IOException {
+        if (directory) {
+            if (!MS_FileSystemTools.deleteDirectory(path.toFile()))
+                throw new IOException("Directory cannot be deleted: " + path);
+        } else {
+            Files.deleteIfExists(path);
+        }
+        statistics.deletions.increment();
+    }
+
+    private void skipped(Path path, IOException e, Statistics statistics) {
+        MS_Log4Java.getLogger(MS_DirectorySynchronizer.class)
+                .warn(String.format("While synchronizing '%s' to '%s', skipped: '%s' (%s)", source, destination, path, e));
+        statistics.failures.increment();
+    }
+}
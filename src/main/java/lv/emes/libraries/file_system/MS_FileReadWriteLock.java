@@ -0,0 +1,222 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write lock of file, which is shared by threads of this JVM and by other processes on the same host.
+ * <p>Inside JVM threads are coordinated by {@link ReentrantReadWriteLock}: readers proceed in parallel, while
+ * writer waits in lock queue until all readers are gone, and waiting threads are woken up as soon as lock is
+ * released. Between processes advisory {@link FileLock} of separate lock file (file name with suffix <b>.lock</b>)
+ * is held: shared one while at least one thread of JVM reads, and exclusive one while thread writes. Lock file is
+ * opened only while lock is held, so it doesn't prevent deletion of directory between operations.
+ * <p>Lock file also holds version of file, which is incremented by every process, which locks file for writing.
+ * It allows to find out, if file was modified by other process since it was read last time. That's why lock file
+ * is never deleted: it stays next to file and must not be deleted while file is in use, only together with file.
+ * <p>There is single lock per file in JVM (see {@link #forFile(String)}), because JVM doesn't allow to acquire
+ * overlapping file locks through different channels. Registry of locks holds them weakly, so lock, which is no
+ * longer referenced by any user of file, is removed from registry. Lock is reentrant, and thread holding lock for writing can
+ * lock it for reading as well, but lock for reading cannot be upgraded to lock for writing.
+ *
+ * @author eMeS
+ * @version 1.2.
+ */
+final class MS_FileReadWriteLock {
+
+    private static final String LOCK_FILE_SUFFIX = ".lock";
+    private static final Map<Path, LockReference> LOCKS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<MS_FileReadWriteLock> UNUSED_LOCKS = new ReferenceQueue<>();
+
+    private final Path lockFile;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //guards file lock, which is shared by all reading threads
+    private final Object sharedLockMonitor = new Object();
+    private int sharedLockHolders;
+    private FileLock sharedLock;
+    private FileLock exclusiveLock;
+    private volatile long version;
+
+    private MS_FileReadWriteLock(Path lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    /**
+     * @param pathToFile path to locked file.
+     * @return lock of file, which is the same for every path pointing to the same file as long as lock is referenced.
+     */
+    static MS_FileReadWriteLock forFile(String pathToFile) {
+        removeUnusedLocks();
+        Path lockFile = Paths.get(pathToFile + LOCK_FILE_SUFFIX).toAbsolutePath().normalize();
+        MS_FileReadWriteLock[] res = {null};
+        LOCKS.compute(lockFile, (path, reference) -> {
+            res[0] = reference == null ? null : reference.get();
+            if (res[0] != null)
+                return reference;
+            res[0] = new MS_FileReadWriteLock(path);
+            return new LockReference(res[0]);
+        });
+        return res[0];
+    }
+
+    /**
+     * @return version of file, which was read from lock file, when the lock was acquired in this JVM last time.
+     * It's current only while the lock is held, otherwise it's the latest version seen by this JVM.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if current thread holds lock for writing.
+     */
+    boolean isLockedForWritingByCurrentThread() {
+        return lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Waits until no thread or process writes to file and locks it for reading.
+     *
+     * @throws MS_RepositoryDataExchangeException if lock file cannot be locked.
+     */
+    void lockForReading() throws MS_RepositoryDataExchangeException {
+        lock.readLock().lock();
+        if (lock.isWriteLockedByCurrentThread())
+            return; //exclusive file lock is already held
+        try {
+            synchronized (sharedLockMonitor) {
+                if (sharedLockHolders == 0)
+                    sharedLock = acquireFileLock(true);
+                sharedLockHolders++;
+            }
+        } catch (RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    void unlockForReading() throws MS_RepositoryDataExchangeException {
+        try {
+            if (!lock.isWriteLockedByCurrentThread()) {
+                synchronized (sharedLockMonitor) {
+                    if (--sharedLockHolders == 0) {
+                        FileLock released = sharedLock;
+                        sharedLock = null;
+                        releaseFileLock(released);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until no thread or process reads or writes file and locks it for writing.
+     *
+     * @throws MS_RepositoryDataExchangeException if lock file cannot be locked.
+     */
+    void lockForWriting() throws MS_RepositoryDataExchangeException {
+        lock.writeLock().lock();
+        if (lock.getWriteHoldCount() > 1)
+            return;
+        try {
+            exclusiveLock = acquireFileLock(false);
+        } catch (RuntimeException e) {
+            lock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    void unlockForWriting() throws MS_RepositoryDataExchangeException {
+        try {
+            if (lock.getWriteHoldCount() == 1) {
+                FileLock released = exclusiveLock;
+                exclusiveLock = null;
+                releaseFileLock(released);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //*** Private methods and classes ***
+
+    private static void removeUnusedLocks() {
+        Reference<? extends MS_FileReadWriteLock> reference;
+        while ((reference = UNUSED_LOCKS.poll()) != null) {
+            LockReference unused = (LockReference) reference;
+            //lock of the same file might be registered again meanwhile
+            LOCKS.remove(unused.lockFile, unused);
+        }
+    }
+
+    private FileLock acquireFileLock(boolean shared) throws MS_RepositoryDataExchangeException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            //blocks until other processes release their locks
+            FileLock fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+            long currentVersion = readVersion(channel);
+            if (!shared) {
+                currentVersion++;
+                ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, currentVersion);
+                while (buffer.hasRemaining())
+                    channel.write(buffer, buffer.position());
+            }
+            version = currentVersion;
+            return fileLock;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new MS_RepositoryDataExchangeException("Failed to lock file:\n" + lockFile, e);
+        }
+    }
+
+    private static long readVersion(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, buffer.position()) < 0)
+                return 0; //lock file is new
+        return buffer.getLong(0);
+    }
+
+    private void releaseFileLock(FileLock fileLock) throws MS_RepositoryDataExchangeException {
+        try {
+            fileLock.release();
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to release lock of file:\n" + lockFile, e);
+        } finally {
+            closeQuietly(fileLock.channel());
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class LockReference extends WeakReference<MS_FileReadWriteLock> {
+
+        private final Path lockFile;
+
+        LockReference(MS_FileReadWriteLock lock) {
+            super(lock, UNUSED_LOCKS);
+            this.lockFile = lock.lockFile;
+        }
+    }
+}
@@ -1,6 +1,33 @@
 package lv.emes.libraries.file_system;
 
 import lv.emes.libraries.storage.MS_Repository;
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static lv.emes.libraries.file_system.MS_FileSystemTools._SLASH;
 
@@ -8,23 +35,74 @@ import static lv.emes.libraries.file_system.MS_FileSystemTools._SLASH;
  * A repository for files of some type that are located in some file system.
  * Single file is stored and can be found by its short name + extension.
  * Describes, how file system repository should get initialized.
+ * <p>Files can be spread in sub-directories by hashes of item identifiers (see {@link MS_FileRepositorySetup}),
+ * so that directories stay small even with millions of items. Implementations should locate files of items by
+ * {@link #getPathToItem(String)} and {@link #createPathToItem(String)}.
+ * <p>Bulk operations (<b>findAll</b>, <b>putAll</b> and <b>removeAll</b> of presented identifiers) are split in
+ * chunks, which are processed in parallel by calling <b>doFind</b>, <b>doAdd</b> and <b>doRemove</b>, therefore
+ * these methods must allow to process different items at the same time (otherwise parallelism 1 must be set).
+ * Threads are taken from pool shared by all the file repositories, which size is bounded; chunks, which don't fit in
+ * queue of pool, are processed in calling thread. Before replacing or removing item bulk operations check only
+ * existence of its file ({@link #getPathToItem(String)}) without reading it.
+ * <p>Iteration (<b>stream</b>, <b>forEachItem</b>) and page lookups walk directories in order of file names and
+ * read files only of items that are requested, so just names of a single directory are held in memory at a time.
+ * Page lookup by <b>findPageAfter</b> descends directly to the directory of given item, so cost of page doesn't
+ * depend on its position in repository.
+ * <p>Public methods:
+ * <ul>
+ * <li>getPathToItem</li>
+ * <li>createPathToItem</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getPathToRepository</li>
+ * <li>getSetup</li>
+ * </ul>
  *
  * @param <T> type of items that will be stored in file repository
  *            (for example, text files, images, videos, etc.).
  * @author eMeS
- * @version 2.0.
+ * @version 2.3.
  */
 public abstract class MS_FileRepository<T> extends MS_Repository<T, String> {
 
+    //bulk operations with fewer items per thread are performed in calling thread
+    private static final int MINIMUM_ITEMS_PER_THREAD = 16;
+    private static final int MAX_QUEUED_CHUNKS = 1024;
+    //threads are shared by all the repositories, so their count is bounded
+    private static final ThreadPoolExecutor IO_EXECUTOR = newIoExecutor();
+
+    private final MS_FileRepositorySetup setup;
+    private final int shardDepth;
+    private final int shardFanOut;
+    private final int shardNameLength;
     private String pathToRepository;
 
     public MS_FileRepository(String repositoryRoot, String repositoryCategoryName) {
-        super(repositoryRoot, repositoryCategoryName);
-        pathToRepository = repositoryRoot + _SLASH + repositoryCategoryName + _SLASH;
+        this(repositoryRoot, repositoryCategoryName, new MS_FileRepositorySetup(), false);
     }
 
     public MS_FileRepository(String repositoryRoot, String repositoryCategoryName, boolean autoInitialize) {
-        this(repositoryRoot, repositoryCategoryName);
+        this(repositoryRoot, repositoryCategoryName, new MS_FileRepositorySetup(), autoInitialize);
+    }
+
+    /**
+     * @param repositoryRoot         root location of repository.
+     * @param repositoryCategoryName name of directory of repository in root location.
+     * @param setup                  setup of sharding and parallelism.
+     * @param autoInitialize         if true then repository will be initialized right after construction.
+     * @throws NullPointerException if <b>setup</b> is <code>null</code>.
+     */
+    public MS_FileRepository(String repositoryRoot, String repositoryCategoryName, MS_FileRepositorySetup setup, boolean autoInitialize) {
+        super(repositoryRoot, repositoryCategoryName);
+        if (setup == null)
+            throw new NullPointerException("File repository cannot be constructed, because setup is null");
+        this.setup = setup;
+        //layout of directories cannot change during lifetime of repository
+        shardDepth = setup.getShardDepth();
+        shardFanOut = setup.getShardFanOut();
+        shardNameLength = Integer.toHexString(shardFanOut - 1).length();
+        pathToRepository = repositoryRoot + _SLASH + repositoryCategoryName + _SLASH;
         if (autoInitialize)
             init();
     }
@@ -39,6 +117,130 @@ public abstract class MS_FileRepository<T> extends MS_Repository<T, String> {
         MS_FileSystemTools.createNewDirectory(pathToRepository);
     }
 
+    /**
+     * Finds all the items by listing files of repository and reading them in parallel.
+     * Override, if items can be read more effectively.
+     *
+     * @return all the items of repository.
+     */
+    @Override
+    protected Map<String, T> doFindAll() {
+        return doFindAll(listItemIdentifiers());
+    }
+
+    @Override
+    protected Map<String, T> doFindAll(Collection<String> identifiers) {
+        Map<String, T> res = new LinkedHashMap<>();
+        processInParallel(identifiers, chunk -> {
+            Map<String, T> found = new LinkedHashMap<>();
+            for (String identifier : chunk) {
+                T item = doFind(identifier);
+                if (item != null)
+                    found.put(identifier, item);
+            }
+            return found;
+        }).forEach(res::putAll);
+        return res;
+    }
+
+    @Override
+    protected Iterator<Map.Entry<String, T>> doIterate() {
+        IdentifierIterator identifiers = new IdentifierIterator(null);
+        return new Iterator<Map.Entry<String, T>>() {
+            private Map.Entry<String, T> next;
+
+            @Override
+            public boolean hasNext() {
+                //item might be removed after its file is listed
+                while (next == null && identifiers.hasNext()) {
+                    String identifier = identifiers.next();
+                    T item = doFind(identifier);
+                    if (item != null)
+                        next = new AbstractMap.SimpleImmutableEntry<>(identifier, item);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, T> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Map.Entry<String, T> res = next;
+                next = null;
+                return res;
+            }
+        };
+    }
+
+    /**
+     * Skips identifiers of previous pages without reading their files.
+     */
+    @Override
+    protected Map<String, T> doFindPage(int page, int size) {
+        IdentifierIterator identifiers = new IdentifierIterator(null);
+        for (long skipped = (long) (page - 1) * size; skipped > 0 && identifiers.hasNext(); skipped--)
+            identifiers.next();
+        return readPage(identifiers, size);
+    }
+
+    /**
+     * Items are ordered by directories and names of their files, so page continues right after position
+     * of <b>lastIdentifier</b> even if that item is already removed.
+     */
+    @Override
+    protected Map<String, T> doFindPageAfter(String lastIdentifier, int size) {
+        return readPage(new IdentifierIterator(lastIdentifier), size);
+    }
+
+    @Override
+    protected void doPutAll(Map<String, T> items) {
+        processInParallel(items.keySet(), chunk -> {
+            for (String identifier : chunk) {
+                if (itemFileExists(identifier))
+                    doRemove(identifier);
+                doAdd(identifier, items.get(identifier));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    protected void doRemoveAll(Collection<String> identifiers) {
+        processInParallel(identifiers, chunk -> {
+            for (String identifier : chunk) {
+                if (itemFileExists(identifier))
+                    doRemove(identifier);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    protected int doGetSize() {
+        return listItemIdentifiers().size();
+    }
+
+    /**
+     * @param identifier identifier of item.
+     * @return path to file of item.
+     */
+    public String getPathToItem(String identifier) {
+        return getPathToShard(identifier) + identifier;
+    }
+
+    /**
+     * Creates sub-directories of item's file, if they don't exist yet. Method should be used before writing file.
+     *
+     * @param identifier identifier of item.
+     * @return path to file of item.
+     */
+    public String createPathToItem(String identifier) {
+        String pathToShard = getPathToShard(identifier);
+        if (shardDepth > 0 && !MS_FileSystemTools.directoryExists(pathToShard))
+            MS_FileSystemTools.createNewDirectory(pathToShard);
+        return pathToShard + identifier;
+    }
+
     /**
      * @return path to file repository containing 2 slashes: first - after <b>repositoryRoot</b>; and
      * second - after <b>repositoryCategoryName</b>.
@@ -46,4 +248,240 @@ public abstract class MS_FileRepository<T> extends MS_Repository<T, String> {
     public String getPathToRepository() {
         return pathToRepository;
     }
+
+    public MS_FileRepositorySetup getSetup() {
+        return setup;
+    }
+
+    //*** Private and protected methods ***
+
+    /**
+     * @return identifiers of all the items, which files are stored in repository.
+     * @throws MS_RepositoryDataExchangeException if directories of repository cannot be listed.
+     */
+    protected List<String> listItemIdentifiers() throws MS_RepositoryDataExchangeException {
+        List<String> identifiers = new ArrayList<>();
+        collectItemIdentifiers(Paths.get(pathToRepository), shardDepth, identifiers);
+        return identifiers;
+    }
+
+    private void collectItemIdentifiers(Path directory, int remainingDepth, List<String> identifiers) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (remainingDepth > 0) {
+                    if (Files.isDirectory(entry))
+                        collectItemIdentifiers(entry, remainingDepth - 1, identifiers);
+                } else if (Files.isRegularFile(entry)) {
+                    identifiers.add(entry.getFileName().toString());
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+            //directory is removed meanwhile, so it has no items
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to list files of repository directory:\n" + directory, e);
+        }
+    }
+
+    private String getPathToShard(String identifier) {
+        StringBuilder path = new StringBuilder(pathToRepository);
+        for (String shardName : getShardNames(identifier))
+            path.append(shardName).append(_SLASH);
+        return path.toString();
+    }
+
+    /**
+     * @return names of sub-directories of item's file starting from the top one.
+     */
+    private String[] getShardNames(String identifier) {
+        String[] shardNames = new String[shardDepth];
+        long hash = mix(identifier.hashCode());
+        for (int level = 0; level < shardDepth; level++) {
+            StringBuilder shardName = new StringBuilder(shardNameLength);
+            String hexValue = Integer.toHexString((int) Long.remainderUnsigned(hash, shardFanOut));
+            for (int i = hexValue.length(); i < shardNameLength; i++)
+                shardName.append('0');
+            shardNames[level] = shardName.append(hexValue).toString();
+            hash = Long.divideUnsigned(hash, shardFanOut);
+        }
+        return shardNames;
+    }
+
+    /**
+     * Spreads bits of hash code, so that similar identifiers fall in different directories.
+     */
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Reads next <b>size</b> items in parallel. Identifiers of items removed after listing are skipped.
+     */
+    private Map<String, T> readPage(IdentifierIterator identifiers, int size) {
+        Map<String, T> res = new LinkedHashMap<>();
+        while (res.size() < size && identifiers.hasNext()) {
+            List<String> chunk = new ArrayList<>();
+            while (chunk.size() < size - res.size() && identifiers.hasNext())
+                chunk.add(identifiers.next());
+            res.putAll(doFindAll(chunk));
+        }
+        return res;
+    }
+
+    /**
+     * @param directories true to list sub-directories or false to list files.
+     * @return sorted names of directory entries.
+     */
+    private static String[] listSortedNames(Path directory, boolean directories) {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (directories ? Files.isDirectory(entry) : Files.isRegularFile(entry))
+                    names.add(entry.getFileName().toString());
+            }
+        } catch (NoSuchFileException ignored) {
+            //directory is removed meanwhile, so it has no items
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to list files of repository directory:\n" + directory, e);
+        }
+        String[] res = names.toArray(new String[0]);
+        Arrays.sort(res);
+        return res;
+    }
+
+    private static ThreadPoolExecutor newIoExecutor() {
+        int threadCount = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED_CHUNKS),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "MS_FileRepository bulk operation #" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                //calling thread waits for chunks anyway, so it processes chunk itself instead of queueing it
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private boolean itemFileExists(String identifier) {
+        return Files.exists(Paths.get(getPathToItem(identifier)));
+    }
+
+    /**
+     * Splits identifiers in chunks and processes every chunk in separate thread. Small batches are processed
+     * in calling thread.
+     *
+     * @return results of chunks in order of <b>identifiers</b>.
+     */
+    private <R> List<R> processInParallel(Collection<String> identifiers, Function<List<String>, R> chunkProcessor) {
+        List<String> all = new ArrayList<>(identifiers);
+        int threadCount = Math.min(setup.getParallelism(), all.size() / MINIMUM_ITEMS_PER_THREAD);
+        if (threadCount <= 1)
+            return Collections.singletonList(chunkProcessor.apply(all));
+
+        int chunkSize = (all.size() + threadCount - 1) / threadCount;
+        List<Future<R>> chunks = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += chunkSize) {
+            List<String> chunk = all.subList(from, Math.min(from + chunkSize, all.size()));
+            chunks.add(IO_EXECUTOR.submit(() -> chunkProcessor.apply(chunk)));
+        }
+        List<R> results = new ArrayList<>();
+        try {
+            for (Future<R> chunk : chunks)
+                results.add(chunk.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MS_RepositoryDataExchangeException("Thread was interrupted while waiting for bulk operation", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new MS_RepositoryDataExchangeException("Bulk operation failed", e.getCause());
+        } finally {
+            chunks.forEach(chunk -> chunk.cancel(true));
+        }
+    }
+
+    /**
+     * Walks directories of repository depth-first in order of entry names and returns names of item files.
+     * Directory is listed only when walk reaches it.
+     */
+    private final class IdentifierIterator implements Iterator<String> {
+
+        private final Deque<Level> levels = new ArrayDeque<>();
+        private String next;
+
+        /**
+         * @param lastIdentifier identifier, which position is skipped to, or null to start from the beginning.
+         */
+        IdentifierIterator(String lastIdentifier) {
+            descend(Paths.get(pathToRepository), 0,
+                    lastIdentifier == null ? null : getShardNames(lastIdentifier), lastIdentifier);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !levels.isEmpty()) {
+                Level level = levels.peek();
+                if (level.position == level.names.length) {
+                    levels.pop();
+                    continue;
+                }
+                String name = level.names[level.position++];
+                if (level.depth == shardDepth)
+                    next = name;
+                else
+                    descend(level.directory.resolve(name), level.depth + 1, null, null);
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            String res = next;
+            next = null;
+            return res;
+        }
+
+        /**
+         * Lists directory and, if position of <b>lastIdentifier</b> is sought, skips entries before it.
+         * Directory of that position is entered right away.
+         */
+        private void descend(Path directory, int depth, String[] shardNames, String lastIdentifier) {
+            Level level = new Level(directory, depth, listSortedNames(directory, depth < shardDepth));
+            boolean descendToSoughtShard = false;
+            if (lastIdentifier != null) {
+                String sought = depth < shardDepth ? shardNames[depth] : lastIdentifier;
+                int found = Arrays.binarySearch(level.names, sought);
+                if (found >= 0) {
+                    level.position = found + 1;
+                    descendToSoughtShard = depth < shardDepth;
+                } else {
+                    level.position = -found - 1;
+                }
+            }
+            levels.push(level);
+            if (descendToSoughtShard)
+                descend(directory.resolve(level.names[level.position - 1]), depth + 1, shardNames, lastIdentifier);
+        }
+    }
+
+    private static final class Level {
+
+        private final Path directory;
+        private final int depth;
+        private final String[] names;
+        private int position;
+
+        Level(Path directory, int depth, String[] names) {
+            this.directory = directory;
+            this.depth = depth;
+            this.names = names;
+        }
+    }
 }
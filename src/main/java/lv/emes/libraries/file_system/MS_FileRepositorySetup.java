@@ -0,0 +1,85 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+/**
+ * A setup of file repository ({@link MS_FileRepository}). Holds information about:
+ * <ul>
+ * <li>depth of sharding - count of levels of sub-directories, in which files of items are spread by hashes of
+ * their identifiers. 0 means that all the files are stored directly in directory of repository;</li>
+ * <li>fan-out of sharding - count of sub-directories at every level;</li>
+ * <li>parallelism - maximum count of threads, which read or write files of single bulk operation.</li>
+ * </ul>
+ * For example, depth 2 with fan-out 256 spreads million items to 65536 directories with ~15 files in each.
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withShardDepth</li>
+ * <li>withShardFanOut</li>
+ * <li>withParallelism</li>
+ * <li>getShardDepth</li>
+ * <li>getShardFanOut</li>
+ * <li>getParallelism</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_FileRepositorySetup {
+
+    public static final int _MAX_SHARD_DEPTH = 4;
+    public static final int _MAX_SHARD_FAN_OUT = 4096;
+    public static final int _DEFAULT_SHARD_FAN_OUT = 256;
+
+    private int shardDepth = 0;
+    private int shardFanOut = _DEFAULT_SHARD_FAN_OUT;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param shardDepth count of levels of sub-directories (0.._MAX_SHARD_DEPTH).
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>shardDepth</b> is out of range.
+     */
+    public MS_FileRepositorySetup withShardDepth(int shardDepth) {
+        if (shardDepth < 0 || shardDepth > _MAX_SHARD_DEPTH)
+            throw new MS_BadSetupException("Shard depth must be in range [0, %d]. Given: %d", _MAX_SHARD_DEPTH, shardDepth);
+        this.shardDepth = shardDepth;
+        return this;
+    }
+
+    /**
+     * @param shardFanOut count of sub-directories at every level (2.._MAX_SHARD_FAN_OUT).
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>shardFanOut</b> is out of range.
+     */
+    public MS_FileRepositorySetup withShardFanOut(int shardFanOut) {
+        if (shardFanOut < 2 || shardFanOut > _MAX_SHARD_FAN_OUT)
+            throw new MS_BadSetupException("Shard fan-out must be in range [2, %d]. Given: %d", _MAX_SHARD_FAN_OUT, shardFanOut);
+        this.shardFanOut = shardFanOut;
+        return this;
+    }
+
+    /**
+     * @param parallelism maximum count of threads of single bulk operation. 1 means that bulk operations are
+     *                    performed in calling thread.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>parallelism</b> is less than 1.
+     */
+    public MS_FileRepositorySetup withParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new MS_BadSetupException("Parallelism must be positive. Given: %d", parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getShardDepth() {
+        return shardDepth;
+    }
+
+    public int getShardFanOut() {
+        return shardFanOut;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+}
@@ -0,0 +1,160 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes files of text file repositories according to policy of forcing data to storage device
+ * ({@link MS_FileSyncPolicyEnum}).
+ * <p>Whole file is replaced atomically: content is written to temporary file, which is then renamed to target file.
+ * Readers see either old or new content, and crash of process during write never leaves partially written file.
+ * Guarantees after crash of operating system or power loss depend on policy:
+ * <ul>
+ * <li>{@link MS_FileSyncPolicyEnum#ALWAYS} - temporary file is forced before renaming and directory after it, so
+ * file holds either old or new content;</li>
+ * <li>{@link MS_FileSyncPolicyEnum#BATCHED} - file and directory are forced in background thread after renaming,
+ * and any count of writes to the same file within single delay are forced by single sync. File replaced within
+ * the last delay before crash can be left empty or partially written, depending on file system;</li>
+ * <li>{@link MS_FileSyncPolicyEnum#OS} - nothing is forced, so any file replaced before operating system wrote it
+ * to device can be left empty or partially written, depending on file system.</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.1.
+ */
+final class MS_FileSync {
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ScheduledExecutorService SYNC_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MS_FileSync background sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //files, which background sync is scheduled for
+    private static final Map<Path, Boolean> SCHEDULED_FILES = new ConcurrentHashMap<>();
+
+    private MS_FileSync() {
+    }
+
+    @FunctionalInterface
+    interface IFuncContentWriter {
+        void write(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Replaces content of file atomically. Caller must have exclusive access to file.
+     *
+     * @param path   path to file.
+     * @param setup  setup of repository, which holds sync policy.
+     * @param writer writer of new content.
+     * @throws MS_RepositoryDataExchangeException if file cannot be written.
+     */
+    static void replace(Path path, MS_TextFileRepositorySetup setup, IFuncContentWriter writer)
+            throws MS_RepositoryDataExchangeException {
+        Path temporaryPath = Paths.get(path + TEMPORARY_FILE_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                writer.write(output);
+                output.flush();
+                //otherwise after crash of system renamed file could be empty
+                if (setup.getSyncPolicy() == MS_FileSyncPolicyEnum.ALWAYS)
+                    channel.force(true);
+            }
+            move(temporaryPath, path);
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to write to file:\n" + path, e);
+        } finally {
+            try {
+                Files.deleteIfExists(temporaryPath);
+            } catch (IOException ignored) {
+            }
+        }
+        if (setup.getSyncPolicy() == MS_FileSyncPolicyEnum.ALWAYS)
+            forceDirectory(path);
+        else if (setup.getSyncPolicy() == MS_FileSyncPolicyEnum.BATCHED)
+            scheduleSync(path, setup.getGroupCommitWindow());
+    }
+
+    /**
+     * Forces data written to file through <b>channel</b> according to policy.
+     *
+     * @param path    path to file.
+     * @param channel open channel of file.
+     * @param setup   setup of repository, which holds sync policy.
+     * @throws MS_RepositoryDataExchangeException if data cannot be forced to storage device.
+     */
+    static void written(Path path, FileChannel channel, MS_TextFileRepositorySetup setup)
+            throws MS_RepositoryDataExchangeException {
+        if (setup.getSyncPolicy() == MS_FileSyncPolicyEnum.ALWAYS) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new MS_RepositoryDataExchangeException("Failed to force data to storage device for file:\n" + path, e);
+            }
+        } else if (setup.getSyncPolicy() == MS_FileSyncPolicyEnum.BATCHED) {
+            scheduleSync(path, setup.getGroupCommitWindow());
+        }
+    }
+
+    /**
+     * Renames <b>source</b> to <b>target</b> replacing it atomically, if file system supports it.
+     */
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //*** Private methods ***
+
+    private static void scheduleSync(Path path, long delay) {
+        if (SCHEDULED_FILES.putIfAbsent(path, Boolean.TRUE) == null) {
+            SYNC_EXECUTOR.schedule(() -> {
+                //writes after this point schedule another sync
+                SCHEDULED_FILES.remove(path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                } catch (NoSuchFileException ignored) {
+                    //file is removed meanwhile
+                } catch (IOException ignored) {
+                    //there is nobody to report to; next write will try again
+                }
+                forceDirectory(path);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forces renaming of file. Not every platform allows to open directory, so it's done on best effort basis.
+     */
+    private static void forceDirectory(Path path) {
+        Path directory = path.toAbsolutePath().getParent();
+        if (directory == null) return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package lv.emes.libraries.file_system;
+
+/**
+ * Enum of policies, when text file repositories force written data to storage device (fsync).
+ * <ul>
+ * <li>ALWAYS - every write is forced before modifying method returns. Nothing is lost after crash of system, but
+ * every modification waits for device. Group commit ({@link MS_TextToFileRepository#commitAddition(boolean)})
+ * forces file only once per whole group;</li>
+ * <li>BATCHED - writes are forced in background at most once per group commit window
+ * ({@link MS_TextFileRepositorySetup#withGroupCommitWindow(long)}), so crash of system can lose only writes of
+ * the last window. File, which is rewritten as whole within that window, can be left empty or partially written;</li>
+ * <li>OS - writes are never forced explicitly, operating system decides, when to write them to device. Crash of
+ * system can lose any write, which isn't on device yet, and leave rewritten file empty or partially written.</li>
+ * </ul>
+ * Crash of process alone never loses written data, because data is handed to operating system before modifying
+ * method returns.
+ *
+ * @author eMeS
+ * @version 1.1.
+ * @see MS_TextFileRepositorySetup
+ */
+public enum MS_FileSyncPolicyEnum {
+
+    ALWAYS, BATCHED, OS
+}
@@ -16,9 +16,7 @@ Copyright [2016] [Māris Salenieks]
         limitations under the License.
  */
 
-import au.com.bytecode.opencsv.CSVReader;
 import lv.emes.libraries.tools.lists.MS_StringList;
-import lv.emes.libraries.tools.logging.MS_Log4Java;
 import lv.emes.libraries.utilities.MS_StringUtils;
 import org.apache.commons.io.FileUtils;
 
@@ -26,12 +24,11 @@ import java.awt.*;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Different transformations and actions related with OS file system.
@@ -58,7 +55,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * <li>extractResourceToTmpFolder</li>
  * </ul>
  *
- * @version 2.0.
+ * @version 2.1.
  * @since 1.1.1
  */
 public class MS_FileSystemTools {
@@ -447,6 +444,21 @@ public class MS_FileSystemTools {
         }
     }
 
+    /**
+     * Makes <b>destPath</b> directory the same as <b>sourcePath</b> directory. As a difference from
+     * {@link #copyFileOrDirectory(String, String)}, only new and changed files are copied (in parallel), and files
+     * that don't exist in source are deleted. Files are compared by size and time of last modification.
+     * Use {@link MS_DirectorySynchronizer} directly to set up synchronization differently.
+     *
+     * @param sourcePath path of directory that needs to be copied.
+     * @param destPath   path of directory to copy to. If it doesn't exist, it's created.
+     * @return statistics of synchronization, including count of files, which failed to be copied or deleted.
+     * @throws IOException if source isn't a directory or destination directory cannot be created.
+     */
+    public static MS_DirectorySyncReport synchronizeDirectory(String sourcePath, String destPath) throws IOException {
+        return new MS_DirectorySynchronizer(sourcePath, destPath).synchronize();
+    }
+
     /**
      * Returns 1 level upper parent directory of passed directory.
      * If passed directory was already a root directory then returns empty string.
@@ -468,16 +480,7 @@ public class MS_FileSystemTools {
      * @return list of filename with full file paths.
      */
     public static MS_StringList getDirectoryFileList(String pathToDir) {
-        MS_StringList res = new MS_StringList();
-        File dir = new File(pathToDir);
-        File[] filesList = dir.listFiles();
-        if (filesList != null)
-            for (File file : filesList) {
-                if (file.isFile()) {
-                    res.add(replaceBackslash(file.getAbsolutePath()));
-                }
-            }
-        return res;
+        return listDirectory(pathToDir, Files::isRegularFile, file -> file.toAbsolutePath().toString());
     }
 
     /**
@@ -487,20 +490,12 @@ public class MS_FileSystemTools {
      * @return list of short filenames.
      */
     public static MS_StringList getDirectoryFileList_Shortnames(String pathToDir) {
-        MS_StringList res = new MS_StringList();
-        File dir = new File(pathToDir);
-        File[] filesList = dir.listFiles();
-        if (filesList != null)
-            for (File file : filesList) {
-                if (file.isFile()) {
-                    res.add(replaceBackslash(file.getName()));
-                }
-            }
-        return res;
+        return listDirectory(pathToDir, Files::isRegularFile, file -> file.getFileName().toString());
     }
 
     /**
-     * Calculates total size of file or directory in bytes.
+     * Calculates total size of file or directory in bytes. Directory tree is walked in parallel
+     * (see {@link MS_ParallelFileTreeWalker}).
      * <p><u>Warning</u>: this method doesn't throw any exception in case it couldn't enter some directory
      * or had trouble traversing. Instead it's logging to Log4J failing file or directory name.
      * In this failing case result might be inaccurate.
@@ -511,36 +506,7 @@ public class MS_FileSystemTools {
      * @return file size in bytes or <code>0L</code> if the file or directory does not exist.
      */
     public static long getFileOrDirectorySize(String path) {
-        final AtomicLong res = new AtomicLong(0);
-        try {
-            Files.walkFileTree(Paths.get(path), new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    res.addAndGet(attrs.size());
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                    MS_Log4Java.getLogger(MS_FileSystemTools.class)
-                            .warn(String.format("While getting '%s' size, skipped: '%s' (%s)", path, file, exc));
-                    // Skip folders that can't be traversed
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
-                    if (exc != null)
-                        MS_Log4Java.getLogger(MS_FileSystemTools.class)
-                                .warn(String.format("While getting '%s' size, had trouble traversing: '%s' (%s)", path, dir, exc));
-                    // Ignore errors traversing a folder
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            throw new AssertionError("walkFileTree will not throw IOException if the FileVisitor does not");
-        }
-        return res.get();
+        return new MS_ParallelFileTreeWalker(path).summarize().getTotalSize();
     }
 
     /**
@@ -550,16 +516,7 @@ public class MS_FileSystemTools {
      * @return list of short directory names.
      */
     public static MS_StringList getDirectoryFileList_Directories(String pathToDir) {
-        MS_StringList res = new MS_StringList();
-        File dir = new File(pathToDir);
-        File[] filesList = dir.listFiles();
-        if (filesList != null)
-            for (File file : filesList) {
-                if (file.isDirectory()) {
-                    res.add(replaceBackslash(file.getName()));
-                }
-            }
-        return res;
+        return listDirectory(pathToDir, Files::isDirectory, directory -> directory.getFileName().toString());
     }
 
     /**
@@ -620,6 +577,7 @@ public class MS_FileSystemTools {
     /**
      * Opens <b>elementSeparator</b> separated UTF-8 encoded file, reads its content and stores in list of String array with element size matching
      * element count in each of read lines.
+     * <p>Whole file is kept in memory, so use {@link MS_CSVReader} to stream rows of large file instead.
      *
      * @param pathToFile       full CSV filename.
      * @param elementSeparator the delimiter to use for separating entries (elements).
@@ -633,23 +591,7 @@ public class MS_FileSystemTools {
      *                     </ul>
      */
     public static List<String[]> loadCSVFile(String pathToFile, char elementSeparator, char quoteChar) throws IOException {
-        List<String[]> fileContent = new ArrayList<>();
-        File readerFile;
-        CSVReader reader = null;
-        String[] line; //all the CSV values for single line of file
-
-        try {
-            readerFile = new File(pathToFile);
-            reader = new CSVReader(
-                    new InputStreamReader(new FileInputStream(readerFile.getAbsolutePath()), StandardCharsets.UTF_8),
-                    elementSeparator, quoteChar, 0);
-            while ((line = reader.readNext()) != null) fileContent.add(line);
-            return fileContent;
-        } finally {
-            if (reader != null) {
-                reader.close();
-            }
-        }
+        return new MS_CSVReader(pathToFile).withSeparator(elementSeparator).withQuoteChar(quoteChar).readAll();
     }
 
     /**
@@ -684,4 +626,23 @@ public class MS_FileSystemTools {
     public static List<String[]> loadCSVFile(String pathToFile) throws IOException {
         return loadCSVFile(pathToFile, ',', '\0');
     }
-}
\ No newline at end of file
+
+    //*** Private methods ***
+
+    /**
+     * Lists entries of directory (symbolic links are resolved like {@link File#isFile()} does).
+     */
+    private static MS_StringList listDirectory(String pathToDir, Predicate<Path> filter, Function<Path, String> toName) {
+        MS_StringList res = new MS_StringList();
+        if (!directoryExists(pathToDir))
+            return res;
+        try (Stream<Path> entries = new MS_ParallelFileTreeWalker(pathToDir)
+                .withMaxDepth(1)
+                .withDirectoriesIncluded(true)
+                .withFilter(filter)
+                .stream()) {
+            entries.forEach(entry -> res.add(replaceBackslash(toName.apply(entry))));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,67 @@
+package lv.emes.libraries.file_system;
+
+/**
+ * Aggregated results of walk of file tree by {@link MS_ParallelFileTreeWalker#summarize()}.
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getTotalSize</li>
+ * <li>getFileCount</li>
+ * <li>getDirectoryCount</li>
+ * <li>getFailureCount</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public final class MS_FileTreeSummary {
+
+    private final long totalSize;
+    private final long fileCount;
+    private final long directoryCount;
+    private final long failureCount;
+
+    MS_FileTreeSummary(long totalSize, long fileCount, long directoryCount, long failureCount) {
+        this.totalSize = totalSize;
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+        this.failureCount = failureCount;
+    }
+
+    /**
+     * @return total size in bytes of files, which match filter of walker.
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return count of files (everything that isn't directory), which match filter of walker.
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return count of directories, which were entered during walk (root directory isn't counted).
+     */
+    public long getDirectoryCount() {
+        return directoryCount;
+    }
+
+    /**
+     * @return count of files and directories, which couldn't be read. If it isn't 0, other results might be inaccurate.
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MS_FileTreeSummary{" +
+                "totalSize=" + totalSize +
+                ", fileCount=" + fileCount +
+                ", directoryCount=" + directoryCount +
+                ", failureCount=" + failureCount +
+                '}';
+    }
+}
@@ -0,0 +1,160 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects batches committed by different threads to groups, so that every group is written to file at once.
+ * <p>The first thread, which submits batch while no group is being written, becomes leader: it waits until window
+ * of group commit ends or enough records are collected, then writes whole group and wakes up threads of its batches.
+ * Batches submitted while group is being written form next group, which is written by thread of its first batch.
+ * So commit of batch waits for at most one window and two writes, while under high concurrency every write
+ * (and every forcing of file to storage device) serves many threads.
+ * <p>Batches are written in order they are submitted. If write of group fails, every batch of group fails.
+ * <p>Usage:
+ * <ol>
+ * <li>submit batch, when its content is fixed;</li>
+ * <li>call <b>await</b> with returned ticket, which returns after batch is written.</li>
+ * </ol>
+ * Submitting and awaiting are separate steps, so caller can submit batch while holding its own lock
+ * (keeping batches ordered) and await after releasing it.
+ *
+ * @param <T> type of batches.
+ * @author eMeS
+ * @version 1.0.
+ */
+final class MS_GroupCommitWriter<T> {
+
+    private final long windowNanos;
+    private final int maxRecords;
+    private final Consumer<List<T>> groupWriter;
+    private final Object monitor = new Object();
+    private List<Ticket<T>> queue = new ArrayList<>();
+    private int queuedRecords;
+    private boolean leaderActive;
+
+    /**
+     * @param windowMillis maximum time in milliseconds, during which batches are collected to group.
+     * @param maxRecords   count of records, after which group is written without waiting for the end of window.
+     * @param groupWriter  writer of group of batches. It's called by one thread at a time.
+     */
+    MS_GroupCommitWriter(long windowMillis, int maxRecords, Consumer<List<T>> groupWriter) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxRecords = maxRecords;
+        this.groupWriter = groupWriter;
+    }
+
+    /**
+     * Queues batch for writing.
+     *
+     * @param batch       batch to write.
+     * @param recordCount count of records in batch.
+     * @return ticket, which must be passed to {@link #await(Ticket)}.
+     */
+    Ticket<T> submit(T batch, int recordCount) {
+        Ticket<T> ticket = new Ticket<>(batch);
+        synchronized (monitor) {
+            queue.add(ticket);
+            queuedRecords += recordCount;
+            if (!leaderActive) {
+                leaderActive = true;
+                ticket.leader = true;
+            } else if (queuedRecords >= maxRecords) {
+                monitor.notifyAll(); //leader may be waiting for the end of window
+            }
+        }
+        return ticket;
+    }
+
+    /**
+     * Waits until batch of <b>ticket</b> is written. If current thread becomes leader, it writes the group itself.
+     *
+     * @param ticket ticket of submitted batch.
+     * @throws MS_RepositoryDataExchangeException if group of batch cannot be written.
+     */
+    void await(Ticket<T> ticket) throws MS_RepositoryDataExchangeException {
+        boolean interrupted = false;
+        synchronized (monitor) {
+            //batch is already queued, so it cannot be abandoned by interruption
+            while (!ticket.leader && !ticket.done) {
+                try {
+                    monitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (!ticket.done)
+            interrupted |= writeGroup();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        Throwable failure = ticket.failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+    }
+
+    //*** Private methods and classes ***
+
+    static final class Ticket<T> {
+        private final T batch;
+        //fields below are guarded by monitor of writer
+        private boolean leader;
+        private boolean done;
+        private Throwable failure;
+
+        private Ticket(T batch) {
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * @return true if thread was interrupted while waiting for the end of window.
+     */
+    private boolean writeGroup() {
+        boolean interrupted = false;
+        List<Ticket<T>> group;
+        synchronized (monitor) {
+            long deadline = System.nanoTime() + windowNanos;
+            long remaining;
+            while (!interrupted && queuedRecords < maxRecords && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true; //write group without waiting any longer
+                }
+            }
+            group = queue;
+            queue = new ArrayList<>();
+            queuedRecords = 0;
+        }
+
+        Throwable failure = null;
+        try {
+            List<T> batches = new ArrayList<>(group.size());
+            group.forEach(ticket -> batches.add(ticket.batch));
+            groupWriter.accept(batches);
+        } catch (Throwable e) {
+            failure = e;
+        }
+
+        synchronized (monitor) {
+            for (Ticket<T> ticket : group) {
+                ticket.done = true;
+                ticket.failure = failure;
+            }
+            if (queue.isEmpty())
+                leaderActive = false;
+            else
+                queue.get(0).leader = true;
+            monitor.notifyAll();
+        }
+        return interrupted;
+    }
+}
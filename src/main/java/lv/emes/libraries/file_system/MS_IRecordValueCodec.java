@@ -0,0 +1,42 @@
+package lv.emes.libraries.file_system;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values of records to bytes and back, when records are stored in binary format
+ * ({@link MS_RecordFormatEnum#BINARY}). For example, codec can compress or encrypt values.
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public interface MS_IRecordValueCodec {
+
+    /**
+     * Codec, which stores values as UTF-8 bytes.
+     */
+    MS_IRecordValueCodec _UTF_8 = new MS_IRecordValueCodec() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes, int offset, int length) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * @param value value of record.
+     * @return bytes to store.
+     */
+    byte[] encode(String value);
+
+    /**
+     * @param bytes  array, which contains encoded value.
+     * @param offset position of the first byte of value in <b>bytes</b>.
+     * @param length count of bytes of value.
+     * @return decoded value.
+     */
+    String decode(byte[] bytes, int offset, int length);
+}
@@ -0,0 +1,182 @@
+package lv.emes.libraries.file_system;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator of lines of file, which can be split to byte ranges aligned to line boundaries, so that parallel stream
+ * decodes every range in separate task of fork-join pool.
+ * <p>Range is split in the middle: the first line feed after middle becomes boundary, so no line is cut in two.
+ * Such split is valid only for charsets, which encode line feed as single byte, which never occurs inside of other
+ * characters (for example, UTF-8 or any single byte charset). File in other charset (for example, UTF-16) isn't split
+ * and it's read sequentially.
+ * <p>Ranges are read by positional reads of the same channel, so they don't interfere with each other. Every range
+ * is decoded by {@link MS_LineSpliterator}.
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_TextFile#parallelLines()
+ */
+final class MS_LineRangeSpliterator implements Spliterator<String> {
+
+    //smaller ranges cost more to find their boundaries than to decode them in the same task
+    static final long MINIMUM_RANGE_SIZE = 1024 * 1024;
+    private static final byte LINE_FEED = '\n';
+    private static final int BOUNDARY_SEARCH_BUFFER_SIZE = 4 * 1024;
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final boolean splittable;
+    private final long minimumRangeSize;
+    private long start;
+    private final long end;
+    //null until traversal starts; range cannot be split after that
+    private MS_LineSpliterator lines;
+
+    /**
+     * @param channel          channel of file. It isn't closed by spliterator.
+     * @param charset          charset of file.
+     * @param minimumRangeSize ranges smaller than this count of bytes aren't split.
+     * @throws UncheckedIOException if size of file cannot be determined.
+     */
+    MS_LineRangeSpliterator(FileChannel channel, Charset charset, long minimumRangeSize) throws UncheckedIOException {
+        this(channel, charset, isSplittable(charset), minimumRangeSize, 0, sizeOf(channel));
+    }
+
+    private MS_LineRangeSpliterator(FileChannel channel, Charset charset, boolean splittable, long minimumRangeSize,
+                                    long start, long end) {
+        this.channel = channel;
+        this.charset = charset;
+        this.splittable = splittable;
+        this.minimumRangeSize = minimumRangeSize;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        if (lines == null)
+            lines = new MS_LineSpliterator(new RangeChannel(channel, start, end), charset);
+        return lines.tryAdvance(action);
+    }
+
+    /**
+     * @return spliterator of the first half of range, while this one continues with the second half.
+     * @throws UncheckedIOException if file cannot be read.
+     */
+    @Override
+    public Spliterator<String> trySplit() throws UncheckedIOException {
+        if (!splittable || lines != null || end - start < minimumRangeSize * 2)
+            return null;
+        long boundary = findLineStart(channel, start + (end - start) / 2, end);
+        if (boundary >= end)
+            return null; //the rest of range is single line
+        Spliterator<String> prefix = new MS_LineRangeSpliterator(channel, charset, true, minimumRangeSize, start, boundary);
+        start = boundary;
+        return prefix;
+    }
+
+    /**
+     * @return count of bytes in range, which is the upper bound of count of lines.
+     */
+    @Override
+    public long estimateSize() {
+        return end - start;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    //*** Package-private and private methods and classes ***
+
+    static boolean isSplittable(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII) ||
+                charset.equals(StandardCharsets.ISO_8859_1))
+            return true;
+        //in single byte charsets every byte is separate character
+        return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1 &&
+                "\n".getBytes(charset).length == 1 && "\n".getBytes(charset)[0] == LINE_FEED;
+    }
+
+    private static long sizeOf(FileChannel channel) {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return position right after the first line feed at or after <b>position</b>, or <b>end</b>.
+     * @throws UncheckedIOException if file cannot be read.
+     */
+    static long findLineStart(FileChannel channel, long position, long end) throws UncheckedIOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SEARCH_BUFFER_SIZE);
+        try {
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0)
+                    return end;
+                for (int i = 0; i < read; i++)
+                    if (buffer.get(i) == LINE_FEED)
+                        return position + i + 1;
+                position += read;
+            }
+            return end;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Channel of range of file. Closing it doesn't close channel of file, which is shared by all the ranges.
+     */
+    static final class RangeChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private long position;
+        private final long rangeEnd;
+
+        RangeChannel(FileChannel channel, long rangeStart, long rangeEnd) {
+            this.channel = channel;
+            this.position = rangeStart;
+            this.rangeEnd = rangeEnd;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (position >= rangeEnd)
+                return -1;
+            int limit = destination.limit();
+            if (destination.remaining() > rangeEnd - position)
+                destination.limit(destination.position() + (int) (rangeEnd - position));
+            try {
+                int read = channel.read(destination, position);
+                if (read > 0)
+                    position += read;
+                return read;
+            } finally {
+                destination.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
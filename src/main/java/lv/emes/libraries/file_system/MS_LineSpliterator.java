@@ -0,0 +1,137 @@
+package lv.emes.libraries.file_system;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator of lines of text read from channel. Lines are terminated the same way as for
+ * {@link java.io.BufferedReader#readLine()}: by line feed, carriage return or both of them.
+ * <p>Bytes are read and decoded in chunks using the same two buffers for whole channel, so memory usage doesn't
+ * depend on size of file. Malformed input is replaced by replacement character of charset, just like readers of
+ * {@link MS_TextFile} do.
+ * <p>Spliterator doesn't split, because lines can be found only by reading file sequentially.
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_TextFile#lines()
+ */
+final class MS_LineSpliterator extends Spliterators.AbstractSpliterator<String> implements Closeable {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder();
+    private boolean endOfInput;
+    private boolean flushed;
+    //line feed right after carriage return belongs to the same line terminator
+    private boolean skipLineFeed;
+
+    /**
+     * @param channel channel to read text from. It's closed by {@link #close()}.
+     * @param charset charset of text.
+     */
+    MS_LineSpliterator(ReadableByteChannel channel, Charset charset) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.channel = channel;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars.flip(); //nothing decoded yet
+    }
+
+    /**
+     * @throws UncheckedIOException if channel cannot be read.
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        CharSequence next = nextLine();
+        if (next == null)
+            return false;
+        action.accept(next.toString());
+        return true;
+    }
+
+    /**
+     * Reads next line without creating string for it.
+     *
+     * @return next line or null if there are no more lines. Returned buffer is reused, so its content changes on
+     * the next call.
+     * @throws UncheckedIOException if channel cannot be read.
+     */
+    CharSequence nextLine() throws UncheckedIOException {
+        try {
+            return readLine() ? line : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //*** Private methods ***
+
+    /**
+     * @return false if there are no more lines, otherwise line is read to <b>line</b>.
+     */
+    private boolean readLine() throws IOException {
+        line.setLength(0);
+        boolean lineStarted = false;
+        while (true) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (c == '\n') continue;
+                }
+                if (c == '\n')
+                    return true;
+                if (c == '\r') {
+                    skipLineFeed = true;
+                    return true;
+                }
+                line.append(c);
+                lineStarted = true;
+            }
+            if (!decodeNextChunk())
+                return lineStarted;
+        }
+    }
+
+    /**
+     * @return false if there is nothing more to decode.
+     */
+    private boolean decodeNextChunk() throws IOException {
+        chars.clear();
+        while (chars.position() == 0 && !flushed) {
+            if (!endOfInput && channel.read(bytes) < 0)
+                endOfInput = true;
+            bytes.flip();
+            decoder.decode(bytes, chars, endOfInput);
+            bytes.compact(); //incomplete character stays for the next chunk
+            if (endOfInput && bytes.position() == 0 && decoder.flush(chars).isUnderflow())
+                flushed = true;
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+}
@@ -0,0 +1,426 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.tools.logging.MS_Log4Java;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks file tree in parallel: every directory is listed in separate task of fork-join pool, so that latency of
+ * listing (especially on network storage) is paid for many directories at the same time.
+ * <p>Filters are applied during walk: directories rejected by directory filter aren't entered at all, and entries
+ * rejected by filter or glob aren't passed any further. Results can be:
+ * <ul>
+ * <li>aggregated to {@link MS_FileTreeSummary} (size and counts) without collecting any paths;</li>
+ * <li>passed to callback as soon as they are found;</li>
+ * <li>streamed: paths are produced by walk in background and consumed by stream lazily. Queue between them is
+ * bounded, so walk waits for slow consumer, and closing of stream stops the walk.</li>
+ * </ul>
+ * Symbolic links aren't followed. Files and directories, which cannot be read, are logged and skipped, just like
+ * {@link MS_FileSystemTools#getFileOrDirectorySize(String)} does. Order of results isn't defined.
+ * <p>Example:
+ * <pre><code>
+ *     long sizeOfLogs = new MS_ParallelFileTreeWalker("/var/log").withGlob("*.log").summarize().getTotalSize();
+ * </code></pre>
+ * <p>Public methods:
+ * <ul>
+ * <li>summarize</li>
+ * <li>forEach</li>
+ * <li>stream</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withFilter</li>
+ * <li>withGlob</li>
+ * <li>withDirectoryFilter</li>
+ * <li>withDirectoriesIncluded</li>
+ * <li>withMaxDepth</li>
+ * <li>withPool</li>
+ * <li>getRoot</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_ParallelFileTreeWalker {
+
+    private static final int STREAM_QUEUE_CAPACITY = 1024;
+    private static final long STREAM_QUEUE_POLL_MILLIS = 100;
+    //walk is bound by latency of file system rather than by processors
+    private static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors() * 2,
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("MS_ParallelFileTreeWalker-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+
+    private final Path root;
+    private Predicate<Path> filter = path -> true;
+    private Predicate<Path> directoryFilter = path -> true;
+    private boolean directoriesIncluded = false;
+    private int maxDepth = Integer.MAX_VALUE;
+    private ForkJoinPool pool = DEFAULT_POOL;
+
+    /**
+     * @param root path to directory to walk. If it's file, the only result of walk is file itself.
+     */
+    public MS_ParallelFileTreeWalker(String root) {
+        this.root = Paths.get(root);
+    }
+
+    /**
+     * Adds condition, which every result must meet. Conditions of several calls of this method and
+     * {@link #withGlob(String)} are joined by AND.
+     *
+     * @param filter condition on path of file (or directory, if they are included in results).
+     * @return reference to walker itself.
+     */
+    public MS_ParallelFileTreeWalker withFilter(Predicate<Path> filter) {
+        this.filter = this.filter.and(filter);
+        return this;
+    }
+
+    /**
+     * Adds condition on name of file (see {@link java.nio.file.FileSystem#getPathMatcher(String)} for syntax), for
+     * example, <b>*.txt</b> or <b>*.{jpg,png}</b>.
+     *
+     * @param glob pattern of file name.
+     * @return reference to walker itself.
+     * @throws MS_BadSetupException if <b>glob</b> is invalid.
+     */
+    public MS_ParallelFileTreeWalker withGlob(String glob) {
+        PathMatcher matcher;
+        try {
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        } catch (IllegalArgumentException e) {
+            throw new MS_BadSetupException("Invalid glob pattern: %s", glob);
+        }
+        return withFilter(path -> path.getFileName() != null && matcher.matches(path.getFileName()));
+    }
+
+    /**
+     * @param directoryFilter condition on path of directory, which must be met to enter directory.
+     * @return reference to walker itself.
+     */
+    public MS_ParallelFileTreeWalker withDirectoryFilter(Predicate<Path> directoryFilter) {
+        this.directoryFilter = this.directoryFilter.and(directoryFilter);
+        return this;
+    }
+
+    /**
+     * @param directoriesIncluded true if directories (except root) must be passed to results as well.
+     * @return reference to walker itself.
+     */
+    public MS_ParallelFileTreeWalker withDirectoriesIncluded(boolean directoriesIncluded) {
+        this.directoriesIncluded = directoriesIncluded;
+        return this;
+    }
+
+    /**
+     * @param maxDepth maximum depth of results: 1 means only entries of root directory, 2 - also entries of its
+     *                 sub-directories, etc.
+     * @return reference to walker itself.
+     * @throws MS_BadSetupException if <b>maxDepth</b> is less than 1.
+     */
+    public MS_ParallelFileTreeWalker withMaxDepth(int maxDepth) {
+        if (maxDepth < 1)
+            throw new MS_BadSetupException("Maximum depth of walk must be positive. Given: %d", maxDepth);
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @param pool pool to walk in. By default walker uses its own pool with 2 threads per processor.
+     * @return reference to walker itself.
+     * @throws MS_BadSetupException if <b>pool</b> is <code>null</code>.
+     */
+    public MS_ParallelFileTreeWalker withPool(ForkJoinPool pool) {
+        if (pool == null)
+            throw new MS_BadSetupException("Pool of walker cannot be null");
+        this.pool = pool;
+        return this;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Walks tree and aggregates sizes and counts of results. Paths aren't collected, so memory usage doesn't depend
+     * on size of tree.
+     *
+     * @return aggregated results of walk.
+     */
+    public MS_FileTreeSummary summarize() {
+        LongAdder totalSize = new LongAdder();
+        LongAdder fileCount = new LongAdder();
+        LongAdder directoryCount = new LongAdder();
+        LongAdder failureCount = new LongAdder();
+        walk(new Visitor() {
+            @Override
+            public void visit(Path path, BasicFileAttributes attributes) {
+                if (!attributes.isDirectory()) {
+                    totalSize.add(attributes.size());
+                    fileCount.increment();
+                }
+            }
+
+            @Override
+            public void entered(Path directory) {
+                directoryCount.increment();
+            }
+
+            @Override
+            public void failed(Path path, IOException e) {
+                failureCount.increment();
+            }
+        });
+        return new MS_FileTreeSummary(totalSize.sum(), fileCount.sum(), directoryCount.sum(), failureCount.sum());
+    }
+
+    /**
+     * Walks tree and passes every result to <b>action</b> as soon as it's found. Method returns after walk is done.
+     *
+     * @param action action to perform for every result. It's called from multiple threads at the same time.
+     */
+    public void forEach(Consumer<Path> action) {
+        walk((path, attributes) -> action.accept(path));
+    }
+
+    /**
+     * Starts walk in background and streams its results. Stream must be closed after use, especially when it's not
+     * consumed till the end, so that walk is stopped. Exception thrown by filter during walk is rethrown, when stream
+     * reaches it.
+     *
+     * @return lazily populated stream of results.
+     */
+    public Stream<Path> stream() {
+        StreamingVisitor visitor = new StreamingVisitor();
+        pool.execute(() -> {
+            try {
+                walk(visitor);
+                visitor.publish(StreamingVisitor.END);
+            } catch (RuntimeException | Error e) {
+                visitor.publish(new StreamingVisitor.Failure(e)); //rethrown to consumer
+            }
+        });
+        return StreamSupport.stream(visitor, false).onClose(visitor::cancel);
+    }
+
+    //*** Package-private and private methods and classes ***
+
+    /**
+     * Receiver of results of walk. Methods are called from multiple threads at the same time.
+     */
+    interface Visitor {
+        void visit(Path path, BasicFileAttributes attributes);
+
+        default void entered(Path directory) {
+        }
+
+        default void failed(Path path, IOException e) {
+        }
+
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * Walks tree passing results with their attributes to <b>visitor</b>. Method returns after walk is done.
+     */
+    void walk(Visitor visitor) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            failed(visitor, root, e);
+            return;
+        }
+        if (!attributes.isDirectory()) {
+            if (filter.test(root))
+                visitor.visit(root, attributes);
+            return;
+        }
+        DirectoryTask task = new DirectoryTask(root, 1, visitor);
+        if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool)
+            task.invoke();
+        else
+            pool.invoke(task);
+    }
+
+    private void failed(Visitor visitor, Path path, IOException e) {
+        MS_Log4Java.getLogger(MS_ParallelFileTreeWalker.class)
+                .warn(String.format("While walking '%s', skipped: '%s' (%s)", root, path, e));
+        visitor.failed(path, e);
+    }
+
+    /**
+     * Lists single directory. Entries are visited right away, and sub-directories are walked by forked tasks.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final int depth;
+        private final Visitor visitor;
+
+        private DirectoryTask(Path directory, int depth, Visitor visitor) {
+            this.directory = directory;
+            this.depth = depth;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            if (visitor.isCancelled()) return;
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                if (depth > 1)
+                    visitor.entered(directory);
+                for (Path entry : entries) {
+                    if (visitor.isCancelled()) break;
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        failed(visitor, entry, e);
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (directoriesIncluded && filter.test(entry))
+                            visitor.visit(entry, attributes);
+                        if (depth < maxDepth && directoryFilter.test(entry)) {
+                            DirectoryTask subdirectory = new DirectoryTask(entry, depth + 1, visitor);
+                            subdirectory.fork();
+                            subdirectories.add(subdirectory);
+                        }
+                    } else if (filter.test(entry)) {
+                        visitor.visit(entry, attributes);
+                    }
+                }
+            } catch (IOException e) {
+                failed(visitor, directory, e);
+            }
+            for (DirectoryTask subdirectory : subdirectories)
+                subdirectory.join();
+        }
+    }
+
+    /**
+     * Passes results of walk to stream through bounded queue.
+     */
+    private static final class StreamingVisitor extends Spliterators.AbstractSpliterator<Path> implements Visitor {
+        private static final Object END = new Object();
+
+        private static final class Failure {
+            private final Throwable cause;
+
+            private Failure(Throwable cause) {
+                this.cause = cause;
+            }
+        }
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(STREAM_QUEUE_CAPACITY);
+        private volatile boolean cancelled;
+        private boolean ended;
+
+        private StreamingVisitor() {
+            super(Long.MAX_VALUE, Spliterator.NONNULL | Spliterator.DISTINCT);
+        }
+
+        @Override
+        public void visit(Path path, BasicFileAttributes attributes) {
+            publish(path);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Path> action) {
+            if (ended) return false;
+            Object next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                ended = true;
+                return false;
+            }
+            if (next == END) {
+                ended = true;
+                return false;
+            }
+            if (next instanceof Failure) {
+                ended = true;
+                Throwable cause = ((Failure) next).cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw (RuntimeException) cause;
+            }
+            action.accept((Path) next);
+            return true;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            queue.clear(); //releases producers waiting for space
+        }
+
+        /**
+         * Waits for space in queue, letting pool to compensate blocked thread.
+         */
+        private void publish(Object item) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean published;
+
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        while (!published && !cancelled)
+                            published = queue.offer(item, STREAM_QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return published || cancelled || (published = queue.offer(item));
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+    }
+}
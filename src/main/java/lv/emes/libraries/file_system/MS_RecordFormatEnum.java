@@ -0,0 +1,18 @@
+package lv.emes.libraries.file_system;
+
+/**
+ * Enum of formats of files, in which text file repositories store their records.
+ * <ul>
+ * <li>TEXT - every record is line of fields delimited by special character;</li>
+ * <li>BINARY - every record is prefixed by its length and followed by its checksum
+ * (see {@link MS_BinaryRecordFile}).</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_TextFileRepositorySetup
+ */
+public enum MS_RecordFormatEnum {
+
+    TEXT, BINARY
+}
@@ -7,13 +7,28 @@ import net.sf.jmimemagic.MagicParseException;
 import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Module provides common operations with files and folders.
+ * <p>File is read and written in charset given at construction (platform's default charset, if not given).
+ * Methods <b>readln</b>, <b>writeln</b> and <b>appendln</b> share single open file, which is reopened whenever
+ * mode changes. For reading of big files prefer {@link #lines()}, which streams lines without loading whole file
+ * to memory and without affecting file opened by other methods. Huge files can be processed on multiple cores
+ * by {@link #parallelLines()} or {@link #forEachLineInParallel(Consumer, boolean)}.
  * Public methods:
  * <ul>
+ * <li>lines</li>
+ * <li>parallelLines</li>
+ * <li>forEachLineInParallel</li>
  * <li>openForReading</li>
  * <li>close</li>
  * <li>readln</li>
@@ -24,16 +39,19 @@ import java.util.List;
  * <li>importStringListFromFile</li>
  * <li>exportStringListToFile</li>
  * <li>getFilename</li>
+ * <li>getCharset</li>
  * </ul>
  * Static methods:
  * <ul>
+ * <li>lines</li>
+ * <li>parallelLines</li>
  * <li>getProjectDirectory</li>
  * <li>fileExists</li>
  * <li>createEmptyFile</li>
  * <li>getResourceFileTextAsString</li>
  * </ul>
  *
- * @version 2.5.
+ * @version 2.7.
  */
 public class MS_TextFile {
 
@@ -42,11 +60,12 @@ public class MS_TextFile {
     private PrintWriter fFileAppender = null; //main object that will perform line APPENDING.
 
     private BufferedWriter fbw = null;
-    private FileWriter ffw = null;
+    private Writer ffw = null;
     private BufferedWriter fba = null;
-    private FileWriter ffa = null;
+    private Writer ffa = null;
 
     protected String fFilename;
+    protected Charset fCharset = Charset.defaultCharset();
 
     //KONSTRUKTORI
 
@@ -58,14 +77,35 @@ public class MS_TextFile {
         fFilename = aFilename;
     }
 
+    /**
+     * @param aFilename name of file, which will be processed by current object.
+     *                  If full path name is not provided, file will be created or will be searched in root directory of executable application.
+     * @param charset   charset of file.
+     */
+    public MS_TextFile(String aFilename, Charset charset) {
+        fFilename = aFilename;
+        fCharset = charset;
+    }
+
     /**
      * Opens stream to be readed as text.
      *
      * @param stream reference to stream.
      */
     public MS_TextFile(InputStream stream) {
+        this(stream, Charset.defaultCharset());
+    }
+
+    /**
+     * Opens stream to be readed as text.
+     *
+     * @param stream  reference to stream.
+     * @param charset charset of text in stream.
+     */
+    public MS_TextFile(InputStream stream, Charset charset) {
+        fCharset = charset;
         if (stream != null)
-            fFileReader = new BufferedReader(new InputStreamReader(stream));
+            fFileReader = new BufferedReader(new InputStreamReader(stream, charset));
     }
 
     private void closeThisFileWriting() {
@@ -105,7 +145,7 @@ public class MS_TextFile {
     private boolean pCreateFileLinkForReading() {
         if (fFileReader != null) return true;
         try {
-            FileReader ffr = new FileReader(fFilename);
+            Reader ffr = new InputStreamReader(new FileInputStream(fFilename), fCharset);
             fFileReader = new BufferedReader(ffr);
             return true;
         } catch (Exception e) {
@@ -125,7 +165,7 @@ public class MS_TextFile {
             createFolderForFileIfNeeded(fFilename);
 
             //now to create link for file writer
-            ffw = new FileWriter(fFilename, false); //true, if append
+            ffw = new OutputStreamWriter(new FileOutputStream(fFilename, false), fCharset); //true, if append
             fbw = new BufferedWriter(ffw);
             fFileWriter = new PrintWriter(fbw);
             return true;
@@ -144,7 +184,7 @@ public class MS_TextFile {
         try {
             createFolderForFileIfNeeded(fFilename);
 
-            ffa = new FileWriter(fFilename, true); //true, JO append
+            ffa = new OutputStreamWriter(new FileOutputStream(fFilename, true), fCharset); //true, JO append
             fba = new BufferedWriter(ffa);
             fFileAppender = new PrintWriter(fba);
             return true;
@@ -167,6 +207,54 @@ public class MS_TextFile {
 
     //PUBLIC METHODS
 
+    /**
+     * Streams lines of file. File is read through its own channel in chunks (see {@link MS_LineSpliterator}),
+     * so files of any size are processed in constant memory, and file opened by other methods of this object
+     * stays as it is. Stream must be closed after use, for example:
+     * <pre><code>
+     *     try (Stream&lt;String&gt; lines = file.lines()) {
+     *         lines.filter(...).forEach(...);
+     *     }</code></pre>
+     *
+     * @return lazily populated stream of lines.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     */
+    public Stream<String> lines() throws UncheckedIOException {
+        return lines(fFilename, fCharset);
+    }
+
+    /**
+     * Streams lines of file in parallel. File is split to byte ranges aligned to line boundaries, and every range
+     * is decoded in separate task of common fork-join pool (see {@link MS_LineRangeSpliterator}).
+     * Stream is ordered: <b>forEachOrdered</b>, <b>collect</b> and other order-preserving operations see lines in
+     * order of file. Call <b>unordered</b> on stream, if order doesn't matter. Stream must be closed after use.
+     * <p>Only files in charsets, which encode line feed as single byte not used by other characters (for example,
+     * UTF-8 or any single byte charset), are split. File in other charset is read sequentially.
+     *
+     * @return lazily populated parallel stream of lines.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     */
+    public Stream<String> parallelLines() throws UncheckedIOException {
+        return parallelLines(fFilename, fCharset);
+    }
+
+    /**
+     * Passes every line of file to <b>action</b>, reading and decoding file in parallel (see {@link #parallelLines()}).
+     *
+     * @param action  action to perform for every line. If <b>ordered</b> is false, it's called from multiple
+     *                threads at the same time.
+     * @param ordered true to call <b>action</b> for lines one at a time in order of file.
+     * @throws UncheckedIOException if file cannot be read.
+     */
+    public void forEachLineInParallel(Consumer<String> action, boolean ordered) throws UncheckedIOException {
+        try (Stream<String> lines = parallelLines()) {
+            if (ordered)
+                lines.forEachOrdered(action);
+            else
+                lines.forEach(action);
+        }
+    }
+
     /**
      * Opens file just for reading.
      *
@@ -368,6 +456,10 @@ public class MS_TextFile {
         return fFilename;
     }
 
+    public Charset getCharset() {
+        return fCharset;
+    }
+
     /**
      * Reads all the file and creates string list from contents line by line creating string list's element by element.
      * <br><u>Note</u>: before and after this method file will do <b>close</b> to ensure that whole file will be read and
@@ -378,11 +470,13 @@ public class MS_TextFile {
      */
     public List<String> importStringListFromFile() {
         List<String> res = new MS_List<>();
-        String row;
         close(); //to be sure that whole file will be read
-        while ((row = this.readln()) != null)
-            res.add(row);
-        close();
+        if (!MS_FileSystemTools.fileExists(fFilename))
+            return res;
+        try (Stream<String> lines = lines()) {
+            lines.forEach(res::add);
+        } catch (UncheckedIOException ignored) {
+        }
         return res;
     }
 
@@ -416,6 +510,60 @@ public class MS_TextFile {
 
     //STATISKAS METODES
 
+    /**
+     * Streams lines of file in given charset. Stream must be closed after use.
+     *
+     * @param aFilename path to text file.
+     * @param charset   charset of file.
+     * @return lazily populated stream of lines.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     * @see MS_TextFile#lines()
+     */
+    public static Stream<String> lines(String aFilename, Charset charset) throws UncheckedIOException {
+        MS_LineSpliterator spliterator;
+        try {
+            spliterator = new MS_LineSpliterator(FileChannel.open(Paths.get(aFilename), StandardOpenOption.READ), charset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Streams lines of file in given charset in parallel. Stream must be closed after use.
+     *
+     * @param aFilename path to text file.
+     * @param charset   charset of file.
+     * @return lazily populated parallel stream of lines.
+     * @throws UncheckedIOException if file cannot be opened, or, when stream is consumed, if it cannot be read.
+     * @see MS_TextFile#parallelLines()
+     */
+    public static Stream<String> parallelLines(String aFilename, Charset charset) throws UncheckedIOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(Paths.get(aFilename), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            MS_LineRangeSpliterator spliterator = new MS_LineRangeSpliterator(channel, charset,
+                    MS_LineRangeSpliterator.MINIMUM_RANGE_SIZE);
+            return StreamSupport.stream(spliterator, true).onClose(() -> {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
     /**
      * Exports list of strings to text file.
      *
@@ -451,19 +599,14 @@ public class MS_TextFile {
      * If file is not found then returns empty string.
      */
     public static String getFileTextAsString(String aFilename, String aLineDelimiter) {
-        MS_TextFile file = new MS_TextFile(aFilename);
-        StringBuilder res = new StringBuilder();
-        String tmp;
-        //try to read first line in the beginning
-        if ((tmp = file.readln()) != null)
-            res.append(tmp);
-        //now if there is more lines in file do appending with delimiter
-        while ((tmp = file.readln()) != null) {
-            res.append(aLineDelimiter);
-            res.append(tmp);
+        if (!MS_FileSystemTools.fileExists(aFilename))
+            return "";
+        try (Stream<String> lines = lines(aFilename, Charset.defaultCharset())) {
+            //null delimiter is appended as "null", just like StringBuilder does
+            return lines.collect(Collectors.joining(String.valueOf(aLineDelimiter)));
+        } catch (UncheckedIOException e) {
+            return "";
         }
-        file.close();
-        return res.toString();
     }
 
     /**
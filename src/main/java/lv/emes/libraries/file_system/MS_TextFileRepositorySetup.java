@@ -0,0 +1,188 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+/**
+ * A setup of repositories, which store texts in single text file ({@link MS_TextToFileRepository} and
+ * {@link MS_TextToFileCachingRepository}). Holds information about:
+ * <ul>
+ * <li>whether file is used as append-only log. In this mode every modification appends records (or tombstones of
+ * removed records) to the end of file instead of rewriting whole file, and repository keeps in memory offsets of
+ * the latest records, so lookups read single line. Lines keep the same format, so existing files can be opened
+ * in this mode without any conversion;</li>
+ * <li>share of garbage (overwritten records and tombstones) in file, after which file is compacted in background;</li>
+ * <li>minimum count of garbage records, so that small files aren't compacted after every few modifications;</li>
+ * <li>format of records in file (see {@link MS_RecordFormatEnum}). Binary format is read much faster, but it can be
+ * used only when file isn't used as log;</li>
+ * <li>codec of values of records in binary format;</li>
+ * <li>policy of forcing written data to storage device (see {@link MS_FileSyncPolicyEnum});</li>
+ * <li>window of group commit - time, during which batch additions committed by different threads are collected
+ * to be written to file at once, and maximum count of records, after which group is written without waiting for
+ * the end of window. Window 0 means that group is written immediately, so only additions committed while previous
+ * group is being written are grouped.</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withLogStructuredStorage</li>
+ * <li>withCompactionThreshold</li>
+ * <li>withMinimumCompactionGarbage</li>
+ * <li>withRecordFormat</li>
+ * <li>withValueCodec</li>
+ * <li>withSyncPolicy</li>
+ * <li>withGroupCommitWindow</li>
+ * <li>withGroupCommitMaxRecords</li>
+ * <li>isLogStructuredStorage</li>
+ * <li>getCompactionThreshold</li>
+ * <li>getMinimumCompactionGarbage</li>
+ * <li>getRecordFormat</li>
+ * <li>getValueCodec</li>
+ * <li>getSyncPolicy</li>
+ * <li>getGroupCommitWindow</li>
+ * <li>getGroupCommitMaxRecords</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.2.
+ */
+public class MS_TextFileRepositorySetup {
+
+    public static final double _DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    public static final int _DEFAULT_MINIMUM_COMPACTION_GARBAGE = 1000;
+    public static final int _DEFAULT_GROUP_COMMIT_MAX_RECORDS = 1000;
+
+    private boolean logStructuredStorage = false;
+    private double compactionThreshold = _DEFAULT_COMPACTION_THRESHOLD;
+    private int minimumCompactionGarbage = _DEFAULT_MINIMUM_COMPACTION_GARBAGE;
+    private MS_RecordFormatEnum recordFormat = MS_RecordFormatEnum.TEXT;
+    private MS_IRecordValueCodec valueCodec = MS_IRecordValueCodec._UTF_8;
+    private MS_FileSyncPolicyEnum syncPolicy = MS_FileSyncPolicyEnum.OS;
+    private long groupCommitWindow = 0;
+    private int groupCommitMaxRecords = _DEFAULT_GROUP_COMMIT_MAX_RECORDS;
+
+    /**
+     * @param logStructuredStorage true to append modifications to file instead of rewriting it.
+     * @return reference to setup itself.
+     */
+    public MS_TextFileRepositorySetup withLogStructuredStorage(boolean logStructuredStorage) {
+        this.logStructuredStorage = logStructuredStorage;
+        return this;
+    }
+
+    /**
+     * @param compactionThreshold share of garbage records (0..1, exclusive) in file, after which file is compacted.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>compactionThreshold</b> is out of range.
+     */
+    public MS_TextFileRepositorySetup withCompactionThreshold(double compactionThreshold) {
+        if (!(compactionThreshold > 0 && compactionThreshold < 1))
+            throw new MS_BadSetupException("Compaction threshold must be in range (0, 1). Given: %s", compactionThreshold);
+        this.compactionThreshold = compactionThreshold;
+        return this;
+    }
+
+    /**
+     * @param minimumCompactionGarbage minimum count of garbage records in file, which is needed to start compaction.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>minimumCompactionGarbage</b> is negative.
+     */
+    public MS_TextFileRepositorySetup withMinimumCompactionGarbage(int minimumCompactionGarbage) {
+        if (minimumCompactionGarbage < 0)
+            throw new MS_BadSetupException("Minimum count of garbage records cannot be negative. Given: %d", minimumCompactionGarbage);
+        this.minimumCompactionGarbage = minimumCompactionGarbage;
+        return this;
+    }
+
+    /**
+     * @param recordFormat format of records in file.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>recordFormat</b> is <code>null</code>.
+     */
+    public MS_TextFileRepositorySetup withRecordFormat(MS_RecordFormatEnum recordFormat) {
+        if (recordFormat == null)
+            throw new MS_BadSetupException("Record format cannot be null");
+        this.recordFormat = recordFormat;
+        return this;
+    }
+
+    /**
+     * @param valueCodec codec of values of records, which is used in binary format.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>valueCodec</b> is <code>null</code>.
+     */
+    public MS_TextFileRepositorySetup withValueCodec(MS_IRecordValueCodec valueCodec) {
+        if (valueCodec == null)
+            throw new MS_BadSetupException("Codec of record values cannot be null");
+        this.valueCodec = valueCodec;
+        return this;
+    }
+
+    /**
+     * @param syncPolicy policy of forcing written data to storage device.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>syncPolicy</b> is <code>null</code>.
+     */
+    public MS_TextFileRepositorySetup withSyncPolicy(MS_FileSyncPolicyEnum syncPolicy) {
+        if (syncPolicy == null)
+            throw new MS_BadSetupException("Sync policy cannot be null");
+        this.syncPolicy = syncPolicy;
+        return this;
+    }
+
+    /**
+     * @param groupCommitWindow maximum time in milliseconds, during which batch additions are collected to single
+     *                          write. It's also maximum delay of background sync for {@link MS_FileSyncPolicyEnum#BATCHED}.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>groupCommitWindow</b> is negative.
+     */
+    public MS_TextFileRepositorySetup withGroupCommitWindow(long groupCommitWindow) {
+        if (groupCommitWindow < 0)
+            throw new MS_BadSetupException("Group commit window cannot be negative. Given: %d", groupCommitWindow);
+        this.groupCommitWindow = groupCommitWindow;
+        return this;
+    }
+
+    /**
+     * @param groupCommitMaxRecords count of records, after which group of batch additions is written without
+     *                              waiting for the end of window.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>groupCommitMaxRecords</b> is less than 1.
+     */
+    public MS_TextFileRepositorySetup withGroupCommitMaxRecords(int groupCommitMaxRecords) {
+        if (groupCommitMaxRecords < 1)
+            throw new MS_BadSetupException("Maximum count of records of group commit must be positive. Given: %d", groupCommitMaxRecords);
+        this.groupCommitMaxRecords = groupCommitMaxRecords;
+        return this;
+    }
+
+    public boolean isLogStructuredStorage() {
+        return logStructuredStorage;
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public int getMinimumCompactionGarbage() {
+        return minimumCompactionGarbage;
+    }
+
+    public MS_RecordFormatEnum getRecordFormat() {
+        return recordFormat;
+    }
+
+    public MS_IRecordValueCodec getValueCodec() {
+        return valueCodec;
+    }
+
+    public MS_FileSyncPolicyEnum getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    public int getGroupCommitMaxRecords() {
+        return groupCommitMaxRecords;
+    }
+}
@@ -0,0 +1,680 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+import lv.emes.libraries.tools.lists.MS_StringList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only log of text records, which is used by text file repositories in log-structured mode
+ * ({@link MS_TextFileRepositorySetup#withLogStructuredStorage(boolean)}).
+ * <p>Every line of file is a record delimited by <b>delimiter</b> (see {@link MS_StringList}), which first field is
+ * identifier of record. Record is written by appending it to the end of file, and in-memory index remembers byte
+ * offset of the latest record of every identifier, so lookup reads single line. Removal appends tombstone - line
+ * with identifier and one field more than records have, so it cannot be mistaken for record.
+ * <p>Overwritten records and tombstones are garbage. As soon as share of garbage reaches threshold, file is compacted
+ * in background thread: live records are copied to temporary file without blocking repository, then records
+ * appended meanwhile are copied under lock, and temporary file replaces log.
+ * <p>Lines are read and written in the same charset and with the same line separator as {@link MS_TextFile} does,
+ * so file written by repository in ordinary mode is a valid log, and compacted log is valid file for ordinary mode.
+ * <p>Appended lines are forced to storage device according to sync policy of setup (see {@link MS_FileSync}).
+ * <p>Log can be shared by several instances and processes: every modification holds lock of file for writing
+ * ({@link MS_FileReadWriteLock}) and every lookup holds it for reading. Index is rebuilt from file, whenever version
+ * of file shows, that it was modified by somebody else since index was built.
+ *
+ * @author eMeS
+ * @version 1.3.
+ */
+final class MS_TextRecordLog {
+
+    private static final String TOMBSTONE_FIELD = "-";
+    private static final String COMPACTION_FILE_SUFFIX = ".compacting";
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private static final int LINE_READ_BUFFER_SIZE = 512;
+    private static final long UNKNOWN_VERSION = Long.MIN_VALUE;
+    private static final ExecutorService COMPACTION_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MS_TextRecordLog compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+    private final char delimiter;
+    private final int fieldCount;
+    private final MS_TextFileRepositorySetup setup;
+    private final MS_FileReadWriteLock fileLock;
+    private final double compactionThreshold;
+    private final int minimumCompactionGarbage;
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    //identifier -> offset of the latest record
+    private final Map<String, Long> offsets = new HashMap<>();
+    private FileChannel channel;
+    private long fileEnd;
+    private long recordCount;
+    //incremented whenever log is cleared or reloaded, so that compaction started before it is abandoned
+    private long generation;
+    //version of file (see MS_FileReadWriteLock), which index corresponds to
+    private volatile long loadedVersion = UNKNOWN_VERSION;
+
+    /**
+     * @param pathToFile path to file of log.
+     * @param delimiter  delimiter of record fields.
+     * @param fieldCount count of fields (including identifier) of every record.
+     * @param setup      setup of repository, which holds parameters of compaction and sync policy.
+     * @param fileLock   lock of file shared by all the users of file.
+     */
+    MS_TextRecordLog(String pathToFile, char delimiter, int fieldCount, MS_TextFileRepositorySetup setup,
+                     MS_FileReadWriteLock fileLock) {
+        this.path = Paths.get(pathToFile);
+        this.delimiter = delimiter;
+        this.fieldCount = fieldCount;
+        this.setup = setup;
+        this.fileLock = fileLock;
+        this.compactionThreshold = setup.getCompactionThreshold();
+        this.minimumCompactionGarbage = setup.getMinimumCompactionGarbage();
+    }
+
+    /**
+     * Opens file and builds index of records. Incomplete line at the end of file (left by interrupted write)
+     * is cut off.
+     *
+     * @throws MS_RepositoryDataExchangeException if file cannot be read or some line has no identifier.
+     */
+    void open() throws MS_RepositoryDataExchangeException {
+        fileLock.lockForWriting();
+        lock.writeLock().lock();
+        try {
+            load(true);
+        } finally {
+            lock.writeLock().unlock();
+            fileLock.unlockForWriting();
+        }
+    }
+
+    /**
+     * @param identifier identifier of record.
+     * @return the latest record or <code>null</code> if there is no record with such identifier.
+     */
+    String read(String identifier) throws MS_RepositoryDataExchangeException {
+        lockForReading();
+        try {
+            Long offset = offsets.get(identifier);
+            return offset == null ? null : readLine(offset);
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to read from log file:\n" + path, e);
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * Reads all the live records in single sequential pass through file.
+     *
+     * @return live records mapped by identifiers in order of their writing.
+     */
+    Map<String, String> readAll() throws MS_RepositoryDataExchangeException {
+        Map<String, String> res = new LinkedHashMap<>();
+        lockForReading();
+        try (InputStream input = Files.newInputStream(path)) {
+            scan(input, fileEnd, (offset, line) -> {
+                String decoded = decode(line);
+                MS_StringList fields = parse(decoded);
+                if (Long.valueOf(offset).equals(offsets.get(fields.get(0))))
+                    res.put(fields.get(0), decoded);
+            });
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to read from log file:\n" + path, e);
+        } finally {
+            unlockForReading();
+        }
+        return res;
+    }
+
+    /**
+     * Opens reader of live records, which reads them one by one in single sequential pass through file. Offsets of
+     * live records are copied and file is opened under single lock, which is released right after it: compaction
+     * replaces file by renaming of new one and appended records are beyond the copied end of log, so opened file
+     * stays unchanged for reader. Only clearing of log truncates file, which just ends reading earlier.
+     *
+     * @return reader of records, which were live at the moment reader was opened. It must be closed.
+     * @throws MS_RepositoryDataExchangeException if file cannot be opened.
+     */
+    RecordReader openReader() throws MS_RepositoryDataExchangeException {
+        lockForReading();
+        try {
+            return new RecordReader(new HashSet<>(offsets.values()), fileEnd,
+                    new BufferedInputStream(Files.newInputStream(path), SCAN_BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to read from log file:\n" + path, e);
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    boolean contains(String identifier) throws MS_RepositoryDataExchangeException {
+        lockForReading();
+        try {
+            return offsets.containsKey(identifier);
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    int size() throws MS_RepositoryDataExchangeException {
+        lockForReading();
+        try {
+            return offsets.size();
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * Appends records in single write.
+     *
+     * @param records complete lines of records mapped by their identifiers.
+     */
+    void append(Map<String, String> records) throws MS_RepositoryDataExchangeException {
+        if (records.isEmpty()) return;
+        lockForWriting();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Map<String, Long> newOffsets = new LinkedHashMap<>();
+            for (Map.Entry<String, String> record : records.entrySet()) {
+                newOffsets.put(record.getKey(), fileEnd + bytes.size());
+                writeLine(bytes, record.getValue());
+            }
+            write(bytes);
+            offsets.putAll(newOffsets);
+            recordCount += records.size();
+        } finally {
+            unlockForWriting();
+        }
+        compactInBackgroundIfNeeded();
+    }
+
+    void append(String identifier, String record) throws MS_RepositoryDataExchangeException {
+        Map<String, String> records = new HashMap<>(1);
+        records.put(identifier, record);
+        append(records);
+    }
+
+    /**
+     * Appends tombstones of existing records in single write.
+     *
+     * @param identifiers identifiers of records to remove.
+     * @return count of removed records.
+     */
+    int remove(Collection<String> identifiers) throws MS_RepositoryDataExchangeException {
+        List<String> removed = new ArrayList<>();
+        lockForWriting();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (String identifier : identifiers) {
+                if (offsets.containsKey(identifier) && !removed.contains(identifier)) {
+                    removed.add(identifier);
+                    writeLine(bytes, tombstone(identifier));
+                }
+            }
+            if (removed.isEmpty())
+                return 0;
+            write(bytes);
+            removed.forEach(offsets::remove);
+            recordCount += removed.size();
+        } finally {
+            unlockForWriting();
+        }
+        compactInBackgroundIfNeeded();
+        return removed.size();
+    }
+
+    /**
+     * Removes all the records by truncating file.
+     */
+    void clear() throws MS_RepositoryDataExchangeException {
+        lockForWriting();
+        try {
+            channel.truncate(0);
+            MS_FileSync.written(path, channel, setup);
+            offsets.clear();
+            fileEnd = 0;
+            recordCount = 0;
+            generation++;
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to clear log file:\n" + path, e);
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+    /**
+     * Rewrites log leaving only live records. Readers and writers are blocked only while records appended during
+     * compaction are copied and file is replaced. Compaction is abandoned, if file is modified by somebody else
+     * meanwhile.
+     */
+    void compact() throws MS_RepositoryDataExchangeException {
+        compactionLock.lock();
+        Path compactedPath = null;
+        try {
+            //1. remember live records at this moment
+            TreeMap<Long, String> liveRecords = new TreeMap<>();
+            long snapshotEnd;
+            long snapshotRecordCount;
+            long snapshotGeneration;
+            lock.readLock().lock();
+            try {
+                offsets.forEach((identifier, offset) -> liveRecords.put(offset, identifier));
+                snapshotEnd = fileEnd;
+                snapshotRecordCount = recordCount;
+                snapshotGeneration = generation;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (snapshotRecordCount == liveRecords.size())
+                return; //no garbage
+
+            //2. copy them without blocking anybody, because log is only appended
+            Map<String, Long> compactedOffsets = new HashMap<>();
+            long[] compactedEnd = {0};
+            //unique name, because other processes might compact the same log at the same time
+            compactedPath = Files.createTempFile(path.toAbsolutePath().getParent(),
+                    path.getFileName().toString(), COMPACTION_FILE_SUFFIX);
+            try (InputStream input = Files.newInputStream(path);
+                 OutputStream output = new BufferedOutputStream(Files.newOutputStream(compactedPath))) {
+                scan(input, snapshotEnd, (offset, line) -> {
+                    String identifier = liveRecords.get(offset);
+                    if (identifier != null) {
+                        compactedOffsets.put(identifier, compactedEnd[0]);
+                        output.write(line);
+                        output.write(lineSeparator);
+                        compactedEnd[0] += line.length + lineSeparator.length;
+                    }
+                });
+            }
+
+            //3. copy records appended meanwhile and replace log
+            lockForWriting();
+            try {
+                if (generation != snapshotGeneration)
+                    return; //log was cleared or modified by somebody else, so compacted records aren't valid anymore
+                try (FileChannel compacted = FileChannel.open(compactedPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    long position = snapshotEnd;
+                    while (position < fileEnd)
+                        position += channel.transferTo(position, fileEnd - position, compacted);
+                    compacted.force(true);
+                }
+                Map<String, Long> newOffsets = new HashMap<>();
+                for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                    long offset = entry.getValue();
+                    newOffsets.put(entry.getKey(), offset >= snapshotEnd ?
+                            compactedEnd[0] + offset - snapshotEnd : compactedOffsets.get(entry.getKey()));
+                }
+                //file cannot be replaced while it's open on some systems
+                closeChannel();
+                try {
+                    MS_FileSync.move(compactedPath, path);
+                    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (IOException | RuntimeException e) {
+                    //whichever file is in place now, index is rebuilt from it by the next operation
+                    loadedVersion = UNKNOWN_VERSION;
+                    throw e;
+                }
+                offsets.clear();
+                offsets.putAll(newOffsets);
+                recordCount = liveRecords.size() + recordCount - snapshotRecordCount;
+                fileEnd = channel.size();
+            } finally {
+                unlockForWriting();
+            }
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to compact log file:\n" + path, e);
+        } finally {
+            try {
+                if (compactedPath != null)
+                    Files.deleteIfExists(compactedPath);
+            } catch (IOException ignored) {
+            }
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * @return share of garbage records in log.
+     */
+    double getGarbageRatio() throws MS_RepositoryDataExchangeException {
+        lockForReading();
+        try {
+            return recordCount == 0 ? 0 : (double) (recordCount - offsets.size()) / recordCount;
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    void close() {
+        lock.writeLock().lock();
+        try {
+            closeChannel();
+            loadedVersion = UNKNOWN_VERSION;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //*** Private methods and classes ***
+
+    private void lockForReading() throws MS_RepositoryDataExchangeException {
+        fileLock.lockForReading();
+        try {
+            reloadIfModified();
+        } catch (RuntimeException e) {
+            fileLock.unlockForReading();
+            throw e;
+        }
+        lock.readLock().lock();
+    }
+
+    private void unlockForReading() throws MS_RepositoryDataExchangeException {
+        lock.readLock().unlock();
+        fileLock.unlockForReading();
+    }
+
+    private void lockForWriting() throws MS_RepositoryDataExchangeException {
+        fileLock.lockForWriting();
+        try {
+            reloadIfModified();
+        } catch (RuntimeException e) {
+            fileLock.unlockForWriting();
+            throw e;
+        }
+        lock.writeLock().lock();
+    }
+
+    private void unlockForWriting() throws MS_RepositoryDataExchangeException {
+        lock.writeLock().unlock();
+        fileLock.unlockForWriting();
+    }
+
+    /**
+     * Rebuilds index, if file was modified by other instance or process since index was built.
+     * Caller must hold lock of file.
+     */
+    private void reloadIfModified() throws MS_RepositoryDataExchangeException {
+        long version = fileLock.getVersion();
+        if (loadedVersion == version)
+            return;
+        boolean writing = fileLock.isLockedForWritingByCurrentThread();
+        lock.writeLock().lock();
+        try {
+            //every lock for writing increments version, so index stays valid only if it was valid right before it
+            if (writing && loadedVersion == version - 1)
+                loadedVersion = version;
+            else if (loadedVersion != version)
+                load(writing);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds index of records from file. Caller must hold lock of file and write lock of log.
+     *
+     * @param truncate true if incomplete line at the end of file must be cut off, which is allowed only while
+     *                 file is locked for writing.
+     */
+    private void load(boolean truncate) throws MS_RepositoryDataExchangeException {
+        try {
+            loadedVersion = UNKNOWN_VERSION;
+            closeChannel();
+            offsets.clear();
+            recordCount = 0;
+            generation++;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long completeEnd;
+            try (InputStream input = Files.newInputStream(path)) {
+                completeEnd = scan(input, Long.MAX_VALUE, (offset, line) -> {
+                    String decoded = decode(line);
+                    MS_StringList fields = parse(decoded);
+                    if (isTombstone(fields))
+                        offsets.remove(fields.get(0));
+                    else
+                        offsets.put(fields.get(0), offset);
+                    recordCount++;
+                });
+            }
+            if (truncate && completeEnd < channel.size())
+                channel.truncate(completeEnd);
+            fileEnd = completeEnd;
+            loadedVersion = fileLock.getVersion();
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to open log file:\n" + path, e);
+        }
+    }
+
+    private void compactInBackgroundIfNeeded() {
+        long garbage;
+        long records;
+        lock.readLock().lock();
+        try {
+            records = recordCount;
+            garbage = recordCount - offsets.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (garbage == 0 || garbage < minimumCompactionGarbage || garbage < compactionThreshold * records)
+            return;
+        if (compactionScheduled.compareAndSet(false, true)) {
+            COMPACTION_EXECUTOR.execute(() -> {
+                boolean compacted = false;
+                try {
+                    compact();
+                    compacted = true;
+                } catch (MS_RepositoryDataExchangeException ignored) {
+                    //log stays valid, so compaction will be tried again after next modification
+                } finally {
+                    compactionScheduled.set(false);
+                }
+                //records appended during compaction might have produced enough garbage for next one
+                if (compacted)
+                    compactInBackgroundIfNeeded();
+            });
+        }
+    }
+
+    private MS_StringList parse(String line) {
+        MS_StringList fields = new MS_StringList(line, delimiter);
+        if (fields.size() == 0)
+            throw new MS_RepositoryDataExchangeException("Failed to parse corrupted line in log file:\n" + line);
+        return fields;
+    }
+
+    private boolean isTombstone(MS_StringList fields) {
+        return fields.size() > fieldCount;
+    }
+
+    private String tombstone(String identifier) {
+        MS_StringList fields = new MS_StringList(delimiter);
+        fields.add(identifier);
+        for (int i = 0; i < fieldCount; i++)
+            fields.add(TOMBSTONE_FIELD);
+        return fields.toStringWithNoLastDelimiter();
+    }
+
+    private String decode(byte[] line) {
+        return new String(line, charset);
+    }
+
+    private void writeLine(ByteArrayOutputStream bytes, String line) {
+        byte[] encoded = line.getBytes(charset);
+        bytes.write(encoded, 0, encoded.length);
+        bytes.write(lineSeparator, 0, lineSeparator.length);
+    }
+
+    private void write(ByteArrayOutputStream bytes) throws MS_RepositoryDataExchangeException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            long position = fileEnd;
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            fileEnd = position;
+            MS_FileSync.written(path, channel, setup);
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to write to log file:\n" + path, e);
+        }
+    }
+
+    private String readLine(long offset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(LINE_READ_BUFFER_SIZE);
+        long position = offset;
+        while (position < fileEnd) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    line.write(bytes, 0, i);
+                    return decode(trimCarriageReturn(line.toByteArray()));
+                }
+            }
+            line.write(bytes, 0, read);
+            position += read;
+        }
+        return decode(trimCarriageReturn(line.toByteArray()));
+    }
+
+    /**
+     * Reads complete lines until <b>end</b> or end of stream.
+     *
+     * @return offset after the last complete line.
+     */
+    private long scan(InputStream input, long end, LineConsumer consumer) throws IOException {
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = 0;
+        long lineStart = 0;
+        int read;
+        while (position < end && (read = input.read(buffer, 0, (int) Math.min(buffer.length, end - position))) != -1) {
+            int chunkStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    line.write(buffer, chunkStart, i - chunkStart);
+                    consumer.accept(lineStart, trimCarriageReturn(line.toByteArray()));
+                    line.reset();
+                    chunkStart = i + 1;
+                    lineStart = position + i + 1;
+                }
+            }
+            line.write(buffer, chunkStart, read - chunkStart);
+            position += read;
+        }
+        return lineStart;
+    }
+
+    private static byte[] trimCarriageReturn(byte[] line) {
+        int length = line.length;
+        if (length > 0 && line[length - 1] == '\r')
+            length--;
+        if (length == line.length) return line;
+        byte[] res = new byte[length];
+        System.arraycopy(line, 0, res, 0, length);
+        return res;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Sequential reader of live records opened by {@link #openReader()}.
+     */
+    final class RecordReader implements AutoCloseable {
+
+        private final Set<Long> liveOffsets;
+        private final long end;
+        private final InputStream input;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private long position;
+
+        private RecordReader(Set<Long> liveOffsets, long end, InputStream input) {
+            this.liveOffsets = liveOffsets;
+            this.end = end;
+            this.input = input;
+        }
+
+        /**
+         * @return identifier and complete line of the next live record or <code>null</code> if there are no more
+         * records.
+         * @throws MS_RepositoryDataExchangeException if file cannot be read.
+         */
+        Map.Entry<String, String> next() throws MS_RepositoryDataExchangeException {
+            try {
+                while (position < end) {
+                    long lineStart = position;
+                    line.reset();
+                    int b;
+                    while ((b = input.read()) != '\n') {
+                        if (b == -1)
+                            return null; //file is truncated meanwhile
+                        line.write(b);
+                    }
+                    position += line.size() + 1;
+                    if (liveOffsets.contains(lineStart)) {
+                        String decoded = decode(trimCarriageReturn(line.toByteArray()));
+                        return new AbstractMap.SimpleImmutableEntry<>(parse(decoded).get(0), decoded);
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                throw new MS_RepositoryDataExchangeException("Failed to read from log file:\n" + path, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    private interface LineConsumer {
+        void accept(long offset, byte[] line) throws IOException;
+    }
+}
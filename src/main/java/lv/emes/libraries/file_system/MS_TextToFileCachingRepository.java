@@ -1,16 +1,31 @@
 package lv.emes.libraries.file_system;
 
+import lv.emes.libraries.storage.IFuncUpsertOperation;
+import lv.emes.libraries.storage.MS_CacheEntry;
 import lv.emes.libraries.storage.MS_CachingRepository;
+import lv.emes.libraries.storage.MS_CountingBloomFilter;
 import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.lists.MS_StringList;
-import lv.emes.libraries.utilities.MS_CodingUtils;
-import lv.emes.libraries.utilities.MS_ExecutionFailureException;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import static lv.emes.libraries.file_system.MS_FileSystemTools._SLASH;
 import static lv.emes.libraries.utilities.MS_DateTimeUtils.*;
@@ -18,15 +33,64 @@ import static lv.emes.libraries.utilities.MS_DateTimeUtils.*;
 /**
  * Cache repository to cache texts in file system.
  * Recommended to store only few texts, because every operation requires reading whole file.
+ * For bulk changes use batch operations (<b>putAll</b>, <b>findAll</b>, <b>removeAll</b>), which read and
+ * rewrite file only once per whole batch.
+ * <p>Expiration time is stored in file as date and time, and it's converted to monotonic clock based
+ * {@link MS_CacheEntry} only for the object requested by cache, so cache checks expiration with single comparison.
+ * <p>Lookups of missing identifiers don't read file at all: repository keeps in-memory Bloom filter
+ * ({@link MS_CountingBloomFilter}) of identifiers stored in file. Filter is built at the first lookup and updated
+ * by every modification. If file is modified by other instance or process, filter is rebuilt at the next lookup.
+ * Definite misses are answered from filter without locking of file, as long as no instance in this JVM has seen
+ * newer version of file meanwhile. That's why item added by other process can be reported missing, until this JVM
+ * locks file again (for modification or for lookup of identifier, which might be in file).
+ * <p>Besides file repository keeps lock file (name of file with suffix <b>.lock</b>) next to it, which holds
+ * version of file (see {@link MS_FileReadWriteLock}). It must not be deleted while file is in use.
+ * <p>File is guarded by {@link MS_FileReadWriteLock}: lookups read file in parallel, while every modification
+ * (whole read-modify-write cycle) has exclusive access to it, also among processes sharing the same file.
+ * <p>Repository constructed with {@link MS_TextFileRepositorySetup#withLogStructuredStorage(boolean)} uses file as
+ * append-only log: modifications append lines instead of rewriting file, lookups read single line using in-memory
+ * index of line offsets, and file is compacted in background, when too many lines are overwritten or removed.
+ * Log is guarded by the same lock of file as ordinary file is, and index of log is rebuilt, whenever file is
+ * modified by other instance or process (see {@link MS_TextRecordLog}).
+ * <p>Repository constructed with {@link MS_TextFileRepositorySetup#withRecordFormat(MS_RecordFormatEnum)} set to
+ * {@link MS_RecordFormatEnum#BINARY} stores records in binary format ({@link MS_BinaryRecordFile}) with expiration
+ * time as fixed-width number, so neither text nor date has to be parsed. Existing file can be converted to this
+ * format by {@link #convertFromTextFormat}.
+ * <p>Whole file is replaced atomically by renaming of temporary file, and written data is forced to storage device
+ * according to {@link MS_TextFileRepositorySetup#withSyncPolicy(MS_FileSyncPolicyEnum)}.
+ * <p>Public methods:
+ * <ul>
+ * <li>compact</li>
+ * <li>convertFromTextFormat</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getSetup</li>
+ * <li>getGarbageRatio</li>
+ * </ul>
  *
  * @author eMeS
- * @version 1.0.
+ * @version 1.9.
  */
 public class MS_TextToFileCachingRepository extends MS_CachingRepository<String, String> {
 
+    private static final int MINIMUM_KEY_FILTER_CAPACITY = 1024;
+    //identifier, expiration time and text
+    private static final int FIELD_COUNT = 3;
+
+    private final MS_TextFileRepositorySetup setup;
     private String pathToFile;
-    private MS_TextFile file;
-    private boolean fileLocked = false;
+    //log of records in log-structured mode, null otherwise
+    private MS_TextRecordLog log;
+    //file of records in binary format, null for text format
+    private MS_BinaryRecordFile binaryFile;
+    //in log-structured mode it also guards read-modify-write cycles of log, so concurrent modifications aren't lost
+    private MS_FileReadWriteLock fileLock;
+    //keys of items stored in file; built on first lookup, so null until then
+    private volatile MS_CountingBloomFilter<String> keyFilter;
+    //version of file (see MS_FileReadWriteLock), which key filter corresponds to
+    private volatile long keyFilterVersion;
+    private final Object keyFilterMonitor = new Object();
 
     /**
      * Constructs file system new caching repository for texts.
@@ -35,7 +99,7 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
      * @param fileName     short filename (without any slashes) of text file, where text entries will be cached.
      */
     public MS_TextToFileCachingRepository(String fileRootPath, String fileName) {
-        super(fileRootPath, fileName);
+        this(fileRootPath, fileName, false, new MS_TextFileRepositorySetup());
     }
 
     /**
@@ -46,7 +110,29 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
      * @param autoInitialize if initialization needs to be performed right after successful construction.
      */
     public MS_TextToFileCachingRepository(String fileRootPath, String fileName, boolean autoInitialize) {
-        super(fileRootPath, fileName, autoInitialize);
+        this(fileRootPath, fileName, autoInitialize, new MS_TextFileRepositorySetup());
+    }
+
+    /**
+     * Constructs and initializes file system new caching repository for texts.
+     *
+     * @param fileRootPath full path (without ending slash) to folder, where file will be created.
+     * @param fileName     short filename (without any slashes) of text file, where text entries will be cached.
+     * @param setup        setup of file storage.
+     * @throws NullPointerException if <b>setup</b> is <code>null</code>.
+     */
+    public MS_TextToFileCachingRepository(String fileRootPath, String fileName, MS_TextFileRepositorySetup setup) {
+        this(fileRootPath, fileName, true, setup);
+    }
+
+    private MS_TextToFileCachingRepository(String fileRootPath, String fileName, boolean autoInitialize, MS_TextFileRepositorySetup setup) {
+        super(fileRootPath, fileName, false);
+        if (setup == null)
+            throw new NullPointerException("Text file caching repository cannot be constructed, because setup is null");
+        if (setup.isLogStructuredStorage() && setup.getRecordFormat() != MS_RecordFormatEnum.TEXT)
+            throw new MS_BadSetupException("Log-structured storage supports only text format of records");
+        this.setup = setup;
+        if (autoInitialize) init();
     }
 
     @Override
@@ -58,17 +144,92 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
     protected void doInitialize() {
         pathToFile = getRepositoryRoot() + _SLASH + getRepositoryCategoryName();
         MS_TextFile.createEmptyFile(pathToFile);
-        file = new MS_TextFile(pathToFile);
+        fileLock = MS_FileReadWriteLock.forFile(pathToFile);
+        binaryFile = setup.getRecordFormat() == MS_RecordFormatEnum.BINARY ?
+                new MS_BinaryRecordFile(pathToFile, setup) : null;
+        keyFilter = null;
+        if (log != null)
+            log.close();
+        log = null;
+        if (setup.isLogStructuredStorage()) {
+            log = new MS_TextRecordLog(pathToFile, MS_StringList._DEFAULT_DELIMITER, FIELD_COUNT, setup, fileLock);
+            log.open();
+        }
+    }
+
+    /**
+     * Rewrites file of log-structured repository leaving only the latest lines of objects.
+     * Usually there is no need to call it, because file is compacted in background.
+     *
+     * @throws UnsupportedOperationException      if repository is not initialized or it's not log-structured.
+     * @throws MS_RepositoryDataExchangeException if file cannot be rewritten.
+     */
+    public void compact() throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        if (log == null)
+            throw new UnsupportedOperationException("Only log-structured repository can be compacted");
+        log.compact();
+    }
+
+    /**
+     * Converts file of repository from text format to format of given setup. File must not be used by
+     * repositories with text format after conversion.
+     *
+     * @param fileRootPath full path (without ending slash) to folder, where file is located.
+     * @param fileName     short filename (without any slashes) of text file.
+     * @param setup        setup of repository, which will use converted file.
+     * @throws MS_BadSetupException               if <b>setup</b> doesn't use binary format of records.
+     * @throws MS_RepositoryDataExchangeException if file cannot be read or written.
+     */
+    public static void convertFromTextFormat(String fileRootPath, String fileName, MS_TextFileRepositorySetup setup)
+            throws MS_BadSetupException, MS_RepositoryDataExchangeException {
+        if (setup.getRecordFormat() != MS_RecordFormatEnum.BINARY)
+            throw new MS_BadSetupException("File can be converted only to binary format of records");
+        MS_TextToFileCachingRepository source = new MS_TextToFileCachingRepository(fileRootPath, fileName, true);
+        MS_TextToFileCachingRepository target = new MS_TextToFileCachingRepository(fileRootPath, fileName, setup);
+        //both repositories share the same lock of file
+        source.fileLock.lockForWriting();
+        try {
+            target.rewriteFile(source.doFindAll());
+        } finally {
+            source.fileLock.unlockForWriting();
+        }
+    }
+
+    public MS_TextFileRepositorySetup getSetup() {
+        return setup;
+    }
+
+    /**
+     * @return share of overwritten and removed lines in file of log-structured repository or 0 for ordinary one.
+     */
+    public double getGarbageRatio() {
+        return log == null ? 0 : log.getGarbageRatio();
     }
 
     @Override
     protected Map<String, Pair<String, LocalDateTime>> doFindAll() {
         Map<String, Pair<String, LocalDateTime>> res = new LinkedHashMap<>();
+        if (log != null) {
+            log.readAll().forEach((id, line) -> res.put(id, toPair(line)));
+            return res;
+        }
+        if (binaryFile != null) {
+            fileLock.lockForReading();
+            try {
+                res.putAll(binaryFile.readAll());
+            } finally {
+                fileLock.unlockForReading();
+            }
+            return res;
+        }
         String line = "";
 
-        waitAndLockFile();
+        //every reader needs its own file, because readers don't block each other
+        MS_TextFile reader = new MS_TextFile(pathToFile);
+        fileLock.lockForReading();
         try {
-            while ((line = file.readln()) != null) {
+            while ((line = reader.readln()) != null) {
                 CachedText text = CachedText.newInstance(line);
                 res.put(text.getId(), Pair.of(text.getText(), text.getExpirationTime()));
             }
@@ -77,8 +238,8 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
         } catch (Exception e) {
             throw new MS_RepositoryDataExchangeException("Failed to read from file:\n" + pathToFile, e);
         } finally {
-            file.close();
-            releaseFile();
+            reader.close();
+            fileLock.unlockForReading();
         }
 
         return res;
@@ -86,25 +247,37 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
 
     @Override
     protected void doRemoveAll() {
-        waitAndLockFile();
-        //just recreate file
-        if (!(MS_FileSystemTools.deleteFile(pathToFile) & MS_TextFile.createEmptyFile(pathToFile))) {
-            releaseFile();
-            throw new MS_RepositoryDataExchangeException("Failed to remove all cached items. " +
-                    "Cannot delete corresponding file:\n" + pathToFile);
-        } else {
-            releaseFile();
+        if (log != null) {
+            log.clear();
+            return;
+        }
+        lockForModification();
+        try {
+            recreateFile();
+            MS_CountingBloomFilter<String> filter = keyFilter;
+            if (filter != null)
+                filter.clear();
+        } finally {
+            fileLock.unlockForWriting();
         }
     }
 
     @Override
     protected int doGetSize() {
-        waitAndLockFile();
-        int fileSize = 0;
-        while (file.readln() != null) fileSize++;
-        file.close();
-        releaseFile();
-        return fileSize;
+        if (log != null)
+            return log.size();
+        MS_TextFile reader = new MS_TextFile(pathToFile);
+        fileLock.lockForReading();
+        try {
+            if (binaryFile != null)
+                return binaryFile.count();
+            int fileSize = 0;
+            while (reader.readln() != null) fileSize++;
+            return fileSize;
+        } finally {
+            reader.close();
+            fileLock.unlockForReading();
+        }
     }
 
     @Override
@@ -117,36 +290,288 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
     @Override
     public Pair<String, LocalDateTime> put(String identifier, Pair<String, LocalDateTime> item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, Pair<String, LocalDateTime>> all = doFindAll();
-        Pair<String, LocalDateTime> previous = all.put(identifier, item);
-        rewriteFile(all);
-        return previous;
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                Pair<String, LocalDateTime> previous = toPair(log.read(identifier));
+                log.append(identifier, toLine(identifier, item));
+                return previous;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            Pair<String, LocalDateTime> previous = all.put(identifier, item);
+            if (previous == null)
+                keyAdded(identifier);
+            rewriteFile(all);
+            return previous;
+        } finally {
+            fileLock.unlockForWriting();
+        }
     }
 
     @Override
     public void add(String identifier, Pair<String, LocalDateTime> item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, Pair<String, LocalDateTime>> all = doFindAll();
-        Pair<String, LocalDateTime> previous = all.get(identifier);
-        if (previous == null) {
-            all.put(identifier, item);
-            rewriteFile(all);
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                if (!log.contains(identifier))
+                    log.append(identifier, toLine(identifier, item));
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            Pair<String, LocalDateTime> previous = all.get(identifier);
+            if (previous == null) {
+                all.put(identifier, item);
+                keyAdded(identifier);
+                rewriteFile(all);
+            }
+        } finally {
+            fileLock.unlockForWriting();
         }
     }
 
     @Override
     public void remove(String identifier) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, Pair<String, LocalDateTime>> all = doFindAll();
-        if (all.remove(identifier) != null) //only if some item was removed from cache then changes in file are needed
-            rewriteFile(all);
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                log.remove(Collections.singletonList(identifier));
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            if (all.remove(identifier) != null) { //only if some item was removed from cache then changes in file are needed
+                rewriteFile(all);
+                keyRemoved(identifier);
+            }
+        } finally {
+            fileLock.unlockForWriting();
+        }
     }
 
     @Override
     public Pair<String, LocalDateTime> find(String identifier) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, Pair<String, LocalDateTime>> all = doFindAll();
-        return all.get(identifier);
+        if (log != null)
+            return toPair(log.read(identifier));
+        if (isDefinitelyMissing(identifier))
+            return null;
+        fileLock.lockForReading();
+        try {
+            if (!mightContain(identifier))
+                return null;
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            return all.get(identifier);
+        } finally {
+            fileLock.unlockForReading();
+        }
+    }
+
+    @Override
+    protected void doPutAll(Map<String, Pair<String, LocalDateTime>> items) {
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                Map<String, String> lines = new LinkedHashMap<>();
+                items.forEach((identifier, item) -> lines.put(identifier, toLine(identifier, item)));
+                log.append(lines);
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            items.keySet().forEach(identifier -> {
+                if (!all.containsKey(identifier))
+                    keyAdded(identifier);
+            });
+            all.putAll(items);
+            rewriteFile(all);
+        } finally {
+            fileLock.unlockForWriting();
+        }
+    }
+
+    @Override
+    protected Map<String, Pair<String, LocalDateTime>> doFindAll(Collection<String> identifiers) {
+        if (log != null) {
+            Map<String, Pair<String, LocalDateTime>> res = new LinkedHashMap<>();
+            for (String identifier : identifiers) {
+                String line = log.read(identifier);
+                if (line != null)
+                    res.put(identifier, toPair(line));
+            }
+            return res;
+        }
+        List<String> candidates = new ArrayList<>();
+        for (String identifier : identifiers)
+            if (!isDefinitelyMissing(identifier))
+                candidates.add(identifier);
+        Map<String, Pair<String, LocalDateTime>> res = new LinkedHashMap<>();
+        if (candidates.isEmpty())
+            return res; //file isn't even locked
+        fileLock.lockForReading();
+        try {
+            candidates.removeIf(identifier -> !mightContain(identifier));
+            if (candidates.isEmpty())
+                return res; //file isn't read at all
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            for (String identifier : candidates) {
+                Pair<String, LocalDateTime> item = all.get(identifier);
+                if (item != null)
+                    res.put(identifier, item);
+            }
+            return res;
+        } finally {
+            fileLock.unlockForReading();
+        }
+    }
+
+    @Override
+    protected void doRemoveAll(Collection<String> identifiers) {
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                log.remove(identifiers);
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            List<String> removed = new ArrayList<>();
+            for (String identifier : identifiers)
+                if (all.remove(identifier) != null)
+                    removed.add(identifier);
+            if (!removed.isEmpty()) {
+                rewriteFile(all);
+                removed.forEach(this::keyRemoved);
+            }
+        } finally {
+            fileLock.unlockForWriting();
+        }
+    }
+
+    @Override
+    protected Pair<String, LocalDateTime> doUpsert(String identifier, IFuncUpsertOperation<Pair<String, LocalDateTime>, String> upsertOperation) {
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                Pair<String, LocalDateTime> current = toPair(log.read(identifier));
+                Pair<String, LocalDateTime> updated = upsertOperation.apply(current, identifier);
+                if (updated == current)
+                    return updated;
+                if (updated != null)
+                    log.append(identifier, toLine(identifier, updated));
+                else if (current != null)
+                    log.remove(Collections.singletonList(identifier));
+                return updated;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            Pair<String, LocalDateTime> current = all.get(identifier);
+            Pair<String, LocalDateTime> updated = upsertOperation.apply(current, identifier);
+            if (updated == current)
+                return updated; //nothing to change in file
+            if (updated != null) {
+                if (all.put(identifier, updated) == null)
+                    keyAdded(identifier);
+            } else if (all.remove(identifier) == null) {
+                return null; //nothing to change in file
+            }
+            rewriteFile(all);
+            if (updated == null)
+                keyRemoved(identifier);
+            return updated;
+        } finally {
+            fileLock.unlockForWriting();
+        }
+    }
+
+    @Override
+    protected boolean doRemoveEntryIf(String identifier, Predicate<MS_CacheEntry<String>> condition) {
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                String line = log.read(identifier);
+                if (line == null || !condition.test(MS_CacheEntry.fromPair(toPair(line))))
+                    return false;
+                log.remove(Collections.singletonList(identifier));
+                return true;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, Pair<String, LocalDateTime>> all = doFindAll();
+            Pair<String, LocalDateTime> current = all.get(identifier);
+            if (current == null || !condition.test(MS_CacheEntry.fromPair(current)))
+                return false;
+            all.remove(identifier);
+            rewriteFile(all);
+            keyRemoved(identifier);
+            return true;
+        } finally {
+            fileLock.unlockForWriting();
+        }
+    }
+
+    @Override
+    protected MS_CacheEntry<String> doFindEntry(String identifier) {
+        if (log != null)
+            return MS_CacheEntry.fromPair(toPair(log.read(identifier)));
+        if (isDefinitelyMissing(identifier))
+            return null;
+        fileLock.lockForReading();
+        try {
+            if (!mightContain(identifier))
+                return null;
+            if (binaryFile != null)
+                return MS_CacheEntry.fromPair(binaryFile.read(identifier));
+            String line = "";
+            MS_TextFile reader = new MS_TextFile(pathToFile);
+            try {
+                //only the line of requested object is parsed completely
+                while ((line = reader.readln()) != null) {
+                    MS_StringList parts = new MS_StringList(line);
+                    if (identifier.equals(parts.get(0)))
+                        return MS_CacheEntry.fromPair(Pair.of(parts.get(2), CachedText.parseExpirationTime(parts.get(1))));
+                }
+                return null;
+            } catch (IndexOutOfBoundsException | DateTimeParseException e) {
+                throw new MS_RepositoryDataExchangeException("Failed to parse corrupted line in file:\n" + line, e);
+            } catch (Exception e) {
+                throw new MS_RepositoryDataExchangeException("Failed to read from file:\n" + pathToFile, e);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            fileLock.unlockForReading();
+        }
     }
 
     //following 3 methods are disabled because main methods are overridden (above) to improve performance of this repository
@@ -169,51 +594,134 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
     //*** Private methods and classes ***
 
     /**
-     * Locks file for caching from other threads.
+     * Locks file for whole read-modify-write cycle. Lock must be released by
+     * {@link MS_FileReadWriteLock#unlockForWriting()}.
      */
-    private void waitAndLockFile() {
-        waitUntilFileReleased();
-        lockFile();
+    private void lockForModification() {
+        fileLock.lockForWriting();
+        //every lock for writing increments version, so filter stays valid only if it was valid right before it
+        long version = fileLock.getVersion();
+        if (keyFilterVersion == version - 1)
+            keyFilterVersion = version;
+        else if (keyFilterVersion != version)
+            keyFilter = null;
     }
 
-    private synchronized void lockFile() {
-        this.fileLocked = true;
+    /**
+     * Truncates file. File isn't deleted, so that repository stays initialized for other threads.
+     * Caller must hold lock of file for writing.
+     */
+    private void recreateFile() {
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MS_FileSync.written(Paths.get(pathToFile), channel, setup);
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to remove all cached items. " +
+                    "Cannot truncate corresponding file:\n" + pathToFile, e);
+        }
     }
 
-    private synchronized void releaseFile() {
-        fileLocked = false;
+    /**
+     * Checks key filter without locking of file, so that definite miss doesn't touch file system at all. Filter is
+     * trusted only if no instance in this JVM has locked file at newer version since filter was built or updated,
+     * otherwise lookup proceeds under lock of file, where filter is validated against current version of file.
+     *
+     * @return true if file definitely doesn't contain item with given identifier.
+     */
+    private boolean isDefinitelyMissing(String identifier) {
+        //version is read before filter, because filter is replaced before its version is updated
+        long version = keyFilterVersion;
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        return filter != null && version == fileLock.getVersion() && !filter.mightContain(identifier);
     }
 
-    private synchronized boolean isFileLocked() {
-        return fileLocked;
+    /**
+     * Checks key filter before reading file. Filter is built from file at the first lookup and rebuilt, if file
+     * was modified by other instance or process. Caller must hold lock of file.
+     *
+     * @return false if file definitely doesn't contain item with given identifier.
+     */
+    private boolean mightContain(String identifier) {
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        long version = fileLock.getVersion();
+        if (filter == null || keyFilterVersion != version) {
+            synchronized (keyFilterMonitor) {
+                if (keyFilter == null || keyFilterVersion != version) {
+                    Collection<String> identifiers = doFindAll().keySet();
+                    MS_CountingBloomFilter<String> newFilter =
+                            new MS_CountingBloomFilter<>(Math.max(identifiers.size() * 2, MINIMUM_KEY_FILTER_CAPACITY));
+                    identifiers.forEach(newFilter::add);
+                    keyFilter = newFilter;
+                    keyFilterVersion = version;
+                }
+                filter = keyFilter;
+            }
+        }
+        return filter.mightContain(identifier);
     }
 
-    private void waitUntilFileReleased() {
-        try {
-            MS_CodingUtils.executeWithRetry(100, () -> {
-                if (isFileLocked())
-                    throw new MS_ExecutionFailureException();
-            }, () -> MS_CodingUtils.sleep(10));
-        } catch (MS_ExecutionFailureException e) {
-            throw new MS_RepositoryDataExchangeException("Thread failed to execute within ~1 second lasting attempt of " +
-                    "waiting until file is released by another thread", e);
+    /**
+     * Must be called before new item is written to file, so that lookups never miss it.
+     */
+    private void keyAdded(String identifier) {
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        if (filter != null) {
+            filter.add(identifier);
+            if (filter.isOverloaded())
+                keyFilter = null; //bigger filter will be built at the next lookup
         }
     }
 
+    /**
+     * Must be called after item is removed from file.
+     */
+    private void keyRemoved(String identifier) {
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        if (filter != null)
+            filter.remove(identifier);
+    }
+
+    /**
+     * Replaces content of file atomically (see {@link MS_FileSync}). Lines are written in the same charset and
+     * with the same line separator as {@link MS_TextFile} does. Caller must hold lock of file for writing.
+     */
     private void rewriteFile(Map<String, Pair<String, LocalDateTime>> cachedObjects) {
-        doRemoveAll();
-        waitAndLockFile();
-        cachedObjects.forEach((id, objToCache) -> {
-            MS_StringList parts = new MS_StringList();
-            parts.add(id);
-            String expDatePart = objToCache.getRight() == null ? "null" :
-                    dateTimeToStr(objToCache.getRight(), _CUSTOM_DATE_TIME_FORMAT_LV);
-            parts.add(expDatePart);
-            parts.add(objToCache.getLeft());
-            file.appendln(parts.toStringWithNoLastDelimiter(), false);
+        if (binaryFile != null) {
+            binaryFile.writeAll(cachedObjects);
+            return;
+        }
+        MS_FileSync.replace(Paths.get(pathToFile), setup, output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, Charset.defaultCharset()));
+            for (Map.Entry<String, Pair<String, LocalDateTime>> entry : cachedObjects.entrySet()) {
+                writer.write(toLine(entry.getKey(), entry.getValue()));
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
         });
-        file.close();
-        releaseFile();
+    }
+
+    private static String toLine(String identifier, Pair<String, LocalDateTime> objToCache) {
+        MS_StringList parts = new MS_StringList();
+        parts.add(identifier);
+        String expDatePart = objToCache.getRight() == null ? "null" :
+                dateTimeToStr(objToCache.getRight(), _CUSTOM_DATE_TIME_FORMAT_LV);
+        parts.add(expDatePart);
+        parts.add(objToCache.getLeft());
+        return parts.toStringWithNoLastDelimiter();
+    }
+
+    /**
+     * @return parsed line or <code>null</code> if <b>line</b> is <code>null</code>.
+     * @throws MS_RepositoryDataExchangeException if line is corrupted.
+     */
+    private static Pair<String, LocalDateTime> toPair(String line) throws MS_RepositoryDataExchangeException {
+        if (line == null) return null;
+        try {
+            CachedText text = CachedText.newInstance(line);
+            return Pair.of(text.getText(), text.getExpirationTime());
+        } catch (IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to parse corrupted line in file:\n" + line, e);
+        }
     }
 
     private static class CachedText {
@@ -251,15 +759,16 @@ public class MS_TextToFileCachingRepository extends MS_CachingRepository<String,
 
         public static CachedText newInstance(String line) {
             MS_StringList parts = new MS_StringList(line);
-            String expDatePart = parts.get(1);
-            LocalDateTime expDate = "null".equals(expDatePart) ? null :
-                    formatDateTime(expDatePart, _CUSTOM_DATE_TIME_FORMAT_LV).toLocalDateTime();
-
             return new CachedText()
                     .withId(parts.get(0))
-                    .withExpirationTime(expDate)
+                    .withExpirationTime(parseExpirationTime(parts.get(1)))
                     .withText(parts.get(2))
                     ;
         }
+
+        public static LocalDateTime parseExpirationTime(String expDatePart) {
+            return "null".equals(expDatePart) ? null :
+                    formatDateTime(expDatePart, _CUSTOM_DATE_TIME_FORMAT_LV).toLocalDateTime();
+        }
     }
 }
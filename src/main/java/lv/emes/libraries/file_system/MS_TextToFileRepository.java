@@ -1,15 +1,35 @@
 package lv.emes.libraries.file_system;
 
 import lv.emes.libraries.storage.BatchAddOperation;
+import lv.emes.libraries.storage.IFuncUpsertOperation;
 import lv.emes.libraries.storage.MS_Repository;
+import lv.emes.libraries.storage.MS_CountingBloomFilter;
 import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.lists.MS_StringList;
-import lv.emes.libraries.utilities.MS_CodingUtils;
-import lv.emes.libraries.utilities.MS_ExecutionFailureException;
-
-import java.util.HashMap;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import static lv.emes.libraries.file_system.MS_FileSystemTools._SLASH;
 
@@ -19,18 +39,72 @@ import static lv.emes.libraries.file_system.MS_FileSystemTools._SLASH;
  *     <b>Line 1</b>: identifier1#Some data#<br>
  *     <b>Line 2</b>: identifier2#Some other data#<br>
  * Recommended to store only few texts, because every operation requires reading whole file.
+ * For bulk changes use batch operations (<b>putAll</b>, <b>findAll</b>, <b>removeAll</b>), which read and
+ * rewrite file only once per whole batch.
+ * <p>Lookups of missing identifiers don't read file at all: repository keeps in-memory Bloom filter
+ * ({@link MS_CountingBloomFilter}) of identifiers stored in file. Filter is built at the first lookup and updated
+ * by every modification. If file is modified by other instance or process, filter is rebuilt at the next lookup.
+ * Definite misses are answered from filter without locking of file, as long as no instance in this JVM has seen
+ * newer version of file meanwhile. That's why item added by other process can be reported missing, until this JVM
+ * locks file again (for modification or for lookup of identifier, which might be in file).
+ * <p>Besides file repository keeps lock file (name of file with suffix <b>.lock</b>) next to it, which holds
+ * version of file (see {@link MS_FileReadWriteLock}). It must not be deleted while file is in use.
+ * <p>File is guarded by {@link MS_FileReadWriteLock}: lookups read file in parallel, while every modification
+ * (whole read-modify-write cycle) has exclusive access to it, also among processes sharing the same file.
+ * <p>Repository constructed with {@link MS_TextFileRepositorySetup#withLogStructuredStorage(boolean)} uses file as
+ * append-only log: modifications append lines instead of rewriting file, lookups read single line using in-memory
+ * index of line offsets, and file is compacted in background, when too many lines are overwritten or removed.
+ * Log is guarded by the same lock of file as ordinary file is, and index of log is rebuilt, whenever file is
+ * modified by other instance or process (see {@link MS_TextRecordLog}).
+ * <p>Repository constructed with {@link MS_TextFileRepositorySetup#withRecordFormat(MS_RecordFormatEnum)} set to
+ * {@link MS_RecordFormatEnum#BINARY} stores records in binary format ({@link MS_BinaryRecordFile}), which is read
+ * without parsing of text. Existing file can be converted to this format by {@link #convertFromTextFormat}.
+ * <p>Whole file is replaced atomically by renaming of temporary file, and written data is forced to storage device
+ * according to {@link MS_TextFileRepositorySetup#withSyncPolicy(MS_FileSyncPolicyEnum)}.
+ * Batch additions committed by different threads at the same time are written to file at once
+ * (see {@link MS_TextFileRepositorySetup#withGroupCommitWindow(long)}).
+ * <p>Iteration (<b>stream</b>, <b>forEachItem</b>, page lookups) reads file line by line, so only current item
+ * is held in memory. It reads content of file, which was current when iteration started, and file isn't locked
+ * meanwhile. Log-structured repository reads items, which were live when iteration started, in order of their
+ * writing. Only iteration of file in binary format still reads all the records at once.
+ * <p>Public methods:
+ * <ul>
+ * <li>compact</li>
+ * <li>convertFromTextFormat</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getSetup</li>
+ * <li>getGarbageRatio</li>
+ * </ul>
  *
  * @author eMeS
- * @version 1.0.
+ * @version 1.9.
  * @since 2.2.2.
  */
 public class MS_TextToFileRepository extends MS_Repository<String, String> implements BatchAddOperation<String, String> {
 
     private static final char DELIMITER = '®';
+    private static final int MINIMUM_KEY_FILTER_CAPACITY = 1024;
+    //identifier and text
+    private static final int FIELD_COUNT = 2;
+    private final MS_TextFileRepositorySetup setup;
     private String pathToFile;
-    private MS_TextFile file;
-    private boolean fileLocked = false;
-    private Map<String, String> itemsToBatchAdd = new HashMap<>();
+    //log of records in log-structured mode, null otherwise
+    private MS_TextRecordLog log;
+    //file of records in binary format, null for text format
+    private MS_BinaryRecordFile binaryFile;
+    //in log-structured mode it also guards read-modify-write cycles of log, so concurrent modifications aren't lost
+    private MS_FileReadWriteLock fileLock;
+    //keys of items stored in file; built on first lookup, so null until then
+    private volatile MS_CountingBloomFilter<String> keyFilter;
+    //version of file (see MS_FileReadWriteLock), which key filter corresponds to
+    private volatile long keyFilterVersion;
+    private final Object keyFilterMonitor = new Object();
+    //guarded by itself, so that batch additions are submitted to group commit in order they are committed
+    private final Map<String, String> itemsToBatchAdd = new LinkedHashMap<>();
+    //batches of items mapped by flag of forced replacement
+    private final MS_GroupCommitWriter<Pair<Map<String, String>, Boolean>> groupCommitWriter;
 
     /**
      * Constructs new text file repository for texts.
@@ -39,7 +113,7 @@ public class MS_TextToFileRepository extends MS_Repository<String, String> imple
      * @param fileName     short filename (without any slashes) of text file, where text entries will be cached.
      */
     public MS_TextToFileRepository(String fileRootPath, String fileName) {
-        super(fileRootPath, fileName);
+        this(fileRootPath, fileName, false, new MS_TextFileRepositorySetup());
     }
 
     /**
@@ -50,7 +124,31 @@ public class MS_TextToFileRepository extends MS_Repository<String, String> imple
      * @param autoInitialize if initialization needs to be performed right after successful construction.
      */
     public MS_TextToFileRepository(String fileRootPath, String fileName, boolean autoInitialize) {
-        super(fileRootPath, fileName, autoInitialize);
+        this(fileRootPath, fileName, autoInitialize, new MS_TextFileRepositorySetup());
+    }
+
+    /**
+     * Constructs and initializes new text file repository for texts.
+     *
+     * @param fileRootPath full path (without ending slash) to folder, where file will be created.
+     * @param fileName     short filename (without any slashes) of text file, where text entries will be cached.
+     * @param setup        setup of file storage.
+     * @throws NullPointerException if <b>setup</b> is <code>null</code>.
+     */
+    public MS_TextToFileRepository(String fileRootPath, String fileName, MS_TextFileRepositorySetup setup) {
+        this(fileRootPath, fileName, true, setup);
+    }
+
+    private MS_TextToFileRepository(String fileRootPath, String fileName, boolean autoInitialize, MS_TextFileRepositorySetup setup) {
+        super(fileRootPath, fileName, false);
+        if (setup == null)
+            throw new NullPointerException("Text file repository cannot be constructed, because setup is null");
+        if (setup.isLogStructuredStorage() && setup.getRecordFormat() != MS_RecordFormatEnum.TEXT)
+            throw new MS_BadSetupException("Log-structured storage supports only text format of records");
+        this.setup = setup;
+        this.groupCommitWriter = new MS_GroupCommitWriter<>(setup.getGroupCommitWindow(),
+                setup.getGroupCommitMaxRecords(), this::commitGroup);
+        if (autoInitialize) init();
     }
 
     @Override
@@ -62,17 +160,92 @@ public class MS_TextToFileRepository extends MS_Repository<String, String> imple
     protected void doInitialize() {
         pathToFile = getRepositoryRoot() + _SLASH + getRepositoryCategoryName();
         MS_TextFile.createEmptyFile(pathToFile);
-        file = new MS_TextFile(pathToFile);
+        fileLock = MS_FileReadWriteLock.forFile(pathToFile);
+        binaryFile = setup.getRecordFormat() == MS_RecordFormatEnum.BINARY ?
+                new MS_BinaryRecordFile(pathToFile, setup) : null;
+        keyFilter = null;
+        if (log != null)
+            log.close();
+        log = null;
+        if (setup.isLogStructuredStorage()) {
+            log = new MS_TextRecordLog(pathToFile, DELIMITER, FIELD_COUNT, setup, fileLock);
+            log.open();
+        }
+    }
+
+    /**
+     * Rewrites file of log-structured repository leaving only the latest lines of items.
+     * Usually there is no need to call it, because file is compacted in background.
+     *
+     * @throws UnsupportedOperationException      if repository is not initialized or it's not log-structured.
+     * @throws MS_RepositoryDataExchangeException if file cannot be rewritten.
+     */
+    public void compact() throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        if (log == null)
+            throw new UnsupportedOperationException("Only log-structured repository can be compacted");
+        log.compact();
+    }
+
+    /**
+     * Converts file of repository from text format to format of given setup. File must not be used by
+     * repositories with text format after conversion.
+     *
+     * @param fileRootPath full path (without ending slash) to folder, where file is located.
+     * @param fileName     short filename (without any slashes) of text file.
+     * @param setup        setup of repository, which will use converted file.
+     * @throws MS_BadSetupException               if <b>setup</b> doesn't use binary format of records.
+     * @throws MS_RepositoryDataExchangeException if file cannot be read or written.
+     */
+    public static void convertFromTextFormat(String fileRootPath, String fileName, MS_TextFileRepositorySetup setup)
+            throws MS_BadSetupException, MS_RepositoryDataExchangeException {
+        if (setup.getRecordFormat() != MS_RecordFormatEnum.BINARY)
+            throw new MS_BadSetupException("File can be converted only to binary format of records");
+        MS_TextToFileRepository source = new MS_TextToFileRepository(fileRootPath, fileName, true);
+        MS_TextToFileRepository target = new MS_TextToFileRepository(fileRootPath, fileName, setup);
+        //both repositories share the same lock of file
+        source.fileLock.lockForWriting();
+        try {
+            target.rewriteFile(source.doFindAll());
+        } finally {
+            source.fileLock.unlockForWriting();
+        }
+    }
+
+    public MS_TextFileRepositorySetup getSetup() {
+        return setup;
+    }
+
+    /**
+     * @return share of overwritten and removed lines in file of log-structured repository or 0 for ordinary one.
+     */
+    public double getGarbageRatio() {
+        return log == null ? 0 : log.getGarbageRatio();
     }
 
     @Override
     protected Map<String, String> doFindAll() {
         Map<String, String> res = new LinkedHashMap<>();
+        if (log != null) {
+            log.readAll().forEach((id, line) -> res.put(id, toText(line)));
+            return res;
+        }
+        if (binaryFile != null) {
+            fileLock.lockForReading();
+            try {
+                binaryFile.readAll().forEach((identifier, record) -> res.put(identifier, record.getLeft()));
+            } finally {
+                fileLock.unlockForReading();
+            }
+            return res;
+        }
         String line = "";
 
-        waitAndLockFile();
+        //every reader needs its own file, because readers don't block each other
+        MS_TextFile reader = new MS_TextFile(pathToFile);
+        fileLock.lockForReading();
         try {
-            while ((line = file.readln()) != null) {
+            while ((line = reader.readln()) != null) {
                 MS_StringList parts = new MS_StringList(line, DELIMITER);
                 res.put(parts.get(0), parts.get(1));
             }
@@ -81,34 +254,55 @@ public class MS_TextToFileRepository extends MS_Repository<String, String> imple
         } catch (Exception e) {
             throw new MS_RepositoryDataExchangeException("Failed to read from file:\n" + pathToFile, e);
         } finally {
-            file.close();
-            releaseFile();
+            reader.close();
+            fileLock.unlockForReading();
         }
 
         return res;
     }
 
+    @Override
+    protected Iterator<Map.Entry<String, String>> doIterate() {
+        if (binaryFile != null)
+            return super.doIterate();
+        if (log != null)
+            return new LogIterator();
+        return new LineIterator();
+    }
+
     @Override
     protected void doRemoveAll() {
-        waitAndLockFile();
-        //just recreate file
-        if (!(MS_FileSystemTools.deleteFile(pathToFile) & MS_TextFile.createEmptyFile(pathToFile))) {
-            releaseFile();
-            throw new MS_RepositoryDataExchangeException("Failed to remove all cached items. " +
-                    "Cannot delete corresponding file:\n" + pathToFile);
-        } else {
-            releaseFile();
+        if (log != null) {
+            log.clear();
+            return;
+        }
+        lockForModification();
+        try {
+            recreateFile();
+            MS_CountingBloomFilter<String> filter = keyFilter;
+            if (filter != null)
+                filter.clear();
+        } finally {
+            fileLock.unlockForWriting();
         }
     }
 
     @Override
     protected int doGetSize() {
-        waitAndLockFile();
-        int fileSize = 0;
-        while (file.readln() != null) fileSize++;
-        file.close();
-        releaseFile();
-        return fileSize;
+        if (log != null)
+            return log.size();
+        MS_TextFile reader = new MS_TextFile(pathToFile);
+        fileLock.lockForReading();
+        try {
+            if (binaryFile != null)
+                return binaryFile.count();
+            int fileSize = 0;
+            while (reader.readln() != null) fileSize++;
+            return fileSize;
+        } finally {
+            reader.close();
+            fileLock.unlockForReading();
+        }
     }
 
     @Override
@@ -121,58 +315,259 @@ public class MS_TextToFileRepository extends MS_Repository<String, String> imple
     @Override
     public String put(String identifier, String item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, String> all = doFindAll();
-        String previous = all.put(identifier, item);
-        rewriteFile(all);
-        return previous;
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                String previous = toText(log.read(identifier));
+                log.append(identifier, toLine(identifier, item));
+                return previous;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, String> all = doFindAll();
+            String previous = all.put(identifier, item);
+            if (previous == null)
+                keyAdded(identifier);
+            rewriteFile(all);
+            return previous;
+        } finally {
+            fileLock.unlockForWriting();
+        }
     }
 
     @Override
     public void add(String identifier, String item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, String> all = doFindAll();
-        String previous = all.get(identifier);
-        if (previous == null) {
-            all.put(identifier, item);
-            rewriteFile(all);
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                if (!log.contains(identifier))
+                    log.append(identifier, toLine(identifier, item));
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, String> all = doFindAll();
+            String previous = all.get(identifier);
+            if (previous == null) {
+                all.put(identifier, item);
+                keyAdded(identifier);
+                rewriteFile(all);
+            }
+        } finally {
+            fileLock.unlockForWriting();
         }
     }
 
     @Override
     public void batchAdd(String identifier, String item) {
-        itemsToBatchAdd.put(identifier, item);
+        synchronized (itemsToBatchAdd) {
+            itemsToBatchAdd.put(identifier, item);
+        }
     }
 
+    /**
+     * Commits items added by {@link #batchAdd(String, String)}. Commits of different threads are grouped
+     * (see {@link MS_GroupCommitWriter}), so that single rewrite of file serves all of them.
+     *
+     * @param forceReplace flag to perform deletion of items that was stored to repository before with same ID.
+     * @throws MS_RepositoryDataExchangeException if file cannot be read or written. Items stay in queue then.
+     */
     @Override
     public void commitAddition(boolean forceReplace) throws MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, String> all = doFindAll();
-        if (forceReplace) {
-            for (Map.Entry<String, String> itemToBatchAdd : itemsToBatchAdd.entrySet()) {
-                all.put(itemToBatchAdd.getKey(), itemToBatchAdd.getValue());
-            }
-        } else {
-            for (Map.Entry<String, String> itemToBatchAdd : itemsToBatchAdd.entrySet()) {
-                all.computeIfAbsent(itemToBatchAdd.getKey(), k -> itemToBatchAdd.getValue());
+        Map<String, String> items;
+        MS_GroupCommitWriter.Ticket<Pair<Map<String, String>, Boolean>> ticket;
+        synchronized (itemsToBatchAdd) {
+            items = new LinkedHashMap<>(itemsToBatchAdd);
+            itemsToBatchAdd.clear();
+            ticket = groupCommitWriter.submit(Pair.of(items, forceReplace), items.size());
+        }
+        try {
+            groupCommitWriter.await(ticket);
+        } catch (RuntimeException e) {
+            synchronized (itemsToBatchAdd) {
+                items.forEach(itemsToBatchAdd::putIfAbsent); //items added meanwhile are newer
             }
+            throw e;
         }
-        rewriteFile(all);
-        itemsToBatchAdd.clear();
     }
 
     @Override
     public void remove(String identifier) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, String> all = doFindAll();
-        if (all.remove(identifier) != null) //only if some item was removed from cache then changes in file are needed
-            rewriteFile(all);
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                log.remove(Collections.singletonList(identifier));
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, String> all = doFindAll();
+            if (all.remove(identifier) != null) { //only if some item was removed from cache then changes in file are needed
+                rewriteFile(all);
+                keyRemoved(identifier);
+            }
+        } finally {
+            fileLock.unlockForWriting();
+        }
     }
 
     @Override
     public String find(String identifier) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        Map<String, String> all = doFindAll();
-        return all.get(identifier);
+        if (log != null)
+            return toText(log.read(identifier));
+        if (isDefinitelyMissing(identifier))
+            return null;
+        fileLock.lockForReading();
+        try {
+            if (!mightContain(identifier))
+                return null;
+            Map<String, String> all = doFindAll();
+            return all.get(identifier);
+        } finally {
+            fileLock.unlockForReading();
+        }
+    }
+
+    @Override
+    protected void doPutAll(Map<String, String> items) {
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                Map<String, String> lines = new LinkedHashMap<>();
+                items.forEach((identifier, item) -> lines.put(identifier, toLine(identifier, item)));
+                log.append(lines);
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, String> all = doFindAll();
+            items.keySet().forEach(identifier -> {
+                if (!all.containsKey(identifier))
+                    keyAdded(identifier);
+            });
+            all.putAll(items);
+            rewriteFile(all);
+        } finally {
+            fileLock.unlockForWriting();
+        }
+    }
+
+    @Override
+    protected Map<String, String> doFindAll(Collection<String> identifiers) {
+        if (log != null) {
+            Map<String, String> res = new LinkedHashMap<>();
+            for (String identifier : identifiers) {
+                String line = log.read(identifier);
+                if (line != null)
+                    res.put(identifier, toText(line));
+            }
+            return res;
+        }
+        List<String> candidates = new ArrayList<>();
+        for (String identifier : identifiers)
+            if (!isDefinitelyMissing(identifier))
+                candidates.add(identifier);
+        Map<String, String> res = new LinkedHashMap<>();
+        if (candidates.isEmpty())
+            return res; //file isn't even locked
+        fileLock.lockForReading();
+        try {
+            candidates.removeIf(identifier -> !mightContain(identifier));
+            if (candidates.isEmpty())
+                return res; //file isn't read at all
+            Map<String, String> all = doFindAll();
+            for (String identifier : candidates) {
+                String item = all.get(identifier);
+                if (item != null)
+                    res.put(identifier, item);
+            }
+            return res;
+        } finally {
+            fileLock.unlockForReading();
+        }
+    }
+
+    @Override
+    protected void doRemoveAll(Collection<String> identifiers) {
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                log.remove(identifiers);
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, String> all = doFindAll();
+            List<String> removed = new ArrayList<>();
+            for (String identifier : identifiers)
+                if (all.remove(identifier) != null)
+                    removed.add(identifier);
+            if (!removed.isEmpty()) {
+                rewriteFile(all);
+                removed.forEach(this::keyRemoved);
+            }
+        } finally {
+            fileLock.unlockForWriting();
+        }
+    }
+
+    @Override
+    protected String doUpsert(String identifier, IFuncUpsertOperation<String, String> upsertOperation) {
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                String current = toText(log.read(identifier));
+                String updated = upsertOperation.apply(current, identifier);
+                if (updated == current)
+                    return updated;
+                if (updated != null)
+                    log.append(identifier, toLine(identifier, updated));
+                else if (current != null)
+                    log.remove(Collections.singletonList(identifier));
+                return updated;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, String> all = doFindAll();
+            String current = all.get(identifier);
+            String updated = upsertOperation.apply(current, identifier);
+            if (updated == current)
+                return updated; //nothing to change in file
+            if (updated != null) {
+                if (all.put(identifier, updated) == null)
+                    keyAdded(identifier);
+            } else if (all.remove(identifier) == null) {
+                return null; //nothing to change in file
+            }
+            rewriteFile(all);
+            if (updated == null)
+                keyRemoved(identifier);
+            return updated;
+        } finally {
+            fileLock.unlockForWriting();
+        }
     }
 
     //following 3 methods are disabled because main methods are overridden (above) to improve performance of this repository
@@ -195,50 +590,263 @@ public class MS_TextToFileRepository extends MS_Repository<String, String> imple
     //*** Private methods and classes ***
 
     /**
-     * Locks file for caching from other threads.
+     * Writes group of batch additions at once. Batches are applied in order, each with its own flag of forced
+     * replacement.
      */
-    private void waitAndLockFile() {
-        waitUntilFileReleased();
-        lockFile();
+    private void commitGroup(List<Pair<Map<String, String>, Boolean>> batches) {
+        if (batches.stream().allMatch(batch -> batch.getLeft().isEmpty()))
+            return; //nothing to write
+        if (log != null) {
+            fileLock.lockForWriting();
+            try {
+                Map<String, String> lines = new LinkedHashMap<>();
+                for (Pair<Map<String, String>, Boolean> batch : batches) {
+                    batch.getLeft().forEach((identifier, item) -> {
+                        if (batch.getRight() || !(lines.containsKey(identifier) || log.contains(identifier)))
+                            lines.put(identifier, toLine(identifier, item));
+                    });
+                }
+                log.append(lines);
+                return;
+            } finally {
+                fileLock.unlockForWriting();
+            }
+        }
+        lockForModification();
+        try {
+            Map<String, String> all = doFindAll();
+            for (Pair<Map<String, String>, Boolean> batch : batches) {
+                for (Map.Entry<String, String> itemToBatchAdd : batch.getLeft().entrySet()) {
+                    if (batch.getRight() || !all.containsKey(itemToBatchAdd.getKey())) {
+                        if (all.put(itemToBatchAdd.getKey(), itemToBatchAdd.getValue()) == null)
+                            keyAdded(itemToBatchAdd.getKey());
+                    }
+                }
+            }
+            rewriteFile(all);
+        } finally {
+            fileLock.unlockForWriting();
+        }
     }
 
-    private synchronized void lockFile() {
-        this.fileLocked = true;
+    /**
+     * Locks file for whole read-modify-write cycle. Lock must be released by
+     * {@link MS_FileReadWriteLock#unlockForWriting()}.
+     */
+    private void lockForModification() {
+        fileLock.lockForWriting();
+        //every lock for writing increments version, so filter stays valid only if it was valid right before it
+        long version = fileLock.getVersion();
+        if (keyFilterVersion == version - 1)
+            keyFilterVersion = version;
+        else if (keyFilterVersion != version)
+            keyFilter = null;
+    }
+
+    /**
+     * Truncates file. File isn't deleted, so that repository stays initialized for other threads.
+     * Caller must hold lock of file for writing.
+     */
+    private void recreateFile() {
+        try (FileChannel channel = FileChannel.open(Paths.get(pathToFile), StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MS_FileSync.written(Paths.get(pathToFile), channel, setup);
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to remove all cached items. " +
+                    "Cannot truncate corresponding file:\n" + pathToFile, e);
+        }
     }
 
-    private synchronized void releaseFile() {
-        fileLocked = false;
+    /**
+     * Checks key filter without locking of file, so that definite miss doesn't touch file system at all. Filter is
+     * trusted only if no instance in this JVM has locked file at newer version since filter was built or updated,
+     * otherwise lookup proceeds under lock of file, where filter is validated against current version of file.
+     *
+     * @return true if file definitely doesn't contain item with given identifier.
+     */
+    private boolean isDefinitelyMissing(String identifier) {
+        //version is read before filter, because filter is replaced before its version is updated
+        long version = keyFilterVersion;
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        return filter != null && version == fileLock.getVersion() && !filter.mightContain(identifier);
     }
 
-    private synchronized boolean isFileLocked() {
-        return fileLocked;
+    /**
+     * Checks key filter before reading file. Filter is built from file at the first lookup and rebuilt, if file
+     * was modified by other instance or process. Caller must hold lock of file.
+     *
+     * @return false if file definitely doesn't contain item with given identifier.
+     */
+    private boolean mightContain(String identifier) {
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        long version = fileLock.getVersion();
+        if (filter == null || keyFilterVersion != version) {
+            synchronized (keyFilterMonitor) {
+                if (keyFilter == null || keyFilterVersion != version) {
+                    Collection<String> identifiers = doFindAll().keySet();
+                    MS_CountingBloomFilter<String> newFilter =
+                            new MS_CountingBloomFilter<>(Math.max(identifiers.size() * 2, MINIMUM_KEY_FILTER_CAPACITY));
+                    identifiers.forEach(newFilter::add);
+                    keyFilter = newFilter;
+                    keyFilterVersion = version;
+                }
+                filter = keyFilter;
+            }
+        }
+        return filter.mightContain(identifier);
     }
 
-    private void waitUntilFileReleased() {
-        try {
-            MS_CodingUtils.executeWithRetry(100, () -> {
-                if (isFileLocked())
-                    throw new MS_ExecutionFailureException();
-            }, () -> MS_CodingUtils.sleep(10));
-        } catch (MS_ExecutionFailureException e) {
-            throw new MS_RepositoryDataExchangeException("Thread failed to execute within ~1 second lasting attempt of " +
-                    "waiting until file is released by another thread", e);
+    /**
+     * Must be called before new item is written to file, so that lookups never miss it.
+     */
+    private void keyAdded(String identifier) {
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        if (filter != null) {
+            filter.add(identifier);
+            if (filter.isOverloaded())
+                keyFilter = null; //bigger filter will be built at the next lookup
         }
     }
 
+    /**
+     * Must be called after item is removed from file.
+     */
+    private void keyRemoved(String identifier) {
+        MS_CountingBloomFilter<String> filter = keyFilter;
+        if (filter != null)
+            filter.remove(identifier);
+    }
+
+    /**
+     * Replaces content of file atomically (see {@link MS_FileSync}). Lines are written in the same charset and
+     * with the same line separator as {@link MS_TextFile} does. Caller must hold lock of file for writing.
+     */
     private void rewriteFile(Map<String, String> cachedObjects) {
-        doRemoveAll();
-        waitAndLockFile();
-        for (Map.Entry<String, String> entry : cachedObjects.entrySet()) {
-            String id = entry.getKey();
-            String objToCache = entry.getValue();
-
-            MS_StringList parts = new MS_StringList(DELIMITER);
-            parts.add(id);
-            parts.add(objToCache);
-            file.appendln(parts.toStringWithNoLastDelimiter(), false);
-        }
-        file.close();
-        releaseFile();
+        if (binaryFile != null) {
+            Map<String, Pair<String, LocalDateTime>> records = new LinkedHashMap<>();
+            cachedObjects.forEach((identifier, text) -> records.put(identifier, Pair.of(text, null)));
+            binaryFile.writeAll(records);
+            return;
+        }
+        MS_FileSync.replace(Paths.get(pathToFile), setup, output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, Charset.defaultCharset()));
+            for (Map.Entry<String, String> entry : cachedObjects.entrySet()) {
+                writer.write(toLine(entry.getKey(), entry.getValue()));
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+        });
+    }
+
+    /**
+     * Reads live records of log one by one in order of their writing. Log is locked only while iteration is
+     * started (see {@link MS_TextRecordLog#openReader()}), so iteration reads records, which were live then.
+     */
+    private final class LogIterator implements Iterator<Map.Entry<String, String>>, AutoCloseable {
+
+        private final MS_TextRecordLog.RecordReader reader = log.openReader();
+        private Map.Entry<String, String> next;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                Map.Entry<String, String> record = reader.next();
+                if (record != null)
+                    next = new AbstractMap.SimpleImmutableEntry<>(record.getKey(), toText(record.getValue()));
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<String, String> res = next;
+            next = null;
+            return res;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads lines of file one by one. File is opened while it's locked for reading, and lock is released right
+     * after it: modifications replace file by renaming of new one, so opened file stays unchanged. Only removal of
+     * all the items truncates file, which just ends iteration earlier.
+     */
+    private final class LineIterator implements Iterator<Map.Entry<String, String>>, AutoCloseable {
+
+        private final BufferedReader reader;
+        private Map.Entry<String, String> next;
+
+        LineIterator() {
+            fileLock.lockForReading();
+            try {
+                reader = new BufferedReader(new InputStreamReader(Files.newInputStream(Paths.get(pathToFile)),
+                        Charset.defaultCharset()));
+            } catch (IOException e) {
+                throw new MS_RepositoryDataExchangeException("Failed to read from file:\n" + pathToFile, e);
+            } finally {
+                fileLock.unlockForReading();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null)
+                return true;
+            String line;
+            try {
+                line = reader.readLine();
+            } catch (IOException e) {
+                throw new MS_RepositoryDataExchangeException("Failed to read from file:\n" + pathToFile, e);
+            }
+            if (line == null)
+                return false;
+            MS_StringList parts = new MS_StringList(line, DELIMITER);
+            try {
+                next = new AbstractMap.SimpleImmutableEntry<>(parts.get(0), parts.get(1));
+            } catch (IndexOutOfBoundsException e) {
+                throw new MS_RepositoryDataExchangeException("Failed to parse corrupted line in file:\n" + line, e);
+            }
+            return true;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<String, String> res = next;
+            next = null;
+            return res;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static String toLine(String identifier, String text) {
+        MS_StringList parts = new MS_StringList(DELIMITER);
+        parts.add(identifier);
+        parts.add(text);
+        return parts.toStringWithNoLastDelimiter();
+    }
+
+    /**
+     * @return text of parsed line or <code>null</code> if <b>line</b> is <code>null</code>.
+     * @throws MS_RepositoryDataExchangeException if line is corrupted.
+     */
+    private static String toText(String line) throws MS_RepositoryDataExchangeException {
+        if (line == null) return null;
+        try {
+            return new MS_StringList(line, DELIMITER).get(1);
+        } catch (IndexOutOfBoundsException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to parse corrupted line in file:\n" + line, e);
+        }
     }
 }
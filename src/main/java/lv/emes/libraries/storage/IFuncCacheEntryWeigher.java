@@ -0,0 +1,23 @@
+package lv.emes.libraries.storage;
+
+/**
+ * Function to calculate weight of single cached object.
+ * Weight is relative unit (for example, approximate size in bytes) used by bounded caching repositories to
+ * decide, when objects must be evicted from cache in order to stay within maximum weight limit.
+ *
+ * @param <T>  type of cached objects.
+ * @param <ID> type of object identifiers.
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_CacheBoundsSetup
+ */
+@FunctionalInterface
+public interface IFuncCacheEntryWeigher<T, ID> {
+
+    /**
+     * @param object     cached object.
+     * @param identifier identifier of cached object.
+     * @return non-negative weight of an object.
+     */
+    int weigh(T object, ID identifier);
+}
@@ -0,0 +1,20 @@
+package lv.emes.libraries.storage;
+
+/**
+ * Function to extract key of secondary index from repository item.
+ *
+ * @param <T> type of items.
+ * @param <K> type of index keys.
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_IndexedInMemoryRepository
+ */
+@FunctionalInterface
+public interface IFuncIndexKeyExtractor<T, K> {
+
+    /**
+     * @param item an item of repository.
+     * @return key of item in index or null if item must not be indexed.
+     */
+    K extract(T item);
+}
@@ -0,0 +1,21 @@
+package lv.emes.libraries.storage;
+
+/**
+ * Function to calculate new value of repository item during upsert operation.
+ *
+ * @param <T>  type of items.
+ * @param <ID> type of item identifiers.
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_IRepositoryOperations#upsert(Object, IFuncUpsertOperation)
+ */
+@FunctionalInterface
+public interface IFuncUpsertOperation<T, ID> {
+
+    /**
+     * @param currentItem item currently stored in repository or null if there is no item with such identifier yet.
+     * @param identifier  an item identifier.
+     * @return item that must be stored in repository or null if item must be removed from repository.
+     */
+    T apply(T currentItem, ID identifier);
+}
@@ -0,0 +1,280 @@
+package lv.emes.libraries.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade of any repository ({@link MS_IRepositoryOperations}). Every operation of repository is executed
+ * in thread pool and its result is returned as {@link CompletableFuture}, so caller can overlap operations of several
+ * slow repositories (files, remote services) without managing threads itself.
+ * <p>Facade is configured by {@link MS_AsyncRepositorySetup}:
+ * <ul>
+ * <li>operations are executed either by bounded thread pool owned by facade or by external executor;</li>
+ * <li>count of pending operations is limited - when limit is reached, caller is either blocked or operation is
+ * rejected (see {@link MS_BackpressurePolicyEnum});</li>
+ * <li>operations with the same identifier (including batch operations containing that identifier) are executed
+ * one after another in order of submission, so writes of the same item never reorder. Operations without
+ * identifiers (<b>findAll</b>, <b>findPage</b> and <b>removeAll</b> of whole repository) are not ordered.</li>
+ * </ul>
+ * Exceptions thrown by repository complete returned futures exceptionally. Futures returned to caller can be cancelled
+ * without affecting order of other operations, but operation itself still runs once started.
+ * <p>Public methods:
+ * <ul>
+ * <li>add</li>
+ * <li>put</li>
+ * <li>remove</li>
+ * <li>find</li>
+ * <li>findAll</li>
+ * <li>findPage</li>
+ * <li>removeAll</li>
+ * <li>putAll</li>
+ * <li>upsert</li>
+ * <li>shutdown</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getRepository</li>
+ * <li>getSetup</li>
+ * <li>getPendingOperationCount</li>
+ * </ul>
+ *
+ * @param <T>  type of items.
+ * @param <ID> type of item identifiers.
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_AsyncRepository<T, ID> {
+
+    private final MS_IRepositoryOperations<T, ID> repository;
+    private final MS_AsyncRepositorySetup setup;
+    private final Executor executor;
+    private final ThreadPoolExecutor ownExecutor;
+    private final Semaphore pendingOperationPermits;
+    //last submitted operation of every identifier, which is not finished yet
+    private final ConcurrentMap<ID, CompletableFuture<?>> lastOperations = new ConcurrentHashMap<>();
+    //registration of multi-identifier operations is serialized, otherwise two batches could wait for each other
+    private final Object batchRegistrationLock = new Object();
+
+    /**
+     * Constructs asynchronous facade with default setup.
+     *
+     * @param repository repository, which performs actual operations.
+     */
+    public MS_AsyncRepository(MS_IRepositoryOperations<T, ID> repository) {
+        this(repository, new MS_AsyncRepositorySetup());
+    }
+
+    /**
+     * @param repository repository, which performs actual operations.
+     * @param setup      setup of executor, backpressure and ordering.
+     * @throws NullPointerException if <b>repository</b> or <b>setup</b> is <code>null</code>.
+     */
+    public MS_AsyncRepository(MS_IRepositoryOperations<T, ID> repository, MS_AsyncRepositorySetup setup) {
+        if (repository == null)
+            throw new NullPointerException("Asynchronous repository cannot be constructed, because repository is null");
+        if (setup == null)
+            throw new NullPointerException("Asynchronous repository cannot be constructed, because setup is null");
+        this.repository = repository;
+        this.setup = setup;
+        this.pendingOperationPermits = new Semaphore(setup.getMaximumPendingOperations());
+        if (setup.getExecutor() != null) {
+            ownExecutor = null;
+            executor = setup.getExecutor();
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            //queue is unbounded, because count of pending operations is already limited by permits
+            ownExecutor = new ThreadPoolExecutor(setup.getThreadCount(), setup.getThreadCount(), 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "MS_AsyncRepository worker #" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ownExecutor.allowCoreThreadTimeOut(true);
+            executor = ownExecutor;
+        }
+    }
+
+    public CompletableFuture<Void> add(ID identifier, T item) {
+        return submit(Collections.singletonList(identifier), () -> {
+            repository.add(identifier, item);
+            return null;
+        });
+    }
+
+    public CompletableFuture<T> put(ID identifier, T item) {
+        return submit(Collections.singletonList(identifier), () -> repository.put(identifier, item));
+    }
+
+    public CompletableFuture<Void> remove(ID identifier) {
+        return submit(Collections.singletonList(identifier), () -> {
+            repository.remove(identifier);
+            return null;
+        });
+    }
+
+    public CompletableFuture<T> find(ID identifier) {
+        return submit(Collections.singletonList(identifier), () -> repository.find(identifier));
+    }
+
+    public CompletableFuture<Map<ID, T>> findAll() {
+        return submit(Collections.emptyList(), repository::findAll);
+    }
+
+    public CompletableFuture<Map<ID, T>> findPage(int page, int size) {
+        return submit(Collections.emptyList(), () -> repository.findPage(page, size));
+    }
+
+    public CompletableFuture<Void> removeAll() {
+        return submit(Collections.emptyList(), () -> {
+            repository.removeAll();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> putAll(Map<ID, T> items) {
+        return submit(new ArrayList<>(items.keySet()), () -> {
+            repository.putAll(items);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Map<ID, T>> findAll(Collection<ID> identifiers) {
+        return submit(new ArrayList<>(identifiers), () -> repository.findAll(identifiers));
+    }
+
+    public CompletableFuture<Void> removeAll(Collection<ID> identifiers) {
+        return submit(new ArrayList<>(identifiers), () -> {
+            repository.removeAll(identifiers);
+            return null;
+        });
+    }
+
+    public CompletableFuture<T> upsert(ID identifier, IFuncUpsertOperation<T, ID> upsertOperation) {
+        return submit(Collections.singletonList(identifier), () -> repository.upsert(identifier, upsertOperation));
+    }
+
+    /**
+     * Stops threads of executor owned by facade after all the pending operations are finished.
+     * External executor given in setup is not affected.
+     */
+    public void shutdown() {
+        if (ownExecutor != null)
+            ownExecutor.shutdown();
+    }
+
+    //*** Setters and getters ***
+
+    public MS_IRepositoryOperations<T, ID> getRepository() {
+        return repository;
+    }
+
+    public MS_AsyncRepositorySetup getSetup() {
+        return setup;
+    }
+
+    /**
+     * @return count of operations, which are submitted, but not finished yet.
+     */
+    public int getPendingOperationCount() {
+        return setup.getMaximumPendingOperations() - pendingOperationPermits.availablePermits();
+    }
+
+    //*** Private methods ***
+
+    private <R> CompletableFuture<R> submit(List<ID> identifiers, Supplier<R> operation) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        if (!acquirePermit(result))
+            return result;
+
+        Runnable task = () -> {
+            //permit is released before completion, so that callbacks of future can submit next operations
+            R value;
+            try {
+                value = operation.get();
+            } catch (Throwable e) {
+                pendingOperationPermits.release();
+                result.completeExceptionally(e);
+                return;
+            }
+            pendingOperationPermits.release();
+            result.complete(value);
+        };
+        try {
+            if (!setup.isPerKeyOrdering() || identifiers.isEmpty())
+                executor.execute(task);
+            else if (identifiers.size() == 1)
+                executeAfterPreviousOperations(identifiers, result, task);
+            else
+                synchronized (batchRegistrationLock) {
+                    executeAfterPreviousOperations(identifiers, result, task);
+                }
+        } catch (RejectedExecutionException e) {
+            pendingOperationPermits.release();
+            result.completeExceptionally(e);
+        }
+        //caller gets dependent future, so cancelling it doesn't break chain of ordered operations
+        return result.thenApply(Function.identity());
+    }
+
+    private boolean acquirePermit(CompletableFuture<?> result) {
+        if (setup.getBackpressurePolicy() == MS_BackpressurePolicyEnum.FAIL) {
+            if (pendingOperationPermits.tryAcquire())
+                return true;
+            result.completeExceptionally(new RejectedExecutionException(
+                    "Asynchronous repository already has maximum count of pending operations: " + setup.getMaximumPendingOperations()));
+            return false;
+        }
+        try {
+            pendingOperationPermits.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    /**
+     * Registers <b>result</b> as the last operation of every identifier and executes <b>task</b>, when all the
+     * previously registered operations of those identifiers are finished.
+     */
+    private void executeAfterPreviousOperations(List<ID> identifiers, CompletableFuture<?> result, Runnable task) {
+        List<CompletableFuture<?>> previousOperations = new ArrayList<>(identifiers.size());
+        for (ID identifier : identifiers) {
+            if (identifier == null) continue; //let repository itself decide, what to do with null identifier
+            CompletableFuture<?> previous = lastOperations.put(identifier, result);
+            if (previous != null && previous != result)
+                previousOperations.add(previous);
+            result.whenComplete((res, e) -> lastOperations.remove(identifier, result));
+        }
+        if (previousOperations.isEmpty()) {
+            executor.execute(task);
+        } else {
+            //failures of previous operations don't prevent execution of next ones
+            CompletableFuture.allOf(previousOperations.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((res, e) -> {
+                        try {
+                            executor.execute(task);
+                        } catch (RejectedExecutionException rejected) {
+                            pendingOperationPermits.release();
+                            result.completeExceptionally(rejected);
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A setup of asynchronous repository facade. Holds information about:
+ * <ul>
+ * <li>count of threads of executor, which is created by facade itself, if no external executor is given;</li>
+ * <li>external executor, which runs operations instead of executor created by facade;</li>
+ * <li>maximum count of pending (submitted, but not finished) operations;</li>
+ * <li>backpressure policy - what happens, when maximum count of pending operations is reached;</li>
+ * <li>whether operations with the same identifier must be executed in order of their submission.</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withThreadCount</li>
+ * <li>withExecutor</li>
+ * <li>withMaximumPendingOperations</li>
+ * <li>withBackpressurePolicy</li>
+ * <li>withPerKeyOrdering</li>
+ * <li>getThreadCount</li>
+ * <li>getExecutor</li>
+ * <li>getMaximumPendingOperations</li>
+ * <li>getBackpressurePolicy</li>
+ * <li>isPerKeyOrdering</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_AsyncRepository
+ */
+public class MS_AsyncRepositorySetup {
+
+    public static final int _DEFAULT_THREAD_COUNT = 4;
+    public static final int _DEFAULT_MAXIMUM_PENDING_OPERATIONS = 1000;
+
+    private int threadCount = _DEFAULT_THREAD_COUNT;
+    private Executor executor;
+    private int maximumPendingOperations = _DEFAULT_MAXIMUM_PENDING_OPERATIONS;
+    private MS_BackpressurePolicyEnum backpressurePolicy = MS_BackpressurePolicyEnum.BLOCK;
+    private boolean perKeyOrdering = true;
+
+    /**
+     * @param threadCount count of threads, which execute operations of repository.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>threadCount</b> is not positive.
+     */
+    public MS_AsyncRepositorySetup withThreadCount(int threadCount) {
+        if (threadCount < 1)
+            throw new MS_BadSetupException("Thread count of asynchronous repository must be positive");
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    /**
+     * Sets external executor to run operations. Such executor is never shut down by facade,
+     * and thread count of setup is ignored.
+     *
+     * @param executor executor to run operations or <code>null</code> to let facade create its own executor.
+     * @return reference to setup itself.
+     */
+    public MS_AsyncRepositorySetup withExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @param maximumPendingOperations maximum count of operations, which are submitted, but not finished yet.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>maximumPendingOperations</b> is not positive.
+     */
+    public MS_AsyncRepositorySetup withMaximumPendingOperations(int maximumPendingOperations) {
+        if (maximumPendingOperations < 1)
+            throw new MS_BadSetupException("Maximum count of pending operations of asynchronous repository must be positive");
+        this.maximumPendingOperations = maximumPendingOperations;
+        return this;
+    }
+
+    /**
+     * @param backpressurePolicy policy of handling new operations, when maximum count of pending operations is reached.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>backpressurePolicy</b> is null.
+     */
+    public MS_AsyncRepositorySetup withBackpressurePolicy(MS_BackpressurePolicyEnum backpressurePolicy) {
+        if (backpressurePolicy == null)
+            throw new MS_BadSetupException("Backpressure policy of asynchronous repository cannot be null");
+        this.backpressurePolicy = backpressurePolicy;
+        return this;
+    }
+
+    /**
+     * @param perKeyOrdering true if operations with the same identifier must never be reordered (default),
+     *                       or false if they may run concurrently.
+     * @return reference to setup itself.
+     */
+    public MS_AsyncRepositorySetup withPerKeyOrdering(boolean perKeyOrdering) {
+        this.perKeyOrdering = perKeyOrdering;
+        return this;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getMaximumPendingOperations() {
+        return maximumPendingOperations;
+    }
+
+    public MS_BackpressurePolicyEnum getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    public boolean isPerKeyOrdering() {
+        return perKeyOrdering;
+    }
+}
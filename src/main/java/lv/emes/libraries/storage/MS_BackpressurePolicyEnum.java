@@ -0,0 +1,17 @@
+package lv.emes.libraries.storage;
+
+/**
+ * Enum of ways how {@link MS_AsyncRepository} reacts to new operation, when limit of pending operations is reached.
+ * <ul>
+ * <li>BLOCK - caller thread waits until some of pending operations finishes;</li>
+ * <li>FAIL - operation is not submitted, and returned future is immediately completed exceptionally with
+ * {@link java.util.concurrent.RejectedExecutionException}.</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public enum MS_BackpressurePolicyEnum {
+
+    BLOCK, FAIL
+}
@@ -1,10 +1,12 @@
 package lv.emes.libraries.storage;
 
+import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.logging.MS_MultiLogger;
 import lv.emes.libraries.tools.threading.MS_FutureEvent;
-import org.apache.commons.lang3.tuple.Pair;
 
-import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An object cache that can hold objects of type <b>T</b>.
@@ -16,6 +18,22 @@ import java.time.LocalDateTime;
  * <p>All methods of {@link MS_Cache} are silent (no exceptions will be thrown), and write operations are asynchronous
  * that's why there is option to set multi logger {@link MS_MultiLogger}, which is supposed to
  * log any errors happened during caching or retrieval process.
+ * <p>Asynchronous operations of all the caches are executed in bounded thread pool of
+ * {@link MS_CacheExpirationService}, which also removes every object from cache as soon as its TTL expires.
+ * <p>Every cache collects statistics (hits, misses, expirations and evictions) in statistics counter of its
+ * repository (see {@link MS_CachingRepository#getStatsCounter()}), which can also be exposed via JMX with
+ * {@link MS_CacheStatsCounter#registerMBean(String)}.
+ * <p>Cache can be given a loader ({@link MS_Cache#setLoader(IFuncObjectRetrievalOperation)}), which is used by
+ * {@link MS_Cache#retrieveOrLoad(Object)} to load missing objects. Loaded objects are cached with default TTL. Loader
+ * also enables:
+ * <ul>
+ * <li>refresh-ahead - object, which has lived through given share of its TTL
+ * ({@link MS_Cache#setRefreshAheadThreshold(double)}), is reloaded asynchronously on the next retrieval, while
+ * retrievals keep getting current object, so hot objects never expire under load;</li>
+ * <li>negative caching - if loader finds no object, its absence is cached for separate, usually shorter TTL
+ * ({@link MS_Cache#setNegativeTTL(long)}), so requests of nonexistent objects don't reach loader every time.
+ * Caching repository must support entries without object to use it.</li>
+ * </ul>
  * <p>For ease of use overloaded method {@link MS_Cache#store(Object, Object)} without TTL is introduced to use
  * default TTL set by setter {@link MS_Cache#setDefaultTTL(long)}.
  * <p>Public methods:
@@ -23,6 +41,7 @@ import java.time.LocalDateTime;
  * <li>store</li>
  * <li>cache (synonym to store)</li>
  * <li>retrieve</li>
+ * <li>retrieveOrLoad</li>
  * <li>get (synonym to retrieve)</li>
  * <li>clear</li>
  * <li>removeAll (synonym to clear)</li>
@@ -31,21 +50,34 @@ import java.time.LocalDateTime;
  * <ul>
  * <li>setLogger</li>
  * <li>setDefaultTTL</li>
+ * <li>setLoader</li>
+ * <li>setRefreshAheadThreshold</li>
+ * <li>setNegativeTTL</li>
  * <li>getLogger</li>
  * <li>getDefaultTTL</li>
+ * <li>getLoader</li>
+ * <li>getRefreshAheadThreshold</li>
+ * <li>getNegativeTTL</li>
  * <li>getRepository</li>
+ * <li>getStats</li>
  * </ul>
  *
  * @param <T>  type of objects that are going to be cached.
  * @param <ID> type of object identifiers.
  * @author eMeS
- * @version 1.0.
+ * @version 1.4.
  */
 public class MS_Cache<T, ID> {
 
     private MS_CachingRepository<T, ID> repository;
     private MS_MultiLogger logger;
     private long defaultTTL = 0L;
+    private IFuncObjectRetrievalOperation<T, ID> loader;
+    private double refreshAheadThreshold = 0.0;
+    private long negativeTTL = 0L;
+    private final Set<ID> refreshedIds = ConcurrentHashMap.newKeySet();
+    //expiration times of entries, which removal is scheduled at, mapped by object IDs
+    private final ConcurrentHashMap<ID, Long> scheduledRemovals = new ConcurrentHashMap<>();
 
     /**
      * Constructs new cache, which is bind to caching repository <b>repository</b>.
@@ -60,35 +92,20 @@ public class MS_Cache<T, ID> {
     }
 
     /**
-     * Method runs new thread with purpose to store new object into cache.
+     * Method schedules operation to store new object into cache in shared thread pool.
+     * After storing object its removal is scheduled at the moment when its TTL expires.
      * @param object object to store.
      * @param id object's ID.
      * @param ttl object's Time To Live in cache.
-     * @return reference to created storing operation thread.
+     * @return reference to created storing operation event.
      */
     public MS_FutureEvent store(T object, ID id, Long ttl) {
-        if (ttl == null) ttl = defaultTTL;
-        LocalDateTime expirationTime = ttl.intValue() == 0L ? null : LocalDateTime.now().plusSeconds(ttl);
+        MS_CacheEntry<T> entry = newEntry(object, ttl);
         return new MS_FutureEvent()
                 .withThreadName("MS_Cache object storage operation")
-                .withAction(() -> repository.put(id, Pair.of(object, expirationTime)))
-                .withActionOnException((e -> {
-                    if (e instanceof UnsupportedOperationException) {
-                        if (logger != null) {
-                            logger.error("Caching operation is not supported", e);
-                        }
-                    } else if (e instanceof MS_RepositoryDataExchangeException) {
-                        if (logger != null) {
-                            String errorMess = e.getMessage() == null ? "" : "\nError message: " + e.getMessage();
-                            logger.warn("Caching operation failed" + errorMess);
-                        }
-                    } else {
-                        if (logger != null) {
-                            logger.error("Unexpected error occurred while performing object storage", e);
-                        }
-                    }
-                }))
-                .schedule();
+                .withAction(() -> storeEntry(id, entry))
+                .withActionOnException(this::logStorageFailure)
+                .schedule(MS_CacheExpirationService.getInstance().getExecutor());
     }
 
     public MS_FutureEvent store(T object, ID id) {
@@ -96,40 +113,39 @@ public class MS_Cache<T, ID> {
     }
 
     public T retrieve(ID id) {
-        try {
-            Pair<T, LocalDateTime> cachedObject = repository.get(id);
-            if (cachedObject != null) {
-                LocalDateTime ttl = cachedObject.getRight();
-                if (ttl == null || LocalDateTime.now().isBefore(ttl)) {
-                    return cachedObject.getLeft();
-                } else {
-                    //perform object removal from cache in new thread
-                    performExpiredObjectRemoval(id);
-                }
-            }
-        } catch (UnsupportedOperationException e) {
-            if (logger != null) {
-                logger.error("Object retrieval from cache operation is not supported", e);
-            }
-        } catch (MS_RepositoryDataExchangeException e) {
-            if (logger != null) {
-                String errorMess = e.getMessage() == null ? "" : "\nError message: " + e.getMessage();
-                logger.warn("Object retrieval from cache operation failed" + errorMess);
-            }
-        }
-        return null;
+        MS_CacheEntry<T> cachedObject = retrieveEntry(id);
+        return cachedObject == null ? null : cachedObject.getObject();
+    }
+
+    /**
+     * Retrieves object from cache, or, if object isn't cached, loads it by loader and caches it with default TTL.
+     * If loader finds no object and negative TTL is set, absence of object is cached.
+     * Loader failures are logged as errors, and nothing is cached then.
+     *
+     * @param id object's ID.
+     * @return cached or loaded object, or <code>null</code> if object doesn't exist, loader failed or isn't set.
+     */
+    public T retrieveOrLoad(ID id) {
+        MS_CacheEntry<T> cachedObject = retrieveEntry(id);
+        if (cachedObject != null)
+            return cachedObject.getObject();
+        return loader == null ? null : load(id);
     }
 
     /**
-     * Method runs new thread to clears all information stored in cache so far.
+     * Method schedules operation in shared thread pool to clear all information stored in cache so far.
      * Some caching repositories might not support this operation.
      * In that case information about unsupported operation will be logged as warning.
-     * @return reference to created clearing operation thread.
+     * @return reference to created clearing operation event.
      */
     public MS_FutureEvent clear() {
         return new MS_FutureEvent()
                 .withThreadName("MS_Cache all object cleanup operation")
-                .withAction(() -> repository.removeAll())
+                .withAction(() -> {
+                    int objectCount = repository.size();
+                    repository.removeAll();
+                    repository.getStatsCounter().recordEvictions(MS_CacheEvictionCauseEnum.EXPLICIT, objectCount);
+                })
                 .withActionOnException((e -> {
                     if (e instanceof UnsupportedOperationException) {
                         if (logger != null) {
@@ -147,7 +163,7 @@ public class MS_Cache<T, ID> {
                         }
                     }
                 }))
-                .schedule();
+                .schedule(MS_CacheExpirationService.getInstance().getExecutor());
     }
 
     //*** Synonyms ***
@@ -186,32 +202,269 @@ public class MS_Cache<T, ID> {
         this.defaultTTL = defaultTTL;
     }
 
+    public IFuncObjectRetrievalOperation<T, ID> getLoader() {
+        return loader;
+    }
+
+    /**
+     * @param loader operation to load object from original source, when object isn't cached.
+     */
+    public void setLoader(IFuncObjectRetrievalOperation<T, ID> loader) {
+        this.loader = loader;
+    }
+
+    public double getRefreshAheadThreshold() {
+        return refreshAheadThreshold;
+    }
+
+    /**
+     * @param refreshAheadThreshold share of TTL (0..1, exclusive), after which retrieved object is reloaded
+     *                              asynchronously, or 0 to disable refresh-ahead (default).
+     * @throws MS_BadSetupException if <b>refreshAheadThreshold</b> is out of range.
+     */
+    public void setRefreshAheadThreshold(double refreshAheadThreshold) {
+        if (refreshAheadThreshold < 0 || refreshAheadThreshold >= 1)
+            throw new MS_BadSetupException("Refresh-ahead threshold of cache must be in range [0..1)");
+        this.refreshAheadThreshold = refreshAheadThreshold;
+    }
+
+    public long getNegativeTTL() {
+        return negativeTTL;
+    }
+
+    /**
+     * @param negativeTTL TTL in seconds of cached absence of object, or 0 to disable negative caching (default).
+     * @throws MS_BadSetupException if <b>negativeTTL</b> is negative.
+     */
+    public void setNegativeTTL(long negativeTTL) {
+        if (negativeTTL < 0)
+            throw new MS_BadSetupException("Negative TTL of cache cannot be negative");
+        this.negativeTTL = negativeTTL;
+    }
+
     public MS_CachingRepository<T, ID> getRepository() {
         return repository;
     }
 
+    /**
+     * @return snapshot of current statistics of this cache.
+     */
+    public MS_CacheStats getStats() {
+        return repository.getStats();
+    }
+
     //*** Private methods ***
 
+    /**
+     * Synchronously stores object with default TTL, so that it can be retrieved as soon as method returns.
+     * Errors are logged the same way as {@link #store(Object, Object)} does. Used by {@link MS_TieredCache} to
+     * write objects back to faster tiers.
+     */
+    void storeNow(T object, ID id) {
+        try {
+            storeEntry(id, newEntry(object, null));
+        } catch (RuntimeException e) {
+            logStorageFailure(e);
+        }
+    }
+
+    /**
+     * Synchronously stores restored <b>entry</b> unless cache already holds object with the same ID, and schedules
+     * its removal at expiration time. Used in {@link MS_CacheSnapshot#load()}.
+     *
+     * @return true if entry is stored.
+     */
+    boolean restore(ID id, MS_CacheEntry<T> entry) {
+        if (entry.isExpired() || repository.putEntryIfAbsent(id, entry) != null)
+            return false;
+        scheduleExpiredObjectRemovalIfNeeded(id, entry);
+        return true;
+    }
+
+    private MS_CacheEntry<T> newEntry(T object, Long ttl) {
+        if (ttl == null) ttl = defaultTTL;
+        return ttl.intValue() == 0L ? MS_CacheEntry.eternal(object) : MS_CacheEntry.of(object, ttl, TimeUnit.SECONDS);
+    }
+
+    private void storeEntry(ID id, MS_CacheEntry<T> entry) {
+        MS_CacheEntry<T> previous = repository.putEntry(id, entry);
+        if (previous != null)
+            repository.getStatsCounter().recordEviction(MS_CacheEvictionCauseEnum.REPLACED);
+        scheduleExpiredObjectRemovalIfNeeded(id, entry);
+    }
+
+    private void logStorageFailure(Exception e) {
+        if (logger == null) return;
+        if (e instanceof UnsupportedOperationException) {
+            logger.error("Caching operation is not supported", e);
+        } else if (e instanceof MS_RepositoryDataExchangeException) {
+            String errorMess = e.getMessage() == null ? "" : "\nError message: " + e.getMessage();
+            logger.warn("Caching operation failed" + errorMess);
+        } else {
+            logger.error("Unexpected error occurred while performing object storage", e);
+        }
+    }
+
+    private MS_CacheEntry<T> retrieveEntry(ID id) {
+        MS_CacheStatsCounter stats = repository.getStatsCounter();
+        try {
+            MS_CacheEntry<T> cachedObject = repository.findEntry(id);
+            if (cachedObject != null) {
+                long now = MS_CacheEntry.now();
+                if (!cachedObject.isExpired(now)) {
+                    stats.recordHits(1);
+                    if (loader != null && refreshAheadThreshold > 0 && cachedObject.isDueForRefresh(now, refreshAheadThreshold))
+                        scheduleRefresh(id);
+                    return cachedObject;
+                } else {
+                    stats.recordExpiredOnRead();
+                    //perform object removal from cache in shared thread pool
+                    performExpiredObjectRemoval(id);
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            if (logger != null) {
+                logger.error("Object retrieval from cache operation is not supported", e);
+            }
+        } catch (MS_RepositoryDataExchangeException e) {
+            if (logger != null) {
+                String errorMess = e.getMessage() == null ? "" : "\nError message: " + e.getMessage();
+                logger.warn("Object retrieval from cache operation failed" + errorMess);
+            }
+        }
+        stats.recordMisses(1);
+        return null;
+    }
+
+    /**
+     * Reloads object in shared thread pool. Only one refresh of the same object runs at a time.
+     */
+    private void scheduleRefresh(ID id) {
+        if (!refreshedIds.add(id)) return;
+        MS_CacheExpirationService.getInstance().getExecutor().execute(() -> {
+            try {
+                load(id);
+            } finally {
+                refreshedIds.remove(id);
+            }
+        });
+    }
+
+    private T load(ID id) {
+        MS_CacheStatsCounter stats = repository.getStatsCounter();
+        T object;
+        long loadStart = System.nanoTime();
+        try {
+            object = loader.get(id);
+        } catch (Exception e) {
+            stats.recordLoadFailure(System.nanoTime() - loadStart);
+            if (logger != null)
+                logger.error("Loader of cache failed to retrieve object with ID: " + id, e);
+            return null;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - loadStart);
+
+        MS_CacheEntry<T> entry;
+        if (object != null)
+            entry = defaultTTL == 0L ? MS_CacheEntry.eternal(object) : MS_CacheEntry.of(object, defaultTTL, TimeUnit.SECONDS);
+        else if (negativeTTL > 0L)
+            entry = MS_CacheEntry.of(null, negativeTTL, TimeUnit.SECONDS);
+        else
+            return null;
+        try {
+            repository.putEntry(id, entry);
+            scheduleExpiredObjectRemovalIfNeeded(id, entry);
+        } catch (UnsupportedOperationException | MS_RepositoryDataExchangeException e) {
+            if (logger != null)
+                logger.error("Failed to cache loaded object with ID: " + id, e);
+        }
+        return object;
+    }
+
+    /**
+     * Schedules removal of expiring <b>entry</b> at its expiration time. Every object has at most one removal scheduled:
+     * if removal of object with the same ID is already scheduled at the same time or earlier, it will be rescheduled
+     * to expiration time of the new entry when it fires.
+     */
+    private void scheduleExpiredObjectRemovalIfNeeded(ID objId, MS_CacheEntry<T> entry) {
+        if (entry.isEternal()) return;
+        long expiration = entry.getExpirationNanos();
+        boolean[] scheduled = {false};
+        scheduledRemovals.compute(objId, (id, scheduledExpiration) -> {
+            if (scheduledExpiration != null && expiration - scheduledExpiration >= 0)
+                return scheduledExpiration;
+            scheduled[0] = true;
+            return expiration;
+        });
+        if (scheduled[0])
+            scheduleExpiredObjectRemoval(objId, expiration);
+    }
+
     private void performExpiredObjectRemoval(ID objId) {
-        new MS_FutureEvent()
-                .withThreadName("MS_Cache expired object cleanup operation")
-                .withAction(() -> repository.remove(objId))
-                .withActionOnException((e -> {
-                    if (e instanceof UnsupportedOperationException) {
-                        if (logger != null) {
-                            logger.error("Object removal from cache operation is not supported", e);
-                        }
-                    } else if (e instanceof MS_RepositoryDataExchangeException) {
-                        if (logger != null) {
-                            String errorMess = e.getMessage() == null ? "" : "\nError message: " + e.getMessage();
-                            logger.warn("Object removal from cache operation failed" + errorMess);
-                        }
-                    } else {
-                        if (logger != null) {
-                            logger.error("Unexpected error occurred while performing expired object cleanup", e);
-                        }
-                    }
-                }))
-                .schedule();
+        MS_CacheExpirationService.getInstance().getExecutor().execute(() -> {
+            try {
+                removeIfExpired(objId);
+            } catch (Exception e) {
+                logExpiredObjectRemovalFailure(e);
+            }
+        });
+    }
+
+    private void scheduleExpiredObjectRemoval(ID objId, long expiration) {
+        MS_CacheExpirationService.getInstance().scheduleExpiration(() -> performScheduledRemoval(objId, expiration),
+                expiration - MS_CacheEntry.now(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes object with ID <b>objId</b>, if it's expired. If object in cache turns out to be replaced with the one,
+     * which is not expired yet, removal is rescheduled to new expiration time of that object.
+     * Removal, which is superseded by earlier one, does nothing.
+     */
+    private void performScheduledRemoval(ID objId, long expiration) {
+        Long scheduledExpiration = scheduledRemovals.get(objId);
+        if (scheduledExpiration == null || scheduledExpiration != expiration) return;
+        try {
+            MS_CacheEntry<T> cachedObject = repository.findEntry(objId);
+            if (cachedObject != null && !cachedObject.isEternal()) {
+                if (cachedObject.remainingNanos() > 0) {
+                    long newExpiration = cachedObject.getExpirationNanos();
+                    if (scheduledRemovals.replace(objId, expiration, newExpiration))
+                        scheduleExpiredObjectRemoval(objId, newExpiration);
+                    return;
+                }
+                removeIfExpired(objId);
+            }
+        } catch (Exception e) {
+            logExpiredObjectRemovalFailure(e);
+        }
+        if (!scheduledRemovals.remove(objId, expiration)) return;
+        try {
+            //object might be stored again after it was checked, but before its removal was unscheduled
+            MS_CacheEntry<T> cachedObject = repository.findEntry(objId);
+            if (cachedObject != null && cachedObject.remainingNanos() > 0)
+                scheduleExpiredObjectRemovalIfNeeded(objId, cachedObject);
+        } catch (Exception e) {
+            logExpiredObjectRemovalFailure(e);
+        }
+    }
+
+    /**
+     * Removes object only if it's still expired, so that object, which meanwhile is replaced with fresh one, stays.
+     */
+    private void removeIfExpired(ID objId) {
+        if (repository.removeEntryIf(objId, entry -> entry.isExpired(MS_CacheEntry.now())))
+            repository.getStatsCounter().recordEviction(MS_CacheEvictionCauseEnum.EXPIRED);
+    }
+
+    private void logExpiredObjectRemovalFailure(Exception e) {
+        if (logger == null) return;
+        if (e instanceof UnsupportedOperationException) {
+            logger.error("Object removal from cache operation is not supported", e);
+        } else if (e instanceof MS_RepositoryDataExchangeException) {
+            String errorMess = e.getMessage() == null ? "" : "\nError message: " + e.getMessage();
+            logger.warn("Object removal from cache operation failed" + errorMess);
+        } else {
+            logger.error("Unexpected error occurred while performing expired object cleanup", e);
+        }
     }
 }
@@ -0,0 +1,119 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+/**
+ * A setup of bounds for in-memory caching repository. Holds information about:
+ * <ul>
+ * <li>maximum count of cached objects or maximum total weight of cached objects;</li>
+ * <li>weigher, which determines weight of every single cached object;</li>
+ * <li>concurrency level, which tells, in how many independently locked segments cache will be split.</li>
+ * </ul>
+ * When cache reaches its bounds, least valuable objects are evicted using segmented LRU policy:
+ * new objects are placed in probation area and only objects that are requested at least once more are promoted
+ * to protected area, so one-time scans of many objects cannot flush out frequently used objects.
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withMaximumSize</li>
+ * <li>withMaximumWeight</li>
+ * <li>withConcurrencyLevel</li>
+ * <li>getMaximumSize</li>
+ * <li>getMaximumWeight</li>
+ * <li>getWeigher</li>
+ * <li>getConcurrencyLevel</li>
+ * <li>isBounded</li>
+ * </ul>
+ *
+ * @param <T>  type of cached objects.
+ * @param <ID> type of object identifiers.
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_InMemoryCachingRepository
+ */
+public class MS_CacheBoundsSetup<T, ID> {
+
+    public static final int _DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private long maximumSize = 0L;
+    private long maximumWeight = 0L;
+    private IFuncCacheEntryWeigher<T, ID> weigher;
+    private int concurrencyLevel = _DEFAULT_CONCURRENCY_LEVEL;
+
+    /**
+     * Sets maximum count of objects that can be held in cache at the same time.
+     * Cannot be combined with {@link MS_CacheBoundsSetup#withMaximumWeight(long, IFuncCacheEntryWeigher)}.
+     *
+     * @param maximumSize positive count of objects.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>maximumSize</b> is not positive or maximum weight is already set.
+     */
+    public MS_CacheBoundsSetup<T, ID> withMaximumSize(long maximumSize) {
+        if (maximumSize < 1)
+            throw new MS_BadSetupException("Maximum size of cache must be positive number");
+        if (weigher != null)
+            throw new MS_BadSetupException("Maximum size of cache cannot be set, because maximum weight is already set");
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * Sets maximum total weight of objects that can be held in cache at the same time.
+     * Cannot be combined with {@link MS_CacheBoundsSetup#withMaximumSize(long)}.
+     *
+     * @param maximumWeight positive total weight of all the objects.
+     * @param weigher       function to determine weight of every single object.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>maximumWeight</b> is not positive, <b>weigher</b> is null
+     *                              or maximum size is already set.
+     */
+    public MS_CacheBoundsSetup<T, ID> withMaximumWeight(long maximumWeight, IFuncCacheEntryWeigher<T, ID> weigher) {
+        if (maximumWeight < 1)
+            throw new MS_BadSetupException("Maximum weight of cache must be positive number");
+        if (weigher == null)
+            throw new MS_BadSetupException("Weigher of cache entries must be set together with maximum weight");
+        if (maximumSize > 0)
+            throw new MS_BadSetupException("Maximum weight of cache cannot be set, because maximum size is already set");
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * Sets count of independently locked segments. Higher value allows more threads to use cache without
+     * blocking each other. Value is rounded up to nearest power of two.
+     * Default is {@link MS_CacheBoundsSetup#_DEFAULT_CONCURRENCY_LEVEL}.
+     *
+     * @param concurrencyLevel positive count of segments.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>concurrencyLevel</b> is not positive.
+     */
+    public MS_CacheBoundsSetup<T, ID> withConcurrencyLevel(int concurrencyLevel) {
+        if (concurrencyLevel < 1)
+            throw new MS_BadSetupException("Concurrency level of cache must be positive number");
+        this.concurrencyLevel = concurrencyLevel;
+        return this;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public IFuncCacheEntryWeigher<T, ID> getWeigher() {
+        return weigher;
+    }
+
+    public int getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+
+    /**
+     * @return true if maximum size or maximum weight is set.
+     */
+    public boolean isBounded() {
+        return maximumSize > 0 || maximumWeight > 0;
+    }
+}
@@ -0,0 +1,201 @@
+package lv.emes.libraries.storage;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact immutable representation of cached object together with its expiration time.
+ * Expiration time is held as primitive value of monotonic clock ({@link System#nanoTime()}), so checking,
+ * whether object is expired, costs single comparison and doesn't depend on changes of system wall clock.
+ * <p>Because values of monotonic clock are meaningful only inside current JVM, entries are converted to
+ * pair of object and {@link LocalDateTime} ({@link MS_CacheEntry#toPair()}) whenever expiration time must
+ * leave the process (for example, when it's written to file).
+ * <p>Entry without object (<code>null</code>) is negative entry - it caches the fact that object doesn't exist.
+ * <p>Entry also remembers its time to live, so that cache can refresh object, which has lived through given share
+ * of its time to live ({@link MS_CacheEntry#isDueForRefresh(long, double)}).
+ * <p>Public methods:
+ * <ul>
+ * <li>of</li>
+ * <li>eternal</li>
+ * <li>fromPair</li>
+ * <li>toPair</li>
+ * <li>isExpired</li>
+ * <li>remainingNanos</li>
+ * <li>isDueForRefresh</li>
+ * <li>now</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getObject</li>
+ * <li>getExpirationNanos</li>
+ * <li>getTimeToLiveNanos</li>
+ * <li>isEternal</li>
+ * <li>isNegative</li>
+ * </ul>
+ *
+ * @param <T> type of cached object.
+ * @author eMeS
+ * @version 1.1.
+ */
+public final class MS_CacheEntry<T> {
+
+    private final T object;
+    private final long expirationNanos;
+    private final long timeToLiveNanos;
+    private final boolean eternal;
+
+    private MS_CacheEntry(T object, long expirationNanos, long timeToLiveNanos, boolean eternal) {
+        this.object = object;
+        this.expirationNanos = expirationNanos;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.eternal = eternal;
+    }
+
+    /**
+     * Creates entry, which expires after given time to live counting from now.
+     *
+     * @param object cached object or <code>null</code> for negative entry.
+     * @param ttl    time to live of object. Zero or negative value means that entry is already expired.
+     * @param unit   time unit of <b>ttl</b>.
+     * @param <T>    type of cached object.
+     * @return new entry.
+     */
+    public static <T> MS_CacheEntry<T> of(T object, long ttl, TimeUnit unit) {
+        long ttlNanos = unit.toNanos(ttl);
+        return new MS_CacheEntry<>(object, now() + ttlNanos, ttlNanos, false);
+    }
+
+    /**
+     * @param object cached object.
+     * @param <T>    type of cached object.
+     * @return new entry, which never expires.
+     */
+    public static <T> MS_CacheEntry<T> eternal(T object) {
+        return new MS_CacheEntry<>(object, 0L, 0L, true);
+    }
+
+    /**
+     * Converts pair of object and its expiration time to entry. Time left until expiration is considered as
+     * time to live of entry.
+     *
+     * @param pair pair of object and its expiration time, which can be <code>null</code> if object never expires.
+     * @param <T>  type of cached object.
+     * @return new entry or <code>null</code> if <b>pair</b> is <code>null</code>.
+     */
+    public static <T> MS_CacheEntry<T> fromPair(Pair<T, LocalDateTime> pair) {
+        if (pair == null) return null;
+        if (pair.getRight() == null) return eternal(pair.getLeft());
+        long ttlNanos = nanosUntil(pair.getRight());
+        return new MS_CacheEntry<>(pair.getLeft(), now() + ttlNanos, ttlNanos, false);
+    }
+
+    /**
+     * @return pair of object and its expiration time, which is calculated using current wall clock time.
+     */
+    public Pair<T, LocalDateTime> toPair() {
+        return Pair.of(object, eternal ? null : LocalDateTime.now().plusNanos(remainingNanos()));
+    }
+
+    /**
+     * @param nowNanos current value of monotonic clock ({@link MS_CacheEntry#now()}).
+     * @return true if entry is expired at given time.
+     */
+    public boolean isExpired(long nowNanos) {
+        //difference is compared instead of values themselves, because monotonic clock can overflow
+        return !eternal && nowNanos - expirationNanos >= 0;
+    }
+
+    public boolean isExpired() {
+        return isExpired(now());
+    }
+
+    /**
+     * @return nanoseconds left until expiration (zero or negative if entry is already expired)
+     * or {@link Long#MAX_VALUE} if entry never expires.
+     */
+    public long remainingNanos() {
+        return eternal ? Long.MAX_VALUE : expirationNanos - now();
+    }
+
+    /**
+     * @param nowNanos  current value of monotonic clock ({@link MS_CacheEntry#now()}).
+     * @param threshold share of time to live (0..1), after which entry should be refreshed.
+     * @return true if entry is not eternal and it has lived through <b>threshold</b> share of its time to live.
+     */
+    public boolean isDueForRefresh(long nowNanos, double threshold) {
+        if (eternal) return false;
+        long createdNanos = expirationNanos - timeToLiveNanos;
+        return nowNanos - createdNanos >= (long) (timeToLiveNanos * threshold);
+    }
+
+    /**
+     * @return current value of monotonic clock, which is used to calculate expiration of entries.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    public T getObject() {
+        return object;
+    }
+
+    /**
+     * @return expiration time in terms of monotonic clock ({@link MS_CacheEntry#now()}).
+     * Meaningless if entry is eternal.
+     */
+    public long getExpirationNanos() {
+        return expirationNanos;
+    }
+
+    /**
+     * @return time to live, which entry had at the moment of its creation. Meaningless if entry is eternal.
+     */
+    public long getTimeToLiveNanos() {
+        return timeToLiveNanos;
+    }
+
+    public boolean isEternal() {
+        return eternal;
+    }
+
+    /**
+     * @return true if entry caches absence of object.
+     */
+    public boolean isNegative() {
+        return object == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MS_CacheEntry<?> that = (MS_CacheEntry<?>) o;
+        return expirationNanos == that.expirationNanos && timeToLiveNanos == that.timeToLiveNanos
+                && eternal == that.eternal && Objects.equals(object, that.object);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(object, expirationNanos, timeToLiveNanos, eternal);
+    }
+
+    @Override
+    public String toString() {
+        return "MS_CacheEntry{object=" + object + (eternal ? ", eternal" : ", expiresInNanos=" + remainingNanos()) + '}';
+    }
+
+    //*** Private methods ***
+
+    private static long nanosUntil(LocalDateTime expirationTime) {
+        try {
+            return Duration.between(LocalDateTime.now(), expirationTime).toNanos();
+        } catch (ArithmeticException e) {
+            //more than ~292 years away in either direction
+            return expirationTime.isAfter(LocalDateTime.now()) ? Long.MAX_VALUE / 2 : Long.MIN_VALUE / 2;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package lv.emes.libraries.storage;
+
+/**
+ * Enum of reasons, why object left the cache.
+ * <ul>
+ * <li>SIZE - object was evicted, because cache reached its maximum size or weight;</li>
+ * <li>EXPIRED - TTL of object expired;</li>
+ * <li>EXPLICIT - object was removed on demand (for example, cache was cleared);</li>
+ * <li>REPLACED - object was replaced with another object with the same ID.</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_CacheStats
+ */
+public enum MS_CacheEvictionCauseEnum {
+
+    SIZE, EXPIRED, EXPLICIT, REPLACED
+}
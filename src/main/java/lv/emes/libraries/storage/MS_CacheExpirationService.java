@@ -0,0 +1,138 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.threading.MS_TimingWheel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service shared by all the caches ({@link MS_Cache}) to perform asynchronous cache operations
+ * and proactive removal of expired objects.
+ * <p>It consists of:
+ * <ul>
+ * <li>bounded thread pool (twice as many threads as there are processors, but at least 4, as operations are mostly
+ * I/O bound), which executes storing, clearing and removal operations of caches -
+ * when its queue is full, caller thread executes operation itself, which slows down producers
+ * instead of creating more and more threads;</li>
+ * <li>timing wheel ({@link MS_TimingWheel}) with single thread, which triggers removal of every
+ * cached object at its expiration time at O(1) cost per object. Removals are executed in thread pool too, but never
+ * in thread of wheel, which would stall all the timers: when queue of pool is full, removal is deferred to the next
+ * tick of wheel.</li>
+ * </ul>
+ * All threads of this service are daemon threads, so they never prevent application from exiting.
+ * <p>Public methods:
+ * <ul>
+ * <li>getInstance</li>
+ * <li>getExecutor</li>
+ * <li>scheduleExpiration</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.1.
+ */
+public final class MS_CacheExpirationService {
+
+    public static final long _TICK_DURATION_MILLIS = 10L;
+    public static final int _MAX_QUEUED_OPERATIONS = 10_000;
+
+    private final ThreadPoolExecutor executor;
+    private final MS_TimingWheel wheel;
+
+    private MS_CacheExpirationService() {
+        int threadCount = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(_MAX_QUEUED_OPERATIONS),
+                new DaemonThreadFactory("MS_Cache worker #"),
+                new RejectionPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        wheel = new MS_TimingWheel(_TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS, executor, "MS_Cache expiration timer");
+    }
+
+    /**
+     * @return the only instance of service.
+     */
+    public static MS_CacheExpirationService getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @return bounded thread pool, which executes cache operations.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Schedules <b>expirationAction</b> to be executed in service's thread pool after given delay.
+     * If thread pool is saturated at that time, action is deferred tick by tick, until pool accepts it,
+     * and then it cannot be cancelled through returned handle anymore.
+     *
+     * @param expirationAction action that removes expired object from cache.
+     * @param delay            non-negative delay.
+     * @param unit             time unit of <b>delay</b>.
+     * @return handle of scheduled action, which can be used to cancel it.
+     */
+    public MS_TimingWheel.Timeout scheduleExpiration(Runnable expirationAction, long delay, TimeUnit unit) {
+        return wheel.schedule(new ExpirationTask(expirationAction), delay, unit);
+    }
+
+    //*** Private classes ***
+
+    /**
+     * Marks actions passed to thread pool by timing wheel.
+     */
+    private static final class ExpirationTask implements Runnable {
+
+        private final Runnable expirationAction;
+
+        ExpirationTask(Runnable expirationAction) {
+            this.expirationAction = expirationAction;
+        }
+
+        @Override
+        public void run() {
+            expirationAction.run();
+        }
+    }
+
+    /**
+     * Operations rejected by saturated thread pool are executed by caller thread, except expiration actions, which
+     * are rejected in thread of timing wheel, so they are scheduled again to the next tick.
+     */
+    private final class RejectionPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable operation, ThreadPoolExecutor executor) {
+            if (operation instanceof ExpirationTask)
+                wheel.schedule(operation, _TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS);
+            else if (!executor.isShutdown())
+                operation.run();
+        }
+    }
+
+    private static final class InstanceHolder {
+        private static final MS_CacheExpirationService INSTANCE = new MS_CacheExpirationService();
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        private final String namePrefix;
+
+        DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.communication.MS_DTOMappingAlgorithm;
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.tools.logging.MS_MultiLogger;
+import lv.emes.libraries.tools.threading.MS_TimingWheel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of cache ({@link MS_Cache}) contents, which allows cache to start warm after restart of application
+ * instead of hitting original source of objects with all the requests at once.
+ * <p>Snapshot holds every object, which is not expired yet (cached absences of objects are not saved), together with its identifier and remaining time to live.
+ * Objects and identifiers are serialized to bytes by codecs ({@link MS_DTOMappingAlgorithm}) given in constructor.
+ * When snapshot is loaded, time passed since it was saved is subtracted from time to live of every object, and
+ * objects that are expired meanwhile are skipped.
+ * <p>File consists of header (magic number, format version, creation time), records of objects and trailer (count of
+ * records and CRC32 checksum of everything before it). Snapshot is written to temporary file first and then moved
+ * in place of previous snapshot, so previous snapshot is never left half-written. Snapshot, which is missing,
+ * has unknown format version or fails checksum validation, is skipped and cache just starts empty.
+ * <p>Records are deserialized and stored into cache in parallel. Objects, which are already cached at the moment of
+ * loading, are not replaced.
+ * <p>Public methods:
+ * <ul>
+ * <li>save</li>
+ * <li>load</li>
+ * <li>schedulePeriodicSaving</li>
+ * <li>stopPeriodicSaving</li>
+ * <li>saveOnShutdown</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>setLogger</li>
+ * <li>getLogger</li>
+ * <li>getCache</li>
+ * <li>getPath</li>
+ * </ul>
+ *
+ * @param <T>  type of cached objects.
+ * @param <ID> type of object identifiers.
+ * @author eMeS
+ * @version 1.1.
+ */
+public class MS_CacheSnapshot<T, ID> {
+
+    public static final int _FORMAT_VERSION = 1;
+
+    private static final int MAGIC_NUMBER = 0x4D534353; //"MSCS"
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final long NO_EXPIRATION = -1L;
+
+    private final MS_Cache<T, ID> cache;
+    private final Path path;
+    private final MS_DTOMappingAlgorithm<T, byte[]> objectCodec;
+    private final MS_DTOMappingAlgorithm<ID, byte[]> identifierCodec;
+    private final Object savingLock = new Object();
+    private final AtomicBoolean shutdownHookRegistered = new AtomicBoolean();
+    //every (re)scheduling of periodic saving starts new generation, so tasks of previous one stop rescheduling
+    private volatile Object savingGeneration;
+    private volatile MS_TimingWheel.Timeout periodicSaving;
+    private MS_MultiLogger logger;
+
+    /**
+     * @param cache           cache, which contents are saved and loaded.
+     * @param path            path to snapshot file.
+     * @param objectCodec     algorithm to serialize cached objects to bytes and back.
+     * @param identifierCodec algorithm to serialize identifiers of objects to bytes and back.
+     * @throws NullPointerException if any of parameters is <code>null</code>.
+     */
+    public MS_CacheSnapshot(MS_Cache<T, ID> cache, String path, MS_DTOMappingAlgorithm<T, byte[]> objectCodec,
+                            MS_DTOMappingAlgorithm<ID, byte[]> identifierCodec) {
+        if (cache == null || path == null || objectCodec == null || identifierCodec == null)
+            throw new NullPointerException("Cache snapshot cannot be constructed, because some of parameters is null");
+        this.cache = cache;
+        this.path = Paths.get(path);
+        this.objectCodec = objectCodec;
+        this.identifierCodec = identifierCodec;
+    }
+
+    /**
+     * Writes all the objects of cache, which are not expired yet, to snapshot file replacing previous snapshot.
+     *
+     * @return count of saved objects.
+     * @throws MS_RepositoryDataExchangeException if writing of snapshot fails.
+     */
+    public int save() throws MS_RepositoryDataExchangeException {
+        MS_CachingRepository<T, ID> repository = cache.getRepository();
+        repository.checkAndThrowNotInitializedException();
+        synchronized (savingLock) {
+            Path temporaryFile = path.resolveSibling(path.getFileName() + ".tmp");
+            int count = 0;
+            try {
+                if (path.getParent() != null)
+                    Files.createDirectories(path.getParent());
+                try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    CheckedOutputStream checkedStream = new CheckedOutputStream(
+                            new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+                    DataOutputStream output = new DataOutputStream(checkedStream);
+                    output.writeInt(MAGIC_NUMBER);
+                    output.writeInt(_FORMAT_VERSION);
+                    output.writeLong(System.currentTimeMillis());
+                    long now = MS_CacheEntry.now();
+                    Iterator<Map.Entry<ID, MS_CacheEntry<T>>> iter = repository.doIterateEntries();
+                    while (iter.hasNext()) {
+                        Map.Entry<ID, MS_CacheEntry<T>> entry = iter.next();
+                        MS_CacheEntry<T> cacheEntry = entry.getValue();
+                        if (cacheEntry.isExpired(now) || cacheEntry.isNegative()) continue;
+                        output.writeLong(cacheEntry.isEternal() ? NO_EXPIRATION :
+                                TimeUnit.NANOSECONDS.toMillis(cacheEntry.getExpirationNanos() - now));
+                        writeBytes(output, identifierCodec.serialize(entry.getKey()));
+                        writeBytes(output, objectCodec.serialize(cacheEntry.getObject()));
+                        count++;
+                    }
+                    output.writeInt(count);
+                    output.flush();
+                    output.writeLong(checkedStream.getChecksum().getValue());
+                    output.flush();
+                    //otherwise after crash of system renamed snapshot could be empty or incomplete
+                    channel.force(true);
+                }
+                moveInPlace(temporaryFile);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    Files.deleteIfExists(temporaryFile);
+                } catch (IOException ignored) {
+                }
+                throw new MS_RepositoryDataExchangeException("Failed to save snapshot of cache to file:\n" + path, e);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Loads objects from snapshot file into cache. Removal of every loaded object is scheduled at its expiration time
+     * the same way as for objects stored by {@link MS_Cache#store(Object, Object, Long)}.
+     * If snapshot file doesn't exist, is corrupted or has unsupported format version, nothing is loaded
+     * (reason is logged as warning if logger is set).
+     *
+     * @return count of loaded objects.
+     */
+    public int load() {
+        if (!Files.isRegularFile(path))
+            return 0;
+        List<SnapshotRecord> records;
+        try {
+            records = readRecords(Files.readAllBytes(path));
+        } catch (IOException e) {
+            warn("Failed to read snapshot of cache from file:\n" + path);
+            return 0;
+        } catch (CorruptedSnapshotException e) {
+            warn("Snapshot of cache is skipped. " + e.getMessage() + "\nFile: " + path);
+            return 0;
+        }
+
+        AtomicInteger failures = new AtomicInteger();
+        int loaded = records.parallelStream().mapToInt(record -> {
+            try {
+                MS_CacheEntry<T> entry = record.ttlMillis == NO_EXPIRATION ?
+                        MS_CacheEntry.eternal(objectCodec.deserialize(record.object)) :
+                        MS_CacheEntry.of(objectCodec.deserialize(record.object), record.ttlMillis, TimeUnit.MILLISECONDS);
+                return cache.restore(identifierCodec.deserialize(record.identifier), entry) ? 1 : 0;
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                return 0;
+            }
+        }).sum();
+        if (failures.get() > 0)
+            warn(failures.get() + " objects of cache snapshot failed to be restored. File: " + path);
+        return loaded;
+    }
+
+    /**
+     * Schedules saving of snapshot in shared thread pool of {@link MS_CacheExpirationService} every <b>period</b>.
+     * Previously scheduled periodic saving is stopped. Failures of saving are logged if logger is set.
+     *
+     * @param period positive period of saving.
+     * @param unit   time unit of <b>period</b>.
+     * @return reference to snapshot itself.
+     * @throws MS_BadSetupException if <b>period</b> is not positive.
+     */
+    public MS_CacheSnapshot<T, ID> schedulePeriodicSaving(long period, TimeUnit unit) {
+        if (period <= 0)
+            throw new MS_BadSetupException("Period of cache snapshot saving must be positive");
+        stopPeriodicSaving();
+        Object generation = new Object();
+        savingGeneration = generation;
+        scheduleNextSaving(generation, unit.toNanos(period));
+        return this;
+    }
+
+    /**
+     * Stops periodic saving of snapshot if it was scheduled.
+     */
+    public void stopPeriodicSaving() {
+        savingGeneration = null;
+        MS_TimingWheel.Timeout timeout = periodicSaving;
+        periodicSaving = null;
+        if (timeout != null)
+            timeout.cancel();
+    }
+
+    /**
+     * Registers JVM shutdown hook, which saves snapshot when application exits normally.
+     * Repeated calls have no effect.
+     *
+     * @return reference to snapshot itself.
+     */
+    public MS_CacheSnapshot<T, ID> saveOnShutdown() {
+        if (shutdownHookRegistered.compareAndSet(false, true))
+            Runtime.getRuntime().addShutdownHook(new Thread(this::saveAndLogFailure, "MS_CacheSnapshot saving on shutdown"));
+        return this;
+    }
+
+    //*** Setters and getters ***
+
+    public MS_MultiLogger getLogger() {
+        return logger;
+    }
+
+    public void setLogger(MS_MultiLogger logger) {
+        this.logger = logger;
+    }
+
+    public MS_Cache<T, ID> getCache() {
+        return cache;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    //*** Private methods and classes ***
+
+    private void scheduleNextSaving(Object generation, long periodNanos) {
+        periodicSaving = MS_CacheExpirationService.getInstance().scheduleExpiration(() -> {
+            if (generation != savingGeneration) return;
+            saveAndLogFailure();
+            if (generation == savingGeneration)
+                scheduleNextSaving(generation, periodNanos);
+        }, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void saveAndLogFailure() {
+        try {
+            save();
+        } catch (RuntimeException e) {
+            if (logger != null)
+                logger.error("Failed to save snapshot of cache", e);
+        }
+    }
+
+    private void warn(String message) {
+        if (logger != null)
+            logger.warn(message);
+    }
+
+    private void moveInPlace(Path temporaryFile) throws IOException {
+        try {
+            Files.move(temporaryFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static List<SnapshotRecord> readRecords(byte[] snapshot) throws CorruptedSnapshotException {
+        if (snapshot.length < HEADER_SIZE + TRAILER_SIZE)
+            throw new CorruptedSnapshotException("File is too short to be a snapshot");
+        CRC32 checksum = new CRC32();
+        checksum.update(snapshot, 0, snapshot.length - Long.BYTES);
+        ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+        if (buffer.getLong(snapshot.length - Long.BYTES) != checksum.getValue())
+            throw new CorruptedSnapshotException("Checksum doesn't match");
+        if (buffer.getInt() != MAGIC_NUMBER)
+            throw new CorruptedSnapshotException("File is not a snapshot of cache");
+        int version = buffer.getInt();
+        if (version != _FORMAT_VERSION)
+            throw new CorruptedSnapshotException("Unsupported format version: " + version);
+        long elapsedMillis = Math.max(0, System.currentTimeMillis() - buffer.getLong());
+
+        List<SnapshotRecord> records = new ArrayList<>();
+        int recordsEnd = snapshot.length - TRAILER_SIZE;
+        try {
+            while (buffer.position() < recordsEnd) {
+                long ttlMillis = buffer.getLong();
+                byte[] identifier = readBytes(buffer, recordsEnd);
+                byte[] object = readBytes(buffer, recordsEnd);
+                if (ttlMillis == NO_EXPIRATION)
+                    records.add(new SnapshotRecord(NO_EXPIRATION, identifier, object));
+                else if (ttlMillis > elapsedMillis)
+                    records.add(new SnapshotRecord(ttlMillis - elapsedMillis, identifier, object));
+                else //expired while application was down, but still counts as a record
+                    records.add(null);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new CorruptedSnapshotException("Record exceeds bounds of file");
+        }
+        if (buffer.position() != recordsEnd || buffer.getInt() != records.size())
+            throw new CorruptedSnapshotException("Count of records doesn't match");
+        records.removeIf(record -> record == null);
+        return records;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int limit) throws CorruptedSnapshotException {
+        int length = buffer.getInt();
+        if (length < 0 || length > limit - buffer.position())
+            throw new CorruptedSnapshotException("Record exceeds bounds of file");
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static final class SnapshotRecord {
+
+        private final long ttlMillis;
+        private final byte[] identifier;
+        private final byte[] object;
+
+        SnapshotRecord(long ttlMillis, byte[] identifier, byte[] object) {
+            this.ttlMillis = ttlMillis;
+            this.identifier = identifier;
+            this.object = object;
+        }
+    }
+
+    private static final class CorruptedSnapshotException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        CorruptedSnapshotException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package lv.emes.libraries.storage;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of cache statistics taken by {@link MS_CacheStatsCounter#snapshot()}.
+ * Load latencies are held in logarithmic histogram, where bucket <b>i</b> counts loads that lasted
+ * from 2^i to 2^(i+1) - 1 nanoseconds.
+ * <p>Public methods:
+ * <ul>
+ * <li>minus</li>
+ * <li>getLoadLatencyPercentileNanos</li>
+ * </ul>
+ * <p>Getters:
+ * <ul>
+ * <li>getHitCount</li>
+ * <li>getMissCount</li>
+ * <li>getRequestCount</li>
+ * <li>getHitRate</li>
+ * <li>getMissRate</li>
+ * <li>getLoadSuccessCount</li>
+ * <li>getLoadFailureCount</li>
+ * <li>getLoadCount</li>
+ * <li>getTotalLoadTimeNanos</li>
+ * <li>getAverageLoadPenaltyNanos</li>
+ * <li>getLoadLatencyHistogram</li>
+ * <li>getExpiredOnReadCount</li>
+ * <li>getEvictionCount</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public final class MS_CacheStats {
+
+    public static final int _LATENCY_BUCKET_COUNT = 64;
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTimeNanos;
+    private final long expiredOnReadCount;
+    private final long[] evictionCounts;
+    private final long[] loadLatencyHistogram;
+
+    MS_CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadTimeNanos,
+                  long expiredOnReadCount, long[] evictionCounts, long[] loadLatencyHistogram) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.expiredOnReadCount = expiredOnReadCount;
+        this.evictionCounts = evictionCounts;
+        this.loadLatencyHistogram = loadLatencyHistogram;
+    }
+
+    /**
+     * Calculates statistics of period between <b>earlier</b> snapshot and this one.
+     *
+     * @param earlier snapshot taken earlier from the same counter.
+     * @return difference of every counter, but never negative.
+     */
+    public MS_CacheStats minus(MS_CacheStats earlier) {
+        long[] evictions = new long[evictionCounts.length];
+        for (int i = 0; i < evictions.length; i++)
+            evictions[i] = Math.max(0, evictionCounts[i] - earlier.evictionCounts[i]);
+        long[] latencies = new long[loadLatencyHistogram.length];
+        for (int i = 0; i < latencies.length; i++)
+            latencies[i] = Math.max(0, loadLatencyHistogram[i] - earlier.loadLatencyHistogram[i]);
+        return new MS_CacheStats(
+                Math.max(0, hitCount - earlier.hitCount),
+                Math.max(0, missCount - earlier.missCount),
+                Math.max(0, loadSuccessCount - earlier.loadSuccessCount),
+                Math.max(0, loadFailureCount - earlier.loadFailureCount),
+                Math.max(0, totalLoadTimeNanos - earlier.totalLoadTimeNanos),
+                Math.max(0, expiredOnReadCount - earlier.expiredOnReadCount),
+                evictions, latencies);
+    }
+
+    /**
+     * Estimates load latency, which is not exceeded by given share of loads.
+     *
+     * @param percentile value in range 0..100, for example, 99 for 99th percentile.
+     * @return upper bound of histogram bucket, where requested percentile falls, or 0 if there were no loads.
+     * @throws IllegalArgumentException if <b>percentile</b> is out of range.
+     */
+    public long getLoadLatencyPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be in range 0..100");
+        long total = 0;
+        for (long count : loadLatencyHistogram) total += count;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long passed = 0;
+        for (int i = 0; i < loadLatencyHistogram.length; i++) {
+            passed += loadLatencyHistogram[i];
+            if (passed >= rank)
+                return i == _LATENCY_BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return share of requests that were hits (0..1) or 1 if there were no requests.
+     */
+    public double getHitRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return share of requests that were misses (0..1) or 0 if there were no requests.
+     */
+    public double getMissRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long getLoadCount() {
+        return loadSuccessCount + loadFailureCount;
+    }
+
+    public long getTotalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    /**
+     * @return average time spent on single load or 0 if there were no loads.
+     */
+    public double getAverageLoadPenaltyNanos() {
+        long loadCount = getLoadCount();
+        return loadCount == 0 ? 0.0 : (double) totalLoadTimeNanos / loadCount;
+    }
+
+    /**
+     * @return copy of load latency histogram.
+     */
+    public long[] getLoadLatencyHistogram() {
+        return loadLatencyHistogram.clone();
+    }
+
+    /**
+     * @return count of requests, which found object in cache, but object was already expired.
+     */
+    public long getExpiredOnReadCount() {
+        return expiredOnReadCount;
+    }
+
+    /**
+     * @return total count of evictions of all causes.
+     */
+    public long getEvictionCount() {
+        long res = 0;
+        for (long count : evictionCounts) res += count;
+        return res;
+    }
+
+    public long getEvictionCount(MS_CacheEvictionCauseEnum cause) {
+        return evictionCounts[cause.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        return "MS_CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", totalLoadTimeNanos=" + totalLoadTimeNanos +
+                ", expiredOnReadCount=" + expiredOnReadCount +
+                ", evictionCounts=" + Arrays.toString(evictionCounts) +
+                '}';
+    }
+}
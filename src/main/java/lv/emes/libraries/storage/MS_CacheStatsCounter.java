@@ -0,0 +1,204 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe accumulator of cache statistics. Every counter is {@link LongAdder}, which spreads updates of
+ * concurrent threads over several cells instead of contending on single value, so recording costs almost nothing
+ * on the hot path. Consistent view of all the counters can be taken with {@link MS_CacheStatsCounter#snapshot()}.
+ * <p>Statistics can also be exposed via JMX as {@link MS_CacheStatsMXBean}.
+ * <p>Public methods:
+ * <ul>
+ * <li>recordHits</li>
+ * <li>recordMisses</li>
+ * <li>recordLoadSuccess</li>
+ * <li>recordLoadFailure</li>
+ * <li>recordExpiredOnRead</li>
+ * <li>recordEviction</li>
+ * <li>recordEvictions</li>
+ * <li>snapshot</li>
+ * <li>registerMBean</li>
+ * <li>unregisterMBean</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_CacheStatsCounter {
+
+    public static final String _MBEAN_DOMAIN = "lv.emes.libraries.storage";
+
+    private static final MS_CacheEvictionCauseEnum[] CAUSES = MS_CacheEvictionCauseEnum.values();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder expiredOnReadCount = new LongAdder();
+    private final LongAdder[] evictionCounts = newAdders(CAUSES.length);
+    private final LongAdder[] loadLatencyHistogram = newAdders(MS_CacheStats._LATENCY_BUCKET_COUNT);
+    private ObjectName registeredMBeanName;
+
+    public void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    public void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    /**
+     * @param loadTimeNanos time spent on successful load in nanoseconds.
+     */
+    public void recordLoadSuccess(long loadTimeNanos) {
+        loadSuccessCount.increment();
+        recordLoadTime(loadTimeNanos);
+    }
+
+    /**
+     * @param loadTimeNanos time spent on failed load in nanoseconds.
+     */
+    public void recordLoadFailure(long loadTimeNanos) {
+        loadFailureCount.increment();
+        recordLoadTime(loadTimeNanos);
+    }
+
+    public void recordExpiredOnRead() {
+        expiredOnReadCount.increment();
+    }
+
+    public void recordEviction(MS_CacheEvictionCauseEnum cause) {
+        evictionCounts[cause.ordinal()].increment();
+    }
+
+    public void recordEvictions(MS_CacheEvictionCauseEnum cause, int count) {
+        evictionCounts[cause.ordinal()].add(count);
+    }
+
+    /**
+     * @return immutable snapshot of current values of all the counters.
+     */
+    public MS_CacheStats snapshot() {
+        return new MS_CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(),
+                totalLoadTime.sum(), expiredOnReadCount.sum(), sums(evictionCounts), sums(loadLatencyHistogram));
+    }
+
+    /**
+     * Registers statistics of this counter in platform MBean server with object name
+     * "lv.emes.libraries.storage:type=CacheStats,name=<b>cacheName</b>".
+     *
+     * @param cacheName name that identifies cache in JMX console.
+     * @return name of registered MBean.
+     * @throws MS_BadSetupException if counter is already registered or MBean with such name already exists.
+     */
+    public synchronized ObjectName registerMBean(String cacheName) throws MS_BadSetupException {
+        if (registeredMBeanName != null)
+            throw new MS_BadSetupException("Cache statistics are already registered as MBean: " + registeredMBeanName);
+        try {
+            ObjectName name = new ObjectName(_MBEAN_DOMAIN + ":type=CacheStats,name=" + ObjectName.quote(cacheName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StatsMXBean(), name);
+            registeredMBeanName = name;
+            return name;
+        } catch (JMException e) {
+            throw new MS_BadSetupException("Failed to register cache statistics MBean for cache: " + cacheName, e);
+        }
+    }
+
+    /**
+     * Unregisters MBean registered by {@link MS_CacheStatsCounter#registerMBean(String)}.
+     * Does nothing if counter is not registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (registeredMBeanName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(registeredMBeanName))
+                server.unregisterMBean(registeredMBeanName);
+        } catch (JMException ignored) {
+            //MBean is already gone
+        }
+        registeredMBeanName = null;
+    }
+
+    //*** Private methods and classes ***
+
+    private void recordLoadTime(long loadTimeNanos) {
+        long nanos = Math.max(1, loadTimeNanos);
+        totalLoadTime.add(nanos);
+        loadLatencyHistogram[63 - Long.numberOfLeadingZeros(nanos)].increment();
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] res = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            res[i] = new LongAdder();
+        return res;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] res = new long[adders.length];
+        for (int i = 0; i < adders.length; i++)
+            res[i] = adders[i].sum();
+        return res;
+    }
+
+    private final class StatsMXBean implements MS_CacheStatsMXBean {
+
+        @Override
+        public long getHitCount() {
+            return hitCount.sum();
+        }
+
+        @Override
+        public long getMissCount() {
+            return missCount.sum();
+        }
+
+        @Override
+        public double getHitRate() {
+            return snapshot().getHitRate();
+        }
+
+        @Override
+        public long getLoadSuccessCount() {
+            return loadSuccessCount.sum();
+        }
+
+        @Override
+        public long getLoadFailureCount() {
+            return loadFailureCount.sum();
+        }
+
+        @Override
+        public double getAverageLoadPenaltyNanos() {
+            return snapshot().getAverageLoadPenaltyNanos();
+        }
+
+        @Override
+        public long getExpiredOnReadCount() {
+            return expiredOnReadCount.sum();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return snapshot().getEvictionCount();
+        }
+
+        @Override
+        public Map<String, Long> getEvictionCountByCause() {
+            Map<String, Long> res = new LinkedHashMap<>();
+            for (MS_CacheEvictionCauseEnum cause : CAUSES)
+                res.put(cause.name(), evictionCounts[cause.ordinal()].sum());
+            return res;
+        }
+    }
+}
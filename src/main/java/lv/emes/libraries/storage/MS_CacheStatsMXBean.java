@@ -0,0 +1,35 @@
+package lv.emes.libraries.storage;
+
+import java.util.Map;
+
+/**
+ * Management interface, which exposes cache statistics via JMX.
+ * Every attribute is read from fresh {@link MS_CacheStats} snapshot.
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_CacheStatsCounter#registerMBean(String)
+ */
+public interface MS_CacheStatsMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadSuccessCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadPenaltyNanos();
+
+    long getExpiredOnReadCount();
+
+    long getEvictionCount();
+
+    /**
+     * @return eviction counts mapped by names of {@link MS_CacheEvictionCauseEnum}.
+     */
+    Map<String, Long> getEvictionCountByCause();
+}
@@ -3,7 +3,12 @@ package lv.emes.libraries.storage;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * An abstract caching repository, which is meant to cache objects of same type.
@@ -11,17 +16,39 @@ import java.util.Map;
  * All repository methods must be implemented thread-safely.
  * <p><u>Note</u>: second element of Pair is expiration time, which can be
  * <code>null</code> in case object must stay cached for a lifetime {@link MS_CachingRepository#doAdd(Object, Pair)}.
+ * <p>Besides pair based repository operations every caching repository supports operations with compact cache entries
+ * ({@link MS_CacheEntry}), which hold expiration time as primitive value of monotonic clock.
+ * {@link MS_Cache} works with entries only, so repositories, which hold objects in memory, should store entries
+ * directly and override {@link MS_CachingRepository#doFindEntry(Object)} and
+ * {@link MS_CachingRepository#doPutEntry(Object, MS_CacheEntry)} to avoid conversions. By default entries are
+ * converted to pairs and back.
+ * <p>Every caching repository has its statistics counter, which is fed by {@link MS_Cache} operations
+ * (hits, misses, expirations) and by repository itself (for example, evictions due to size bounds).
+ * <p>Public methods:
+ * <ul>
+ * <li>findEntry</li>
+ * <li>putEntry</li>
+ * <li>putEntryIfAbsent</li>
+ * <li>removeEntryIf</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getStatsCounter</li>
+ * <li>getStats</li>
+ * </ul>
  *
  * @param <T>  type of objects that are going to be cached.
  * @param <ID> type of object identifiers.
  * @author eMeS
- * @version 1.1.
+ * @version 1.5.
  * @see MS_Cache
  */
 public abstract class MS_CachingRepository<T, ID> extends MS_Repository<Pair<T, LocalDateTime>, ID> {
 
     public static final String _DEFAULT_REPOSITORY_ROOT_NAME = "MS_Cache";
 
+    private final MS_CacheStatsCounter statsCounter = new MS_CacheStatsCounter();
+
     /**
      * Constructs new caching repository.
      *
@@ -104,4 +131,188 @@ public abstract class MS_CachingRepository<T, ID> extends MS_Repository<Pair<T,
         throwUnsupportedWhenNoImplementationNeeded();
         return null;
     }
+
+    @Override
+    protected Map<ID, Pair<T, LocalDateTime>> doFindPageAfter(ID lastIdentifier, int size) {
+        throwUnsupportedWhenNoImplementationNeeded();
+        return null;
+    }
+
+    /**
+     * Looks for single cached object.
+     * Used in:
+     * <ul>
+     *     <li>{@link MS_Cache#retrieve(Object)}</li>
+     *     <li>{@link MS_Cache#get(Object)}</li>
+     * </ul>
+     *
+     * @param identifier an identifier to find cached object altogether with its expiration time.
+     * @return cached object altogether with its expiration time or <code>null</code> if object isn't cached.
+     */
+    protected MS_CacheEntry<T> doFindEntry(ID identifier) {
+        return MS_CacheEntry.fromPair(doFind(identifier));
+    }
+
+    /**
+     * Stores object into repository replacing previously cached object with the same identifier.
+     * Used in:
+     * <ul>
+     *     <li>{@link MS_Cache#store(Object, Object)}</li>
+     *     <li>{@link MS_Cache#store(Object, Object, Long)}</li>
+     * </ul>
+     *
+     * @param identifier an object identifier.
+     * @param entry      object altogether with its expiration time.
+     * @return previously cached entry or <code>null</code> if there were no object with given identifier.
+     */
+    protected MS_CacheEntry<T> doPutEntry(ID identifier, MS_CacheEntry<T> entry) {
+        return MS_CacheEntry.fromPair(put(identifier, entry.toPair()));
+    }
+
+    /**
+     * Stores object only if repository doesn't hold object with the same identifier. Check and storing are atomic,
+     * so that object stored by other thread meanwhile isn't replaced.
+     * Used in:
+     * <ul>
+     *     <li>{@link MS_CacheSnapshot#load()}</li>
+     * </ul>
+     * <p>Standard implementation checks and stores object in single upsert operation
+     * ({@link MS_Repository#doUpsert(Object, IFuncUpsertOperation)}), so it's as atomic as upsert of repository is.
+     * Repositories, which hold entries directly, should override this method.
+     *
+     * @param identifier an object identifier.
+     * @param entry      object altogether with its expiration time.
+     * @return currently cached entry or <code>null</code> if <b>entry</b> is stored.
+     */
+    protected MS_CacheEntry<T> doPutEntryIfAbsent(ID identifier, MS_CacheEntry<T> entry) {
+        List<MS_CacheEntry<T>> current = new ArrayList<>(1);
+        doUpsert(identifier, (currentObject, id) -> {
+            if (currentObject == null)
+                return entry.toPair();
+            current.add(MS_CacheEntry.fromPair(currentObject));
+            return currentObject;
+        });
+        return current.isEmpty() ? null : current.get(0);
+    }
+
+    /**
+     * Removes cached object only if its current entry satisfies <b>condition</b>. Entry is checked and removed
+     * atomically, so that object, which is replaced right before removal, stays cached.
+     * Used in:
+     * <ul>
+     *     <li>{@link MS_Cache} to remove expired objects</li>
+     * </ul>
+     * <p>Standard implementation checks and removes object in single upsert operation
+     * ({@link MS_Repository#doUpsert(Object, IFuncUpsertOperation)}), so it's as atomic as upsert of repository is.
+     * If object stays, upsert leaves it untouched. Repositories, which hold entries directly, should override this method.
+     *
+     * @param identifier an identifier of object.
+     * @param condition  condition, which entry of object must satisfy to be removed.
+     * @return true if object is removed.
+     */
+    protected boolean doRemoveEntryIf(ID identifier, Predicate<MS_CacheEntry<T>> condition) {
+        boolean[] removed = {false};
+        doUpsert(identifier, (current, id) -> {
+            if (current == null || !condition.test(MS_CacheEntry.fromPair(current)))
+                return current;
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Iterates through all the cached objects altogether with their expiration times.
+     * Used in:
+     * <ul>
+     *     <li>{@link MS_CacheSnapshot#save()}</li>
+     * </ul>
+     *
+     * @return iterator of cache entries.
+     */
+    protected Iterator<Map.Entry<ID, MS_CacheEntry<T>>> doIterateEntries() {
+        Iterator<Map.Entry<ID, Pair<T, LocalDateTime>>> iter = doIterate();
+        return new Iterator<Map.Entry<ID, MS_CacheEntry<T>>>() {
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public Map.Entry<ID, MS_CacheEntry<T>> next() {
+                Map.Entry<ID, Pair<T, LocalDateTime>> entry = iter.next();
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), MS_CacheEntry.fromPair(entry.getValue()));
+            }
+        };
+    }
+
+    /**
+     * Looks for single cached object.
+     *
+     * @param identifier an identifier of object.
+     * @return cached object altogether with its expiration time or <code>null</code> if object isn't cached.
+     * @throws UnsupportedOperationException      if operation is not supported by repository.
+     * @throws MS_RepositoryDataExchangeException if repository failed to retrieve object.
+     */
+    public MS_CacheEntry<T> findEntry(ID identifier) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        return doFindEntry(identifier);
+    }
+
+    /**
+     * Stores object into repository replacing previously cached object with the same identifier.
+     *
+     * @param identifier an object identifier.
+     * @param entry      object altogether with its expiration time.
+     * @return previously cached entry or <code>null</code> if there were no object with given identifier.
+     * @throws UnsupportedOperationException      if operation is not supported by repository.
+     * @throws MS_RepositoryDataExchangeException if repository failed to store object.
+     */
+    public MS_CacheEntry<T> putEntry(ID identifier, MS_CacheEntry<T> entry) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        return doPutEntry(identifier, entry);
+    }
+
+    /**
+     * Stores object into repository only if there is no cached object with the same identifier.
+     *
+     * @param identifier an object identifier.
+     * @param entry      object altogether with its expiration time.
+     * @return currently cached entry or <code>null</code> if <b>entry</b> is stored.
+     * @throws UnsupportedOperationException      if operation is not supported by repository.
+     * @throws MS_RepositoryDataExchangeException if repository failed to store object.
+     */
+    public MS_CacheEntry<T> putEntryIfAbsent(ID identifier, MS_CacheEntry<T> entry) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        return doPutEntryIfAbsent(identifier, entry);
+    }
+
+    /**
+     * Removes cached object only if its current entry satisfies <b>condition</b>. Entry is checked and removed
+     * atomically, so that object, which is replaced right before removal, stays cached.
+     *
+     * @param identifier an identifier of object.
+     * @param condition  condition, which entry of object must satisfy to be removed.
+     * @return true if object is removed.
+     * @throws UnsupportedOperationException      if operation is not supported by repository.
+     * @throws MS_RepositoryDataExchangeException if repository failed to remove object.
+     */
+    public boolean removeEntryIf(ID identifier, Predicate<MS_CacheEntry<T>> condition) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        return doRemoveEntryIf(identifier, condition);
+    }
+
+    /**
+     * @return live statistics counter of this cache.
+     */
+    public MS_CacheStatsCounter getStatsCounter() {
+        return statsCounter;
+    }
+
+    /**
+     * @return snapshot of current statistics of this cache.
+     */
+    public MS_CacheStats getStats() {
+        return statsCounter.snapshot();
+    }
 }
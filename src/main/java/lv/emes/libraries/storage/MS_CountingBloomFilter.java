@@ -0,0 +1,185 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+import java.util.Arrays;
+
+/**
+ * Counting Bloom filter, which answers, whether key might be present in some set of keys, without holding keys
+ * themselves. Answer "no" is always correct, while answer "yes" is wrong with small probability (false positive).
+ * <p>Instead of single bits filter holds small counters, so keys can also be removed. Counter, which reaches its
+ * maximum value, is never decremented anymore, thus filter never produces false negatives, it only becomes less precise.
+ * Size of filter is chosen at construction according to expected count of keys and desired false positive probability.
+ * When more keys than expected are added, false positive probability grows, so owner of filter should check
+ * {@link MS_CountingBloomFilter#isOverloaded()} and build bigger filter.
+ * <p>All the methods are thread-safe.
+ * <p>Public methods:
+ * <ul>
+ * <li>add</li>
+ * <li>remove</li>
+ * <li>mightContain</li>
+ * <li>clear</li>
+ * <li>isOverloaded</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getExpectedKeyCount</li>
+ * <li>getKeyCount</li>
+ * <li>getCounterCount</li>
+ * <li>getHashFunctionCount</li>
+ * </ul>
+ *
+ * @param <K> type of keys.
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_CountingBloomFilter<K> {
+
+    public static final double _DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private static final int MAX_COUNTER_VALUE = 0xFF;
+
+    private final byte[] counters;
+    private final int hashFunctionCount;
+    private final int expectedKeyCount;
+    private int keyCount = 0;
+
+    /**
+     * Constructs filter with default false positive probability (1%).
+     *
+     * @param expectedKeyCount count of keys, which filter is expected to hold.
+     * @throws MS_BadSetupException if <b>expectedKeyCount</b> is not positive.
+     */
+    public MS_CountingBloomFilter(int expectedKeyCount) throws MS_BadSetupException {
+        this(expectedKeyCount, _DEFAULT_FALSE_POSITIVE_PROBABILITY);
+    }
+
+    /**
+     * @param expectedKeyCount           count of keys, which filter is expected to hold.
+     * @param falsePositiveProbability probability (0..1, exclusive) of false positive answer, when filter holds
+     *                                   expected count of keys.
+     * @throws MS_BadSetupException if <b>expectedKeyCount</b> is not positive or <b>falsePositiveProbability</b>
+     *                              is out of range.
+     */
+    public MS_CountingBloomFilter(int expectedKeyCount, double falsePositiveProbability) throws MS_BadSetupException {
+        if (expectedKeyCount <= 0)
+            throw new MS_BadSetupException("Expected key count of Bloom filter must be positive. Given: %d", expectedKeyCount);
+        if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1))
+            throw new MS_BadSetupException("False positive probability of Bloom filter must be in range (0, 1). Given: %s",
+                    falsePositiveProbability);
+        //optimal counter count m = -n * ln(p) / (ln 2)^2 and hash function count k = m / n * ln 2
+        long counterCount = (long) Math.ceil(-expectedKeyCount * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.counters = new byte[(int) Math.min(Math.max(counterCount, 64), Integer.MAX_VALUE - 8)];
+        this.hashFunctionCount = Math.max(1, (int) Math.round((double) counters.length / expectedKeyCount * Math.log(2)));
+        this.expectedKeyCount = expectedKeyCount;
+    }
+
+    /**
+     * Adds key to filter. Adding the same key several times requires removing it the same count of times.
+     *
+     * @param key key to add.
+     */
+    public synchronized void add(K key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashFunctionCount; i++) {
+            int index = indexOf(hash, i);
+            int value = counters[index] & MAX_COUNTER_VALUE;
+            if (value < MAX_COUNTER_VALUE)
+                counters[index] = (byte) (value + 1);
+        }
+        keyCount++;
+    }
+
+    /**
+     * Removes key, which was previously added to filter. Removing key, which was never added, breaks filter,
+     * because other keys might become reported as absent.
+     *
+     * @param key key to remove.
+     */
+    public synchronized void remove(K key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashFunctionCount; i++) {
+            int index = indexOf(hash, i);
+            int value = counters[index] & MAX_COUNTER_VALUE;
+            //saturated counter doesn't know its real value anymore, so it stays saturated
+            if (value > 0 && value < MAX_COUNTER_VALUE)
+                counters[index] = (byte) (value - 1);
+        }
+        if (keyCount > 0)
+            keyCount--;
+    }
+
+    /**
+     * @param key key to check.
+     * @return false if key was definitely never added to filter (or it was removed),
+     * true if key might be present in filter.
+     */
+    public synchronized boolean mightContain(K key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashFunctionCount; i++)
+            if (counters[indexOf(hash, i)] == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Removes all the keys from filter.
+     */
+    public synchronized void clear() {
+        Arrays.fill(counters, (byte) 0);
+        keyCount = 0;
+    }
+
+    /**
+     * @return true if filter holds more keys than it was designed for.
+     */
+    public synchronized boolean isOverloaded() {
+        return keyCount > expectedKeyCount;
+    }
+
+    //*** Setters and getters ***
+
+    public int getExpectedKeyCount() {
+        return expectedKeyCount;
+    }
+
+    /**
+     * @return count of added keys minus count of removed keys.
+     */
+    public synchronized int getKeyCount() {
+        return keyCount;
+    }
+
+    public int getCounterCount() {
+        return counters.length;
+    }
+
+    public int getHashFunctionCount() {
+        return hashFunctionCount;
+    }
+
+    //*** Private methods ***
+
+    /**
+     * Spreads hash code of key to 64 bits (finalizer of MurmurHash3), so that two independent 32 bit hashes can be
+     * taken from it.
+     */
+    private static long hash(Object key) {
+        long hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Calculates index of counter for i-th hash function as h1 + i * h2 (double hashing).
+     * Second hash is made odd, so that indexes differ even if it's zero.
+     */
+    private int indexOf(long hash, int i) {
+        int combined = (int) hash + i * ((int) (hash >>> 32) | 1);
+        return (combined & Integer.MAX_VALUE) % counters.length;
+    }
+}
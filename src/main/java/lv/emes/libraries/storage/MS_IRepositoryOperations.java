@@ -2,6 +2,8 @@ package lv.emes.libraries.storage;
 
 import lv.emes.libraries.tools.MS_BadSetupException;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -15,12 +17,17 @@ import java.util.Map;
  * <li>findAll</li>
  * <li>findPage</li>
  * <li>removeAll</li>
+ * <li>putAll</li>
+ * <li>upsert</li>
  * </ul>
+ * <p>Batch operations (<b>putAll</b>, <b>findAll</b> and <b>removeAll</b> for collection of identifiers) by default
+ * are performed item by item, but repositories are encouraged to override them with implementations that process
+ * whole batch at once.
  *
  * @param <T>  type of items.
  * @param <ID> type of item identifiers.
  * @author eMeS
- * @version 2.1.
+ * @version 2.2.
  */
 public interface MS_IRepositoryOperations<T, ID> {
 
@@ -105,4 +112,75 @@ public interface MS_IRepositoryOperations<T, ID> {
      * @throws MS_RepositoryDataExchangeException if something repository-specific happens while performing data exchange.
      */
     void removeAll() throws UnsupportedOperationException, MS_RepositoryDataExchangeException;
+
+    /**
+     * Adds or replaces existing items in the repository with given <b>items</b>.
+     * By default {@link MS_IRepositoryOperations#put(Object, Object)} is called for every item.
+     *
+     * @param items items mapped by their identifiers.
+     * @throws UnsupportedOperationException      if this operation is not supported for this kind of repository or some
+     *                                            specific conditions in order to operate within this repository isn't met.
+     * @throws MS_RepositoryDataExchangeException if something repository-specific happens while performing data exchange.
+     */
+    default void putAll(Map<ID, T> items) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        items.forEach(this::put);
+    }
+
+    /**
+     * Looks for items with presented <b>identifiers</b>.
+     * By default {@link MS_IRepositoryOperations#find(Object)} is called for every identifier.
+     *
+     * @param identifiers item identifiers.
+     * @return map of found items in order of <b>identifiers</b>. Items that couldn't be found are not in the map.
+     * @throws UnsupportedOperationException      if this operation is not supported for this kind of repository or some
+     *                                            specific conditions in order to operate within this repository isn't met.
+     * @throws MS_RepositoryDataExchangeException if something repository-specific happens while performing data exchange.
+     */
+    default Map<ID, T> findAll(Collection<ID> identifiers) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        Map<ID, T> res = new LinkedHashMap<>();
+        for (ID identifier : identifiers) {
+            T item = find(identifier);
+            if (item != null)
+                res.put(identifier, item);
+        }
+        return res;
+    }
+
+    /**
+     * Removes items with presented <b>identifiers</b> from the repository.
+     * By default {@link MS_IRepositoryOperations#remove(Object)} is called for every identifier.
+     *
+     * @param identifiers item identifiers.
+     * @throws UnsupportedOperationException      if this operation is not supported for this kind of repository or some
+     *                                            specific conditions in order to operate within this repository isn't met.
+     * @throws MS_RepositoryDataExchangeException if something repository-specific happens while performing data exchange.
+     */
+    default void removeAll(Collection<ID> identifiers) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        identifiers.forEach(this::remove);
+    }
+
+    /**
+     * Inserts new item or updates existing item with ID <b>identifier</b> using <b>upsertOperation</b>,
+     * which calculates new item from the current one.
+     * <p>Default implementation is not atomic. Repositories that are able to perform this operation atomically
+     * (so that no other change of same item can happen between reading current item and storing new one)
+     * should override it.
+     *
+     * @param identifier      an item identifier.
+     * @param upsertOperation function, which receives current item (or null if there is no such item) and returns
+     *                        new item or null if item must be removed.
+     * @return new item or null if item is removed or wasn't there at all.
+     * @throws UnsupportedOperationException      if this operation is not supported for this kind of repository or some
+     *                                            specific conditions in order to operate within this repository isn't met.
+     * @throws MS_RepositoryDataExchangeException if something repository-specific happens while performing data exchange.
+     */
+    default T upsert(ID identifier, IFuncUpsertOperation<T, ID> upsertOperation) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        T current = find(identifier);
+        T updated = upsertOperation.apply(current, identifier);
+        if (updated != null)
+            put(identifier, updated);
+        else if (current != null)
+            remove(identifier);
+        return updated;
+    }
 }
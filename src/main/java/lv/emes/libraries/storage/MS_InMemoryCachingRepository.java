@@ -3,25 +3,57 @@ package lv.emes.libraries.storage;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 /**
  * An implementation of in-memory cache, which caches all objects in key-value map, where key is
- * <b>ID</b> and value is pair of object (cachable object) of type <b>T</b>
- * and {@link LocalDateTime}, which represents object expiration time.
+ * <b>ID</b> and value is compact cache entry ({@link MS_CacheEntry}) of object (cachable object) of type <b>T</b>
+ * and its expiration time. Pair based operations of repository convert entries to pairs of object and
+ * {@link LocalDateTime} and back, while {@link MS_Cache} reads and stores entries as they are.
+ * <p>By default cache is unbounded. To limit count or total weight of cached objects repository must be constructed
+ * with {@link MS_CacheBoundsSetup}. Then objects are held in lock-striped segments, and least valuable objects are
+ * evicted as soon as bounds are reached (see {@link MS_CacheBoundsSetup} for details about eviction policy).
+ * Such evictions are counted in statistics of repository with cause {@link MS_CacheEvictionCauseEnum#SIZE}.
+ * <p>Iteration over cache (<b>forEachItem</b>, <b>stream</b>, <b>findAll</b>) walks through cached objects directly
+ * without copying them and skips objects, which are already expired, but not removed from cache yet.
+ * The same objects can be accessed through read-only live view ({@link MS_InMemoryCachingRepository#asMap()}).
+ * Neither iteration nor reads through live view affect eviction order of objects.
+ * Iteration is weakly consistent: it never throws {@link java.util.ConcurrentModificationException} and may or may
+ * not reflect modifications made after iteration started. Callers, who need isolated copy of cache,
+ * must request it explicitly ({@link MS_InMemoryCachingRepository#snapshot()}).
+ * <p>Public methods:
+ * <ul>
+ * <li>asMap</li>
+ * <li>snapshot</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getBounds</li>
+ * </ul>
  *
  * @param <T>  type of objects that are going to be cached.
  * @param <ID> type of object identifiers.
  * @author eMeS
- * @version 1.0.
+ * @version 1.6.
  */
 public class MS_InMemoryCachingRepository<T, ID> extends MS_CachingRepository<T, ID> {
 
     public static final String _DEFAULT_CACHE_NAME = "In-memory cache";
 
-    private Map<ID, Pair<T, LocalDateTime>> objects;
+    private final MS_CacheBoundsSetup<T, ID> bounds;
+    private Map<ID, MS_CacheEntry<T>> objects;
+    private SegmentedLruStore<ID, MS_CacheEntry<T>> boundedObjects;
 
     /**
      * Constructs new in-memory caching repository with default root and cache names.
@@ -36,46 +68,276 @@ public class MS_InMemoryCachingRepository<T, ID> extends MS_CachingRepository<T,
      * @param cacheName name for this in-memory cache.
      */
     public MS_InMemoryCachingRepository(String cacheRootName, String cacheName) {
-        super(cacheRootName, cacheName, true);
+        this(cacheRootName, cacheName, new MS_CacheBoundsSetup<>());
+    }
+
+    /**
+     * Constructs new bounded in-memory caching repository with informative <b>cacheRootName</b> and <b>cacheName</b>.
+     *
+     * @param cacheRootName name identifying in-memory cache root, which actually doesn't mean anything.
+     * @param cacheName     name for this in-memory cache.
+     * @param bounds        maximum size or weight of cache. If not bounded, cache will grow without any limits.
+     * @throws NullPointerException if <b>bounds</b> is <code>null</code>.
+     */
+    public MS_InMemoryCachingRepository(String cacheRootName, String cacheName, MS_CacheBoundsSetup<T, ID> bounds) {
+        super(cacheRootName, cacheName, false);
+        if (bounds == null)
+            throw new NullPointerException("In-memory cache cannot be constructed, because cache bounds setup is null");
+        this.bounds = bounds;
+        init();
     }
 
     @Override
     public boolean isInitialized() {
-        return objects != null;
+        return objects != null || boundedObjects != null;
+    }
+
+    /**
+     * Returns read-only live view of cache. View doesn't copy cached objects: lookups go straight to cache,
+     * and iteration walks through cache as it is at the moment, skipping expired objects.
+     * Size of view is calculated by counting objects, which are not expired, so it's linear operation.
+     *
+     * @return weakly consistent map of not expired objects, which throws {@link UnsupportedOperationException}
+     * on every attempt to modify it.
+     * @throws UnsupportedOperationException if repository is not initialized.
+     */
+    public Map<ID, Pair<T, LocalDateTime>> asMap() throws UnsupportedOperationException {
+        checkAndThrowNotInitializedException();
+        return new LiveView();
+    }
+
+    /**
+     * Copies all the objects, which are not expired at the moment, to new map, which is not affected by further
+     * changes of cache.
+     *
+     * @return isolated copy of cache.
+     * @throws UnsupportedOperationException if repository is not initialized.
+     */
+    public Map<ID, Pair<T, LocalDateTime>> snapshot() throws UnsupportedOperationException {
+        checkAndThrowNotInitializedException();
+        Map<ID, Pair<T, LocalDateTime>> res = new LinkedHashMap<>();
+        Iterator<Map.Entry<ID, Pair<T, LocalDateTime>>> iter = doIterate();
+        while (iter.hasNext()) {
+            Map.Entry<ID, Pair<T, LocalDateTime>> entry = iter.next();
+            res.put(entry.getKey(), entry.getValue());
+        }
+        return res;
+    }
+
+    /**
+     * @return bounds of this cache.
+     */
+    public MS_CacheBoundsSetup<T, ID> getBounds() {
+        return bounds;
     }
 
     @Override
     protected void doInitialize() {
-        objects = new ConcurrentHashMap<>();
+        if (bounds.isBounded()) {
+            IFuncCacheEntryWeigher<T, ID> weigher = bounds.getWeigher();
+            boundedObjects = new SegmentedLruStore<>(
+                    weigher == null ? bounds.getMaximumSize() : bounds.getMaximumWeight(),
+                    bounds.getConcurrencyLevel(),
+                    weigher == null ? (object, id) -> 1 : (entry, id) -> weigher.weigh(entry.getObject(), id),
+                    (id, entry) -> getStatsCounter().recordEviction(MS_CacheEvictionCauseEnum.SIZE));
+        } else {
+            objects = new ConcurrentHashMap<>();
+        }
     }
 
     @Override
     protected void doAdd(ID identifier, Pair<T, LocalDateTime> object) {
-        objects.put(identifier, object);
+        doPutEntry(identifier, MS_CacheEntry.fromPair(object));
+    }
+
+    @Override
+    public Pair<T, LocalDateTime> put(ID identifier, Pair<T, LocalDateTime> item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        return toPair(doPutEntry(identifier, MS_CacheEntry.fromPair(item)));
+    }
+
+    @Override
+    protected MS_CacheEntry<T> doPutEntry(ID identifier, MS_CacheEntry<T> entry) {
+        //replacing in one step keeps replaced object in its current eviction area
+        return boundedObjects != null ? boundedObjects.put(identifier, entry) : objects.put(identifier, entry);
+    }
+
+    @Override
+    protected MS_CacheEntry<T> doPutEntryIfAbsent(ID identifier, MS_CacheEntry<T> entry) {
+        return boundedObjects != null ? boundedObjects.putIfAbsent(identifier, entry) : objects.putIfAbsent(identifier, entry);
+    }
+
+    @Override
+    protected void doPutAll(Map<ID, Pair<T, LocalDateTime>> items) {
+        items.forEach((identifier, item) -> doPutEntry(identifier, MS_CacheEntry.fromPair(item)));
+    }
+
+    @Override
+    protected Pair<T, LocalDateTime> doUpsert(ID identifier, IFuncUpsertOperation<Pair<T, LocalDateTime>, ID> upsertOperation) {
+        //result of operation is returned as it is, without converting it to entry and back
+        List<Pair<T, LocalDateTime>> result = new ArrayList<>(1);
+        BiFunction<ID, MS_CacheEntry<T>, MS_CacheEntry<T>> remappingFunction = (id, current) -> {
+            Pair<T, LocalDateTime> currentPair = toPair(current);
+            Pair<T, LocalDateTime> updated = upsertOperation.apply(currentPair, id);
+            result.add(updated);
+            //unchanged object keeps its entry, so that entry stays untouched
+            return updated == currentPair ? current : MS_CacheEntry.fromPair(updated);
+        };
+        //only the entry itself is locked during operation, so upserts of different objects don't block each other
+        if (boundedObjects != null)
+            boundedObjects.compute(identifier, remappingFunction);
+        else
+            objects.compute(identifier, remappingFunction);
+        return result.isEmpty() ? null : result.get(0);
     }
 
     @Override
     protected void doRemove(ID identifier) {
-        objects.remove(identifier);
+        if (boundedObjects != null)
+            boundedObjects.remove(identifier);
+        else
+            objects.remove(identifier);
+    }
+
+    @Override
+    protected boolean doRemoveEntryIf(ID identifier, Predicate<MS_CacheEntry<T>> condition) {
+        if (boundedObjects != null)
+            return boundedObjects.removeIf(identifier, condition);
+        MS_CacheEntry<T> current = objects.get(identifier);
+        //entry is removed only if it isn't replaced after it was checked
+        return current != null && condition.test(current) && objects.remove(identifier, current);
     }
 
     @Override
     protected void doRemoveAll() {
-        objects.clear();
+        if (boundedObjects != null)
+            boundedObjects.clear();
+        else
+            objects.clear();
     }
 
     @Override
     protected Pair<T, LocalDateTime> doFind(ID identifier) {
-        return objects.get(identifier);
+        return toPair(doFindEntry(identifier));
+    }
+
+    @Override
+    protected MS_CacheEntry<T> doFindEntry(ID identifier) {
+        return boundedObjects != null ? boundedObjects.get(identifier) : objects.get(identifier);
     }
 
     @Override
     protected Map<ID, Pair<T, LocalDateTime>> doFindAll() {
-        return new LinkedHashMap<>(objects);
+        return snapshot();
+    }
+
+    @Override
+    protected Iterator<Map.Entry<ID, MS_CacheEntry<T>>> doIterateEntries() {
+        return new LiveEntryIterator();
+    }
+
+    @Override
+    protected Iterator<Map.Entry<ID, Pair<T, LocalDateTime>>> doIterate() {
+        Iterator<Map.Entry<ID, MS_CacheEntry<T>>> iter = new LiveEntryIterator();
+        return new Iterator<Map.Entry<ID, Pair<T, LocalDateTime>>>() {
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public Map.Entry<ID, Pair<T, LocalDateTime>> next() {
+                Map.Entry<ID, MS_CacheEntry<T>> entry = iter.next();
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), toPair(entry.getValue()));
+            }
+        };
     }
 
     @Override
     protected int doGetSize() {
-        return objects.size();
+        return boundedObjects != null ? boundedObjects.size() : objects.size();
+    }
+
+    //*** Private methods ***
+
+    private Pair<T, LocalDateTime> toPair(MS_CacheEntry<T> entry) {
+        return entry == null ? null : entry.toPair();
+    }
+
+    /**
+     * Iterates through cached entries, which are not expired, looking one entry ahead.
+     * Entries of concurrent map write through, so they are wrapped in immutable entries and don't leak out of repository.
+     */
+    private class LiveEntryIterator implements Iterator<Map.Entry<ID, MS_CacheEntry<T>>> {
+
+        private final Iterator<Map.Entry<ID, MS_CacheEntry<T>>> iter = boundedObjects != null ?
+                boundedObjects.iterator() : objects.entrySet().iterator();
+        private Map.Entry<ID, MS_CacheEntry<T>> nextEntry;
+
+        @Override
+        public boolean hasNext() {
+            long now = MS_CacheEntry.now();
+            while (nextEntry == null && iter.hasNext()) {
+                Map.Entry<ID, MS_CacheEntry<T>> entry = iter.next();
+                if (!entry.getValue().isExpired(now))
+                    nextEntry = new AbstractMap.SimpleImmutableEntry<>(entry);
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public Map.Entry<ID, MS_CacheEntry<T>> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<ID, MS_CacheEntry<T>> res = nextEntry;
+            nextEntry = null;
+            return res;
+        }
+    }
+
+    private class LiveView extends AbstractMap<ID, Pair<T, LocalDateTime>> {
+
+        @Override
+        public Pair<T, LocalDateTime> get(Object key) {
+            MS_CacheEntry<T> entry = findLiveEntry(key);
+            return entry == null ? null : entry.toPair();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return findLiveEntry(key) != null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !new LiveEntryIterator().hasNext();
+        }
+
+        @Override
+        public Set<Entry<ID, Pair<T, LocalDateTime>>> entrySet() {
+            return new AbstractSet<Entry<ID, Pair<T, LocalDateTime>>>() {
+                @Override
+                public Iterator<Entry<ID, Pair<T, LocalDateTime>>> iterator() {
+                    return doIterate();
+                }
+
+                @Override
+                public int size() {
+                    int res = 0;
+                    for (LiveEntryIterator iter = new LiveEntryIterator(); iter.hasNext(); iter.next())
+                        res++;
+                    return res;
+                }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        private MS_CacheEntry<T> findLiveEntry(Object key) {
+            if (key == null) return null;
+            //key of other type is simply not found in underlying map
+            //reading through view doesn't count as access, so scan of view doesn't promote every object
+            MS_CacheEntry<T> entry = boundedObjects != null ? boundedObjects.peek((ID) key) : objects.get(key);
+            return entry == null || entry.isExpired() ? null : entry;
+        }
     }
 }
@@ -0,0 +1,572 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory repository, which besides lookup by identifier supports lookup by secondary indexes.
+ * Index is registered with a name and a function, which extracts index key from an item
+ * ({@link IFuncIndexKeyExtractor}). There are two kinds of indexes:
+ * <ul>
+ * <li>hash index - supports equality queries ({@link MS_IndexedInMemoryRepository#findByIndex(String, Object)})
+ * at O(1) cost;</li>
+ * <li>sorted index - supports both equality and range queries
+ * ({@link MS_IndexedInMemoryRepository#findRange(String, Object, boolean, Object, boolean)}) at O(log n) cost.
+ * Keys of sorted index must be {@link Comparable}.</li>
+ * </ul>
+ * Indexes are updated together with items on every modification of repository, so queries always see the same
+ * state as lookups by identifier. Items with <code>null</code> index key are not present in that index.
+ * <p><u>Note</u>: index keys are extracted only when item is stored. If stored item is mutable and its indexed
+ * attributes are changed, item must be put into repository again to update indexes.
+ * <p>All operations are thread-safe: queries run concurrently, while modifications are exclusive.
+ * <p>Items are kept in order they were stored. Iteration (<b>stream</b>, <b>forEachItem</b>) is lazy and weakly
+ * consistent: items are copied in small chunks, so repository isn't locked while caller processes them and
+ * can be modified meanwhile. Page lookup by <b>findPageAfter</b> continues right after given item without
+ * walking through previous items.
+ * <p>Public methods:
+ * <ul>
+ * <li>withHashIndex</li>
+ * <li>withSortedIndex</li>
+ * <li>findByIndex</li>
+ * <li>findRange</li>
+ * <li>countByIndex</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getIndexNames</li>
+ * </ul>
+ *
+ * @param <T>  type of items.
+ * @param <ID> type of item identifiers.
+ * @author eMeS
+ * @version 1.2.
+ */
+public class MS_IndexedInMemoryRepository<T, ID> extends MS_Repository<T, ID> {
+
+    public static final String _DEFAULT_REPOSITORY_ROOT_NAME = "MS_IndexedInMemoryRepository";
+    public static final String _DEFAULT_CATEGORY_NAME = "Items";
+    //count of items copied at once while iterating
+    private static final int ITERATION_CHUNK_SIZE = 128;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Index<T, ID>> indexes = new LinkedHashMap<>();
+    //nodes of items mapped by ID; nodes are also linked in order items were stored
+    private Map<ID, Node<T, ID>> items;
+    private Node<T, ID> head;
+    private Node<T, ID> tail;
+
+    /**
+     * Constructs new indexed in-memory repository with default root and category names.
+     */
+    public MS_IndexedInMemoryRepository() {
+        this(_DEFAULT_REPOSITORY_ROOT_NAME, _DEFAULT_CATEGORY_NAME);
+    }
+
+    /**
+     * @param repositoryRoot         name that will identify this repository across other repositories.
+     * @param repositoryCategoryName name that will identify items of this repository.
+     */
+    public MS_IndexedInMemoryRepository(String repositoryRoot, String repositoryCategoryName) {
+        super(repositoryRoot, repositoryCategoryName, true);
+    }
+
+    /**
+     * Registers hash index. Items, which are already stored in repository, are indexed immediately.
+     *
+     * @param indexName    unique name of index.
+     * @param keyExtractor function to extract index key from an item.
+     * @param <K>          type of index keys.
+     * @return reference to repository itself.
+     * @throws MS_BadSetupException if index with the same name is already registered or <b>keyExtractor</b> is null.
+     */
+    public <K> MS_IndexedInMemoryRepository<T, ID> withHashIndex(String indexName, IFuncIndexKeyExtractor<T, K> keyExtractor) {
+        return withIndex(indexName, keyExtractor, new HashMap<>());
+    }
+
+    /**
+     * Registers sorted index. Items, which are already stored in repository, are indexed immediately.
+     *
+     * @param indexName    unique name of index.
+     * @param keyExtractor function to extract index key from an item.
+     * @param <K>          type of index keys.
+     * @return reference to repository itself.
+     * @throws MS_BadSetupException if index with the same name is already registered or <b>keyExtractor</b> is null.
+     */
+    public <K extends Comparable<? super K>> MS_IndexedInMemoryRepository<T, ID> withSortedIndex(
+            String indexName, IFuncIndexKeyExtractor<T, K> keyExtractor) {
+        return withIndex(indexName, keyExtractor, new TreeMap<>());
+    }
+
+    /**
+     * Looks for items with given key in index.
+     *
+     * @param indexName name of index.
+     * @param key       index key.
+     * @return found items mapped by ID in order they were stored.
+     * @throws MS_BadSetupException if there is no index with such name.
+     */
+    public Map<ID, T> findByIndex(String indexName, Object key) throws MS_BadSetupException {
+        checkAndThrowNotInitializedException();
+        lock.readLock().lock();
+        try {
+            Set<ID> identifiers = getIndex(indexName).keys.get(key);
+            Map<ID, T> res = new LinkedHashMap<>();
+            if (identifiers != null)
+                identifiers.forEach(identifier -> res.put(identifier, items.get(identifier).item));
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts items with given key in index.
+     *
+     * @param indexName name of index.
+     * @param key       index key.
+     * @return count of items.
+     * @throws MS_BadSetupException if there is no index with such name.
+     */
+    public int countByIndex(String indexName, Object key) throws MS_BadSetupException {
+        checkAndThrowNotInitializedException();
+        lock.readLock().lock();
+        try {
+            Set<ID> identifiers = getIndex(indexName).keys.get(key);
+            return identifiers == null ? 0 : identifiers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks for items, which index keys are in given range.
+     *
+     * @param indexName     name of sorted index.
+     * @param fromKey       low end of range or <code>null</code> if range has no low end.
+     * @param fromInclusive true if items with key equal to <b>fromKey</b> must be included.
+     * @param toKey         high end of range or <code>null</code> if range has no high end.
+     * @param toInclusive   true if items with key equal to <b>toKey</b> must be included.
+     * @return found items mapped by ID in order of their index keys.
+     * @throws MS_BadSetupException          if there is no index with such name.
+     * @throws UnsupportedOperationException if index is not sorted.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<ID, T> findRange(String indexName, Object fromKey, boolean fromInclusive, Object toKey, boolean toInclusive)
+            throws MS_BadSetupException, UnsupportedOperationException {
+        checkAndThrowNotInitializedException();
+        lock.readLock().lock();
+        try {
+            Index<T, ID> index = getIndex(indexName);
+            if (!(index.keys instanceof NavigableMap))
+                throw new UnsupportedOperationException("Range queries are supported only by sorted indexes. Index \""
+                        + indexName + "\" is hash index");
+            NavigableMap<Object, Set<ID>> range = (NavigableMap<Object, Set<ID>>) index.keys;
+            if (fromKey != null && toKey != null && ((Comparable<Object>) fromKey).compareTo(toKey) > 0)
+                return new LinkedHashMap<>(); //reversed range contains nothing
+            if (fromKey != null && toKey != null)
+                range = range.subMap(fromKey, fromInclusive, toKey, toInclusive);
+            else if (fromKey != null)
+                range = range.tailMap(fromKey, fromInclusive);
+            else if (toKey != null)
+                range = range.headMap(toKey, toInclusive);
+            Map<ID, T> res = new LinkedHashMap<>();
+            range.values().forEach(identifiers -> identifiers.forEach(identifier -> res.put(identifier, items.get(identifier).item)));
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks for items, which index keys are in range [<b>fromKey</b>, <b>toKey</b>).
+     *
+     * @param indexName name of sorted index.
+     * @param fromKey   inclusive low end of range or <code>null</code> if range has no low end.
+     * @param toKey     exclusive high end of range or <code>null</code> if range has no high end.
+     * @return found items mapped by ID in order of their index keys.
+     * @throws MS_BadSetupException          if there is no index with such name.
+     * @throws UnsupportedOperationException if index is not sorted.
+     */
+    public Map<ID, T> findRange(String indexName, Object fromKey, Object toKey) throws MS_BadSetupException, UnsupportedOperationException {
+        return findRange(indexName, fromKey, true, toKey, false);
+    }
+
+    /**
+     * @return names of registered indexes.
+     */
+    public Set<String> getIndexNames() {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableSet(new LinkedHashSet<>(indexes.keySet()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return items != null;
+    }
+
+    @Override
+    protected void doInitialize() {
+        items = new HashMap<>();
+        head = null;
+        tail = null;
+    }
+
+    //public modification methods are overridden to make check and modification atomic
+
+    @Override
+    public void add(ID identifier, T item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        lock.writeLock().lock();
+        try {
+            super.add(identifier, item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public T put(ID identifier, T item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        lock.writeLock().lock();
+        try {
+            Node<T, ID> node = items.get(identifier);
+            T previous = null;
+            if (node == null) {
+                link(identifier, item);
+            } else {
+                previous = node.item;
+                node.item = item;
+                unindex(identifier, previous);
+            }
+            index(identifier, item);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(ID identifier) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        lock.writeLock().lock();
+        try {
+            super.remove(identifier);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doAdd(ID identifier, T item) {
+        put(identifier, item);
+    }
+
+    @Override
+    protected void doRemove(ID identifier) {
+        lock.writeLock().lock();
+        try {
+            Node<T, ID> removed = items.remove(identifier);
+            if (removed != null) {
+                unlink(removed);
+                unindex(identifier, removed.item);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doRemoveAll() {
+        lock.writeLock().lock();
+        try {
+            //ongoing iterations must skip nodes they still refer to
+            for (Node<T, ID> node = head; node != null; node = node.next)
+                node.removed = true;
+            items.clear();
+            head = null;
+            tail = null;
+            indexes.values().forEach(index -> index.keys.clear());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doPutAll(Map<ID, T> items) {
+        lock.writeLock().lock();
+        try {
+            items.forEach(this::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doRemoveAll(Collection<ID> identifiers) {
+        lock.writeLock().lock();
+        try {
+            identifiers.forEach(this::doRemove);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected T doUpsert(ID identifier, IFuncUpsertOperation<T, ID> upsertOperation) {
+        lock.writeLock().lock();
+        try {
+            T current = doFind(identifier);
+            T updated = upsertOperation.apply(current, identifier);
+            if (updated == current)
+                return updated;
+            if (updated != null)
+                put(identifier, updated);
+            else
+                doRemove(identifier);
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected T doFind(ID identifier) {
+        lock.readLock().lock();
+        try {
+            Node<T, ID> node = items.get(identifier);
+            return node == null ? null : node.item;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected Map<ID, T> doFindAll() {
+        lock.readLock().lock();
+        try {
+            Map<ID, T> res = new LinkedHashMap<>();
+            for (Node<T, ID> node = head; node != null; node = node.next)
+                res.put(node.identifier, node.item);
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected Iterator<Map.Entry<ID, T>> doIterate() {
+        return new ItemIterator();
+    }
+
+    /**
+     * Seeks item with <b>lastIdentifier</b> by its ID and collects items that follow it, so cost of page doesn't
+     * depend on its position in repository.
+     */
+    @Override
+    protected Map<ID, T> doFindPageAfter(ID lastIdentifier, int size) {
+        lock.readLock().lock();
+        try {
+            Map<ID, T> res = new LinkedHashMap<>();
+            Node<T, ID> node;
+            if (lastIdentifier == null) {
+                node = head;
+            } else {
+                Node<T, ID> last = items.get(lastIdentifier);
+                if (last == null)
+                    return res;
+                node = last.next;
+            }
+            for (; node != null && res.size() < size; node = node.next)
+                res.put(node.identifier, node.item);
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected Map<ID, T> doFindAll(Collection<ID> identifiers) {
+        lock.readLock().lock();
+        try {
+            return super.doFindAll(identifiers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected int doGetSize() {
+        lock.readLock().lock();
+        try {
+            return items.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //*** Private methods and classes ***
+
+    @SuppressWarnings("unchecked")
+    private <K> MS_IndexedInMemoryRepository<T, ID> withIndex(String indexName, IFuncIndexKeyExtractor<T, K> keyExtractor,
+                                                             Map<K, Set<ID>> keys) {
+        if (keyExtractor == null)
+            throw new MS_BadSetupException("Key extractor of index \"%s\" cannot be null", indexName);
+        lock.writeLock().lock();
+        try {
+            if (indexes.containsKey(indexName))
+                throw new MS_BadSetupException("Index \"%s\" is already registered", indexName);
+            Index<T, ID> index = new Index<>((IFuncIndexKeyExtractor<T, Object>) keyExtractor, (Map<Object, Set<ID>>) (Map<?, ?>) keys);
+            for (Node<T, ID> node = head; node != null; node = node.next)
+                index.add(node.identifier, node.item);
+            indexes.put(indexName, index);
+            return this;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Index<T, ID> getIndex(String indexName) {
+        Index<T, ID> index = indexes.get(indexName);
+        if (index == null)
+            throw new MS_BadSetupException("Repository has no index \"%s\"", indexName);
+        return index;
+    }
+
+    /**
+     * Appends node of new item to the end of list. Caller must hold lock for writing.
+     */
+    private void link(ID identifier, T item) {
+        Node<T, ID> node = new Node<>(identifier, item);
+        items.put(identifier, node);
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+            node.prev = tail;
+        }
+        tail = node;
+    }
+
+    /**
+     * Removes node from list. Removed node keeps reference to its next node, so that iteration standing at it
+     * is able to continue. Caller must hold lock for writing.
+     */
+    private void unlink(Node<T, ID> node) {
+        node.removed = true;
+        if (node.prev == null)
+            head = node.next;
+        else
+            node.prev.next = node.next;
+        if (node.next == null)
+            tail = node.prev;
+        else
+            node.next.prev = node.prev;
+    }
+
+    private void index(ID identifier, T item) {
+        for (Index<T, ID> index : indexes.values())
+            index.add(identifier, item);
+    }
+
+    private void unindex(ID identifier, T item) {
+        for (Index<T, ID> index : indexes.values())
+            index.remove(identifier, item);
+    }
+
+    private static final class Node<T, ID> {
+
+        private final ID identifier;
+        private T item;
+        private Node<T, ID> prev;
+        private Node<T, ID> next;
+        private boolean removed;
+
+        Node(ID identifier, T item) {
+            this.identifier = identifier;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Copies items chunk by chunk, holding lock for reading only while chunk is copied.
+     * Position between chunks is remembered as the last visited node.
+     */
+    private final class ItemIterator implements Iterator<Map.Entry<ID, T>> {
+
+        private final List<Map.Entry<ID, T>> chunk = new ArrayList<>();
+        private int position;
+        private Node<T, ID> lastVisited;
+        private boolean started;
+
+        @Override
+        public boolean hasNext() {
+            if (position < chunk.size())
+                return true;
+            chunk.clear();
+            position = 0;
+            lock.readLock().lock();
+            try {
+                Node<T, ID> node = started ? (lastVisited == null ? null : lastVisited.next) : head;
+                started = true;
+                for (; node != null && chunk.size() < ITERATION_CHUNK_SIZE; node = node.next) {
+                    if (!node.removed)
+                        chunk.add(new AbstractMap.SimpleImmutableEntry<>(node.identifier, node.item));
+                    lastVisited = node;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return !chunk.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<ID, T> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return chunk.get(position++);
+        }
+    }
+
+    private static final class Index<T, ID> {
+
+        private final IFuncIndexKeyExtractor<T, Object> keyExtractor;
+        //either hash map or tree map of index keys to identifiers of items having that key
+        private final Map<Object, Set<ID>> keys;
+
+        Index(IFuncIndexKeyExtractor<T, Object> keyExtractor, Map<Object, Set<ID>> keys) {
+            this.keyExtractor = keyExtractor;
+            this.keys = keys;
+        }
+
+        void add(ID identifier, T item) {
+            Object key = keyExtractor.extract(item);
+            if (key != null)
+                keys.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(identifier);
+        }
+
+        void remove(ID identifier, T item) {
+            Object key = keyExtractor.extract(item);
+            if (key == null) return;
+            Set<ID> identifiers = keys.get(key);
+            if (identifiers != null && identifiers.remove(identifier) && identifiers.isEmpty())
+                keys.remove(key);
+        }
+    }
+}
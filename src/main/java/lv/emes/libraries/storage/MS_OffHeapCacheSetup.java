@@ -0,0 +1,114 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+
+/**
+ * A setup of memory used by off-heap caching repository. Holds information about:
+ * <ul>
+ * <li>size of single slab - chunk of memory, which is allocated at once and holds many serialized objects;</li>
+ * <li>maximum count of slabs, which determines maximum memory used by cache;</li>
+ * <li>directory of memory-mapped files, if slabs must be backed by files instead of direct memory;</li>
+ * <li>defragmentation threshold - share of garbage in slab, when slab is worth to be compacted.</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withSlabSize</li>
+ * <li>withMaximumSlabCount</li>
+ * <li>withMappedFilesDirectory</li>
+ * <li>withDefragmentationThreshold</li>
+ * <li>getSlabSize</li>
+ * <li>getMaximumSlabCount</li>
+ * <li>getMappedFilesDirectory</li>
+ * <li>getDefragmentationThreshold</li>
+ * <li>isMemoryMapped</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ * @see MS_OffHeapCachingRepository
+ */
+public class MS_OffHeapCacheSetup {
+
+    public static final int _DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+    public static final int _DEFAULT_MAXIMUM_SLAB_COUNT = 16;
+    public static final double _DEFAULT_DEFRAGMENTATION_THRESHOLD = 0.5;
+    public static final int _MINIMUM_SLAB_SIZE = 1024;
+
+    private int slabSize = _DEFAULT_SLAB_SIZE;
+    private int maximumSlabCount = _DEFAULT_MAXIMUM_SLAB_COUNT;
+    private String mappedFilesDirectory;
+    private double defragmentationThreshold = _DEFAULT_DEFRAGMENTATION_THRESHOLD;
+
+    /**
+     * @param slabSize size of single slab in bytes. Serialized object cannot be larger than this size.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>slabSize</b> is less than {@link MS_OffHeapCacheSetup#_MINIMUM_SLAB_SIZE}.
+     */
+    public MS_OffHeapCacheSetup withSlabSize(int slabSize) {
+        if (slabSize < _MINIMUM_SLAB_SIZE)
+            throw new MS_BadSetupException("Slab size of off-heap cache must be at least %d bytes", _MINIMUM_SLAB_SIZE);
+        this.slabSize = slabSize;
+        return this;
+    }
+
+    /**
+     * @param maximumSlabCount maximum count of slabs allocated at the same time. When all of them are full,
+     *                         cache evicts objects of the oldest slab.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>maximumSlabCount</b> is less than 2.
+     */
+    public MS_OffHeapCacheSetup withMaximumSlabCount(int maximumSlabCount) {
+        if (maximumSlabCount < 2)
+            throw new MS_BadSetupException("Off-heap cache must be allowed to have at least 2 slabs");
+        this.maximumSlabCount = maximumSlabCount;
+        return this;
+    }
+
+    /**
+     * Makes slabs to be backed by memory-mapped temporary files in given directory instead of direct memory.
+     * That allows cache to be larger than available RAM, leaving paging to operating system.
+     *
+     * @param mappedFilesDirectory existing directory, where temporary slab files will be created.
+     * @return reference to setup itself.
+     */
+    public MS_OffHeapCacheSetup withMappedFilesDirectory(String mappedFilesDirectory) {
+        this.mappedFilesDirectory = mappedFilesDirectory;
+        return this;
+    }
+
+    /**
+     * @param defragmentationThreshold share of garbage (0..1, exclusive), when slab gets compacted during
+     *                                 defragmentation.
+     * @return reference to setup itself.
+     * @throws MS_BadSetupException if <b>defragmentationThreshold</b> is out of range.
+     */
+    public MS_OffHeapCacheSetup withDefragmentationThreshold(double defragmentationThreshold) {
+        if (defragmentationThreshold <= 0 || defragmentationThreshold >= 1)
+            throw new MS_BadSetupException("Defragmentation threshold of off-heap cache must be in range (0..1)");
+        this.defragmentationThreshold = defragmentationThreshold;
+        return this;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public int getMaximumSlabCount() {
+        return maximumSlabCount;
+    }
+
+    public String getMappedFilesDirectory() {
+        return mappedFilesDirectory;
+    }
+
+    public double getDefragmentationThreshold() {
+        return defragmentationThreshold;
+    }
+
+    /**
+     * @return true if slabs are backed by memory-mapped files.
+     */
+    public boolean isMemoryMapped() {
+        return mappedFilesDirectory != null;
+    }
+}
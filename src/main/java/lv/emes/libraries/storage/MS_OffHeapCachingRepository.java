@@ -0,0 +1,775 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.communication.MS_DTOMappingAlgorithm;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Caching repository, which keeps cached objects outside of Java heap, so even huge caches doesn't increase
+ * garbage collection pauses. Objects are serialized to bytes by codec ({@link MS_DTOMappingAlgorithm}) and written
+ * to slabs - large chunks of direct memory or memory-mapped files (see {@link MS_OffHeapCacheSetup}).
+ * Only identifiers of objects and addresses of their records stay on heap: they are kept in open-addressing hash
+ * table of two arrays, which costs 16 to 32 bytes of heap per object (depending on fill of table) besides identifier
+ * object itself.
+ * <p>Record of every object consists of its expiration time (epoch milliseconds), position of its identifier in
+ * hash table, length of serialized object and serialized object itself. Records are appended to the newest slab.
+ * Position in hash table allows to find live records of slab by walking through slab, so that neither eviction
+ * nor defragmentation of slab looks through all the identifiers. Removed or replaced records become garbage,
+ * which is reclaimed:
+ * <ul>
+ * <li>immediately, when slab contains no live records anymore;</li>
+ * <li>by {@link MS_OffHeapCachingRepository#defragment()}, which moves live records out of slabs with too much
+ * garbage and releases those slabs.</li>
+ * </ul>
+ * When maximum count of slabs is reached, cache tries to defragment itself first, and, if that doesn't help,
+ * evicts all the objects of the oldest slab. Count of slabs never exceeds maximum, even during defragmentation.
+ * <p>Expired objects are kept until they are requested (then {@link MS_Cache} removes them), purged by
+ * {@link MS_OffHeapCachingRepository#purgeExpired()} or moved during defragmentation.
+ * <p>Public methods:
+ * <ul>
+ * <li>defragment</li>
+ * <li>purgeExpired</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getSetup</li>
+ * <li>getCodec</li>
+ * <li>getSlabCount</li>
+ * <li>getAllocatedBytes</li>
+ * <li>getLiveBytes</li>
+ * </ul>
+ *
+ * @param <T>  type of objects that are going to be cached.
+ * @param <ID> type of object identifiers.
+ * @author eMeS
+ * @version 1.3.
+ */
+public class MS_OffHeapCachingRepository<T, ID> extends MS_CachingRepository<T, ID> {
+
+    public static final String _DEFAULT_CACHE_NAME = "Off-heap cache";
+
+    //record header: expiration time, slot of identifier in index and length of serialized object
+    private static final int INDEX_SLOT_OFFSET = Long.BYTES;
+    private static final int LENGTH_OFFSET = INDEX_SLOT_OFFSET + Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = LENGTH_OFFSET + Integer.BYTES;
+    private static final long NO_EXPIRATION = Long.MIN_VALUE;
+    private static final long NO_ADDRESS = -1L;
+    private static final int NO_INDEX_SLOT = -1;
+    private static final int MINIMUM_INDEX_CAPACITY = 16;
+    private static final double INDEX_LOAD_FACTOR = 0.75;
+    //marks slot of removed identifier, so that lookups keep probing past it
+    private static final Object REMOVED_KEY = new Object();
+
+    private final MS_DTOMappingAlgorithm<T, byte[]> codec;
+    private final MS_OffHeapCacheSetup setup;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private AddressIndex index;
+    //slots of released slabs are reused, so addresses of records in other slabs stay valid
+    private final List<Slab> slabs = new ArrayList<>();
+    private Slab currentSlab;
+    private long slabSequence;
+
+    /**
+     * Constructs new off-heap caching repository with default root and cache names and default setup.
+     *
+     * @param codec algorithm to serialize objects to bytes and back.
+     */
+    public MS_OffHeapCachingRepository(MS_DTOMappingAlgorithm<T, byte[]> codec) {
+        this(_DEFAULT_REPOSITORY_ROOT_NAME, _DEFAULT_CACHE_NAME, codec, new MS_OffHeapCacheSetup());
+    }
+
+    /**
+     * Constructs new off-heap caching repository.
+     *
+     * @param cacheRootName name identifying cache root, which actually doesn't mean anything.
+     * @param cacheName     name for this cache.
+     * @param codec         algorithm to serialize objects to bytes and back.
+     * @param setup         setup of slabs.
+     * @throws NullPointerException if <b>codec</b> or <b>setup</b> is <code>null</code>.
+     */
+    public MS_OffHeapCachingRepository(String cacheRootName, String cacheName, MS_DTOMappingAlgorithm<T, byte[]> codec,
+                                       MS_OffHeapCacheSetup setup) {
+        super(cacheRootName, cacheName, false);
+        if (codec == null)
+            throw new NullPointerException("Off-heap cache cannot be constructed, because codec is null");
+        if (setup == null)
+            throw new NullPointerException("Off-heap cache cannot be constructed, because setup is null");
+        this.codec = codec;
+        this.setup = setup;
+        init();
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return index != null;
+    }
+
+    @Override
+    protected void doInitialize() {
+        index = new AddressIndex();
+    }
+
+    @Override
+    protected void doAdd(ID identifier, Pair<T, LocalDateTime> object) {
+        put(identifier, object);
+    }
+
+    @Override
+    public Pair<T, LocalDateTime> put(ID identifier, Pair<T, LocalDateTime> item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        byte[] serializedObject = serialize(item.getLeft());
+        long expiration = item.getRight() == null ? NO_EXPIRATION : toEpochMillis(item.getRight());
+        lock.writeLock().lock();
+        try {
+            long address = write(expiration, serializedObject);
+            //writing might have evicted previous record, so it's looked up only now
+            long previousAddress = index.get(identifier);
+            writeIndexSlot(address, index.put(identifier, address));
+            if (previousAddress == NO_ADDRESS)
+                return null;
+            Pair<T, LocalDateTime> previous = read(previousAddress);
+            free(previousAddress);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected Pair<T, LocalDateTime> doUpsert(ID identifier, IFuncUpsertOperation<Pair<T, LocalDateTime>, ID> upsertOperation) {
+        lock.writeLock().lock();
+        try {
+            long address = index.get(identifier);
+            Pair<T, LocalDateTime> current = address == NO_ADDRESS ? null : read(address);
+            Pair<T, LocalDateTime> updated = upsertOperation.apply(current, identifier);
+            if (updated == current)
+                return updated;
+            if (updated != null)
+                put(identifier, updated);
+            else
+                doRemove(identifier);
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected MS_CacheEntry<T> doPutEntryIfAbsent(ID identifier, MS_CacheEntry<T> entry) {
+        lock.writeLock().lock();
+        try {
+            long address = index.get(identifier);
+            if (address != NO_ADDRESS)
+                return MS_CacheEntry.fromPair(read(address));
+            put(identifier, entry.toPair());
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doRemove(ID identifier) {
+        lock.writeLock().lock();
+        try {
+            long address = index.remove(identifier);
+            if (address != NO_ADDRESS)
+                free(address);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected boolean doRemoveEntryIf(ID identifier, Predicate<MS_CacheEntry<T>> condition) {
+        lock.writeLock().lock();
+        try {
+            long address = index.get(identifier);
+            if (address == NO_ADDRESS || !condition.test(MS_CacheEntry.fromPair(read(address))))
+                return false;
+            index.remove(identifier);
+            free(address);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doRemoveAll() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            for (int i = 0; i < slabs.size(); i++)
+                if (slabs.get(i) != null)
+                    release(i);
+            slabs.clear();
+            currentSlab = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected Pair<T, LocalDateTime> doFind(ID identifier) {
+        lock.readLock().lock();
+        try {
+            long address = index.get(identifier);
+            return address == NO_ADDRESS ? null : read(address);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected Map<ID, Pair<T, LocalDateTime>> doFindAll() {
+        Map<ID, Pair<T, LocalDateTime>> res = new LinkedHashMap<>();
+        Iterator<Map.Entry<ID, Pair<T, LocalDateTime>>> iter = doIterate();
+        while (iter.hasNext()) {
+            Map.Entry<ID, Pair<T, LocalDateTime>> entry = iter.next();
+            res.put(entry.getKey(), entry.getValue());
+        }
+        return res;
+    }
+
+    @Override
+    protected Iterator<Map.Entry<ID, Pair<T, LocalDateTime>>> doIterate() {
+        return new Iterator<Map.Entry<ID, Pair<T, LocalDateTime>>>() {
+            //table of identifiers at the moment iteration started; table is replaced, not changed, when it grows
+            private Object[] keys;
+            private int position;
+            private Map.Entry<ID, Pair<T, LocalDateTime>> next;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean hasNext() {
+                if (next != null)
+                    return true;
+                lock.readLock().lock();
+                try {
+                    if (keys == null)
+                        keys = index.keys;
+                    //objects are deserialized one by one, skipping the ones removed meanwhile
+                    while (next == null && position < keys.length) {
+                        Object key = keys[position++];
+                        if (key == null || key == REMOVED_KEY) continue;
+                        long address = index.get((ID) key);
+                        if (address != NO_ADDRESS)
+                            next = new AbstractMap.SimpleImmutableEntry<>((ID) key, read(address));
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<ID, Pair<T, LocalDateTime>> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Map.Entry<ID, Pair<T, LocalDateTime>> res = next;
+                next = null;
+                return res;
+            }
+        };
+    }
+
+    @Override
+    protected int doGetSize() {
+        lock.readLock().lock();
+        try {
+            return index.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves live records out of slabs, which consist of garbage at least for
+     * {@link MS_OffHeapCacheSetup#getDefragmentationThreshold()}, and releases those slabs.
+     * Expired records are dropped instead of being moved. Records are moved only as long as they fit in slabs
+     * within {@link MS_OffHeapCacheSetup#getMaximumSlabCount()}, so slabs, which records cannot be moved,
+     * are kept.
+     * Repository is locked for writing during whole operation.
+     *
+     * @return count of released slabs.
+     */
+    public int defragment() {
+        checkAndThrowNotInitializedException();
+        lock.writeLock().lock();
+        try {
+            return doDefragment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the expired objects.
+     *
+     * @return count of removed objects.
+     */
+    public int purgeExpired() {
+        checkAndThrowNotInitializedException();
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < index.keys.length; slot++) {
+                if (!index.isKeyAt(slot)) continue;
+                long address = index.addresses[slot];
+                if (isExpired(address, now)) {
+                    index.removeAt(slot);
+                    free(address);
+                    removed++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        getStatsCounter().recordEvictions(MS_CacheEvictionCauseEnum.EXPIRED, removed);
+        return removed;
+    }
+
+    public MS_OffHeapCacheSetup getSetup() {
+        return setup;
+    }
+
+    public MS_DTOMappingAlgorithm<T, byte[]> getCodec() {
+        return codec;
+    }
+
+    public int getSlabCount() {
+        lock.readLock().lock();
+        try {
+            return countSlabs();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return total size of all the allocated slabs in bytes.
+     */
+    public long getAllocatedBytes() {
+        return (long) getSlabCount() * setup.getSlabSize();
+    }
+
+    /**
+     * @return total size of live (not removed and not replaced) records in bytes.
+     */
+    public long getLiveBytes() {
+        lock.readLock().lock();
+        try {
+            long res = 0;
+            for (Slab slab : slabs)
+                if (slab != null) res += slab.liveBytes;
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //*** Private methods and classes ***
+
+    private byte[] serialize(T object) {
+        try {
+            return codec.serialize(object);
+        } catch (RuntimeException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to serialize object for off-heap cache", e);
+        }
+    }
+
+    private Pair<T, LocalDateTime> read(long address) {
+        ByteBuffer buffer = slabs.get(slotOf(address)).buffer.duplicate();
+        buffer.position(offsetOf(address));
+        long expiration = buffer.getLong();
+        buffer.getInt(); //slot in index
+        byte[] serializedObject = new byte[buffer.getInt()];
+        buffer.get(serializedObject);
+        T object;
+        try {
+            object = codec.deserialize(serializedObject);
+        } catch (RuntimeException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to deserialize object of off-heap cache", e);
+        }
+        return Pair.of(object, expiration == NO_EXPIRATION ? null :
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(expiration), ZoneId.systemDefault()));
+    }
+
+    private boolean isExpired(long address, long now) {
+        long expiration = slabs.get(slotOf(address)).buffer.getLong(offsetOf(address));
+        return expiration != NO_EXPIRATION && expiration <= now;
+    }
+
+    private int recordSizeAt(long address) {
+        return RECORD_HEADER_SIZE + slabs.get(slotOf(address)).buffer.getInt(offsetOf(address) + LENGTH_OFFSET);
+    }
+
+    private int indexSlotAt(long address) {
+        return slabs.get(slotOf(address)).buffer.getInt(offsetOf(address) + INDEX_SLOT_OFFSET);
+    }
+
+    private void writeIndexSlot(long address, int indexSlot) {
+        slabs.get(slotOf(address)).buffer.putInt(offsetOf(address) + INDEX_SLOT_OFFSET, indexSlot);
+    }
+
+    /**
+     * Must be called only while holding write lock.
+     */
+    private long write(long expiration, byte[] serializedObject) {
+        int recordSize = RECORD_HEADER_SIZE + serializedObject.length;
+        if (recordSize > setup.getSlabSize())
+            throw new MS_RepositoryDataExchangeException(String.format("Serialized object (%d bytes) doesn't fit " +
+                    "in slab of off-heap cache (%d bytes)", serializedObject.length, setup.getSlabSize()));
+        long address = allocate(recordSize);
+        ByteBuffer buffer = currentSlab.buffer.duplicate();
+        buffer.position(offsetOf(address));
+        buffer.putLong(expiration).putInt(NO_INDEX_SLOT).putInt(serializedObject.length).put(serializedObject);
+        return address;
+    }
+
+    private long allocate(int recordSize) {
+        if (currentSlab == null || currentSlab.remaining() < recordSize) {
+            if (countSlabs() >= setup.getMaximumSlabCount())
+                doDefragment();
+            //defragmentation might have left some room in current slab
+            if (currentSlab == null || currentSlab.remaining() < recordSize) {
+                while (countSlabs() >= setup.getMaximumSlabCount())
+                    evictOldestSlab();
+                switchToNewSlab();
+            }
+        }
+        long address = addressOf(currentSlab.slot, currentSlab.writePosition);
+        currentSlab.writePosition += recordSize;
+        currentSlab.liveBytes += recordSize;
+        return address;
+    }
+
+    private void free(long address) {
+        int slot = slotOf(address);
+        Slab slab = slabs.get(slot);
+        slab.liveBytes -= recordSizeAt(address);
+        if (slab.liveBytes == 0 && slab != currentSlab)
+            release(slot);
+    }
+
+    private int doDefragment() {
+        List<Slab> victims = new ArrayList<>();
+        for (Slab slab : slabs)
+            if (slab != null && slab != currentSlab &&
+                    1.0 - (double) slab.liveBytes / slab.writePosition >= setup.getDefragmentationThreshold())
+                victims.add(slab);
+        if (victims.isEmpty()) return 0;
+
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        moving:
+        for (Slab victim : victims) {
+            int offset = 0;
+            while (offset < victim.writePosition) {
+                long address = addressOf(victim.slot, offset);
+                int recordSize = recordSizeAt(address);
+                int indexSlot = indexSlotAt(address);
+                if (index.isLiveAt(indexSlot, address)) {
+                    if (isExpired(address, now)) {
+                        index.removeAt(indexSlot);
+                        expired++;
+                    } else if (!moveToCurrentSlab(address, recordSize, indexSlot)) {
+                        break moving; //there is no room for records within maximum count of slabs
+                    }
+                    victim.liveBytes -= recordSize;
+                }
+                offset += recordSize;
+            }
+        }
+        int released = 0;
+        for (Slab victim : victims) {
+            if (victim.liveBytes == 0 && slabs.get(victim.slot) == victim) {
+                release(victim.slot);
+                released++;
+            }
+        }
+        getStatsCounter().recordEvictions(MS_CacheEvictionCauseEnum.EXPIRED, expired);
+        return released;
+    }
+
+    /**
+     * Copies live record to current slab, which is replaced by new slab if record doesn't fit in it.
+     *
+     * @return false if record doesn't fit in current slab and maximum count of slabs is reached.
+     */
+    private boolean moveToCurrentSlab(long address, int recordSize, int indexSlot) {
+        if (currentSlab == null || currentSlab.remaining() < recordSize) {
+            if (countSlabs() >= setup.getMaximumSlabCount())
+                return false;
+            switchToNewSlab();
+        }
+        ByteBuffer source = slabs.get(slotOf(address)).buffer.duplicate();
+        source.position(offsetOf(address)).limit(offsetOf(address) + recordSize);
+        long newAddress = addressOf(currentSlab.slot, currentSlab.writePosition);
+        ByteBuffer destination = currentSlab.buffer.duplicate();
+        destination.position(currentSlab.writePosition);
+        destination.put(source);
+        currentSlab.writePosition += recordSize;
+        currentSlab.liveBytes += recordSize;
+        index.addresses[indexSlot] = newAddress;
+        return true;
+    }
+
+    private void evictOldestSlab() {
+        Slab oldest = null;
+        for (Slab slab : slabs)
+            if (slab != null && (oldest == null || slab.sequence < oldest.sequence))
+                oldest = slab;
+        if (oldest == null) return;
+        int evicted = 0;
+        int offset = 0;
+        while (offset < oldest.writePosition) {
+            long address = addressOf(oldest.slot, offset);
+            int indexSlot = indexSlotAt(address);
+            if (index.isLiveAt(indexSlot, address)) {
+                index.removeAt(indexSlot);
+                evicted++;
+            }
+            offset += recordSizeAt(address);
+        }
+        if (oldest == currentSlab)
+            currentSlab = null;
+        release(oldest.slot);
+        getStatsCounter().recordEvictions(MS_CacheEvictionCauseEnum.SIZE, evicted);
+    }
+
+    private int countSlabs() {
+        int res = 0;
+        for (Slab slab : slabs)
+            if (slab != null) res++;
+        return res;
+    }
+
+    private void switchToNewSlab() {
+        Slab previous = currentSlab;
+        currentSlab = newSlab();
+        if (previous != null && previous.liveBytes == 0 && slabs.get(previous.slot) == previous)
+            release(previous.slot);
+    }
+
+    private Slab newSlab() {
+        int slot = slabs.indexOf(null);
+        if (slot < 0) {
+            slot = slabs.size();
+            slabs.add(null);
+        }
+        Slab slab = setup.isMemoryMapped() ? newMappedSlab(slot) :
+                new Slab(slot, slabSequence++, ByteBuffer.allocateDirect(setup.getSlabSize()), null);
+        slabs.set(slot, slab);
+        return slab;
+    }
+
+    private Slab newMappedSlab(int slot) {
+        try {
+            File file = File.createTempFile("MS_OffHeapCache", ".slab", new File(setup.getMappedFilesDirectory()));
+            file.deleteOnExit();
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(setup.getSlabSize());
+                //mapping stays valid after channel is closed
+                ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, setup.getSlabSize());
+                return new Slab(slot, slabSequence++, buffer, file);
+            }
+        } catch (IOException e) {
+            throw new MS_RepositoryDataExchangeException("Failed to create memory-mapped slab of off-heap cache in " +
+                    "directory:\n" + setup.getMappedFilesDirectory(), e);
+        }
+    }
+
+    private void release(int slot) {
+        Slab slab = slabs.get(slot);
+        slabs.set(slot, null);
+        if (slab == currentSlab)
+            currentSlab = null;
+        //direct and mapped memory is returned to operating system when buffer is garbage collected
+        if (slab.file != null && !slab.file.delete())
+            slab.file.deleteOnExit();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static long addressOf(int slot, int offset) {
+        return ((long) slot << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int slotOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static final class Slab {
+
+        private final int slot;
+        private final long sequence;
+        private final ByteBuffer buffer;
+        private final File file;
+        private int writePosition;
+        private long liveBytes;
+
+        Slab(int slot, long sequence, ByteBuffer buffer, File file) {
+            this.slot = slot;
+            this.sequence = sequence;
+            this.buffer = buffer;
+            this.file = file;
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+    }
+
+    /**
+     * Open-addressing hash table (linear probing) of identifiers and addresses of their records. Removed identifiers
+     * leave marks, so identifiers stay in their slots until table is rebuilt. Table is rebuilt into new arrays
+     * when it gets too full, and then new slots are written to headers of records.
+     * Table is accessed only while holding lock of repository.
+     */
+    private final class AddressIndex {
+
+        private Object[] keys;
+        private long[] addresses;
+        private int size;
+        private int removedCount;
+
+        AddressIndex() {
+            allocate(MINIMUM_INDEX_CAPACITY);
+        }
+
+        long get(ID key) {
+            int slot = find(key);
+            return slot < 0 ? NO_ADDRESS : addresses[slot];
+        }
+
+        /**
+         * @return slot of identifier.
+         */
+        int put(ID key, long address) {
+            int slot = find(key);
+            if (slot >= 0) {
+                addresses[slot] = address;
+                return slot;
+            }
+            if (size + removedCount + 1 > keys.length * INDEX_LOAD_FACTOR)
+                rebuild(size + 1);
+            slot = indexOf(key);
+            while (keys[slot] != null && keys[slot] != REMOVED_KEY)
+                slot = (slot + 1) & (keys.length - 1);
+            if (keys[slot] == REMOVED_KEY)
+                removedCount--;
+            keys[slot] = key;
+            addresses[slot] = address;
+            size++;
+            return slot;
+        }
+
+        /**
+         * @return address of removed identifier or NO_ADDRESS if there is no such identifier.
+         */
+        long remove(ID key) {
+            int slot = find(key);
+            if (slot < 0)
+                return NO_ADDRESS;
+            long address = addresses[slot];
+            removeAt(slot);
+            return address;
+        }
+
+        void removeAt(int slot) {
+            keys[slot] = REMOVED_KEY;
+            size--;
+            removedCount++;
+        }
+
+        boolean isKeyAt(int slot) {
+            return keys[slot] != null && keys[slot] != REMOVED_KEY;
+        }
+
+        /**
+         * @return true if record at <b>address</b> is the current record of identifier in <b>slot</b>.
+         */
+        boolean isLiveAt(int slot, long address) {
+            return slot >= 0 && slot < keys.length && isKeyAt(slot) && addresses[slot] == address;
+        }
+
+        void clear() {
+            allocate(MINIMUM_INDEX_CAPACITY);
+            size = 0;
+            removedCount = 0;
+        }
+
+        private int find(ID key) {
+            int slot = indexOf(key);
+            Object current;
+            //there is always at least one empty slot, so probing ends
+            while ((current = keys[slot]) != null) {
+                if (current != REMOVED_KEY && current.equals(key))
+                    return slot;
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        private int indexOf(Object key) {
+            return spread(key.hashCode()) & (keys.length - 1);
+        }
+
+        private void allocate(int capacity) {
+            keys = new Object[capacity];
+            addresses = new long[capacity];
+        }
+
+        /**
+         * Moves identifiers to new table, which is at most half full after it.
+         */
+        private void rebuild(int expectedSize) {
+            int capacity = MINIMUM_INDEX_CAPACITY;
+            while (capacity * INDEX_LOAD_FACTOR < expectedSize * 2L)
+                capacity <<= 1;
+            Object[] oldKeys = keys;
+            long[] oldAddresses = addresses;
+            allocate(capacity);
+            removedCount = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null || oldKeys[i] == REMOVED_KEY) continue;
+                int slot = indexOf(oldKeys[i]);
+                while (keys[slot] != null)
+                    slot = (slot + 1) & (capacity - 1);
+                keys[slot] = oldKeys[i];
+                addresses[slot] = oldAddresses[i];
+                writeIndexSlot(oldAddresses[i], slot);
+            }
+        }
+    }
+}
@@ -4,10 +4,16 @@ import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.lists.IFuncForEachItemLoopAction;
 import lv.emes.libraries.tools.lists.MS_IterableListWithItems;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A standalone repository to store some items and get them by ID when needed.
@@ -24,8 +30,12 @@ import java.util.TreeMap;
  * <li>find</li>
  * <li>findAll</li>
  * <li>findPage</li>
+ * <li>findPageAfter</li>
+ * <li>stream</li>
  * <li>forEachItem</li>
  * <li>removeAll</li>
+ * <li>putAll</li>
+ * <li>upsert</li>
  * <li>count</li>
  * <li>length</li>
  * <li>setBreakOngoingForLoop</li>
@@ -41,8 +51,12 @@ import java.util.TreeMap;
  * <li>doFind</li>
  * <li>doFindAll</li>
  * <li>doFindPage</li>
+ * <li>doFindPageAfter</li>
+ * <li>doIterate</li>
  * <li>doGetSize</li>
  * <li>doRemoveAll</li>
+ * <li>doPutAll</li>
+ * <li>doUpsert</li>
  * </ul>
  * <p>Getters:
  * <ul>
@@ -53,13 +67,15 @@ import java.util.TreeMap;
  * @param <T>  type of items.
  * @param <ID> type of item identifiers.
  * @author eMeS
- * @version 2.1.
+ * @version 2.4.
  */
 public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T, ID>, MS_IterableListWithItems<T, ID> {
 
     private String repositoryRoot;
     private String repositoryCategoryName;
     private boolean flagForLoopBreaking;
+    //guards standard implementations of add, put, remove and upsert, so that upsert is atomic with respect to them
+    private final Object modificationLock = new Object();
 
     /**
      * Constructs instance of repository without initialization.
@@ -134,11 +150,26 @@ public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T
      */
     protected abstract Map<ID, T> doFindAll();
 
+    /**
+     * Iterates through all the items of repository.
+     * This is the only source of items for <b>stream</b>, <b>forEachItem</b> and default implementations of
+     * page lookups, so memory use of them stays flat if repository is able to iterate lazily.
+     * <p>Standard implementation uses doFindAll() and therefore holds all the items in memory while iterating.
+     * It's recommended to have repository specific implementation, which loads items only when they are requested.
+     * If iteration holds some resources (for example, opened file), returned iterator should implement
+     * {@link AutoCloseable}, and it will be closed as soon as iteration is over or broken.
+     *
+     * @return iterator of all the item entries. Removal of items through iterator is not expected to be supported.
+     */
+    protected Iterator<Map.Entry<ID, T>> doIterate() {
+        return doFindAll().entrySet().iterator();
+    }
+
     /**
      * Standard implementation of page lookup.
-     * <p><u>Warning</u>: this is only imitation of how actually this operation should be performed, as this implementation uses
-     * doFindAll() method and takes only requested page entries from it, which in the end does not give any performance
-     * gain. It's recommended to have proper repository specific implementation.
+     * It skips items of previous pages using doIterate(), so only items of requested page are held in memory.
+     * Still, cost of this operation grows with page number. If repository is able to seek to specific position
+     * faster, override this method!
      *
      * @param page requested page (0 and 1 are the same).
      * @param size item count in this page.
@@ -146,25 +177,48 @@ public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T
      * <p><u>Note</u>: that is recommended to use {@link LinkedHashMap} or {@link TreeMap} implementation here to preserve item order.
      */
     protected Map<ID, T> doFindPage(int page, int size) {
-        Map<ID, T> allItems = doFindAll();
-        int totalPossiblePages = allItems.size() / size;
-        int itemsInLastPage = allItems.size() - size * totalPossiblePages;
-        if (itemsInLastPage > 0) totalPossiblePages++;
-
-        Map<ID, T> res;
-        if (page < totalPossiblePages) { //we will get full page with "size" count of items
-            res = new LinkedHashMap<>(size);
-        } else { //we will get, what's left from last page
-            res = new LinkedHashMap<>(itemsInLastPage);
+        final long firstItemInPageIndex = (long) (page - 1) * size;
+        Map<ID, T> res = new LinkedHashMap<>();
+        Iterator<Map.Entry<ID, T>> iter = doIterate();
+        try {
+            long i = 0;
+            while (iter.hasNext() && res.size() < size) {
+                Map.Entry<ID, T> itemEntry = iter.next();
+                if (i++ < firstItemInPageIndex) continue;
+                res.put(itemEntry.getKey(), itemEntry.getValue());
+            }
+        } finally {
+            closeIterator(iter);
         }
+        return res;
+    }
 
-        final int firstItemInPageIndex = (page - 1) * size;
-        int i = 0;
-        int itemsCollected = 0;
-        for (Map.Entry<ID, T> itemEntry : allItems.entrySet()) {
-            if (i++ < firstItemInPageIndex) continue;
-            res.put(itemEntry.getKey(), itemEntry.getValue());
-            if (++itemsCollected == size) break;
+    /**
+     * Standard implementation of keyset (cursor) based page lookup.
+     * It walks through items using doIterate() until item with <b>lastIdentifier</b> is met and collects
+     * <b>size</b> items that follow it. Repositories that keep items ordered by identifier should override this method
+     * to seek directly to first item after <b>lastIdentifier</b>, which makes cost of every page independent of its
+     * position in repository.
+     *
+     * @param lastIdentifier identifier of last item of previous page or null to get first page.
+     * @param size           item count in this page.
+     * @return page of item values mapped by ID. Empty map is returned if there are no more items
+     * or item with <b>lastIdentifier</b> doesn't exist anymore.
+     */
+    protected Map<ID, T> doFindPageAfter(ID lastIdentifier, int size) {
+        Map<ID, T> res = new LinkedHashMap<>();
+        Iterator<Map.Entry<ID, T>> iter = doIterate();
+        try {
+            boolean lastItemPassed = lastIdentifier == null;
+            while (iter.hasNext() && res.size() < size) {
+                Map.Entry<ID, T> itemEntry = iter.next();
+                if (lastItemPassed)
+                    res.put(itemEntry.getKey(), itemEntry.getValue());
+                else
+                    lastItemPassed = Objects.equals(itemEntry.getKey(), lastIdentifier);
+            }
+        } finally {
+            closeIterator(iter);
         }
         return res;
     }
@@ -178,6 +232,79 @@ public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T
         doFindAll().forEach((id, item) -> doRemove(id));
     }
 
+    /**
+     * Adds or replaces items in the repository.
+     * By default <b>doFind</b>, <b>doRemove</b> and <b>doAdd</b> calls are made for every item.
+     * If whole batch can be stored at once (for example, with single rewrite of a file), override this method!
+     *
+     * @param items items mapped by their identifiers.
+     */
+    protected void doPutAll(Map<ID, T> items) {
+        items.forEach((identifier, item) -> {
+            if (doFind(identifier) != null)
+                doRemove(identifier);
+            doAdd(identifier, item);
+        });
+    }
+
+    /**
+     * Looks for items with presented identifiers.
+     * By default <b>doFind</b> calls are made for every identifier.
+     * If all the items can be found at once, override this method!
+     *
+     * @param identifiers item identifiers.
+     * @return found items mapped by ID in order of <b>identifiers</b>.
+     */
+    protected Map<ID, T> doFindAll(Collection<ID> identifiers) {
+        Map<ID, T> res = new LinkedHashMap<>();
+        for (ID identifier : identifiers) {
+            T item = doFind(identifier);
+            if (item != null)
+                res.put(identifier, item);
+        }
+        return res;
+    }
+
+    /**
+     * Removes items with presented identifiers from the repository.
+     * By default <b>doFind</b> and <b>doRemove</b> calls are made for every identifier.
+     * If all the items can be removed at once, override this method!
+     *
+     * @param identifiers item identifiers.
+     */
+    protected void doRemoveAll(Collection<ID> identifiers) {
+        for (ID identifier : identifiers) {
+            if (doFind(identifier) != null)
+                doRemove(identifier);
+        }
+    }
+
+    /**
+     * Inserts, updates or removes item with ID <b>identifier</b> depending on result of <b>upsertOperation</b>.
+     * If operation returns the current item itself, repository isn't modified at all.
+     * <p>By default upsert holds the same lock as standard implementations of <b>add</b>, <b>put</b> and
+     * <b>remove</b>, so it's atomic with respect to them and to other upserts made through the same repository
+     * instance. It doesn't guard against modifications made by other instances or processes, and repositories,
+     * which override <b>add</b>, <b>put</b> or <b>remove</b>, must override this method as well to stay atomic.
+     *
+     * @param identifier      an item identifier.
+     * @param upsertOperation function to calculate new item from the current one.
+     * @return new item or null if there is no item with such identifier after operation.
+     */
+    protected T doUpsert(ID identifier, IFuncUpsertOperation<T, ID> upsertOperation) {
+        synchronized (modificationLock) {
+            T current = doFind(identifier);
+            T updated = upsertOperation.apply(current, identifier);
+            if (updated == current)
+                return updated;
+            if (current != null)
+                doRemove(identifier);
+            if (updated != null)
+                doAdd(identifier, updated);
+            return updated;
+        }
+    }
+
     /**
      * Counts exisitng items in repository.
      *
@@ -200,26 +327,32 @@ public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T
     @Override
     public void add(ID identifier, T item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        T previous = doFind(identifier);
-        if (previous == null)
-            doAdd(identifier, item);
+        synchronized (modificationLock) {
+            T previous = doFind(identifier);
+            if (previous == null)
+                doAdd(identifier, item);
+        }
     }
 
     @Override
     public T put(ID identifier, T item) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        T previous = doFind(identifier);
-        if (previous != null)
-            remove(identifier);
-        add(identifier, item);
-        return previous;
+        synchronized (modificationLock) {
+            T previous = doFind(identifier);
+            if (previous != null)
+                remove(identifier);
+            add(identifier, item);
+            return previous;
+        }
     }
 
     @Override
     public void remove(ID identifier) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
-        if (doFind(identifier) != null) {
-            doRemove(identifier);
+        synchronized (modificationLock) {
+            if (doFind(identifier) != null) {
+                doRemove(identifier);
+            }
         }
     }
 
@@ -241,12 +374,82 @@ public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T
         return doFindPage(page == 0 ? 1 : page, size);
     }
 
+    /**
+     * Gets page of items, which follows item with ID <b>lastIdentifier</b>.
+     * Unlike {@link MS_Repository#findPage(int, int)} this method doesn't need to know position of page, so
+     * whole repository can be paged through like this:<br>
+     * <code>
+     * Map&lt;ID, T&gt; page = repository.findPageAfter(null, 100);<br>
+     * while (!page.isEmpty()) {<br>
+     * //process page<br>
+     * page = repository.findPageAfter(lastKeyOf(page), 100);<br>
+     * }<br>
+     * </code>
+     *
+     * @param lastIdentifier identifier of last item of previous page or null to get first page.
+     * @param size           item count in this page.
+     * @return page of item values mapped by ID. If there is no more items then empty map is returned.
+     * @throws MS_BadSetupException               if <b>size</b> is not positive.
+     * @throws UnsupportedOperationException      if repository is not initialized.
+     * @throws MS_RepositoryDataExchangeException if something repository-specific happens while performing data exchange.
+     */
+    public Map<ID, T> findPageAfter(ID lastIdentifier, int size) throws MS_BadSetupException, UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        if (size < 1)
+            throw new MS_BadSetupException("Invalid page request. Size of page must be greater than 0");
+        checkAndThrowNotInitializedException();
+        return doFindPageAfter(lastIdentifier, size);
+    }
+
+    /**
+     * Creates lazily evaluated sequential stream of all the item entries. Items are loaded as stream consumes them,
+     * so it's suitable also for repositories, whose items do not fit in memory.
+     * Stream must be closed (for example, using try-with-resources), because iteration of some repositories holds
+     * resources (like open file) until stream is closed.
+     *
+     * @return stream of item entries, which cannot be modified.
+     * @throws UnsupportedOperationException      if repository is not initialized.
+     * @throws MS_RepositoryDataExchangeException if something repository-specific happens while performing data exchange.
+     */
+    public Stream<Map.Entry<ID, T>> stream() throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        Iterator<Map.Entry<ID, T>> iter = doIterate();
+        return StreamSupport.stream(toSpliterator(iter), false).onClose(() -> closeIterator(iter));
+    }
+
     @Override
     public void removeAll() throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
         checkAndThrowNotInitializedException();
         doRemoveAll();
     }
 
+    @Override
+    public void putAll(Map<ID, T> items) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        if (!items.isEmpty())
+            doPutAll(items);
+    }
+
+    @Override
+    public Map<ID, T> findAll(Collection<ID> identifiers) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        if (identifiers.isEmpty())
+            return new LinkedHashMap<>();
+        return doFindAll(identifiers);
+    }
+
+    @Override
+    public void removeAll(Collection<ID> identifiers) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        if (!identifiers.isEmpty())
+            doRemoveAll(identifiers);
+    }
+
+    @Override
+    public T upsert(ID identifier, IFuncUpsertOperation<T, ID> upsertOperation) throws UnsupportedOperationException, MS_RepositoryDataExchangeException {
+        checkAndThrowNotInitializedException();
+        return doUpsert(identifier, upsertOperation);
+    }
+
     @Override
     public int size() {
         checkAndThrowNotInitializedException();
@@ -256,13 +459,14 @@ public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T
     @Override
     public void forEachItem(IFuncForEachItemLoopAction<T, ID> action) {
         checkAndThrowNotInitializedException();
-        Map<ID, T> allTheItems = findAll();
-        if (allTheItems != null) {
-            Iterator<Map.Entry<ID, T>> iter = allTheItems.entrySet().iterator();
+        Iterator<Map.Entry<ID, T>> iter = doIterate();
+        try {
             while (iter.hasNext() && !getBreakOngoingForLoop()) {
                 Map.Entry<ID, T> entry = iter.next();
                 action.doAction(entry.getValue(), entry.getKey());
             }
+        } finally {
+            closeIterator(iter);
         }
     }
 
@@ -336,6 +540,20 @@ public abstract class MS_Repository<T, ID> implements MS_IRepositoryOperations<T
         throw new UnsupportedOperationException("Repositories doesn't support looping through just a part of elements.");
     }
 
+    private Spliterator<Map.Entry<ID, T>> toSpliterator(Iterator<Map.Entry<ID, T>> iter) {
+        return Spliterators.spliteratorUnknownSize(iter, Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    private void closeIterator(Iterator<Map.Entry<ID, T>> iter) {
+        if (iter instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) iter).close();
+            } catch (Exception e) {
+                throw new MS_RepositoryDataExchangeException("Failed to release resources of repository iteration", e);
+            }
+        }
+    }
+
     protected final void checkAndThrowNotInitializedException() {
         if (!isInitialized()) {
             throw new UnsupportedOperationException(repositoryNotInitializedErrorMessage());
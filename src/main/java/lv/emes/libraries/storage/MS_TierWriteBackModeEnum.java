@@ -0,0 +1,18 @@
+package lv.emes.libraries.storage;
+
+/**
+ * Enum of ways how {@link MS_TieredCache} writes object found in slower tier (or created by loader)
+ * back to faster tiers.
+ * <ul>
+ * <li>NONE - object is never written back, tiers are only read;</li>
+ * <li>FASTEST_TIER - object is written only to the first (fastest) tier;</li>
+ * <li>ALL_UPPER_TIERS - object is written to every tier, which is faster than the one, where object was found.</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public enum MS_TierWriteBackModeEnum {
+
+    NONE, FASTEST_TIER, ALL_UPPER_TIERS
+}
@@ -0,0 +1,228 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.utilities.MS_ObjectRetrievalFailureException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Read-through cache, which consists of several tiers ordered from the fastest to the slowest one
+ * (for example, L1 - in-memory cache, L2 - file cache) and a loader, which creates object if none of tiers holds it.
+ * <p>Every tier is {@link MS_Cache}, so it's up to tier to decide TTL of objects (see {@link MS_Cache#setDefaultTTL(long)}).
+ * When object is found in one of slower tiers or created by loader, it is written back to faster tiers
+ * according to {@link MS_TierWriteBackModeEnum} (by default to all the faster tiers). Objects are written back
+ * synchronously before request is completed, so that next request of the same object finds it in the fastest tier.
+ * Failures of writing back are only logged by logger of tier, as every {@link MS_Cache#store(Object, Object)}
+ * operation does.
+ * <p>Concurrent requests of the same object, which is not in the fastest tier, are coalesced: only one thread goes
+ * through slower tiers and loader, while other threads wait for its result. That's why cold object requested by
+ * many threads at once is loaded only once.
+ * <p>Tiered cache collects its own statistics: request is a hit if object is found in any of tiers
+ * (coalesced requests are counted only once), and every loader call is counted as a load.
+ * <p>This is a stateful alternative of {@link lv.emes.libraries.utilities.MS_RepositoryUtils#retrieveObject(Object,
+ * boolean, IFuncObjectRetrievalOperation[])}, which only walks through the chain of retrieval operations.
+ * <p>Public methods:
+ * <ul>
+ * <li>get</li>
+ * <li>clear</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>withTier</li>
+ * <li>withLoader</li>
+ * <li>withWriteBackMode</li>
+ * <li>getTiers</li>
+ * <li>getLoader</li>
+ * <li>getWriteBackMode</li>
+ * <li>getInFlightLoadCount</li>
+ * <li>getStatsCounter</li>
+ * <li>getStats</li>
+ * </ul>
+ *
+ * @param <T>  type of cached objects.
+ * @param <ID> type of object identifiers.
+ * @author eMeS
+ * @version 1.1.
+ */
+public class MS_TieredCache<T, ID> {
+
+    private final List<MS_Cache<T, ID>> tiers = new ArrayList<>();
+    private IFuncObjectRetrievalOperation<T, ID> loader;
+    private MS_TierWriteBackModeEnum writeBackMode = MS_TierWriteBackModeEnum.ALL_UPPER_TIERS;
+    private final ConcurrentMap<ID, CompletableFuture<T>> inFlightLoads = new ConcurrentHashMap<>();
+    private final MS_CacheStatsCounter statsCounter = new MS_CacheStatsCounter();
+
+    /**
+     * Adds next tier, which is slower than previously added tiers.
+     *
+     * @param tier cache, which acts as a tier.
+     * @return reference to tiered cache itself.
+     * @throws MS_BadSetupException if <b>tier</b> is null.
+     */
+    public MS_TieredCache<T, ID> withTier(MS_Cache<T, ID> tier) {
+        if (tier == null)
+            throw new MS_BadSetupException("Tier of tiered cache cannot be null");
+        tiers.add(tier);
+        return this;
+    }
+
+    /**
+     * Sets last resort operation to create object, if none of tiers holds it.
+     *
+     * @param loader operation to create or retrieve object from original source.
+     * @return reference to tiered cache itself.
+     */
+    public MS_TieredCache<T, ID> withLoader(IFuncObjectRetrievalOperation<T, ID> loader) {
+        this.loader = loader;
+        return this;
+    }
+
+    /**
+     * @param writeBackMode mode of writing object back to faster tiers.
+     * @return reference to tiered cache itself.
+     * @throws MS_BadSetupException if <b>writeBackMode</b> is null.
+     */
+    public MS_TieredCache<T, ID> withWriteBackMode(MS_TierWriteBackModeEnum writeBackMode) {
+        if (writeBackMode == null)
+            throw new MS_BadSetupException("Write-back mode of tiered cache cannot be null");
+        this.writeBackMode = writeBackMode;
+        return this;
+    }
+
+    /**
+     * Retrieves object from the fastest tier, which holds it, or creates it by loader.
+     *
+     * @param id identifier of object (if null is passed then method will return null).
+     * @return found object or null if neither tiers nor loader could provide it.
+     * @throws MS_ObjectRetrievalFailureException if loader failed with an exception.
+     * @throws MS_BadSetupException               if there are neither tiers nor loader set.
+     */
+    public T get(ID id) throws MS_ObjectRetrievalFailureException, MS_BadSetupException {
+        if (tiers.isEmpty() && loader == null)
+            throw new MS_BadSetupException("Tiered cache must have at least one tier or loader");
+        if (id == null) return null;
+        //hits in the fastest tier are not coalesced, as they cost less than coordination of threads
+        if (!tiers.isEmpty()) {
+            T object = tiers.get(0).retrieve(id);
+            if (object != null) {
+                statsCounter.recordHits(1);
+                return object;
+            }
+        }
+
+        CompletableFuture<T> ownLoad = new CompletableFuture<>();
+        CompletableFuture<T> ongoingLoad = inFlightLoads.putIfAbsent(id, ownLoad);
+        if (ongoingLoad != null)
+            return awaitLoad(ongoingLoad);
+        try {
+            T object = retrieveFromSlowerTiersOrLoad(id);
+            ownLoad.complete(object);
+            return object;
+        } catch (RuntimeException e) {
+            ownLoad.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(id, ownLoad);
+        }
+    }
+
+    /**
+     * Clears all the tiers. Tiers are cleared asynchronously, as {@link MS_Cache#clear()} does.
+     */
+    public void clear() {
+        tiers.forEach(MS_Cache::clear);
+    }
+
+    public List<MS_Cache<T, ID>> getTiers() {
+        return Collections.unmodifiableList(tiers);
+    }
+
+    public IFuncObjectRetrievalOperation<T, ID> getLoader() {
+        return loader;
+    }
+
+    public MS_TierWriteBackModeEnum getWriteBackMode() {
+        return writeBackMode;
+    }
+
+    /**
+     * @return count of objects, which are being retrieved from slower tiers or loaded at the moment.
+     */
+    public int getInFlightLoadCount() {
+        return inFlightLoads.size();
+    }
+
+    /**
+     * @return live statistics counter of tiered cache.
+     */
+    public MS_CacheStatsCounter getStatsCounter() {
+        return statsCounter;
+    }
+
+    /**
+     * @return snapshot of current statistics of tiered cache.
+     */
+    public MS_CacheStats getStats() {
+        return statsCounter.snapshot();
+    }
+
+    //*** Private methods ***
+
+    private T retrieveFromSlowerTiersOrLoad(ID id) {
+        //fastest tier is checked again, because object might have been stored there while this thread was arriving
+        for (int i = 0; i < tiers.size(); i++) {
+            T object = tiers.get(i).retrieve(id);
+            if (object != null) {
+                statsCounter.recordHits(1);
+                writeBack(object, id, i);
+                return object;
+            }
+        }
+        statsCounter.recordMisses(1);
+        if (loader == null) return null;
+
+        T object;
+        long loadStart = System.nanoTime();
+        try {
+            object = loader.get(id);
+        } catch (Exception e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - loadStart);
+            throw new MS_ObjectRetrievalFailureException("Loader of tiered cache failed to retrieve object with ID: " + id, e);
+        }
+        statsCounter.recordLoadSuccess(System.nanoTime() - loadStart);
+        if (object != null)
+            writeBack(object, id, tiers.size());
+        return object;
+    }
+
+    private void writeBack(T object, ID id, int foundInTier) {
+        switch (writeBackMode) {
+            case FASTEST_TIER:
+                if (foundInTier > 0)
+                    tiers.get(0).storeNow(object, id);
+                break;
+            case ALL_UPPER_TIERS:
+                for (int i = 0; i < foundInTier; i++)
+                    tiers.get(i).storeNow(object, id);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private T awaitLoad(CompletableFuture<T> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+}
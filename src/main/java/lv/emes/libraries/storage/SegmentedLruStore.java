@@ -0,0 +1,414 @@
+package lv.emes.libraries.storage;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * Bounded key-value store, which is split into independently locked segments (lock striping) and evicts entries
+ * using segmented LRU (SLRU) policy inside each segment.
+ * <p>Every segment consists of two LRU areas:
+ * <ul>
+ * <li>probation - every new entry lands here;</li>
+ * <li>protected - entries are promoted here when they are requested while being in probation area.</li>
+ * </ul>
+ * When segment is over its weight limit, least recently used entries of probation area are evicted first,
+ * and only when probation area is empty protected area entries are evicted.
+ * When protected area grows over its limit, its least recently used entries are demoted back to probation area.
+ * <p>Only {@link SegmentedLruStore#get(Object)} counts as access of an entry. Conditional operations
+ * ({@link SegmentedLruStore#compute(Object, BiFunction)}, {@link SegmentedLruStore#putIfAbsent(Object, Object)},
+ * {@link SegmentedLruStore#removeIf(Object, Predicate)}) and {@link SegmentedLruStore#peek(Object)} check current
+ * value without promoting entry, so entry, which is only checked or conditionally written, isn't treated as hit.
+ * <p>Bounds are distributed evenly among segments, that's why store can start evicting entries a bit earlier
+ * than total bound is reached if keys are not distributed evenly.
+ *
+ * @param <K> type of keys.
+ * @param <V> type of values.
+ * @author eMeS
+ * @version 1.1.
+ */
+final class SegmentedLruStore<K, V> {
+
+    private static final double PROTECTED_AREA_RATIO = 0.8;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final IFuncCacheEntryWeigher<V, K> weigher;
+    private final EvictionListener<K, V> evictionListener;
+
+    /**
+     * @param maximumWeight    positive total weight limit.
+     * @param concurrencyLevel preferable count of segments.
+     * @param weigher          function to determine weight of an entry.
+     * @param evictionListener listener, which is notified about every entry evicted due to bounds.
+     *                         It's called while segment is locked, so it must be short.
+     */
+    SegmentedLruStore(long maximumWeight, int concurrencyLevel, IFuncCacheEntryWeigher<V, K> weigher,
+                      EvictionListener<K, V> evictionListener) {
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount * 2L <= maximumWeight)
+            segmentCount <<= 1;
+        segmentMask = segmentCount - 1;
+        segments = newSegmentArray(segmentCount);
+        long weightPerSegment = maximumWeight / segmentCount;
+        long remainder = maximumWeight % segmentCount;
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new Segment<>(weightPerSegment + (i < remainder ? 1 : 0), evictionListener);
+    }
+
+    V get(K key) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Looks for value without affecting recency of the entry.
+     *
+     * @return current value or null if there is no value for given <b>key</b>.
+     */
+    V peek(K key) {
+        return segmentFor(key).peek(key);
+    }
+
+    /**
+     * @return previous value or null if there were no value for given <b>key</b>.
+     */
+    V put(K key, V value) {
+        return segmentFor(key).put(key, value, weigh(key, value));
+    }
+
+    /**
+     * @return removed value or null if there were no value for given <b>key</b>.
+     */
+    V remove(K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Atomically replaces value for given <b>key</b> with the one calculated by <b>remappingFunction</b>.
+     * Segment of the key stays locked while function is running, so function must be short.
+     * Reading of current value doesn't count as access of the entry, and if function returns the same value
+     * instance, entry stays untouched.
+     *
+     * @param key               key of value.
+     * @param remappingFunction function, which receives key and current value (or null) and returns new value
+     *                          or null if value must be removed.
+     * @return new value or null if there is no value after operation.
+     */
+    V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            V current = segment.peek(key);
+            V updated = remappingFunction.apply(key, current);
+            if (updated == current)
+                return updated;
+            if (updated == null)
+                segment.remove(key);
+            else
+                segment.put(key, updated, weigh(key, updated));
+            return updated;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Atomically puts <b>value</b> only if there is no value for given <b>key</b>.
+     * Reading of current value doesn't count as access of the entry.
+     *
+     * @return current value or null if <b>value</b> is put.
+     */
+    V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            V current = segment.peek(key);
+            if (current != null)
+                return current;
+            segment.put(key, value, weigh(key, value));
+            return null;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Atomically removes value for given <b>key</b> only if it satisfies <b>condition</b>.
+     * Segment of the key stays locked while condition is checked, so condition must be short.
+     * Reading of current value doesn't count as access of the entry.
+     *
+     * @return true if value is removed.
+     */
+    boolean removeIf(K key, Predicate<? super V> condition) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            V current = segment.peek(key);
+            if (current == null || !condition.test(current))
+                return false;
+            segment.remove(key);
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    void clear() {
+        for (Segment<K, V> segment : segments)
+            segment.clear();
+    }
+
+    int size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments)
+            size += segment.count;
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments)
+            weight += segment.weight;
+        return weight;
+    }
+
+    /**
+     * Iterates through entries segment by segment. Entries of a segment are copied at the moment iteration reaches
+     * this segment, so only one segment at a time is held in memory and no segment stays locked while iterating.
+     * Recency of entries is not affected.
+     *
+     * @return weakly consistent iterator of immutable entries.
+     */
+    Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<Map.Entry<K, V>>() {
+            private int nextSegment = 0;
+            private Iterator<Map.Entry<K, V>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && nextSegment < segments.length)
+                    current = segments[nextSegment++].snapshot().iterator();
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    //*** Private methods and classes ***
+
+    private int weigh(K key, V value) {
+        int weight = weigher.weigh(value, key);
+        if (weight < 0)
+            throw new IllegalStateException("Weigher returned negative weight for key: " + key);
+        return weight;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Segment<K, V>[] newSegmentArray(int length) {
+        return (Segment<K, V>[]) new Segment<?, ?>[length];
+    }
+
+    /**
+     * Listener of entries evicted due to bounds of store.
+     */
+    interface EvictionListener<K, V> {
+
+        void onEviction(K key, V value);
+    }
+
+    private static final class Node<V> {
+
+        private V value;
+        private int weight;
+
+        Node(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Segment<K, V> {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        //access-ordered maps, so eldest entry is always least recently used one
+        private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<K, Node<V>> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+        //nodes of both areas, so that value can be looked up without reordering access-ordered maps
+        private final HashMap<K, Node<V>> nodes = new HashMap<>();
+        private final long maximumWeight;
+        private final long maximumProtectedWeight;
+        private final EvictionListener<K, V> evictionListener;
+        private long protectedWeight;
+        private volatile long weight;
+        private volatile int count;
+
+        Segment(long maximumWeight, EvictionListener<K, V> evictionListener) {
+            this.maximumWeight = maximumWeight;
+            this.evictionListener = evictionListener;
+            this.maximumProtectedWeight = (long) (maximumWeight * PROTECTED_AREA_RATIO);
+        }
+
+        V get(K key) {
+            lock.lock();
+            try {
+                Node<V> node = protectedArea.get(key);
+                if (node != null)
+                    return node.value;
+                node = probation.remove(key);
+                if (node == null)
+                    return null;
+                //second hit - entry deserves promotion
+                protectedArea.put(key, node);
+                protectedWeight += node.weight;
+                demoteProtectedOverflow();
+                return node.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V peek(K key) {
+            lock.lock();
+            try {
+                Node<V> node = nodes.get(key);
+                return node == null ? null : node.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V put(K key, V value, int entryWeight) {
+            lock.lock();
+            try {
+                V previous = null;
+                Node<V> node = protectedArea.get(key);
+                if (node != null) {
+                    previous = node.value;
+                    protectedWeight += entryWeight - node.weight;
+                } else {
+                    node = probation.get(key);
+                    if (node != null) {
+                        previous = node.value;
+                    } else {
+                        node = new Node<>(value, entryWeight);
+                        probation.put(key, node);
+                        nodes.put(key, node);
+                        count++;
+                        weight += entryWeight;
+                        evictOverflow();
+                        return null;
+                    }
+                }
+                weight += entryWeight - node.weight;
+                node.value = value;
+                node.weight = entryWeight;
+                demoteProtectedOverflow();
+                evictOverflow();
+                return previous;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V remove(K key) {
+            lock.lock();
+            try {
+                Node<V> node = probation.remove(key);
+                if (node == null) {
+                    node = protectedArea.remove(key);
+                    if (node == null)
+                        return null;
+                    protectedWeight -= node.weight;
+                }
+                nodes.remove(key);
+                count--;
+                weight -= node.weight;
+                return node.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                probation.clear();
+                protectedArea.clear();
+                nodes.clear();
+                protectedWeight = 0;
+                weight = 0;
+                count = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<Map.Entry<K, V>> snapshot() {
+            lock.lock();
+            try {
+                List<Map.Entry<K, V>> res = new ArrayList<>(count);
+                //iteration over access-ordered map doesn't change its order, only get does
+                for (Map.Entry<K, Node<V>> entry : protectedArea.entrySet())
+                    res.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+                for (Map.Entry<K, Node<V>> entry : probation.entrySet())
+                    res.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+                return res;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void demoteProtectedOverflow() {
+            Iterator<Map.Entry<K, Node<V>>> iter = protectedArea.entrySet().iterator();
+            while (protectedWeight > maximumProtectedWeight && iter.hasNext()) {
+                Map.Entry<K, Node<V>> eldest = iter.next();
+                iter.remove();
+                protectedWeight -= eldest.getValue().weight;
+                probation.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+
+        private void evictOverflow() {
+            evictOverflow(probation, false);
+            evictOverflow(protectedArea, true);
+        }
+
+        private void evictOverflow(LinkedHashMap<K, Node<V>> area, boolean isProtectedArea) {
+            Iterator<Map.Entry<K, Node<V>>> iter = area.entrySet().iterator();
+            while (weight > maximumWeight && iter.hasNext()) {
+                Map.Entry<K, Node<V>> eldestEntry = iter.next();
+                Node<V> eldest = eldestEntry.getValue();
+                iter.remove();
+                nodes.remove(eldestEntry.getKey());
+                if (isProtectedArea)
+                    protectedWeight -= eldest.weight;
+                count--;
+                weight -= eldest.weight;
+                evictionListener.onEviction(eldestEntry.getKey(), eldest.value);
+            }
+        }
+    }
+}
@@ -6,6 +6,8 @@ import lv.emes.libraries.tools.lists.MS_StringList;
 import lv.emes.libraries.utilities.MS_CodingUtils;
 import lv.emes.libraries.utilities.MS_ExecutionFailureException;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -14,6 +16,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * known time.
  * <p>Class is made so that it could be easily used like builder and there is no need to create
  * local variable for that.
+ * <p>When lots of short events must be executed, event can be scheduled in existing thread pool
+ * with {@link MS_FutureEvent#schedule(ExecutorService)} instead of creating new thread for every event.
  * Just create new instance, use setters to configure time till execution and action on execution!
  * Optionally actions on exceptions can be set to define, what will happen if exception occurs
  * during event execution.
@@ -40,11 +44,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  * </ul>
  *
  * @author eMeS
- * @version 1.2.
+ * @version 1.3.
  */
 public class MS_FutureEvent {
 
     private final WorkerThread worker = new WorkerThread().withThreadName("MS_FutureEvent");
+    private volatile Future<?> pooledExecution;
 
     /**
      * Sets time till execution (default is 0 meaning that event will execute instantly).
@@ -125,14 +130,16 @@ public class MS_FutureEvent {
      * @return true if event happened, e.g. thread's work is completed or it's interrupted.
      */
     public boolean isFinished() {
-        return worker.isWorkCompleted() || worker.isInterrupted();
+        Future<?> execution = pooledExecution;
+        return worker.isWorkCompleted() || isInterrupted() || execution != null && execution.isDone();
     }
 
     /**
      * @return true if event has been stopped or its thread has been interrupted.
      */
     public boolean isInterrupted() {
-        return worker.isInterrupted();
+        Future<?> execution = pooledExecution;
+        return worker.isInterrupted() || execution != null && execution.isCancelled();
     }
 
     /**
@@ -150,6 +157,21 @@ public class MS_FutureEvent {
         return this;
     }
 
+    /**
+     * Submits event to given thread pool <b>executor</b> instead of creating new thread for it.
+     * Event waits for time till execution in pool's thread, so for long delays {@link MS_FutureEvent#schedule()}
+     * is more suitable.
+     * <p><u>Note</u>: timeout set by {@link MS_FutureEvent#withTimeout(long)} is not applied to pooled events,
+     * they can be stopped only by {@link MS_FutureEvent#terminate()}.
+     *
+     * @param executor thread pool, which will execute this event.
+     * @return reference to an event itself.
+     */
+    public MS_FutureEvent schedule(ExecutorService executor) {
+        pooledExecution = executor.submit(worker);
+        return this;
+    }
+
     /**
      * Stops event if its not started yet.
      * Due to this termination InterruptedException may arise.
@@ -157,7 +179,11 @@ public class MS_FutureEvent {
      * @return reference to an event itself.
      */
     public MS_FutureEvent terminate() {
-        worker.stop();
+        Future<?> execution = pooledExecution;
+        if (execution != null)
+            execution.cancel(true);
+        else
+            worker.stop();
         return this;
     }
 
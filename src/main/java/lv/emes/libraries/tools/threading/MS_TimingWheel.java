@@ -0,0 +1,340 @@
+package lv.emes.libraries.tools.threading;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel, which executes huge amounts of delayed tasks using single thread.
+ * Scheduling and cancellation of a task costs O(1) regardless of how many tasks are waiting.
+ * <p>Time is split into ticks of fixed duration. Wheel consists of several levels, each having
+ * {@link MS_TimingWheel#_SLOTS_PER_LEVEL} slots. Slot of first level covers one tick, slot of every next level
+ * covers as many ticks as whole previous level. Tasks that are due far in future are placed in upper levels and are
+ * moved (cascaded) down to lower levels as time passes, so tasks are touched only few times during their lifetime.
+ * <p>Expired tasks are not executed in wheel's thread - they are passed to executor given in constructor.
+ * Precision of task execution is one tick. Thread of wheel is started on first scheduled task and sleeps without
+ * ticking while there are no tasks waiting.
+ * <p>Public methods:
+ * <ul>
+ * <li>schedule</li>
+ * <li>stop</li>
+ * </ul>
+ * <p>Setters and getters:
+ * <ul>
+ * <li>getTickDuration</li>
+ * <li>getPendingTaskCount</li>
+ * <li>isStopped</li>
+ * </ul>
+ *
+ * @author eMeS
+ * @version 1.0.
+ */
+public class MS_TimingWheel {
+
+    public static final int _SLOTS_PER_LEVEL = 64;
+    public static final int _DEFAULT_LEVEL_COUNT = 4;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = _SLOTS_PER_LEVEL - 1;
+    private static final int MAX_TASKS_TRANSFERRED_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final int levelCount;
+    private final Executor taskExecutor;
+    private final String threadName;
+    private final TimeoutTask[][] wheel;
+    private final Queue<TimeoutTask> newTasks = new ConcurrentLinkedQueue<>();
+    private final Queue<TimeoutTask> cancelledTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingTaskCount = new AtomicLong();
+    private final Object startLock = new Object();
+    private volatile Thread workerThread;
+    private volatile boolean stopped;
+    private long startTime;
+    private long currentTick;
+
+    /**
+     * Creates timing wheel with {@link MS_TimingWheel#_DEFAULT_LEVEL_COUNT} levels.
+     *
+     * @param tickDuration duration of single tick.
+     * @param unit         time unit of <b>tickDuration</b>.
+     * @param taskExecutor executor, which will run expired tasks.
+     * @param threadName   name of wheel's thread.
+     */
+    public MS_TimingWheel(long tickDuration, TimeUnit unit, Executor taskExecutor, String threadName) {
+        this(tickDuration, unit, _DEFAULT_LEVEL_COUNT, taskExecutor, threadName);
+    }
+
+    /**
+     * Creates timing wheel. Tasks with delay longer than <b>tickDuration</b> * 64 ^ <b>levelCount</b>
+     * are still supported, but they are cascaded once per full turn of the top level.
+     *
+     * @param tickDuration duration of single tick.
+     * @param unit         time unit of <b>tickDuration</b>.
+     * @param levelCount   count of levels (1..10).
+     * @param taskExecutor executor, which will run expired tasks.
+     * @param threadName   name of wheel's thread.
+     * @throws IllegalArgumentException if <b>tickDuration</b> is not positive or <b>levelCount</b> is out of range.
+     * @throws NullPointerException     if <b>unit</b> or <b>taskExecutor</b> is null.
+     */
+    public MS_TimingWheel(long tickDuration, TimeUnit unit, int levelCount, Executor taskExecutor, String threadName) {
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("Tick duration must be positive");
+        if (levelCount < 1 || levelCount > 10)
+            throw new IllegalArgumentException("Level count of timing wheel must be in range 1..10");
+        if (taskExecutor == null)
+            throw new NullPointerException("Executor of timing wheel tasks cannot be null");
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.levelCount = levelCount;
+        this.taskExecutor = taskExecutor;
+        this.threadName = threadName;
+        this.wheel = new TimeoutTask[levelCount][_SLOTS_PER_LEVEL];
+    }
+
+    /**
+     * Schedules <b>task</b> to be executed after given <b>delay</b>.
+     *
+     * @param task  action to perform.
+     * @param delay non-negative delay.
+     * @param unit  time unit of <b>delay</b>.
+     * @return handle of scheduled task, which can be used to cancel it.
+     * @throws IllegalStateException if wheel is already stopped.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped)
+            throw new IllegalStateException("Cannot schedule task, because timing wheel is stopped");
+        startIfNeeded();
+        long deadline = System.nanoTime() + Math.max(0, unit.toNanos(delay));
+        long deadlineTick = (deadline - startTime + tickNanos - 1) / tickNanos;
+        TimeoutTask timeout = new TimeoutTask(task, deadlineTick);
+        pendingTaskCount.incrementAndGet();
+        newTasks.add(timeout);
+        LockSupport.unpark(workerThread);
+        return timeout;
+    }
+
+    /**
+     * Stops thread of this wheel. Tasks that are not executed yet will never be executed.
+     */
+    public void stop() {
+        stopped = true;
+        Thread thread = workerThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @return duration of single tick in nanoseconds.
+     */
+    public long getTickDuration() {
+        return tickNanos;
+    }
+
+    /**
+     * @return count of tasks that are scheduled, but are neither executed nor cancelled yet.
+     */
+    public long getPendingTaskCount() {
+        return pendingTaskCount.get();
+    }
+
+    //*** Private methods and classes ***
+
+    private void startIfNeeded() {
+        if (workerThread != null) return;
+        synchronized (startLock) {
+            if (workerThread != null) return;
+            startTime = System.nanoTime();
+            Thread thread = new Thread(this::work, threadName);
+            thread.setDaemon(true);
+            thread.start();
+            workerThread = thread;
+        }
+    }
+
+    private void work() {
+        while (!stopped) {
+            if (pendingTaskCount.get() == 0 && newTasks.isEmpty()) {
+                //nothing to wait for - sleep until new task arrives
+                LockSupport.park(this);
+                removeCancelledTasks();
+                //wheel is empty, so there is no need to tick through whole idle period
+                currentTick = Math.max(currentTick, (System.nanoTime() - startTime) / tickNanos);
+                continue;
+            } else {
+                long sleepNanos = startTime + (currentTick + 1) * tickNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                    continue; //woken up either by time or by new task; recheck everything
+                }
+            }
+            removeCancelledTasks();
+            long elapsedTicks = (System.nanoTime() - startTime) / tickNanos;
+            while (currentTick < elapsedTicks && !stopped) {
+                transferNewTasks();
+                currentTick++;
+                cascadeAndExpire();
+            }
+            transferNewTasks();
+        }
+    }
+
+    private void transferNewTasks() {
+        TimeoutTask task;
+        int transferred = 0;
+        while (transferred++ < MAX_TASKS_TRANSFERRED_PER_TICK && (task = newTasks.poll()) != null) {
+            if (task.state.get() == TimeoutTask.STATE_CANCELLED) continue;
+            place(task);
+        }
+    }
+
+    private void removeCancelledTasks() {
+        TimeoutTask task;
+        while ((task = cancelledTasks.poll()) != null)
+            unlink(task);
+    }
+
+    private void cascadeAndExpire() {
+        for (int level = levelCount - 1; level > 0; level--) {
+            long levelTickMask = (1L << (SLOT_BITS * level)) - 1;
+            if ((currentTick & levelTickMask) == 0) {
+                int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                TimeoutTask task = wheel[level][slot];
+                wheel[level][slot] = null;
+                while (task != null) {
+                    TimeoutTask next = task.next;
+                    task.prev = task.next = null;
+                    task.level = -1;
+                    place(task);
+                    task = next;
+                }
+            }
+        }
+        int slot = (int) (currentTick & SLOT_MASK);
+        TimeoutTask task = wheel[0][slot];
+        wheel[0][slot] = null;
+        while (task != null) {
+            TimeoutTask next = task.next;
+            task.prev = task.next = null;
+            task.level = -1;
+            place(task);
+            task = next;
+        }
+    }
+
+    /**
+     * Puts task into the level, where its deadline differs from current tick for the first time
+     * (looking from the most significant digits), or executes it if task is already expired.
+     */
+    private void place(TimeoutTask task) {
+        if (task.deadlineTick <= currentTick) {
+            expire(task);
+            return;
+        }
+        long difference = task.deadlineTick ^ currentTick;
+        int level = (63 - Long.numberOfLeadingZeros(difference)) / SLOT_BITS;
+        int slot;
+        if (level >= levelCount) {
+            //too far in future: park in top level slot, which will be visited last during its turn
+            level = levelCount - 1;
+            slot = (int) (((currentTick >>> (SLOT_BITS * level)) - 1) & SLOT_MASK);
+        } else {
+            slot = (int) ((task.deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        }
+        task.level = level;
+        task.slot = slot;
+        task.next = wheel[level][slot];
+        if (task.next != null)
+            task.next.prev = task;
+        wheel[level][slot] = task;
+    }
+
+    private void unlink(TimeoutTask task) {
+        if (task.level < 0) return;
+        if (task.prev != null)
+            task.prev.next = task.next;
+        else
+            wheel[task.level][task.slot] = task.next;
+        if (task.next != null)
+            task.next.prev = task.prev;
+        task.prev = task.next = null;
+        task.level = -1;
+    }
+
+    private void expire(TimeoutTask task) {
+        if (!task.state.compareAndSet(TimeoutTask.STATE_WAITING, TimeoutTask.STATE_EXPIRED))
+            return;
+        pendingTaskCount.decrementAndGet();
+        try {
+            taskExecutor.execute(task.task);
+        } catch (RuntimeException ignored) {
+            //executor rejected task - nothing else can be done, and wheel must keep ticking
+        }
+    }
+
+    /**
+     * Handle of task scheduled in timing wheel.
+     */
+    public interface Timeout {
+
+        /**
+         * Cancels execution of task if it's not executed yet.
+         *
+         * @return true if task was cancelled by this call.
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        /**
+         * @return true if task is already passed to executor.
+         */
+        boolean isExpired();
+    }
+
+    private final class TimeoutTask implements Timeout {
+
+        private static final int STATE_WAITING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(STATE_WAITING);
+        //following fields are accessed only by wheel's thread
+        private TimeoutTask prev;
+        private TimeoutTask next;
+        private int level = -1;
+        private int slot;
+
+        TimeoutTask(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_WAITING, STATE_CANCELLED))
+                return false;
+            pendingTaskCount.decrementAndGet();
+            cancelledTasks.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.logging.*;
 import org.apache.log4j.Logger;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -15,7 +16,7 @@ import java.util.List;
  * </ul>
  *
  * @author eMeS
- * @version 1.0.
+ * @version 1.1.
  */
 public class MS_RepositoryUtils {
 
@@ -51,11 +52,13 @@ public class MS_RepositoryUtils {
      * @return object retrieved by at least one <b>retrievalOperations</b> or null if that was impossible to
      * retrieve object by any of given <b>retrievalOperations</b> methods.
      * @throws MS_ObjectRetrievalFailureException if any exception occurred while performing any of object's retrieval operations.
+     * @see lv.emes.libraries.storage.MS_TieredCache for chain, which also writes retrieved objects back to faster
+     * tiers and coalesces concurrent retrievals of the same object.
      */
     @SafeVarargs //promise that we will use only for few  operations as retrievalOperations
     public static <T, ID> T retrieveObject(ID id, boolean continueOnError, IFuncObjectRetrievalOperation<T, ID>... retrievalOperations) {
         if (id == null) return null;
-        return retrieveObject(id, continueOnError, MS_CodingUtils.arrayToList(retrievalOperations));
+        return retrieveObject(id, continueOnError, Arrays.asList(retrievalOperations));
     }
 
     /**
@@ -127,29 +130,19 @@ public class MS_RepositoryUtils {
     //*** Private (static) methods ***
 
     private static <T, ID> T retrieveObject(ID id, boolean continueOnError, List<IFuncObjectRetrievalOperation<T, ID>> retrievalOperations) {
-        T retrievedObject;
-        if (retrievalOperations.isEmpty()) return null;
-        IFuncObjectRetrievalOperation<T, ID> currentRetrievalOperation = retrievalOperations.get(0);
-        if (continueOnError) {
+        for (IFuncObjectRetrievalOperation<T, ID> currentRetrievalOperation : retrievalOperations) {
+            T retrievedObject;
             try {
                 retrievedObject = currentRetrievalOperation.get(id);
             } catch (Exception e) {
+                if (!continueOnError)
+                    throw new MS_ObjectRetrievalFailureException("Object retrieval failed by all retrieval operation alternatives. " +
+                            "Last failure exception's stack trace: ", e);
                 retrievedObject = null;
             }
-        } else {
-            try {
-                retrievedObject = currentRetrievalOperation.get(id);
-            } catch (Exception e) {
-                throw new MS_ObjectRetrievalFailureException("Object retrieval failed by all retrieval operation alternatives. " +
-                        "Last failure exception's stack trace: ", e);
-            }
-        }
-
-        if (retrievedObject == null) {
-            //get rid of head operation, cause it's already checked
-            retrievalOperations.remove(0);
-            retrievedObject = retrieveObject(id, continueOnError, retrievalOperations);
+            if (retrievedObject != null)
+                return retrievedObject;
         }
-        return retrievedObject;
+        return null;
     }
 }
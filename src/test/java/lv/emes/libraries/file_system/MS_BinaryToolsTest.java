@@ -4,8 +4,27 @@ import lv.emes.libraries.patches.jmimemagic.MimeMagic;
 import net.sf.jmimemagic.MagicMatchNotFoundException;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
 import static lv.emes.libraries.testdata.TestData.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * Tests part of binary tool features.
@@ -95,4 +114,91 @@ public class MS_BinaryToolsTest {
         assertThat(MS_BinaryTools.stringToBase64String(null)).isNull();
         assertThat(MS_BinaryTools.base64StringToString(null)).isNull();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCopyOfChannelsAndStreams() throws IOException {
+        byte[] content = new byte[300_000];
+        new Random(25).nextBytes(content);
+        Path source = Paths.get(TEMP_DIR, "MS_BinaryToolsTest_source.bin");
+        Path target = Paths.get(TEMP_DIR, "MS_BinaryToolsTest_target.bin");
+        Files.write(source, content);
+        try {
+            //file to file from current position
+            try (FileChannel in = FileChannel.open(source);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                in.position(1000);
+                out.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+                assertThat(MS_BinaryTools.copy(in, out)).isEqualTo(content.length - 1000);
+                assertThat(in.position()).isEqualTo(content.length);
+                assertThat(out.position()).isEqualTo(content.length - 1000 + 3);
+            }
+            byte[] copied = Files.readAllBytes(target);
+            assertThat(Arrays.copyOfRange(copied, 0, 3)).containsExactly(1, 2, 3);
+            assertThat(Arrays.copyOfRange(copied, 3, copied.length)).isEqualTo(Arrays.copyOfRange(content, 1000, content.length));
+
+            //file streams are copied through their channels and closed
+            MS_BinaryTools.copyStream(new FileInputStream(source.toFile()), new FileOutputStream(target.toFile()));
+            assertThat(Files.readAllBytes(target)).isEqualTo(content);
+
+            //any channel to file
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                assertThat(MS_BinaryTools.copy(Channels.newChannel(new ByteArrayInputStream(content)), out))
+                        .isEqualTo(content.length);
+            }
+            assertThat(Files.readAllBytes(target)).isEqualTo(content);
+
+            //channels and streams in memory
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertThat(MS_BinaryTools.copy(Channels.newChannel(new ByteArrayInputStream(content)), Channels.newChannel(out)))
+                    .isEqualTo(content.length);
+            assertThat(out.toByteArray()).isEqualTo(content);
+            out.reset();
+            assertThat(MS_BinaryTools.copy(new ByteArrayInputStream(content), out)).isEqualTo(content.length);
+            assertThat(out.toByteArray()).isEqualTo(content);
+
+            //file truncated while being copied
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                out.reset();
+                WritableByteChannel truncatingChannel = Channels.newChannel(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) throws IOException {
+                        out.write(bytes, offset, length);
+                        in.truncate(100_000);
+                    }
+                });
+                assertThatThrownBy(() -> MS_BinaryTools.copy(in, truncatingChannel)).isInstanceOf(EOFException.class);
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void testMapFile() throws IOException {
+        byte[] content = new byte[100_000];
+        new Random(25).nextBytes(content);
+        Path file = Paths.get(TEMP_DIR, "MS_BinaryToolsTest_mapped.bin");
+        Files.write(file, content);
+        try {
+            ByteBuffer mapped = MS_BinaryTools.mapFile(file.toString());
+            assertThat(mapped.isReadOnly()).isTrue();
+            assertThat(mapped.remaining()).isEqualTo(content.length);
+            assertThat(mapped.get(99_999)).isEqualTo(content[99_999]);
+
+            mapped = MS_BinaryTools.mapFile(file.toString(), 50_000, 10);
+            byte[] part = new byte[10];
+            mapped.get(part);
+            assertThat(part).isEqualTo(Arrays.copyOfRange(content, 50_000, 50_010));
+            assertThatThrownBy(() -> MS_BinaryTools.mapFile(file.toString(), 99_999, 2)).isInstanceOf(EOFException.class);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
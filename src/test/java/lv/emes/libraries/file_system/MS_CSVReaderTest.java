@@ -0,0 +1,159 @@
+package lv.emes.libraries.file_system;
+
+import au.com.bytecode.opencsv.CSVReader;
+import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_CSVReaderTest {
+
+    private static final String DIR = TestData.TEMP_DIR + "MS_CSVReaderTest/";
+    private static final String SMALL_FILE = DIR + "small.csv";
+    private static final String QUOTED_FILE = DIR + "quoted.csv";
+    private static final String PLAIN_FILE = DIR + "plain.csv";
+    private static final String SMALL_CONTENT = "a,\"b,c\",d\r\n" +
+            "\"multi\r\nline \"\"quoted\"\"\",x\n" +
+            "   \"lead\",a\\\"esc\\\",\n" +
+            "\"esc \\\"in\\\" quotes\",\"back\\\\slash\",\n" +
+            "mid\"quote\"here,\"\",ĀČĒ\n" +
+            "\n" +
+            "1, 2 ,true,3.5\n";
+    private static final int RECORD_COUNT = 20_000;
+
+    @BeforeClass
+    public static void createFiles() throws IOException {
+        Files.createDirectories(Paths.get(DIR));
+        Files.write(Paths.get(SMALL_FILE), SMALL_CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        //every record has quoted value with line break, doubled and escaped quotes and separators inside of it
+        StringBuilder quoted = new StringBuilder();
+        StringBuilder plain = new StringBuilder();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            quoted.append(i).append(",\"line ").append(i).append("\nof \"\"value\"\", \\\"").append(i % 7)
+                    .append("\\\" ĀČĒ\",").append(i % 3 == 0 ? "\"\"" : "plain").append(i % 5 == 0 ? "\r\n" : "\n");
+            plain.append(i).append(",value ").append(i).append(",ĀČĒ\n");
+        }
+        Files.write(Paths.get(QUOTED_FILE), quoted.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(Paths.get(PLAIN_FILE), plain.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterClass
+    public static void deleteFiles() {
+        assertThat(MS_FileSystemTools.deleteDirectory(DIR)).isTrue();
+    }
+
+    @Test
+    public void testRowsAreParsedLikeOpenCSV() throws IOException {
+        List<String[]> expected = new CSVReader(new StringReader(SMALL_CONTENT), ',', '"').readAll();
+        MS_CSVReader reader = new MS_CSVReader(SMALL_FILE).withQuoteChar('"');
+        assertThat(reader.readAll()).containsExactlyElementsOf(expected);
+        try (Stream<String[]> rows = reader.rows()) {
+            assertThat(rows.collect(Collectors.toList())).containsExactlyElementsOf(expected);
+        }
+        assertThat(expected.get(1)).containsExactly("multi\nline \"quoted\"", "x");
+        assertThat(expected.get(2)).containsExactly("lead", "a\"esc\"", "");
+        assertThat(expected.get(3)).containsExactly("esc \"in\" quotes", "back\\slash", "");
+
+        //without quoting every line is record
+        assertThat(new MS_CSVReader(SMALL_FILE).readAll()).containsExactlyElementsOf(
+                new CSVReader(new StringReader(SMALL_CONTENT), ',', '\0').readAll());
+    }
+
+    @Test
+    public void testProjectionAndMapping() throws IOException {
+        MS_CSVReader reader = new MS_CSVReader(SMALL_FILE).withQuoteChar('"').withColumns(2, 0);
+        List<String[]> rows = reader.readAll();
+        assertThat(rows).hasSize(7);
+        assertThat(rows.get(0)).containsExactly("d", "a");
+        assertThat(rows.get(1)).containsExactly(null, "multi\nline \"quoted\"");
+        assertThat(rows.get(5)).containsExactly(null, "");
+
+        try (Stream<Double> numbers = new MS_CSVReader(SMALL_FILE).withQuoteChar('"').withColumns(3)
+                .rows(row -> row.getString(0) == null ? null : row.getDouble(0))) {
+            assertThat(numbers.filter(Objects::nonNull).collect(Collectors.toList())).containsExactly(3.5);
+        }
+        List<String> typed = new ArrayList<>();
+        Set<MS_CSVRow> instances = new HashSet<>();
+        new MS_CSVReader(SMALL_FILE).withQuoteChar('"').withColumns(0, 1, 2, 3).forEachRow(row -> {
+            instances.add(row);
+            if (row.getString(3) != null)
+                typed.add(row.getInt(0) + "|" + row.getLong(1) + "|" + row.getBoolean(2) + "|" +
+                        row.get(3, Function.identity()));
+        });
+        assertThat(typed).containsExactly("1|2|true|3.5");
+        assertThat(instances).hasSize(1); //the same row is reused
+        assertThatThrownBy(() -> new MS_CSVReader(SMALL_FILE).forEachRow(row -> row.getString(1)))
+                .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void testParallelRowsAreSplitAtRecordBoundaries() throws IOException {
+        for (String file : new String[]{QUOTED_FILE, PLAIN_FILE}) {
+            MS_CSVReader reader = new MS_CSVReader(file).withQuoteChar(file.equals(QUOTED_FILE) ? '"' : '\0')
+                    .withMinimumRangeSize(1024);
+            List<String[]> expected = reader.readAll();
+            assertThat(expected).hasSize(RECORD_COUNT);
+            assertThat(expected.get(5)).containsExactly(file.equals(QUOTED_FILE) ? new String[]{"5",
+                    "line 5\nof \"value\", \"5\" ĀČĒ", "plain"} : new String[]{"5", "value 5", "ĀČĒ"});
+            try (Stream<String[]> rows = reader.parallelRows()) {
+                assertThat(rows.isParallel()).isTrue();
+                assertThat(rows.collect(Collectors.toList())).containsExactlyElementsOf(expected);
+            }
+            try (Stream<Integer> ids = reader.parallelRows(row -> row.getInt(0))) {
+                assertThat(ids.mapToInt(Integer::intValue).sum()).isEqualTo(RECORD_COUNT * (RECORD_COUNT - 1) / 2);
+            }
+
+            try (FileChannel channel = FileChannel.open(Paths.get(file))) {
+                Spliterator<String> second = new MS_CSVRangeSpliterator<>(channel, StandardCharsets.UTF_8, ',',
+                        reader.getQuoteChar(), '\\', new int[]{0}, row -> row.getString(0), 1024);
+                Spliterator<String> first = second.trySplit();
+                assertThat(first).isNotNull();
+                List<String> ids = new ArrayList<>();
+                first.forEachRemaining(ids::add);
+                assertThat(ids.size()).isBetween(1, RECORD_COUNT - 1);
+                second.forEachRemaining(ids::add);
+                assertThat(ids).hasSize(RECORD_COUNT);
+                for (int i = 0; i < RECORD_COUNT; i++)
+                    assertThat(ids.get(i)).isEqualTo(String.valueOf(i));
+                assertThat(second.trySplit()).isNull(); //already traversed
+                assertThat(new MS_CSVRangeSpliterator<>(channel, StandardCharsets.UTF_16, ',', '"', '\\', null,
+                        MS_CSVRow::toArray, 16).trySplit()).isNull();
+            }
+        }
+    }
+
+    @Test
+    public void testBadSetupAndMissingFile() {
+        assertThatThrownBy(() -> new MS_CSVReader(SMALL_FILE).withColumns(1, -1)).isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> new MS_CSVReader(SMALL_FILE).withColumns(1, 0, 1)).isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> new MS_CSVReader(SMALL_FILE).withQuoteChar(',').readAll())
+                .isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> new MS_CSVReader(SMALL_FILE).withQuoteChar('\\').rows())
+                .isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> new MS_CSVReader(DIR + "missing.csv").readAll()).isInstanceOf(FileNotFoundException.class);
+        assertThatThrownBy(() -> new MS_CSVReader(DIR + "missing.csv").rows()).isInstanceOf(UncheckedIOException.class);
+    }
+}
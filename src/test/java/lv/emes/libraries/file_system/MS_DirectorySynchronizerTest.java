@@ -0,0 +1,155 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_DirectorySynchronizerTest {
+
+    private static final String ROOT = TestData.TEMP_DIR + "MS_DirectorySynchronizerTest/";
+    private static final Path SOURCE = Paths.get(ROOT, "source");
+    private static final Path DESTINATION = Paths.get(ROOT, "destination");
+    private static final FileTime TIME = FileTime.fromMillis(1_500_000_000_000L);
+
+    @Before
+    public void createSource() throws IOException {
+        //5 directories with 20 files each, and a file in root
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 20; j++)
+                write(SOURCE.resolve("dir" + i).resolve("file" + j + ".txt"), "content " + i + "/" + j);
+        }
+        write(SOURCE.resolve("top.txt"), "top");
+    }
+
+    @After
+    public void deleteDirectories() {
+        assertThat(MS_FileSystemTools.deleteDirectory(ROOT)).isTrue();
+    }
+
+    @Test
+    public void testOnlyChangesAreSynchronized() throws IOException {
+        MS_DirectorySyncReport report = MS_FileSystemTools.synchronizeDirectory(SOURCE.toString(), DESTINATION.toString());
+        assertThat(report.getCopiedFileCount()).isEqualTo(101);
+        assertThat(report.getCopiedBytes()).isEqualTo(100 * "content 0/10".length() - 50 + 3);
+        assertThat(report.getUnchangedFileCount()).isZero();
+        assertThat(report.getFailureCount()).isZero();
+        assertThat(report.getBytesPerSecond()).isPositive();
+        assertThat(read(DESTINATION.resolve("dir3/file17.txt"))).isEqualTo("content 3/17");
+        assertThat(Files.getLastModifiedTime(DESTINATION.resolve("dir3/file17.txt"))).isEqualTo(TIME);
+        assertThat(listTree(DESTINATION)).isEqualTo(listTree(SOURCE));
+
+        report = MS_FileSystemTools.synchronizeDirectory(SOURCE.toString(), DESTINATION.toString());
+        assertThat(report.getCopiedFileCount()).isZero();
+        assertThat(report.getUnchangedFileCount()).isEqualTo(101);
+        assertThat(report.getDeletedCount()).isZero();
+
+        //changed, new and extraneous files; directory in place of file
+        write(SOURCE.resolve("dir1/file1.txt"), "changed");
+        write(SOURCE.resolve("dir5/new.txt"), "new");
+        write(DESTINATION.resolve("dir2/extraneous.txt"), "extraneous");
+        write(DESTINATION.resolve("extraneous/nested/file.txt"), "extraneous");
+        Files.delete(DESTINATION.resolve("top.txt"));
+        write(DESTINATION.resolve("top.txt/file.txt"), "directory in place of file");
+        assertThat(listTree(DESTINATION)).isNotEqualTo(listTree(SOURCE));
+
+        report = MS_FileSystemTools.synchronizeDirectory(SOURCE.toString(), DESTINATION.toString());
+        assertThat(report.getCopiedFileCount()).isEqualTo(3);
+        assertThat(report.getUnchangedFileCount()).isEqualTo(99);
+        assertThat(report.getDeletedCount()).isEqualTo(3);
+        assertThat(report.getFailureCount()).isZero();
+        assertThat(read(DESTINATION.resolve("dir1/file1.txt"))).isEqualTo("changed");
+        assertThat(read(DESTINATION.resolve("top.txt"))).isEqualTo("top");
+        assertThat(listTree(DESTINATION)).isEqualTo(listTree(SOURCE));
+
+        //extraneous files are kept, if deletion is off
+        write(DESTINATION.resolve("kept.txt"), "kept");
+        report = new MS_DirectorySynchronizer(SOURCE.toString(), DESTINATION.toString()).withDeletion(false).synchronize();
+        assertThat(report.getDeletedCount()).isZero();
+        assertThat(Files.exists(DESTINATION.resolve("kept.txt"))).isTrue();
+    }
+
+    @Test
+    public void testContentComparison() throws IOException {
+        MS_FileSystemTools.synchronizeDirectory(SOURCE.toString(), DESTINATION.toString());
+        //file is only touched
+        Files.setLastModifiedTime(SOURCE.resolve("dir0/file0.txt"), FileTime.fromMillis(TIME.toMillis() + 60_000));
+        //content is changed without changing size and time of modification
+        write(SOURCE.resolve("dir0/file1.txt"), "CONTENT 0/1");
+
+        MS_DirectorySyncReport report = new MS_DirectorySynchronizer(SOURCE.toString(), DESTINATION.toString())
+                .withContentComparison(true).synchronize();
+        assertThat(report.getCopiedFileCount()).isEqualTo(1);
+        assertThat(report.getUnchangedFileCount()).isEqualTo(100);
+        assertThat(report.getComparedBytes()).isEqualTo(2 * (100 * "content 0/10".length() - 50 + 3));
+        assertThat(read(DESTINATION.resolve("dir0/file1.txt"))).isEqualTo("CONTENT 0/1");
+        //time of touched file is synchronized without copying it
+        assertThat(Files.getLastModifiedTime(DESTINATION.resolve("dir0/file0.txt")))
+                .isEqualTo(Files.getLastModifiedTime(SOURCE.resolve("dir0/file0.txt")));
+
+        report = MS_FileSystemTools.synchronizeDirectory(SOURCE.toString(), DESTINATION.toString());
+        assertThat(report.getCopiedFileCount()).isZero();
+    }
+
+    @Test
+    public void testContentOfUnreadableDirectoryIsNotDeleted() throws IOException {
+        MS_FileSystemTools.synchronizeDirectory(SOURCE.toString(), DESTINATION.toString());
+        Path unreadable = SOURCE.resolve("dir2");
+        Files.setPosixFilePermissions(unreadable, PosixFilePermissions.fromString("-w-------"));
+        try {
+            //privileged user reads directory anyway
+            Assume.assumeFalse(Files.isReadable(unreadable));
+            MS_DirectorySyncReport report = MS_FileSystemTools.synchronizeDirectory(SOURCE.toString(), DESTINATION.toString());
+            assertThat(report.getFailureCount()).isEqualTo(1);
+            assertThat(report.getDeletedCount()).isZero();
+            assertThat(read(DESTINATION.resolve("dir2/file7.txt"))).isEqualTo("content 2/7");
+        } finally {
+            Files.setPosixFilePermissions(unreadable, PosixFilePermissions.fromString("rwx------"));
+        }
+    }
+
+    @Test
+    public void testBadDirectories() {
+        assertThatThrownBy(() -> new MS_DirectorySynchronizer(SOURCE.toString(), SOURCE.resolve("dir0").toString()))
+                .isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> new MS_DirectorySynchronizer(SOURCE.resolve("top.txt").toString(), DESTINATION.toString())
+                .synchronize()).isInstanceOf(NotDirectoryException.class);
+        assertThat(Files.exists(DESTINATION)).isFalse();
+    }
+
+    //*** Private methods ***
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, TIME);
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> listTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.map(path -> root.relativize(path) + (Files.isDirectory(path) ? "/" : ""))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package lv.emes.libraries.file_system;
 
 import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.lists.MS_StringList;
 import org.junit.AfterClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * All tests depends on previous test data.
@@ -22,6 +30,8 @@ public class MS_FileRepositoryTest {
     private static final String PROJECT_NAME = TestData.TEMP_DIR + "eMeS_Libraries";
     private static final String CATEGORY_NAME1 = "MS_FileRepositoryTest";
     private static final String CATEGORY_NAME2 = "MS_FileRepositoryTest2";
+    private static final String CATEGORY_NAME3 = "MS_FileRepositoryTest3";
+    private static final String CATEGORY_NAME4 = "MS_FileRepositoryTest4";
     private static final String[] ITEM_IDS = {"First.txt", "Second.txt", "Third.txt"};
     private static final String[] ITEMS = {"Item1", "Item2", "Item3", "Replaced item"};
 
@@ -90,6 +100,76 @@ public class MS_FileRepositoryTest {
         assertThat(MS_FileSystemTools.directoryExists(PROJECT_NAME + "/" + CATEGORY_NAME2)).isTrue();
     }
 
+    @Test
+    public void test05ShardedRepositoryWithParallelBulkOperations() {
+        MS_ShardedFileRepositoryForTest repository = new MS_ShardedFileRepositoryForTest(PROJECT_NAME, CATEGORY_NAME3,
+                new MS_FileRepositorySetup().withShardDepth(2).withShardFanOut(16).withParallelism(4));
+        Map<String, String> items = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++)
+            items.put("Item" + i + ".txt", ITEMS[i % ITEMS.length]);
+        repository.putAll(items);
+
+        assertThat(repository.size()).isEqualTo(200);
+        assertThat(repository.findAll()).isEqualTo(items);
+        assertThat(repository.get("Item7.txt")).isEqualTo(ITEMS[3]);
+        String pathToItem = repository.getPathToItem("Item7.txt");
+        assertThat(MS_FileSystemTools.fileExists(pathToItem)).isTrue();
+        //repository directory / 1st level shard / 2nd level shard / file
+        assertThat(pathToItem.substring(repository.getPathToRepository().length())).matches("[0-9a-f]/[0-9a-f]/Item7\\.txt");
+        assertThat(MS_FileSystemTools.getDirectoryFileList_Shortnames(repository.getPathToRepository()).count()).isZero();
+
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 200; i += 2)
+            removed.add("Item" + i + ".txt");
+        repository.removeAll(removed);
+        assertThat(repository.size()).isEqualTo(100);
+        assertThat(repository.findAll(Arrays.asList("Item5.txt", "Item4.txt", "Item3.txt")))
+                .containsExactly(entry("Item5.txt", ITEMS[1]), entry("Item3.txt", ITEMS[3]));
+        Map<String, String> replaced = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++)
+            replaced.put("Item" + i + ".txt", ITEMS[0]);
+        repository.putAll(replaced);
+        assertThat(repository.size()).isEqualTo(120);
+        assertThat(repository.findAll(replaced.keySet())).isEqualTo(replaced);
+        assertThatThrownBy(() -> new MS_FileRepositorySetup().withShardFanOut(1)).isInstanceOf(MS_BadSetupException.class);
+    }
+
+    @Test
+    public void test06LazyIterationAndPageSeekThroughShards() {
+        MS_ShardedFileRepositoryForTest repository = new MS_ShardedFileRepositoryForTest(PROJECT_NAME, CATEGORY_NAME4,
+                new MS_FileRepositorySetup().withShardDepth(2).withShardFanOut(16));
+        Map<String, String> items = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++)
+            items.put("Item" + i + ".txt", ITEMS[i % ITEMS.length]);
+        repository.putAll(items);
+
+        List<String> streamed;
+        try (Stream<Map.Entry<String, String>> stream = repository.stream()) {
+            streamed = stream.map(Map.Entry::getKey).collect(Collectors.toList());
+        }
+        assertThat(streamed).hasSize(100).containsOnlyElementsOf(items.keySet());
+
+        List<String> paged = new ArrayList<>();
+        Map<String, String> page = repository.findPageAfter(null, 7);
+        while (!page.isEmpty()) {
+            paged.addAll(page.keySet());
+            page.forEach((identifier, item) -> assertThat(item).isEqualTo(items.get(identifier)));
+            page = repository.findPageAfter(paged.get(paged.size() - 1), 7);
+        }
+        assertThat(paged).isEqualTo(streamed);
+        assertThat(repository.findPage(3, 7).keySet()).containsExactlyElementsOf(streamed.subList(14, 21));
+
+        //page continues from position of removed item
+        repository.remove(streamed.get(50));
+        assertThat(repository.findPageAfter(streamed.get(50), 2).keySet()).containsExactly(streamed.get(51), streamed.get(52));
+        assertThat(repository.findPageAfter(streamed.get(48), 2).keySet()).containsExactly(streamed.get(49), streamed.get(51));
+        assertThat(repository.findPageAfter(streamed.get(99), 2)).isEmpty();
+    }
+
+    private static Map.Entry<String, String> entry(String key, String value) {
+        return new AbstractMap.SimpleEntry<>(key, value);
+    }
+
     /**
      * A class that operates with files containing just 1 string line.
      */
@@ -143,4 +223,30 @@ public class MS_FileRepositoryTest {
             doInitialize(); //create directory afterwards
         }
     }
+
+    /**
+     * The same repository of files with 1 string line, which relies on sharding and bulk operations of base class.
+     */
+    private static final class MS_ShardedFileRepositoryForTest extends MS_FileRepository<String> {
+
+        public MS_ShardedFileRepositoryForTest(String repositoryRoot, String repositoryCategoryName, MS_FileRepositorySetup setup) {
+            super(repositoryRoot, repositoryCategoryName, setup, true);
+        }
+
+        @Override
+        protected void doAdd(String identifier, String item) {
+            new MS_TextFile(createPathToItem(identifier)).writeln(item, true);
+        }
+
+        @Override
+        protected void doRemove(String identifier) {
+            MS_FileSystemTools.deleteFile(getPathToItem(identifier));
+        }
+
+        @Override
+        protected String doFind(String identifier) {
+            String pathToAFile = getPathToItem(identifier);
+            return MS_FileSystemTools.fileExists(pathToAFile) ? new MS_TextFile(pathToAFile).readln(true) : null;
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_GroupCommitWriterTest {
+
+    @Test
+    public void testBatchesOfConcurrentThreadsAreWrittenInGroups() throws Exception {
+        List<List<Integer>> groups = Collections.synchronizedList(new ArrayList<>());
+        MS_GroupCommitWriter<Integer> writer = new MS_GroupCommitWriter<>(200, 1000, groups::add);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> committers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int batch = i;
+            committers.add(executor.submit(() -> {
+                start.await();
+                writer.await(writer.submit(batch, 1));
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> committer : committers)
+            committer.get();
+        executor.shutdown();
+
+        List<Integer> written = new ArrayList<>();
+        groups.forEach(written::addAll);
+        assertThat(written).containsExactlyInAnyOrder(0, 1, 2, 3, 4, 5, 6, 7);
+        assertThat(groups.size()).isLessThan(8);
+    }
+
+    @Test
+    public void testGroupIsWrittenWhenEnoughRecordsAreCollected() {
+        List<List<String>> groups = new ArrayList<>();
+        MS_GroupCommitWriter<String> writer = new MS_GroupCommitWriter<>(60_000, 10, groups::add);
+        long start = System.currentTimeMillis();
+        writer.await(writer.submit("Full batch", 10));
+        assertThat(System.currentTimeMillis() - start).isLessThan(10_000);
+        assertThat(groups).containsExactly(Collections.singletonList("Full batch"));
+    }
+
+    @Test
+    public void testFailureIsReportedToEveryBatchOfGroup() {
+        MS_GroupCommitWriter<String> writer = new MS_GroupCommitWriter<>(0, 1, batches -> {
+            if (batches.contains("Fail"))
+                throw new MS_RepositoryDataExchangeException("Write failed");
+        });
+        assertThatThrownBy(() -> writer.await(writer.submit("Fail", 1)))
+                .isInstanceOf(MS_RepositoryDataExchangeException.class);
+        //writer stays usable after failure
+        writer.await(writer.submit("Succeed", 1));
+    }
+}
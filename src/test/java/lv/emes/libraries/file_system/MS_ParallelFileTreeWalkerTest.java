@@ -0,0 +1,102 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_ParallelFileTreeWalkerTest {
+
+    private static final String ROOT = TestData.TEMP_DIR + "MS_ParallelFileTreeWalkerTest/";
+
+    @BeforeClass
+    public static void createTree() throws IOException {
+        //10 directories with 10 sub-directories each; every sub-directory has 2 files: of 10 and 100 bytes
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                Path directory = Files.createDirectories(Paths.get(ROOT, "dir" + i, "sub" + j));
+                Files.write(directory.resolve("small.txt"), new byte[10]);
+                Files.write(directory.resolve("big.bin"), new byte[100]);
+            }
+        }
+        Files.write(Paths.get(ROOT, "top.txt"), new byte[1]);
+    }
+
+    @AfterClass
+    public static void deleteTree() {
+        assertThat(MS_FileSystemTools.deleteDirectory(ROOT)).isTrue();
+    }
+
+    @Test
+    public void testSummary() {
+        MS_FileTreeSummary summary = new MS_ParallelFileTreeWalker(ROOT).summarize();
+        assertThat(summary.getFileCount()).isEqualTo(201);
+        assertThat(summary.getTotalSize()).isEqualTo(100 * 110 + 1);
+        assertThat(summary.getDirectoryCount()).isEqualTo(110);
+        assertThat(summary.getFailureCount()).isEqualTo(0);
+        assertThat(MS_FileSystemTools.getFileOrDirectorySize(ROOT)).isEqualTo(100 * 110 + 1);
+
+        summary = new MS_ParallelFileTreeWalker(ROOT).withGlob("*.txt").summarize();
+        assertThat(summary.getFileCount()).isEqualTo(101);
+        assertThat(summary.getTotalSize()).isEqualTo(100 * 10 + 1);
+
+        //file itself is walked as well
+        summary = new MS_ParallelFileTreeWalker(ROOT + "top.txt").summarize();
+        assertThat(summary.getFileCount()).isEqualTo(1);
+        summary = new MS_ParallelFileTreeWalker(ROOT + "missing").summarize();
+        assertThat(summary.getFailureCount()).isEqualTo(1);
+        assertThat(summary.getTotalSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFiltersArePushedIntoWalk() {
+        Set<Path> enteredDirectories = ConcurrentHashMap.newKeySet();
+        Set<Path> found = ConcurrentHashMap.newKeySet();
+        new MS_ParallelFileTreeWalker(ROOT)
+                .withDirectoryFilter(directory -> {
+                    enteredDirectories.add(directory);
+                    return !directory.getFileName().toString().equals("dir0");
+                })
+                .withFilter(path -> path.getFileName().toString().startsWith("big"))
+                .forEach(found::add);
+        assertThat(found).hasSize(90).allMatch(path -> !path.toString().contains("dir0"));
+        //sub-directories of rejected directory aren't even checked
+        assertThat(enteredDirectories).hasSize(10 + 90);
+
+        MS_FileTreeSummary summary = new MS_ParallelFileTreeWalker(ROOT).withMaxDepth(2).summarize();
+        assertThat(summary.getFileCount()).isEqualTo(1);
+        assertThat(summary.getDirectoryCount()).isEqualTo(10);
+    }
+
+    @Test
+    public void testStream() {
+        try (Stream<Path> paths = new MS_ParallelFileTreeWalker(ROOT).withDirectoriesIncluded(true).withMaxDepth(2).stream()) {
+            List<String> names = paths.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+            assertThat(names).hasSize(1 + 10 + 100).contains("top.txt", "dir9", "sub9");
+        }
+        //stream can be left before the end of walk
+        try (Stream<Path> paths = new MS_ParallelFileTreeWalker(ROOT).stream()) {
+            assertThat(paths.limit(5).count()).isEqualTo(5);
+        }
+        try (Stream<Path> paths = new MS_ParallelFileTreeWalker(ROOT).withFilter(path -> {
+            throw new IllegalStateException("Filter failed");
+        }).stream()) {
+            assertThatThrownBy(paths::count).isInstanceOf(IllegalStateException.class);
+        }
+        assertThatThrownBy(() -> new MS_ParallelFileTreeWalker(ROOT).withMaxDepth(0)).isInstanceOf(MS_BadSetupException.class);
+    }
+}
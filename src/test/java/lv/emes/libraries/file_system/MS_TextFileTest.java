@@ -9,11 +9,23 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static lv.emes.libraries.file_system.MS_FileSystemTools.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class MS_TextFileTest {
@@ -151,4 +163,65 @@ public class MS_TextFileTest {
         assertThat(mixed.readln()).isEqualTo(TEXT4);
         mixed.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test10StreamingLinesInCharset() throws IOException {
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 20_000)
+            longLine.append(TEXT6);
+        //line terminators of different platforms and line longer than buffer of decoder
+        String content = TEXT4 + "\r\n" + TEXT5 + "\r\r\n" + longLine + "\n" + TEXT6;
+        Files.write(Paths.get(SECOND_FILE), content.getBytes(StandardCharsets.UTF_16));
+
+        MS_TextFile file = new MS_TextFile(SECOND_FILE, StandardCharsets.UTF_16);
+        try (Stream<String> lines = file.lines()) {
+            assertThat(lines.collect(Collectors.toList()))
+                    .containsExactly(TEXT4, TEXT5, "", longLine.toString(), TEXT6);
+        }
+        assertThat(file.readln()).isEqualTo(TEXT4);
+        try (Stream<String> lines = MS_TextFile.lines(SECOND_FILE, StandardCharsets.UTF_16)) {
+            assertThat(lines.filter(line -> line.startsWith(TEXT6)).count()).isEqualTo(2);
+        }
+        //stream doesn't affect line reading of the same object
+        assertThat(file.readln()).isEqualTo(TEXT5);
+        file.close();
+
+        file.writeln(TEXT3, true);
+        assertThat(Files.readAllLines(Paths.get(SECOND_FILE), StandardCharsets.UTF_16)).containsExactly(TEXT3);
+        assertThatThrownBy(() -> MS_TextFile.lines(SECOND_FILE + ".missing", StandardCharsets.UTF_8))
+                .isInstanceOf(UncheckedIOException.class);
+    }
+
+    @Test
+    public void test11ParallelLines() throws IOException {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++)
+            expected.add(i + (i % 3 == 0 ? TEXT5 : i % 3 == 1 ? TEXT6 : ""));
+        Files.write(Paths.get(SECOND_FILE), expected, StandardCharsets.UTF_8);
+
+        MS_TextFile file = new MS_TextFile(SECOND_FILE, StandardCharsets.UTF_8);
+        try (Stream<String> lines = file.parallelLines()) {
+            assertThat(lines.isParallel()).isTrue();
+            assertThat(lines.collect(Collectors.toList())).isEqualTo(expected);
+        }
+        List<String> ordered = new ArrayList<>();
+        file.forEachLineInParallel(ordered::add, true);
+        assertThat(ordered).isEqualTo(expected);
+        LongAdder lineCount = new LongAdder();
+        file.forEachLineInParallel(line -> lineCount.increment(), false);
+        assertThat(lineCount.sum()).isEqualTo(expected.size());
+
+        //ranges end right after line feed
+        try (FileChannel channel = FileChannel.open(Paths.get(SECOND_FILE))) {
+            Spliterator<String> second = new MS_LineRangeSpliterator(channel, StandardCharsets.UTF_8, 16);
+            Spliterator<String> first = second.trySplit();
+            assertThat(first).isNotNull();
+            List<String> lines = new ArrayList<>();
+            first.forEachRemaining(lines::add);
+            second.forEachRemaining(lines::add);
+            assertThat(lines).isEqualTo(expected);
+            assertThat(second.trySplit()).isNull(); //already traversed
+            assertThat(new MS_LineRangeSpliterator(channel, StandardCharsets.UTF_16, 16).trySplit()).isNull();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package lv.emes.libraries.file_system;
 import lv.emes.libraries.storage.MS_Cache;
 import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
 import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.lists.MS_List;
 import lv.emes.libraries.tools.logging.MS_InMemoryLoggingRepository;
 import lv.emes.libraries.tools.logging.MS_MultiLogger;
@@ -19,10 +20,13 @@ import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * These tests are partly integration tests with {@link lv.emes.libraries.storage.MS_Cache} class.
@@ -35,6 +39,9 @@ public class MS_TextToFileCachingRepositoryTest {
     private static final String PROJECT_NAME = TestData.TEMP_DIR + "eMeS_Libraries/";
     private static final String REPOSITORY_ROOT = PROJECT_NAME + "MS_TextToFileCachingRepositoryTest";
     private static final String FIRST_FILE = "first_test_file.txt";
+    private static final String SECOND_FILE = "second_test_file.txt";
+    private static final String THIRD_FILE = "third_test_file.txt";
+    private static final String FOURTH_FILE = "fourth_test_file.bin";
     private static final String FIRST = "First object will stay there until it will be removed manually";
     private static final String SECOND = "Second object will become expired after 1 second";
     private static final String THIRD = "Third object ## HAS some deli#miter characters inside & used, but it should still be ok.";
@@ -102,10 +109,9 @@ public class MS_TextToFileCachingRepositoryTest {
         assertThat(cache.get(idStorage.get(2))).as("Performance issues: Second object shouldn't be expired yet").isNotNull();
         MS_CodingUtils.sleep(TTL * 2);
         assertThat(cache.get(idStorage.get(2))).as("Second object is still in cache after 2 seconds, which was its TTL. ").isNull();
-        //if this call will be fast enough we might still find object in real cache
-        assertThat(cache.getRepository().get(idStorage.get(2))).as("Performance issues: As expired object cleanup takes some time " +
-                "while new thread is created, actual repository should've been returned second object," +
-                "which still should've been there.").isNotNull();
+        //expiration service removes object from real cache as soon as its TTL expires
+        assertThat(cache.getRepository().get(idStorage.get(2))).as("Expired object should've been already removed " +
+                "from cache repository by expiration service").isNull();
 
         assertThat(cache.get(idStorage.get(1))).as("First object should stay in cache forever").isEqualTo(FIRST);
         verifyThatCurrentLogCountIs0();
@@ -161,6 +167,103 @@ public class MS_TextToFileCachingRepositoryTest {
         assertThat(fileRepository.get(idStorage.get(401)).getLeft()).as("Calling 'add' on existing ID should not do a thing").isEqualTo(THIRD_AFTER_PUT);
     }
 
+    @Test
+    public void test42BatchOperationsAndUpsert() {
+        Map<String, Pair<String, LocalDateTime>> items = new LinkedHashMap<>();
+        for (int i = 411; i <= 450; i++)
+            items.put(idStorage.get(i), Pair.of(THIRD + i, null));
+        fileRepository.putAll(items);
+        assertThat(fileRepository.findAll(items.keySet())).hasSize(40);
+        assertThat(fileRepository.findAll(Arrays.asList(idStorage.get(420), idStorage.get(499))))
+                .containsOnlyKeys(idStorage.get(420));
+
+        fileRepository.removeAll(items.keySet());
+        assertThat(fileRepository.findAll(items.keySet())).isEmpty();
+        assertThat(fileRepository.get(idStorage.get(401)).getLeft()).isEqualTo(THIRD_AFTER_PUT);
+
+        fileRepository.upsert(idStorage.get(401), (current, id) -> Pair.of(current.getLeft() + id, current.getRight()));
+        assertThat(fileRepository.get(idStorage.get(401)).getLeft()).isEqualTo(THIRD_AFTER_PUT + idStorage.get(401));
+        fileRepository.upsert(idStorage.get(401), (current, id) -> null);
+        assertThat(fileRepository.get(idStorage.get(401))).isNull();
+    }
+
+    @Test
+    public void test43MissingObjectsAreNotReadFromFile() {
+        MS_TextToFileCachingRepository repository = new MS_TextToFileCachingRepository(REPOSITORY_ROOT, SECOND_FILE, true);
+        for (int i = 1; i <= 100; i++)
+            repository.put(idStorage.get(i), Pair.of(FIRST, null));
+        assertThat(repository.get(idStorage.get(200))).isNull();
+        assertThat(repository.findAll(Arrays.asList(idStorage.get(200), idStorage.get(300)))).isEmpty();
+        assertThat(repository.get(idStorage.get(50)).getLeft()).isEqualTo(FIRST);
+
+        //object written to file bypassing repositories is not visible to lookups, which proves that file wasn't read
+        new MS_TextFile(REPOSITORY_ROOT + MS_FileSystemTools._SLASH + SECOND_FILE)
+                .appendln(idStorage.get(200) + "#null#" + SECOND, true);
+        assertThat(repository.get(idStorage.get(200))).isNull();
+        assertThat(repository.findAll()).containsKey(idStorage.get(200));
+        //while object written by another instance is
+        MS_TextToFileCachingRepository anotherInstance = new MS_TextToFileCachingRepository(REPOSITORY_ROOT, SECOND_FILE, true);
+        anotherInstance.put(idStorage.get(400), Pair.of(SECOND, null));
+        assertThat(repository.get(idStorage.get(400)).getLeft()).isEqualTo(SECOND);
+
+        repository.remove(idStorage.get(50));
+        assertThat(repository.get(idStorage.get(50))).isNull();
+        repository.upsert(idStorage.get(300), (current, id) -> Pair.of(THIRD, null));
+        assertThat(repository.get(idStorage.get(300)).getLeft()).isEqualTo(THIRD);
+        //more objects than filter was built for
+        Map<String, Pair<String, LocalDateTime>> items = new LinkedHashMap<>();
+        for (int i = 1001; i <= 3000; i++)
+            items.put(String.valueOf(i), Pair.of(SECOND, null));
+        repository.putAll(items);
+        assertThat(repository.findAll(items.keySet())).hasSize(2000);
+        repository.removeAll();
+        assertThat(repository.get(idStorage.get(1))).isNull();
+        assertThat(repository.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void test44LogStructuredStorage() throws MS_ExecutionFailureException {
+        MS_TextToFileCachingRepository repository = new MS_TextToFileCachingRepository(REPOSITORY_ROOT, THIRD_FILE,
+                new MS_TextFileRepositorySetup().withLogStructuredStorage(true));
+        MS_Cache<String, String> logCache = new MS_Cache<>(repository);
+        MS_FutureEvent.joinEvents(TTL, 10, logCache.store(FIRST, idStorage.get(1), 0L));
+        repository.put(idStorage.get(3), Pair.of(THIRD, LocalDateTime.now().plusHours(1)));
+        assertThat(logCache.retrieve(idStorage.get(1))).isEqualTo(FIRST);
+        assertThat(logCache.retrieve(idStorage.get(3))).isEqualTo(THIRD);
+        assertThat(logCache.retrieve(idStorage.get(4))).isNull();
+
+        repository.put(idStorage.get(3), Pair.of(THIRD_AFTER_PUT, null));
+        repository.remove(idStorage.get(1));
+        assertThat(repository.getGarbageRatio()).isEqualTo(3.0 / 4);
+        repository.compact();
+        assertThat(new MS_TextToFileCachingRepository(REPOSITORY_ROOT, THIRD_FILE, true).findAll())
+                .containsOnlyKeys(idStorage.get(3));
+        assertThat(repository.get(idStorage.get(3))).isEqualTo(Pair.of(THIRD_AFTER_PUT, null));
+    }
+
+    @Test
+    public void test45BinaryFormat() {
+        LocalDateTime expirationTime = LocalDateTime.of(2030, 1, 2, 3, 4, 5, 6_000_000);
+        MS_TextToFileCachingRepository textRepository = new MS_TextToFileCachingRepository(REPOSITORY_ROOT, FOURTH_FILE, true);
+        textRepository.put(idStorage.get(1), Pair.of(FIRST, null));
+        textRepository.put(idStorage.get(2), Pair.of(SECOND, expirationTime));
+
+        MS_TextFileRepositorySetup setup = new MS_TextFileRepositorySetup().withRecordFormat(MS_RecordFormatEnum.BINARY);
+        MS_TextToFileCachingRepository.convertFromTextFormat(REPOSITORY_ROOT, FOURTH_FILE, setup);
+        MS_TextToFileCachingRepository repository = new MS_TextToFileCachingRepository(REPOSITORY_ROOT, FOURTH_FILE, setup);
+        assertThat(repository.get(idStorage.get(1))).isEqualTo(Pair.of(FIRST, null));
+        assertThat(repository.get(idStorage.get(2))).isEqualTo(Pair.of(SECOND, expirationTime));
+        assertThat(repository.get(idStorage.get(3))).isNull();
+
+        MS_Cache<String, String> binaryCache = new MS_Cache<>(repository);
+        assertThat(binaryCache.retrieve(idStorage.get(2))).isEqualTo(SECOND);
+        repository.put(idStorage.get(3), Pair.of(THIRD, LocalDateTime.now().minusSeconds(1)));
+        assertThat(binaryCache.retrieve(idStorage.get(3))).isNull();
+        assertThat(repository.findAll()).containsKeys(idStorage.get(1), idStorage.get(2));
+        assertThatThrownBy(() -> MS_TextToFileCachingRepository.convertFromTextFormat(REPOSITORY_ROOT, FOURTH_FILE,
+                new MS_TextFileRepositorySetup())).isInstanceOf(MS_BadSetupException.class);
+    }
+
     @Test(expected = MS_RepositoryDataExchangeException.class)
     public void test999repositoryDataExceptionWhenFileCorrupted() {
         MS_TextFile fileCorrupter = new MS_TextFile(REPOSITORY_ROOT + MS_FileSystemTools._SLASH + FIRST_FILE);
@@ -0,0 +1,335 @@
+package lv.emes.libraries.file_system;
+
+import lv.emes.libraries.storage.MS_RepositoryDataExchangeException;
+import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.utilities.MS_CodingUtils;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_TextToFileRepositoryTest {
+
+    private static final String PROJECT_NAME = TestData.TEMP_DIR + "eMeS_Libraries/";
+    private static final String REPOSITORY_ROOT = PROJECT_NAME + "MS_TextToFileRepositoryTest";
+    private static final String TEXT = "Text with ® delimiter ` and # other special characters";
+
+    @AfterClass
+    public static void finalizeTestConditions() {
+        assertThat(MS_FileSystemTools.deleteDirectory(PROJECT_NAME)).as("Cleanup failed because folder cannot be deleted ATM").isTrue();
+    }
+
+    @Test
+    public void testLogStructuredStorageOpensExistingFile() {
+        MS_TextToFileRepository ordinary = new MS_TextToFileRepository(REPOSITORY_ROOT, "migrated.txt", true);
+        ordinary.put("1", TEXT);
+        ordinary.put("2", "Second");
+
+        MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, "migrated.txt",
+                new MS_TextFileRepositorySetup().withLogStructuredStorage(true));
+        assertThat(repository.find("1")).isEqualTo(TEXT);
+        assertThat(repository.size()).isEqualTo(2);
+        assertThat(repository.put("2", "Replaced")).isEqualTo("Second");
+        repository.add("2", "Ignored");
+        repository.add("3", "Third");
+        repository.remove("1");
+        repository.remove("No such item");
+        assertThat(repository.findAll()).containsExactly(entry("2", "Replaced"), entry("3", "Third"));
+        assertThat(repository.getGarbageRatio()).isEqualTo(3.0 / 5);
+        //unchanged item isn't appended again
+        assertThat(repository.upsert("2", (current, id) -> current)).isEqualTo("Replaced");
+        assertThat(repository.getGarbageRatio()).isEqualTo(3.0 / 5);
+
+        //lines keep format, so after compaction ordinary repository reads file again
+        repository.compact();
+        assertThat(repository.getGarbageRatio()).isEqualTo(0);
+        assertThat(new MS_TextToFileRepository(REPOSITORY_ROOT, "migrated.txt", true).findAll())
+                .containsOnly(entry("2", "Replaced"), entry("3", "Third"));
+        assertThatThrownBy(ordinary::compact).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void testLogIsRestoredAfterReopening() throws IOException {
+        MS_TextFileRepositorySetup setup = new MS_TextFileRepositorySetup().withLogStructuredStorage(true);
+        MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, "reopened.txt", setup);
+        Map<String, String> items = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++)
+            items.put(String.valueOf(i), TEXT + i);
+        repository.putAll(items);
+        repository.removeAll(Arrays.asList("0", "1"));
+        repository.upsert("2", (current, id) -> current + " updated");
+        repository.upsert("3", (current, id) -> null);
+        repository.batchAdd("4", "Not added");
+        repository.batchAdd("10", "Added");
+        repository.commitAddition(false);
+        //interrupted write leaves incomplete line at the end of file
+        Files.write(Paths.get(REPOSITORY_ROOT, "reopened.txt"), "11®Incomplete".getBytes(), StandardOpenOption.APPEND);
+
+        MS_TextToFileRepository reopened = new MS_TextToFileRepository(REPOSITORY_ROOT, "reopened.txt", setup);
+        assertThat(reopened.size()).isEqualTo(8);
+        assertThat(reopened.find("0")).isNull();
+        assertThat(reopened.find("2")).isEqualTo(TEXT + "2 updated");
+        assertThat(reopened.find("3")).isNull();
+        assertThat(reopened.find("4")).isEqualTo(TEXT + "4");
+        assertThat(reopened.find("10")).isEqualTo("Added");
+        assertThat(reopened.find("11")).isNull();
+        assertThat(reopened.findAll(Arrays.asList("5", "6", "11"))).containsOnlyKeys("5", "6");
+
+        reopened.removeAll();
+        assertThat(reopened.size()).isEqualTo(0);
+        assertThat(new MS_TextToFileRepository(REPOSITORY_ROOT, "reopened.txt", setup).findAll()).isEmpty();
+    }
+
+    @Test
+    public void testBackgroundCompaction() {
+        MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, "compacted.txt",
+                new MS_TextFileRepositorySetup()
+                        .withLogStructuredStorage(true)
+                        .withCompactionThreshold(0.5)
+                        .withMinimumCompactionGarbage(100));
+        for (int round = 0; round < 20; round++)
+            for (int i = 0; i < 50; i++)
+                repository.put(String.valueOf(i), TEXT + round);
+        //without compaction 950 of 1000 records would be garbage; after it less than minimum garbage of 100 remains
+        double maxRatioAfterCompaction = 100.0 / (100 + 50);
+        for (int i = 0; i < 50 && repository.getGarbageRatio() >= maxRatioAfterCompaction; i++)
+            MS_CodingUtils.sleep(20);
+        assertThat(repository.getGarbageRatio()).isLessThan(maxRatioAfterCompaction);
+        assertThat(repository.size()).isEqualTo(50);
+        for (int i = 0; i < 50; i++)
+            assertThat(repository.find(String.valueOf(i))).isEqualTo(TEXT + 19);
+        assertThatThrownBy(() -> new MS_TextFileRepositorySetup().withCompactionThreshold(1))
+                .isInstanceOf(MS_BadSetupException.class);
+    }
+
+    @Test
+    public void testInstancesSharingFileDoNotLoseModifications() throws Exception {
+        MS_TextToFileRepository first = new MS_TextToFileRepository(REPOSITORY_ROOT, "shared.txt", true);
+        MS_TextToFileRepository second = new MS_TextToFileRepository(REPOSITORY_ROOT, "shared.txt", true);
+        //filter of first instance is built before second one modifies file
+        assertThat(first.find("0-0")).isNull();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            MS_TextToFileRepository repository = thread % 2 == 0 ? first : second;
+            String prefix = thread + "-";
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    repository.put(prefix + i, TEXT);
+                    assertThat(repository.find(prefix + i)).isEqualTo(TEXT);
+                }
+            }));
+        }
+        for (Future<?> writer : writers)
+            writer.get();
+        executor.shutdown();
+
+        assertThat(first.size()).isEqualTo(160);
+        assertThat(first.find("1-19")).isEqualTo(TEXT);
+        assertThat(second.find("0-19")).isEqualTo(TEXT);
+        assertThat(MS_FileSystemTools.fileExists(REPOSITORY_ROOT + "/shared.txt.lock")).isTrue();
+    }
+
+    @Test
+    public void testDefiniteMissDoesNotLockFile() throws IOException {
+        MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, "filtered.txt", true);
+        repository.put("1", TEXT);
+        assertThat(repository.find("1")).isEqualTo(TEXT);
+        Files.delete(Paths.get(REPOSITORY_ROOT + "/filtered.txt.lock"));
+
+        assertThat(repository.find("2")).isNull();
+        assertThat(repository.findAll(Arrays.asList("2", "3"))).isEmpty();
+        assertThat(MS_FileSystemTools.fileExists(REPOSITORY_ROOT + "/filtered.txt.lock")).isFalse();
+        assertThat(repository.find("1")).isEqualTo(TEXT);
+        assertThat(MS_FileSystemTools.fileExists(REPOSITORY_ROOT + "/filtered.txt.lock")).isTrue();
+    }
+
+    @Test
+    public void testLogInstancesSharingFileDoNotLoseModifications() throws Exception {
+        MS_TextFileRepositorySetup setup = new MS_TextFileRepositorySetup().withLogStructuredStorage(true);
+        MS_TextToFileRepository first = new MS_TextToFileRepository(REPOSITORY_ROOT, "sharedLog.txt", setup);
+        MS_TextToFileRepository second = new MS_TextToFileRepository(REPOSITORY_ROOT, "sharedLog.txt", setup);
+        first.put("a", "First");
+        second.put("b", "Second");
+        assertThat(first.find("b")).isEqualTo("Second");
+        first.put("b", "Replaced");
+        first.compact();
+        //second instance reopens file replaced by compaction
+        assertThat(second.put("b", "Replaced again")).isEqualTo("Replaced");
+        second.remove("a");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            MS_TextToFileRepository repository = thread % 2 == 0 ? first : second;
+            String prefix = thread + "-";
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < 20; i++)
+                    repository.put(prefix + i, TEXT);
+            }));
+        }
+        for (Future<?> writer : writers)
+            writer.get();
+        executor.shutdown();
+
+        MS_TextToFileRepository reopened = new MS_TextToFileRepository(REPOSITORY_ROOT, "sharedLog.txt", setup);
+        assertThat(reopened.size()).isEqualTo(81);
+        assertThat(reopened.find("a")).isNull();
+        assertThat(reopened.find("b")).isEqualTo("Replaced again");
+        assertThat(first.find("3-19")).isEqualTo(TEXT);
+        assertThat(second.size()).isEqualTo(81);
+    }
+
+    @Test
+    public void testIterationReadsFileLineByLine() {
+        MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, "iterated.txt", true);
+        Map<String, String> items = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++)
+            items.put(String.valueOf(i), TEXT + i);
+        repository.putAll(items);
+
+        try (Stream<Map.Entry<String, String>> stream = repository.stream()) {
+            Iterator<Map.Entry<String, String>> iter = stream.iterator();
+            assertThat(iter.next()).isEqualTo(entry("0", TEXT + 0));
+            //file isn't locked while iterating, and iteration goes on through content it started with
+            repository.remove("5");
+            repository.put("10", TEXT);
+            List<String> identifiers = new ArrayList<>();
+            iter.forEachRemaining(item -> identifiers.add(item.getKey()));
+            assertThat(identifiers).containsExactly("1", "2", "3", "4", "5", "6", "7", "8", "9");
+        }
+        assertThat(repository.findPageAfter("8", 3)).containsExactly(entry("9", TEXT + 9), entry("10", TEXT));
+
+        MS_TextToFileRepository log = new MS_TextToFileRepository(REPOSITORY_ROOT, "iterated.txt",
+                new MS_TextFileRepositorySetup().withLogStructuredStorage(true));
+        log.put("1", "Replaced");
+        log.remove("2");
+        try (Stream<Map.Entry<String, String>> stream = log.stream()) {
+            assertThat(stream.map(Map.Entry::getKey)).containsExactly("0", "3", "4", "6", "7", "8", "9", "10", "1");
+        }
+        try (Stream<Map.Entry<String, String>> stream = log.stream()) {
+            Iterator<Map.Entry<String, String>> iter = stream.iterator();
+            assertThat(iter.next()).isEqualTo(entry("0", TEXT + 0));
+            //log isn't locked while iterating, and iteration goes on through records, which were live when it started
+            log.remove("3");
+            log.put("11", TEXT);
+            log.compact();
+            List<String> identifiers = new ArrayList<>();
+            iter.forEachRemaining(item -> identifiers.add(item.getKey()));
+            assertThat(identifiers).containsExactly("3", "4", "6", "7", "8", "9", "10", "1");
+        }
+        assertThat(log.findPageAfter("10", 5)).containsExactly(entry("1", "Replaced"), entry("11", TEXT));
+    }
+
+    @Test
+    public void testBinaryFormat() throws IOException {
+        MS_TextToFileRepository textRepository = new MS_TextToFileRepository(REPOSITORY_ROOT, "binary.txt", true);
+        textRepository.put("1", TEXT);
+        textRepository.put("2", "Second");
+
+        MS_TextFileRepositorySetup setup = new MS_TextFileRepositorySetup().withRecordFormat(MS_RecordFormatEnum.BINARY);
+        MS_TextToFileRepository.convertFromTextFormat(REPOSITORY_ROOT, "binary.txt", setup);
+        MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, "binary.txt", setup);
+        assertThat(repository.findAll()).containsExactly(entry("1", TEXT), entry("2", "Second"));
+        //delimiters and line breaks don't need any escaping
+        repository.put("3", "Multiple\nlines ® with # delimiters");
+        assertThat(repository.find("3")).isEqualTo("Multiple\nlines ® with # delimiters");
+        assertThat(repository.find("4")).isNull();
+        assertThat(repository.size()).isEqualTo(3);
+        repository.remove("1");
+        assertThat(new MS_TextToFileRepository(REPOSITORY_ROOT, "binary.txt", setup).findAll()).containsOnlyKeys("2", "3");
+
+        //damaged record is detected by its checksum
+        byte[] content = Files.readAllBytes(Paths.get(REPOSITORY_ROOT, "binary.txt"));
+        content[content.length - 5]++;
+        Files.write(Paths.get(REPOSITORY_ROOT, "binary.txt"), content);
+        assertThatThrownBy(repository::findAll).isInstanceOf(MS_RepositoryDataExchangeException.class);
+        repository.removeAll();
+        assertThat(repository.size()).isEqualTo(0);
+
+        assertThatThrownBy(() -> new MS_TextToFileRepository(REPOSITORY_ROOT, "binary.txt",
+                new MS_TextFileRepositorySetup().withRecordFormat(MS_RecordFormatEnum.BINARY).withLogStructuredStorage(true)))
+                .isInstanceOf(MS_BadSetupException.class);
+    }
+
+    @Test
+    public void testBinaryFormatWithValueCodec() throws IOException {
+        MS_IRecordValueCodec reversingCodec = new MS_IRecordValueCodec() {
+            @Override
+            public byte[] encode(String value) {
+                return MS_IRecordValueCodec._UTF_8.encode(new StringBuilder(value).reverse().toString());
+            }
+
+            @Override
+            public String decode(byte[] bytes, int offset, int length) {
+                return new StringBuilder(MS_IRecordValueCodec._UTF_8.decode(bytes, offset, length)).reverse().toString();
+            }
+        };
+        MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, "codec.bin",
+                new MS_TextFileRepositorySetup().withRecordFormat(MS_RecordFormatEnum.BINARY).withValueCodec(reversingCodec));
+        repository.put("1", "Encoded text");
+        assertThat(repository.find("1")).isEqualTo("Encoded text");
+        String fileContent = new String(Files.readAllBytes(Paths.get(REPOSITORY_ROOT, "codec.bin")), StandardCharsets.UTF_8);
+        assertThat(fileContent).contains("txet dedocnE").doesNotContain("Encoded text");
+    }
+
+    @Test
+    public void testGroupCommitOfConcurrentBatchAdditions() throws Exception {
+        for (MS_TextFileRepositorySetup setup : Arrays.asList(
+                new MS_TextFileRepositorySetup().withSyncPolicy(MS_FileSyncPolicyEnum.ALWAYS).withGroupCommitWindow(20),
+                new MS_TextFileRepositorySetup().withSyncPolicy(MS_FileSyncPolicyEnum.BATCHED).withLogStructuredStorage(true))) {
+            String fileName = "grouped" + setup.getSyncPolicy() + ".txt";
+            MS_TextToFileRepository repository = new MS_TextToFileRepository(REPOSITORY_ROOT, fileName, setup);
+            repository.put("0-0", "Not replaced");
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> committers = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                String prefix = thread + "-";
+                committers.add(executor.submit(() -> {
+                    for (int batch = 0; batch < 5; batch++) {
+                        for (int i = 0; i < 10; i++)
+                            repository.batchAdd(prefix + (batch * 10 + i), TEXT);
+                        repository.commitAddition(false);
+                    }
+                }));
+            }
+            for (Future<?> committer : committers)
+                committer.get();
+            executor.shutdown();
+
+            MS_TextToFileRepository reopened = new MS_TextToFileRepository(REPOSITORY_ROOT, fileName, setup);
+            assertThat(reopened.size()).isEqualTo(400);
+            assertThat(reopened.find("0-0")).isEqualTo("Not replaced");
+            assertThat(reopened.find("7-49")).isEqualTo(TEXT);
+            assertThat(MS_FileSystemTools.fileExists(REPOSITORY_ROOT + "/" + fileName + ".tmp")).isFalse();
+        }
+        assertThatThrownBy(() -> new MS_TextFileRepositorySetup().withGroupCommitWindow(-1))
+                .isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> new MS_TextFileRepositorySetup().withSyncPolicy(null))
+                .isInstanceOf(MS_BadSetupException.class);
+    }
+
+    private static Map.Entry<String, String> entry(String key, String value) {
+        return new AbstractMap.SimpleEntry<>(key, value);
+    }
+}
@@ -0,0 +1,115 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_AsyncRepositoryTest {
+
+    @Test
+    public void testOperations() {
+        MS_AsyncRepository<Pair<String, LocalDateTime>, Integer> repository =
+                new MS_AsyncRepository<>(new MS_InMemoryCachingRepository<>());
+        assertThat(repository.put(1, Pair.of("First", null)).join()).isNull();
+        repository.add(2, Pair.of("Second", null)).join();
+        assertThat(repository.put(1, Pair.of("Replaced", null)).join()).isEqualTo(Pair.of("First", null));
+        assertThat(repository.find(1).join().getLeft()).isEqualTo("Replaced");
+
+        Map<Integer, Pair<String, LocalDateTime>> items = new LinkedHashMap<>();
+        items.put(3, Pair.of("Third", null));
+        items.put(4, Pair.of("Fourth", null));
+        repository.putAll(items).join();
+        assertThat(repository.findAll(Arrays.asList(3, 4, 5)).join()).containsOnlyKeys(3, 4);
+        repository.removeAll(Arrays.asList(1, 3)).join();
+        repository.remove(2).join();
+        assertThat(repository.findAll().join()).containsOnlyKeys(4);
+        repository.removeAll().join();
+        assertThat(repository.getRepository().findAll()).isEmpty();
+        assertThat(repository.getPendingOperationCount()).isEqualTo(0);
+        repository.shutdown();
+    }
+
+    @Test
+    public void testOperationsWithSameIdentifierAreNotReordered() {
+        MS_AsyncRepository<Pair<String, LocalDateTime>, Integer> repository = new MS_AsyncRepository<>(
+                new MS_InMemoryCachingRepository<>(), new MS_AsyncRepositorySetup().withThreadCount(8));
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String part = String.valueOf(i);
+            futures.add(repository.upsert(i % 2, (current, id) ->
+                    Pair.of((current == null ? "" : current.getLeft()) + part + ';', null)));
+            //batch operation, which must wait for operations of both identifiers
+            if (i % 50 == 0)
+                futures.add(repository.findAll(Arrays.asList(0, 1)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        StringBuilder even = new StringBuilder();
+        StringBuilder odd = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            (i % 2 == 0 ? even : odd).append(i).append(';');
+        assertThat(repository.find(0).join().getLeft()).isEqualTo(even.toString());
+        assertThat(repository.find(1).join().getLeft()).isEqualTo(odd.toString());
+        repository.shutdown();
+    }
+
+    @Test
+    public void testFailuresDontBreakOrdering() {
+        MS_AsyncRepository<Pair<String, LocalDateTime>, Integer> repository =
+                new MS_AsyncRepository<>(new MS_InMemoryCachingRepository<>());
+        CompletableFuture<Pair<String, LocalDateTime>> failed = repository.upsert(1, (current, id) -> {
+            throw new MS_RepositoryDataExchangeException("Failure");
+        });
+        CompletableFuture<Pair<String, LocalDateTime>> next = repository.put(1, Pair.of("Next", null));
+        assertThatThrownBy(failed::join).isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(MS_RepositoryDataExchangeException.class);
+        assertThat(next.join()).isNull();
+        assertThat(repository.find(1).join().getLeft()).isEqualTo("Next");
+        repository.shutdown();
+    }
+
+    @Test
+    public void testBackpressure() {
+        assertThatThrownBy(() -> new MS_AsyncRepositorySetup().withMaximumPendingOperations(0))
+                .isInstanceOf(MS_BadSetupException.class);
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        MS_AsyncRepository<Pair<String, LocalDateTime>, Integer> repository = new MS_AsyncRepository<>(
+                new MS_InMemoryCachingRepository<>(), new MS_AsyncRepositorySetup()
+                .withExecutor(Executors.newCachedThreadPool())
+                .withMaximumPendingOperations(2)
+                .withBackpressurePolicy(MS_BackpressurePolicyEnum.FAIL));
+        IFuncUpsertOperation<Pair<String, LocalDateTime>, Integer> blockingOperation = (current, id) -> {
+            try {
+                blocker.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            return Pair.of("Value", null);
+        };
+        CompletableFuture<?> first = repository.upsert(1, blockingOperation);
+        CompletableFuture<?> second = repository.upsert(2, blockingOperation);
+        assertThat(repository.getPendingOperationCount()).isEqualTo(2);
+        assertThatThrownBy(() -> repository.find(3).join()).hasCauseInstanceOf(RejectedExecutionException.class);
+
+        blocker.countDown();
+        CompletableFuture.allOf(first, second).join();
+        assertThat(repository.find(3).join()).isNull();
+        assertThat(repository.getPendingOperationCount()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,61 @@
+package lv.emes.libraries.storage;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MS_CacheEntryTest {
+
+    @Test
+    public void testExpiration() {
+        MS_CacheEntry<String> entry = MS_CacheEntry.of("Text", 1, TimeUnit.MINUTES);
+        long now = MS_CacheEntry.now();
+        assertThat(entry.isEternal()).isFalse();
+        assertThat(entry.isExpired(now)).isFalse();
+        assertThat(entry.isExpired(now + TimeUnit.MINUTES.toNanos(1) + 1)).isTrue();
+        assertThat(entry.remainingNanos()).isBetween(TimeUnit.SECONDS.toNanos(50), TimeUnit.MINUTES.toNanos(1));
+
+        assertThat(MS_CacheEntry.of("Text", 0, TimeUnit.SECONDS).isExpired()).isTrue();
+        MS_CacheEntry<String> eternal = MS_CacheEntry.eternal("Text");
+        assertThat(eternal.isExpired(Long.MAX_VALUE)).isFalse();
+        assertThat(eternal.isExpired(Long.MIN_VALUE)).isFalse();
+        assertThat(eternal.remainingNanos()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testConversionFromAndToPair() {
+        assertThat(MS_CacheEntry.fromPair(null)).isNull();
+        assertThat(MS_CacheEntry.fromPair(Pair.of("Text", null))).isEqualTo(MS_CacheEntry.eternal("Text"));
+        assertThat(MS_CacheEntry.eternal("Text").toPair()).isEqualTo(Pair.of("Text", null));
+
+        LocalDateTime expirationTime = LocalDateTime.now().plusHours(1);
+        Pair<String, LocalDateTime> pair = MS_CacheEntry.fromPair(Pair.of("Text", expirationTime)).toPair();
+        assertThat(pair.getLeft()).isEqualTo("Text");
+        assertThat(ChronoUnit.MILLIS.between(expirationTime, pair.getRight())).isBetween(-1000L, 1000L);
+
+        assertThat(MS_CacheEntry.fromPair(Pair.of("Text", LocalDateTime.now().minusSeconds(1))).isExpired()).isTrue();
+        //too distant dates don't overflow monotonic clock
+        assertThat(MS_CacheEntry.fromPair(Pair.of("Text", LocalDateTime.now().plusYears(1000))).isExpired()).isFalse();
+        assertThat(MS_CacheEntry.fromPair(Pair.of("Text", LocalDateTime.now().minusYears(1000))).isExpired()).isTrue();
+    }
+
+    @Test
+    public void testRepositoryStoresEntries() {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>();
+        MS_CacheEntry<String> entry = MS_CacheEntry.of("Text", 1, TimeUnit.MINUTES);
+        assertThat(repository.putEntry(1, entry)).isNull();
+        assertThat(repository.findEntry(1)).isSameAs(entry);
+        assertThat(repository.get(1).getLeft()).isEqualTo("Text");
+        assertThat(repository.get(1).getRight()).isAfter(LocalDateTime.now());
+
+        repository.put(2, Pair.of("Eternal", null));
+        assertThat(repository.findEntry(2)).isEqualTo(MS_CacheEntry.eternal("Eternal"));
+        assertThat(repository.putEntry(2, MS_CacheEntry.eternal("Replaced"))).isEqualTo(MS_CacheEntry.eternal("Eternal"));
+        assertThat(repository.findEntry(3)).isNull();
+    }
+}
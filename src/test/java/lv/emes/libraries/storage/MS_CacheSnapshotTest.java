@@ -0,0 +1,108 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.communication.MS_DTOMappingAlgorithm;
+import lv.emes.libraries.communication.MS_StringBytesDTOAlgorithm;
+import lv.emes.libraries.file_system.MS_FileSystemTools;
+import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_CacheSnapshotTest {
+
+    private static final String SNAPSHOT_PATH = TestData.TEMP_DIR + "MS_CacheSnapshotTest/cache.snapshot";
+
+    @After
+    public void tearDown() {
+        MS_FileSystemTools.deleteDirectory(TestData.TEMP_DIR + "MS_CacheSnapshotTest");
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>();
+        for (int i = 0; i < 100; i++)
+            repository.putEntry(i, MS_CacheEntry.of("Object " + i, 1, TimeUnit.HOURS));
+        repository.putEntry(100, MS_CacheEntry.eternal("Eternal ĀČĒ"));
+        repository.put(101, Pair.of("Expired", LocalDateTime.now().minusSeconds(1)));
+        assertThat(newSnapshot(new MS_Cache<>(repository)).save()).isEqualTo(101);
+
+        MS_Cache<String, Integer> restartedCache = new MS_Cache<>(new MS_InMemoryCachingRepository<>());
+        restartedCache.getRepository().putEntry(5, MS_CacheEntry.eternal("Fresher object"));
+        assertThat(newSnapshot(restartedCache).load()).isEqualTo(100);
+
+        assertThat(restartedCache.getRepository().size()).isEqualTo(101);
+        assertThat(restartedCache.get(1)).isEqualTo("Object 1");
+        assertThat(restartedCache.get(5)).isEqualTo("Fresher object");
+        assertThat(restartedCache.get(100)).isEqualTo("Eternal ĀČĒ");
+        assertThat(restartedCache.get(101)).isNull();
+        MS_CacheEntry<String> restored = restartedCache.getRepository().findEntry(99);
+        assertThat(restored.isEternal()).isFalse();
+        assertThat(restored.remainingNanos()).isBetween(TimeUnit.MINUTES.toNanos(59), TimeUnit.HOURS.toNanos(1));
+        assertThat(restartedCache.getRepository().findEntry(100).isEternal()).isTrue();
+    }
+
+    @Test
+    public void testCorruptedSnapshotIsSkipped() throws Exception {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>();
+        repository.putEntry(1, MS_CacheEntry.eternal("Object"));
+        MS_CacheSnapshot<String, Integer> snapshot = newSnapshot(new MS_Cache<>(repository));
+        snapshot.save();
+
+        Path path = snapshot.getPath();
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(path, bytes);
+        MS_Cache<String, Integer> restartedCache = new MS_Cache<>(new MS_InMemoryCachingRepository<>());
+        assertThat(newSnapshot(restartedCache).load()).isEqualTo(0);
+        assertThat(restartedCache.getRepository().size()).isEqualTo(0);
+
+        Files.write(path, new byte[]{1, 2, 3});
+        assertThat(newSnapshot(restartedCache).load()).isEqualTo(0);
+        Files.delete(path);
+        assertThat(newSnapshot(restartedCache).load()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPeriodicSaving() throws Exception {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>();
+        repository.putEntry(1, MS_CacheEntry.eternal("Object"));
+        MS_CacheSnapshot<String, Integer> snapshot = newSnapshot(new MS_Cache<>(repository));
+        assertThatThrownBy(() -> snapshot.schedulePeriodicSaving(0, TimeUnit.SECONDS)).isInstanceOf(MS_BadSetupException.class);
+
+        snapshot.schedulePeriodicSaving(50, TimeUnit.MILLISECONDS);
+        Thread.sleep(300);
+        snapshot.stopPeriodicSaving();
+        assertThat(Files.exists(snapshot.getPath())).isTrue();
+        Thread.sleep(100); //let saving, which possibly was running while stopping, finish
+        Files.delete(snapshot.getPath());
+        Thread.sleep(200);
+        assertThat(Files.exists(snapshot.getPath())).isFalse();
+    }
+
+    private MS_CacheSnapshot<String, Integer> newSnapshot(MS_Cache<String, Integer> cache) {
+        return new MS_CacheSnapshot<>(cache, SNAPSHOT_PATH, new MS_StringBytesDTOAlgorithm(), new IntegerBytesAlgorithm());
+    }
+
+    private static class IntegerBytesAlgorithm extends MS_DTOMappingAlgorithm<Integer, byte[]> {
+
+        @Override
+        public byte[] serialize(Integer objectToSerialize) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(objectToSerialize).array();
+        }
+
+        @Override
+        public Integer deserialize(byte[] serializedObject) {
+            return ByteBuffer.wrap(serializedObject).getInt();
+        }
+    }
+}
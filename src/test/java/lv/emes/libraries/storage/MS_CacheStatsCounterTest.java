@@ -0,0 +1,102 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.tools.threading.MS_FutureEvent;
+import lv.emes.libraries.utilities.MS_ExecutionFailureException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MS_CacheStatsCounterTest {
+
+    @Test
+    public void testHitsMissesAndReplacements() throws MS_ExecutionFailureException {
+        MS_Cache<String, Integer> cache = new MS_Cache<>(new MS_InMemoryCachingRepository<>());
+        MS_FutureEvent.joinEvents(10, 100, cache.store("First", 1));
+        MS_FutureEvent.joinEvents(10, 100, cache.store("Replaced", 1));
+        assertThat(cache.retrieve(1)).isEqualTo("Replaced");
+        assertThat(cache.retrieve(2)).isNull();
+        assertThat(cache.retrieve(3)).isNull();
+
+        MS_CacheStats stats = cache.getStats();
+        assertThat(stats.getHitCount()).isEqualTo(1);
+        assertThat(stats.getMissCount()).isEqualTo(2);
+        assertThat(stats.getHitRate()).isEqualTo(1.0 / 3);
+        assertThat(stats.getEvictionCount(MS_CacheEvictionCauseEnum.REPLACED)).isEqualTo(1);
+        assertThat(stats.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testExpiredOnRead() {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>();
+        repository.put(1, Pair.of("Expired", LocalDateTime.now().minusSeconds(1)));
+        MS_Cache<String, Integer> cache = new MS_Cache<>(repository);
+        assertThat(cache.retrieve(1)).isNull();
+        assertThat(cache.getStats().getExpiredOnReadCount()).isEqualTo(1);
+        assertThat(cache.getStats().getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSizeEvictions() {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>(
+                MS_InMemoryCachingRepository._DEFAULT_REPOSITORY_ROOT_NAME, MS_InMemoryCachingRepository._DEFAULT_CACHE_NAME,
+                new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(10).withConcurrencyLevel(1));
+        for (int i = 0; i < 25; i++)
+            repository.put(i, Pair.of("Item" + i, null));
+        assertThat(repository.getStats().getEvictionCount(MS_CacheEvictionCauseEnum.SIZE)).isEqualTo(15);
+    }
+
+    @Test
+    public void testLoadLatencyHistogramAndDifference() {
+        MS_CacheStatsCounter counter = new MS_CacheStatsCounter();
+        counter.recordLoadSuccess(1000);
+        MS_CacheStats before = counter.snapshot();
+        counter.recordLoadSuccess(1000);
+        counter.recordLoadSuccess(1_000_000);
+        counter.recordLoadFailure(1_000_000);
+
+        MS_CacheStats stats = counter.snapshot();
+        assertThat(stats.getLoadCount()).isEqualTo(4);
+        assertThat(stats.getLoadFailureCount()).isEqualTo(1);
+        assertThat(stats.getTotalLoadTimeNanos()).isEqualTo(2_002_000);
+        assertThat(stats.getLoadLatencyPercentileNanos(50)).isEqualTo(1023);
+        assertThat(stats.getLoadLatencyPercentileNanos(99)).isEqualTo((1 << 20) - 1);
+
+        MS_CacheStats period = stats.minus(before);
+        assertThat(period.getLoadCount()).isEqualTo(3);
+        assertThat(period.getAverageLoadPenaltyNanos()).isEqualTo(2_001_000 / 3.0);
+    }
+
+    @Test
+    public void testMBeanRegistration() throws Exception {
+        MS_CacheStatsCounter counter = new MS_CacheStatsCounter();
+        counter.recordHits(5);
+        counter.recordEviction(MS_CacheEvictionCauseEnum.EXPIRED);
+        ObjectName name = counter.registerMBean("Test cache");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertThat(server.getAttribute(name, "HitCount")).isEqualTo(5L);
+            assertThat(server.getAttribute(name, "EvictionCount")).isEqualTo(1L);
+        } finally {
+            counter.unregisterMBean();
+        }
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name)).isFalse();
+    }
+
+    @Test(expected = MS_BadSetupException.class)
+    public void testMBeanCannotBeRegisteredTwice() {
+        MS_CacheStatsCounter counter = new MS_CacheStatsCounter();
+        counter.registerMBean("Twice registered cache");
+        try {
+            counter.registerMBean("Twice registered cache");
+        } finally {
+            counter.unregisterMBean();
+        }
+    }
+}
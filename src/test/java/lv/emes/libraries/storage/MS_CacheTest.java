@@ -1,5 +1,6 @@
 package lv.emes.libraries.storage;
 
+import lv.emes.libraries.tools.MS_BadSetupException;
 import lv.emes.libraries.tools.lists.MS_List;
 import lv.emes.libraries.tools.logging.MS_InMemoryLoggingRepository;
 import lv.emes.libraries.tools.logging.MS_MultiLogger;
@@ -13,9 +14,12 @@ import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
+import org.threeten.bp.ZonedDateTime;
 
 import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -30,6 +34,10 @@ public class MS_CacheTest {
 
     public static final String FIRST = "First object will stay there until it will be removed manually";
     public static final String SECOND = "Second object will become expired after 1 second";
+    //operations and logging share thread pools with other caches, so under load they can wait in queue for a while
+    private static final long JOIN_INTERVAL = 10;
+    private static final int JOIN_ITERATIONS = 500;
+    private static final long LOGGING_TIMEOUT_MILLIS = 5000;
 
     private static MS_Cache<String, Integer> cache;
     private static MS_MultiLogger logger;
@@ -48,6 +56,8 @@ public class MS_CacheTest {
         cache = new MS_Cache<>(inMemoryRepository);
         cache.setDefaultTTL(1);
         cache.setLogger(logger);
+        //first logged event loads time zone rules, which takes longer than operation joining timeouts of these tests
+        ZonedDateTime.now();
     }
 
     @Test
@@ -88,11 +98,6 @@ public class MS_CacheTest {
         assertThat(cache.get(lastId)).as("Performance issues: Second object shouldn't be expired yet").isNotNull();
         MS_CodingUtils.sleep(1000);
         assertThat(cache.get(lastId)).as("Second object is still in cache after 1 second, which was its TTL. ").isNull();
-        //if this call will be fast enough we might still find object in real cache
-        assertThat(cache.getRepository().get(lastId)).as("Performance issues: As expired object cleanup takes some time " +
-                "while new thread is created, actual repository should've been returned second object," +
-                "which still should've been there.").isNotNull();
-
         assertThat(cache.get(lastId - 1)).as("First object should stay in cache forever").isEqualTo(FIRST);
         verifyCurrentLogCount(0);
 
@@ -103,7 +108,18 @@ public class MS_CacheTest {
     }
 
     @Test
-    public void test14ClearingBunchOfObjectsHappensInSameThread() throws MS_ExecutionFailureException {
+    public void test14ExpiredObjectIsRemovedWithoutRetrieval() throws MS_ExecutionFailureException {
+        operThread = cache.cache(SECOND, ++lastId);
+        MS_FutureEvent.joinEvents(5, 20, operThread);
+        assertThat(cache.getRepository().get(lastId)).isNotNull();
+        MS_CodingUtils.sleep(1200);
+        assertThat(cache.getRepository().get(lastId)).as("Expired object should've been removed from cache repository " +
+                "by expiration service even though nobody tried to retrieve it").isNull();
+        verifyCurrentLogCount(0);
+    }
+
+    @Test
+    public void test15ClearingBunchOfObjectsHappensInSameThread() throws MS_ExecutionFailureException {
         assertThat(cache.getRepository().size()).isEqualTo(1); //first element is still there
         MS_List<MS_FutureEvent> cachingThreads = new MS_List<>();
         operThread = cache.cache(RandomStringUtils.randomAlphabetic(10), ++lastId);
@@ -133,15 +149,14 @@ public class MS_CacheTest {
         verifyCurrentLogCount(0);
 
         operThread = cacheForUnsupportedActions.store(FIRST, 1);
-        MS_FutureEvent.joinEvents(6, 20, operThread);
+        MS_FutureEvent.joinEvents(JOIN_INTERVAL, JOIN_ITERATIONS, operThread);
         verifyCurrentLogCount(1);
 
         cacheForUnsupportedActions.retrieve(1);
-        MS_CodingUtils.sleep(60);
         verifyCurrentLogCount(2);
 
         operThread = cacheForUnsupportedActions.clear();
-        MS_FutureEvent.joinEvents(5, 20, operThread);
+        MS_FutureEvent.joinEvents(JOIN_INTERVAL, JOIN_ITERATIONS, operThread);
         verifyCurrentLogCount(3);
         logs.getEventList().clear(); //restart logger, because in next steps we will need clean logs
     }
@@ -153,15 +168,14 @@ public class MS_CacheTest {
         verifyCurrentLogCount(0);
 
         operThread = cacheForUnsupportedActions.store(FIRST, 1);
-        MS_FutureEvent.joinEvents(6, 20, operThread);
+        MS_FutureEvent.joinEvents(JOIN_INTERVAL, JOIN_ITERATIONS, operThread);
         verifyCurrentLogCount(1);
 
         cacheForUnsupportedActions.retrieve(1);
-        MS_CodingUtils.sleep(60);
         verifyCurrentLogCount(2);
 
         operThread = cacheForUnsupportedActions.clear();
-        MS_FutureEvent.joinEvents(6, 20, operThread);
+        MS_FutureEvent.joinEvents(JOIN_INTERVAL, JOIN_ITERATIONS, operThread);
         verifyCurrentLogCount(3);
         logs.getEventList().clear(); //restart logger, because in next steps we will need clean logs
     }
@@ -182,14 +196,14 @@ public class MS_CacheTest {
         allThreadsTogether.concatenate(threads401_500);
 
         //wait until last thread executes
-        MS_FutureEvent.joinEvents(allThreadsTogether, 35, 30);
+        MS_FutureEvent.joinEvents(allThreadsTogether, JOIN_INTERVAL, JOIN_ITERATIONS);
         verifyCurrentLogCount(0);
         assertThat(cache.getRepository().size()).isEqualTo(500);
     }
 
     @Test
     public void test32ConcurrencyConflictingIds() throws MS_ExecutionFailureException {
-        cache.clear();
+        MS_FutureEvent.joinEvents(JOIN_INTERVAL, JOIN_ITERATIONS, cache.clear());
         MS_List<MS_FutureEvent> threads1 = newThreadListToStoreAndRetrieveObjects(1, 100);
         MS_List<MS_FutureEvent> threads2 = newThreadListToStoreAndRetrieveObjects(20, 120);
         MS_List<MS_FutureEvent> threads3 = newThreadListToStoreAndRetrieveObjects(40, 140);
@@ -206,21 +220,90 @@ public class MS_CacheTest {
         allThreadsTogether.concatenate(threads6);
 
         //wait until last thread executes
-        MS_FutureEvent.joinEvents(allThreadsTogether, 45, 45);
+        MS_FutureEvent.joinEvents(allThreadsTogether, JOIN_INTERVAL, JOIN_ITERATIONS);
         verifyCurrentLogCount(0);
         assertThat(cache.getRepository().size()).isEqualTo(200);
     }
 
+    @Test
+    public void test41RefreshAhead() throws InterruptedException {
+        AtomicInteger loadCount = new AtomicInteger();
+        MS_Cache<String, Integer> refreshedCache = new MS_Cache<>(new MS_InMemoryCachingRepository<>());
+        refreshedCache.setDefaultTTL(1);
+        refreshedCache.setLoader(id -> "Version " + loadCount.incrementAndGet());
+        refreshedCache.setRefreshAheadThreshold(0.5);
+        assertThat(refreshedCache.retrieveOrLoad(1)).isEqualTo("Version 1");
+        assertThat(refreshedCache.retrieveOrLoad(1)).isEqualTo("Version 1");
+        assertThat(loadCount.get()).isEqualTo(1);
+
+        Thread.sleep(600);
+        //old object is still served while it's being reloaded
+        assertThat(refreshedCache.retrieveOrLoad(1)).isEqualTo("Version 1");
+        Thread.sleep(200);
+        assertThat(refreshedCache.retrieve(1)).isEqualTo("Version 2");
+        assertThat(loadCount.get()).isEqualTo(2);
+        Thread.sleep(600);
+        //refreshed object lives for full TTL from the moment of refresh
+        assertThat(refreshedCache.retrieve(1)).isNotNull();
+        assertThat(refreshedCache.getStats().getLoadSuccessCount()).isEqualTo(loadCount.get());
+    }
+
+    @Test
+    public void test42NegativeCaching() throws InterruptedException {
+        AtomicInteger loadCount = new AtomicInteger();
+        MS_Cache<String, Integer> negativeCache = new MS_Cache<>(new MS_InMemoryCachingRepository<>());
+        negativeCache.setDefaultTTL(60);
+        negativeCache.setLoader(id -> {
+            loadCount.incrementAndGet();
+            return id > 0 ? "Object " + id : null;
+        });
+        assertThat(negativeCache.retrieveOrLoad(-1)).isNull();
+        assertThat(negativeCache.retrieveOrLoad(-1)).isNull();
+        assertThat(loadCount.get()).as("Without negative TTL absence of object isn't cached").isEqualTo(2);
+
+        negativeCache.setNegativeTTL(1);
+        assertThat(negativeCache.retrieveOrLoad(-2)).isNull();
+        assertThat(negativeCache.retrieveOrLoad(-2)).isNull();
+        assertThat(negativeCache.retrieve(-2)).isNull();
+        assertThat(negativeCache.retrieveOrLoad(2)).isEqualTo("Object 2");
+        assertThat(loadCount.get()).isEqualTo(4);
+        Thread.sleep(1100);
+        assertThat(negativeCache.retrieveOrLoad(-2)).isNull();
+        assertThat(negativeCache.retrieveOrLoad(2)).isEqualTo("Object 2");
+        assertThat(loadCount.get()).isEqualTo(5);
+    }
+
+    @Test(expected = MS_BadSetupException.class)
+    public void test43RefreshAheadThresholdOutOfRange() {
+        new MS_Cache<>(new MS_InMemoryCachingRepository<>()).setRefreshAheadThreshold(1);
+    }
+
+    @Test
+    public void test44ObjectReplacingObjectOfOtherInstanceIsRemovedWhenExpired() throws MS_ExecutionFailureException {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>();
+        //object stored by other cache, which shares the same repository, isn't known to this cache
+        repository.putEntry(1, MS_CacheEntry.of(FIRST, 1, TimeUnit.HOURS));
+        MS_Cache<String, Integer> sharingCache = new MS_Cache<>(repository);
+        MS_FutureEvent.joinEvents(JOIN_INTERVAL, JOIN_ITERATIONS, sharingCache.store(SECOND, 1, 1L));
+        MS_CodingUtils.sleep(1200);
+        assertThat(repository.findEntry(1)).isNull();
+        assertThat(sharingCache.getStats().getEvictionCount(MS_CacheEvictionCauseEnum.EXPIRED)).isEqualTo(1);
+    }
+
     //*** Private methods ***
 
     private void verifyCurrentLogCount(int expectedCount) {
+        //errors are logged asynchronously, so logger is given some time to catch up
+        long deadline = System.currentTimeMillis() + LOGGING_TIMEOUT_MILLIS;
+        while (logs.getEventList().size() < expectedCount && System.currentTimeMillis() < deadline)
+            MS_CodingUtils.sleep(JOIN_INTERVAL);
         assertThat(logs.getEventList().size()).as("Error and warning log count differs from expected at this point").isEqualTo(expectedCount);
     }
 
     private MS_List<MS_FutureEvent> newThreadListToStoreAndRetrieveObjects(int idStartingFrom, int idEndingAt) {
         MS_List<MS_FutureEvent> createdThreads = new MS_List<>();
         for (int i = idStartingFrom; i <= idEndingAt; i++) {
-            MS_FutureEvent storeThread = cache.store(RandomStringUtils.randomAlphabetic(10), i, 1L);
+            MS_FutureEvent storeThread = cache.store(RandomStringUtils.randomAlphabetic(10), i, 10L); //TTL long enough not to expire while test is running
             createdThreads.add(storeThread);
         }
         return createdThreads;
@@ -0,0 +1,64 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_CountingBloomFilterTest {
+
+    @Test
+    public void testNoFalseNegativesAndFewFalsePositives() {
+        MS_CountingBloomFilter<String> filter = new MS_CountingBloomFilter<>(10000);
+        for (int i = 0; i < 10000; i++)
+            filter.add("Key" + i);
+        for (int i = 0; i < 10000; i++)
+            assertThat(filter.mightContain("Key" + i)).isTrue();
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++)
+            if (filter.mightContain("Missing" + i)) falsePositives++;
+        //1% is expected, so 3% leaves enough room for unlucky hashes
+        assertThat(falsePositives).isLessThan(300);
+        assertThat(filter.isOverloaded()).isFalse();
+        filter.add("One more");
+        assertThat(filter.isOverloaded()).isTrue();
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        MS_CountingBloomFilter<Integer> filter = new MS_CountingBloomFilter<>(100);
+        for (int i = 0; i < 100; i++)
+            filter.add(i);
+        for (int i = 0; i < 100; i += 2)
+            filter.remove(i);
+        assertThat(filter.getKeyCount()).isEqualTo(50);
+        for (int i = 1; i < 100; i += 2)
+            assertThat(filter.mightContain(i)).isTrue();
+        int removedButReported = 0;
+        for (int i = 0; i < 100; i += 2)
+            if (filter.mightContain(i)) removedButReported++;
+        assertThat(removedButReported).isLessThan(5);
+
+        //the same key added twice stays until removed twice
+        filter.add(1000);
+        filter.add(1000);
+        filter.remove(1000);
+        assertThat(filter.mightContain(1000)).isTrue();
+
+        filter.clear();
+        assertThat(filter.getKeyCount()).isEqualTo(0);
+        for (int i = 0; i < 100; i++)
+            assertThat(filter.mightContain(i)).isFalse();
+    }
+
+    @Test
+    public void testBadSetup() {
+        assertThatThrownBy(() -> new MS_CountingBloomFilter<String>(0)).isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> new MS_CountingBloomFilter<String>(10, 1)).isInstanceOf(MS_BadSetupException.class);
+        MS_CountingBloomFilter<String> filter = new MS_CountingBloomFilter<>(1000, 0.01);
+        assertThat(filter.getCounterCount()).isEqualTo(9586);
+        assertThat(filter.getHashFunctionCount()).isEqualTo(7);
+    }
+}
@@ -0,0 +1,209 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_InMemoryCachingRepositoryTest {
+
+    @Test
+    public void testUnboundedByDefault() {
+        MS_InMemoryCachingRepository<String, Integer> repository = new MS_InMemoryCachingRepository<>();
+        assertThat(repository.getBounds().isBounded()).isFalse();
+        for (int i = 0; i < 1000; i++)
+            repository.put(i, Pair.of("Item" + i, null));
+        assertThat(repository.size()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testMaximumSizeIsNeverExceeded() {
+        MS_InMemoryCachingRepository<String, Integer> repository = newRepository(
+                new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(100).withConcurrencyLevel(4));
+        for (int i = 0; i < 1000; i++) {
+            repository.put(i, Pair.of("Item" + i, null));
+            assertThat(repository.size()).isLessThanOrEqualTo(100);
+        }
+        assertThat(repository.get(999)).isNotNull();
+        assertThat(repository.get(0)).isNull();
+    }
+
+    @Test
+    public void testFrequentlyUsedObjectSurvivesScan() {
+        MS_InMemoryCachingRepository<String, Integer> repository = newRepository(
+                new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(10).withConcurrencyLevel(1));
+        repository.put(-1, Pair.of("Hot item", null));
+        for (int i = 0; i < 100; i++) {
+            assertThat(repository.get(-1)).as("Hot item is evicted by scan on iteration " + i).isNotNull();
+            repository.put(i, Pair.of("Item" + i, null));
+        }
+        assertThat(repository.size()).isEqualTo(10);
+    }
+
+    @Test
+    public void testConditionalOperationsDoNotPromoteObject() {
+        MS_InMemoryCachingRepository<String, Integer> repository = newRepository(
+                new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(10).withConcurrencyLevel(1));
+        repository.put(-1, Pair.of("Checked item", null));
+        assertThat(repository.removeEntryIf(-1, entry -> false)).isFalse();
+        assertThat(repository.putEntryIfAbsent(-1, MS_CacheEntry.eternal("Other item"))).isNotNull();
+        repository.upsert(-1, (current, id) -> current);
+        for (int i = 0; i < 100; i++)
+            repository.put(i, Pair.of("Item" + i, null));
+        assertThat(repository.get(-1)).isNull();
+    }
+
+    @Test
+    public void testMaximumWeight() {
+        MS_InMemoryCachingRepository<String, Integer> repository = newRepository(
+                new MS_CacheBoundsSetup<String, Integer>()
+                        .withMaximumWeight(20, (object, id) -> object.length())
+                        .withConcurrencyLevel(1));
+        repository.put(1, Pair.of("1234567890", null));
+        repository.put(2, Pair.of("1234567890", null));
+        assertThat(repository.size()).isEqualTo(2);
+        repository.put(3, Pair.of("12345", LocalDateTime.now()));
+        assertThat(repository.size()).isEqualTo(2);
+        assertThat(repository.get(1)).isNull();
+        assertThat(repository.put(2, Pair.of("1", null)).getLeft()).isEqualTo("1234567890");
+        repository.put(4, Pair.of("12345678", null));
+        assertThat(repository.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void testConcurrentUpsertsAreAtomic() throws InterruptedException {
+        List<MS_InMemoryCachingRepository<Integer, String>> repositories = new ArrayList<>();
+        repositories.add(new MS_InMemoryCachingRepository<>());
+        repositories.add(newRepository(new MS_CacheBoundsSetup<Integer, String>().withMaximumSize(10)));
+        for (MS_InMemoryCachingRepository<Integer, String> repository : repositories) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++)
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 1000; i++)
+                        repository.upsert("counter", (current, id) ->
+                                Pair.of(current == null ? 1 : current.getLeft() + 1, null));
+                }));
+            for (Thread thread : threads) thread.start();
+            for (Thread thread : threads) thread.join();
+            assertThat(repository.get("counter").getLeft()).isEqualTo(4000);
+        }
+    }
+
+    @Test
+    public void testStreamOfBoundedRepository() {
+        MS_InMemoryCachingRepository<String, Integer> repository = newRepository(
+                new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(1000).withConcurrencyLevel(8));
+        for (int i = 0; i < 500; i++)
+            repository.put(i, Pair.of("Item" + i, null));
+        Set<Integer> ids = repository.stream().map(Map.Entry::getKey).collect(Collectors.toSet());
+        assertThat(ids).hasSize(500).containsAll(new HashSet<>(repository.findAll().keySet()));
+        assertThat(repository.stream().filter(entry -> entry.getKey() == 7).findFirst().get().getValue().getLeft())
+                .isEqualTo("Item7");
+    }
+
+    @Test
+    public void testLiveViewAndSnapshot() {
+        List<MS_InMemoryCachingRepository<String, Integer>> repositories = new ArrayList<>();
+        repositories.add(new MS_InMemoryCachingRepository<>());
+        repositories.add(newRepository(new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(100)));
+        for (MS_InMemoryCachingRepository<String, Integer> repository : repositories) {
+            Map<Integer, Pair<String, LocalDateTime>> view = repository.asMap();
+            assertThat(view).isEmpty();
+            repository.put(1, Pair.of("First", null));
+            repository.put(2, Pair.of("Expired", LocalDateTime.now().minusSeconds(1)));
+            repository.put(3, Pair.of("Third", LocalDateTime.now().plusHours(1)));
+
+            //expired object is still in cache, but nobody sees it
+            assertThat(repository.size()).isEqualTo(3);
+            assertThat(view).containsOnlyKeys(1, 3);
+            assertThat(view.get(2)).isNull();
+            assertThat(view.containsKey(2)).isFalse();
+            assertThat(view.get("1")).isNull();
+            assertThat(repository.findAll()).containsOnlyKeys(1, 3);
+            List<Integer> iterated = new ArrayList<>();
+            repository.forEachItem((item, id) -> iterated.add(id));
+            assertThat(iterated).containsOnly(1, 3);
+            assertThat(repository.stream().count()).isEqualTo(2);
+
+            Map<Integer, Pair<String, LocalDateTime>> snapshot = repository.snapshot();
+            repository.put(4, Pair.of("Fourth", null));
+            repository.remove(1);
+            assertThat(view).containsOnlyKeys(3, 4);
+            assertThat(snapshot).containsOnlyKeys(1, 3);
+            assertThatThrownBy(() -> view.put(5, Pair.of("Fifth", null))).isInstanceOf(UnsupportedOperationException.class);
+            assertThatThrownBy(view::clear).isInstanceOf(UnsupportedOperationException.class);
+            assertThatThrownBy(() -> view.entrySet().iterator().remove()).isInstanceOf(UnsupportedOperationException.class);
+        }
+    }
+
+    @Test
+    public void testReadsThroughLiveViewDoNotPromoteObjects() {
+        MS_InMemoryCachingRepository<String, Integer> repository = newRepository(
+                new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(10).withConcurrencyLevel(1));
+        Map<Integer, Pair<String, LocalDateTime>> view = repository.asMap();
+        for (int i = 0; i < 10; i++)
+            repository.put(i, Pair.of("Item" + i, null));
+        for (int i = 0; i < 10; i++) {
+            assertThat(view.get(i)).isNotNull();
+            assertThat(view.containsKey(i)).isTrue();
+        }
+        for (int i = 10; i < 20; i++)
+            repository.put(i, Pair.of("Item" + i, null));
+        assertThat(view).containsOnlyKeys(10, 11, 12, 13, 14, 15, 16, 17, 18, 19);
+    }
+
+    @Test
+    public void testConditionalRemovalOfEntry() {
+        List<MS_InMemoryCachingRepository<String, Integer>> repositories = new ArrayList<>();
+        repositories.add(new MS_InMemoryCachingRepository<>());
+        repositories.add(newRepository(new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(100)));
+        for (MS_InMemoryCachingRepository<String, Integer> repository : repositories) {
+            repository.putEntry(1, MS_CacheEntry.of("Expired", -1, TimeUnit.SECONDS));
+            repository.putEntry(2, MS_CacheEntry.of("Fresh", 1, TimeUnit.HOURS));
+            assertThat(repository.removeEntryIf(1, MS_CacheEntry::isExpired)).isTrue();
+            assertThat(repository.removeEntryIf(2, MS_CacheEntry::isExpired)).isFalse();
+            assertThat(repository.removeEntryIf(3, entry -> true)).isFalse();
+            assertThat(repository.findEntry(1)).isNull();
+            assertThat(repository.findEntry(2).getObject()).isEqualTo("Fresh");
+        }
+    }
+
+    @Test
+    public void testPutEntryIfAbsent() {
+        List<MS_InMemoryCachingRepository<String, Integer>> repositories = new ArrayList<>();
+        repositories.add(new MS_InMemoryCachingRepository<>());
+        repositories.add(newRepository(new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(100)));
+        for (MS_InMemoryCachingRepository<String, Integer> repository : repositories) {
+            assertThat(repository.putEntryIfAbsent(1, MS_CacheEntry.eternal("First"))).isNull();
+            assertThat(repository.putEntryIfAbsent(1, MS_CacheEntry.eternal("Second")).getObject()).isEqualTo("First");
+            assertThat(repository.findEntry(1).getObject()).isEqualTo("First");
+            assertThat(repository.size()).isEqualTo(1);
+        }
+    }
+
+    @Test(expected = MS_BadSetupException.class)
+    public void testSizeAndWeightCannotBeCombined() {
+        new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(10).withMaximumWeight(10, (object, id) -> 1);
+    }
+
+    @Test(expected = MS_BadSetupException.class)
+    public void testNonPositiveSize() {
+        new MS_CacheBoundsSetup<String, Integer>().withMaximumSize(0);
+    }
+
+    private <T, ID> MS_InMemoryCachingRepository<T, ID> newRepository(MS_CacheBoundsSetup<T, ID> bounds) {
+        return new MS_InMemoryCachingRepository<>(MS_InMemoryCachingRepository._DEFAULT_REPOSITORY_ROOT_NAME,
+                MS_InMemoryCachingRepository._DEFAULT_CACHE_NAME, bounds);
+    }
+}
@@ -0,0 +1,127 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.tools.logging.MS_LoggingEvent;
+import lv.emes.libraries.tools.logging.MS_LoggingEventTypeEnum;
+import org.junit.Test;
+import org.threeten.bp.ZonedDateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MS_IndexedInMemoryRepositoryTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.now();
+
+    @Test
+    public void testEqualityAndRangeQueries() {
+        MS_IndexedInMemoryRepository<MS_LoggingEvent, Integer> repository = newRepository();
+        for (int i = 0; i < 100; i++)
+            repository.put(i, newEvent(i));
+
+        assertThat(repository.findByIndex("type", MS_LoggingEventTypeEnum.ERROR)).hasSize(25);
+        assertThat(repository.countByIndex("type", MS_LoggingEventTypeEnum.INFO)).isEqualTo(25);
+        assertThat(repository.findByIndex("type", MS_LoggingEventTypeEnum.ERROR).keySet()).startsWith(3, 7, 11);
+        assertThat(repository.findByIndex("type", "No such type")).isEmpty();
+
+        assertThat(repository.findRange("time", START.plusMinutes(10), START.plusMinutes(20)).keySet())
+                .containsExactly(10, 11, 12, 13, 14, 15, 16, 17, 18, 19);
+        //event times are unique, because logging event adds some nanoseconds to given time
+        ZonedDateTime tenth = repository.find(10).getTime();
+        ZonedDateTime twelfth = repository.find(12).getTime();
+        assertThat(repository.findRange("time", tenth, false, twelfth, true).keySet()).containsExactly(11, 12);
+        assertThat(repository.findRange("time", tenth, true, twelfth, false).keySet()).containsExactly(10, 11);
+        assertThat(repository.findRange("time", START.plusMinutes(97), null)).containsOnlyKeys(97, 98, 99);
+        assertThat(repository.findRange("time", null, START.plusMinutes(2))).containsOnlyKeys(0, 1);
+        assertThat(repository.findRange("time", START.plusMinutes(20), START.plusMinutes(10))).isEmpty();
+        assertThat(repository.findByIndex("time", repository.find(5).getTime())).containsOnlyKeys(5);
+    }
+
+    @Test
+    public void testIndexesFollowModifications() {
+        MS_IndexedInMemoryRepository<MS_LoggingEvent, Integer> repository = new MS_IndexedInMemoryRepository<>();
+        for (int i = 0; i < 8; i++)
+            repository.put(i, newEvent(i));
+        //index registered later indexes existing items
+        repository.withHashIndex("type", MS_LoggingEvent::getType);
+        assertThat(repository.countByIndex("type", MS_LoggingEventTypeEnum.ERROR)).isEqualTo(2);
+
+        repository.put(3, newEvent(0)); //ERROR -> INFO
+        repository.remove(7);
+        repository.add(0, newEvent(3)); //nothing changes, because item already exists
+        assertThat(repository.findByIndex("type", MS_LoggingEventTypeEnum.ERROR)).isEmpty();
+        assertThat(repository.findByIndex("type", MS_LoggingEventTypeEnum.INFO)).containsOnlyKeys(0, 3, 4);
+
+        repository.upsert(1, (current, id) -> newEvent(3));
+        repository.upsert(4, (current, id) -> null);
+        Map<Integer, MS_LoggingEvent> batch = new LinkedHashMap<>();
+        batch.put(10, newEvent(3));
+        batch.put(0, newEvent(1));
+        repository.putAll(batch);
+        assertThat(repository.findByIndex("type", MS_LoggingEventTypeEnum.ERROR)).containsOnlyKeys(1, 10);
+        assertThat(repository.findByIndex("type", MS_LoggingEventTypeEnum.INFO)).containsOnlyKeys(3);
+
+        repository.removeAll(Arrays.asList(1, 3));
+        assertThat(repository.countByIndex("type", MS_LoggingEventTypeEnum.ERROR)).isEqualTo(1);
+        repository.removeAll();
+        assertThat(repository.countByIndex("type", MS_LoggingEventTypeEnum.ERROR)).isEqualTo(0);
+        assertThat(repository.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLazyIterationAndPageSeek() {
+        MS_IndexedInMemoryRepository<MS_LoggingEvent, Integer> repository = newRepository();
+        for (int i = 0; i < 300; i++)
+            repository.put(i, newEvent(i));
+
+        List<Integer> visited = new ArrayList<>();
+        Iterator<Map.Entry<Integer, MS_LoggingEvent>> iter = repository.stream().iterator();
+        for (int i = 0; i < 10; i++)
+            visited.add(iter.next().getKey());
+        //repository isn't locked by iteration, which sees modifications of not yet visited items
+        repository.remove(200);
+        repository.put(300, newEvent(300));
+        repository.put(5, newEvent(5));
+        iter.forEachRemaining(entry -> visited.add(entry.getKey()));
+        assertThat(visited).hasSize(300).doesNotContain(200).endsWith(299, 300).doesNotHaveDuplicates();
+
+        assertThat(repository.findPageAfter(null, 2)).containsOnlyKeys(0, 1);
+        assertThat(repository.findPageAfter(198, 3).keySet()).containsExactly(199, 201, 202);
+        assertThat(repository.findPageAfter(300, 3)).isEmpty();
+        assertThat(repository.findPageAfter(200, 3)).isEmpty();
+        repository.removeAll();
+        assertThat(repository.stream().count()).isZero();
+    }
+
+    @Test
+    public void testBadIndexUsage() {
+        MS_IndexedInMemoryRepository<MS_LoggingEvent, Integer> repository = newRepository();
+        assertThat(repository.getIndexNames()).containsExactly("type", "time");
+        assertThatThrownBy(() -> repository.withHashIndex("type", MS_LoggingEvent::getMessage))
+                .isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> repository.findByIndex("message", "Text")).isInstanceOf(MS_BadSetupException.class);
+        assertThatThrownBy(() -> repository.findRange("type", null, null)).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    private MS_IndexedInMemoryRepository<MS_LoggingEvent, Integer> newRepository() {
+        return new MS_IndexedInMemoryRepository<MS_LoggingEvent, Integer>()
+                .withHashIndex("type", MS_LoggingEvent::getType)
+                .withSortedIndex("time", MS_LoggingEvent::getTime);
+    }
+
+    private static MS_LoggingEvent newEvent(int number) {
+        MS_LoggingEventTypeEnum[] types = {MS_LoggingEventTypeEnum.INFO, MS_LoggingEventTypeEnum.WARN,
+                MS_LoggingEventTypeEnum.UNSPECIFIED, MS_LoggingEventTypeEnum.ERROR};
+        return new MS_LoggingEvent()
+                .withTime(START.plusMinutes(number))
+                .withType(types[number % types.length])
+                .withMessage("Event #" + number);
+    }
+}
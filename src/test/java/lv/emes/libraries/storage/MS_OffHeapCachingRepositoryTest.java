@@ -0,0 +1,168 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.communication.MS_StringBytesDTOAlgorithm;
+import lv.emes.libraries.file_system.MS_FileSystemTools;
+import lv.emes.libraries.testdata.TestData;
+import lv.emes.libraries.tools.MS_BadSetupException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.io.File;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MS_OffHeapCachingRepositoryTest {
+
+    private static final int SLAB_SIZE = 1024;
+    //record takes 16 bytes of header and 100 bytes of text, so 8 records fit in single slab
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final String TEXT = StringUtils.repeat('x', 100);
+
+    @Test
+    public void testStoreReplaceAndRemove() {
+        MS_OffHeapCachingRepository<String, Integer> repository = new MS_OffHeapCachingRepository<>(new MS_StringBytesDTOAlgorithm());
+        LocalDateTime expiration = LocalDateTime.now().plusHours(1).withNano(0);
+        assertThat(repository.put(1, Pair.of("First ĀČĒ", expiration))).isNull();
+        repository.put(2, Pair.of("Second", null));
+        assertThat(repository.get(1)).isEqualTo(Pair.of("First ĀČĒ", expiration));
+        assertThat(repository.get(2)).isEqualTo(Pair.of("Second", null));
+
+        assertThat(repository.put(2, Pair.of("Replaced", null)).getLeft()).isEqualTo("Second");
+        assertThat(repository.get(2).getLeft()).isEqualTo("Replaced");
+        assertThat(repository.size()).isEqualTo(2);
+        assertThat(repository.putEntryIfAbsent(2, MS_CacheEntry.eternal("Ignored")).getObject()).isEqualTo("Replaced");
+        assertThat(repository.get(2).getLeft()).isEqualTo("Replaced");
+        assertThat(repository.upsert(2, (current, id) -> Pair.of(current.getLeft() + id, null)).getLeft()).isEqualTo("Replaced2");
+        assertThat(repository.upsert(3, (current, id) -> current)).isNull();
+        assertThat(repository.size()).isEqualTo(2);
+
+        repository.remove(1);
+        assertThat(repository.get(1)).isNull();
+        assertThat(repository.findAll()).containsOnlyKeys(2);
+        repository.removeAll();
+        assertThat(repository.size()).isEqualTo(0);
+        assertThat(repository.getSlabCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testOldestSlabIsEvictedWhenFull() {
+        MS_OffHeapCachingRepository<String, Integer> repository = newRepository(new MS_OffHeapCacheSetup()
+                .withSlabSize(SLAB_SIZE).withMaximumSlabCount(3));
+        for (int i = 0; i < 40; i++)
+            repository.put(i, Pair.of(TEXT, null));
+        assertThat(repository.getSlabCount()).isEqualTo(3);
+        assertThat(repository.getAllocatedBytes()).isEqualTo(3 * SLAB_SIZE);
+        assertThat(repository.get(0)).isNull();
+        assertThat(repository.get(39).getLeft()).isEqualTo(TEXT);
+        assertThat(repository.size()).isEqualTo(40 - (int) repository.getStats().getEvictionCount(MS_CacheEvictionCauseEnum.SIZE));
+    }
+
+    @Test
+    public void testDefragmentation() {
+        MS_OffHeapCachingRepository<String, Integer> repository = newRepository(new MS_OffHeapCacheSetup()
+                .withSlabSize(SLAB_SIZE).withMaximumSlabCount(10));
+        for (int i = 0; i < 24; i++)
+            repository.put(i, Pair.of(TEXT, null));
+        assertThat(repository.getSlabCount()).isEqualTo(3);
+        //every slab keeps only 2 live records out of 8
+        for (int i = 0; i < 24; i++)
+            if (i % 8 > 1) repository.remove(i);
+        //last slab is full, so this record opens new slab, where all the live records will be moved
+        repository.put(100, Pair.of(TEXT, LocalDateTime.now().minusMinutes(1)));
+        assertThat(repository.getSlabCount()).isEqualTo(4);
+
+        assertThat(repository.defragment()).isEqualTo(3);
+        assertThat(repository.getSlabCount()).isEqualTo(1);
+        assertThat(repository.size()).isEqualTo(7);
+        for (int i = 0; i < 24; i++)
+            assertThat(repository.get(i)).isEqualTo(i % 8 > 1 ? null : Pair.of(TEXT, null));
+        assertThat(repository.getLiveBytes()).isEqualTo(7 * (RECORD_HEADER_SIZE + TEXT.length()));
+        assertThat(repository.purgeExpired()).isEqualTo(1);
+        assertThat(repository.get(100)).isNull();
+    }
+
+    @Test
+    public void testDefragmentationDoesNotExceedMaximumSlabCount() {
+        MS_OffHeapCachingRepository<String, Integer> repository = newRepository(new MS_OffHeapCacheSetup()
+                .withSlabSize(SLAB_SIZE).withMaximumSlabCount(3));
+        for (int i = 0; i < 24; i++)
+            repository.put(i, Pair.of(TEXT, null));
+        for (int i = 0; i < 16; i++)
+            if (i % 8 > 1) repository.remove(i);
+        //all the slabs are in use and current one is full, so there is no room to move records to
+        assertThat(repository.defragment()).isEqualTo(0);
+        assertThat(repository.getSlabCount()).isEqualTo(3);
+
+        //the oldest slab is evicted to make room for new record, and then records of the next one can be moved
+        repository.put(100, Pair.of(TEXT, null));
+        assertThat(repository.getSlabCount()).isEqualTo(3);
+        assertThat(repository.get(0)).isNull();
+        assertThat(repository.get(1)).isNull();
+        assertThat(repository.getStats().getEvictionCount(MS_CacheEvictionCauseEnum.SIZE)).isEqualTo(2);
+        assertThat(repository.defragment()).isEqualTo(1);
+        assertThat(repository.getSlabCount()).isEqualTo(2);
+        assertThat(repository.size()).isEqualTo(11);
+        assertThat(repository.get(8)).isEqualTo(Pair.of(TEXT, null));
+        assertThat(repository.get(9)).isEqualTo(Pair.of(TEXT, null));
+    }
+
+    @Test
+    public void testIndexGrowsAndShrinks() {
+        MS_OffHeapCachingRepository<String, Integer> repository = new MS_OffHeapCachingRepository<>(new MS_StringBytesDTOAlgorithm());
+        for (int i = 0; i < 1000; i++)
+            repository.put(i, Pair.of("Object" + i, null));
+        for (int i = 0; i < 1000; i += 2)
+            repository.remove(i);
+        //removed identifiers are dropped from index while it's rebuilt by next additions
+        for (int i = 1000; i < 1500; i++)
+            repository.put(i, Pair.of("Object" + i, null));
+        assertThat(repository.size()).isEqualTo(1000);
+        for (int i = 0; i < 1500; i++)
+            assertThat(repository.get(i)).isEqualTo(i < 1000 && i % 2 == 0 ? null : Pair.of("Object" + i, null));
+        assertThat(repository.findAll()).hasSize(1000);
+    }
+
+    @Test
+    public void testMemoryMappedSlabs() {
+        String directory = TestData.TEMP_DIR + "MS_OffHeapCachingRepositoryTest";
+        MS_FileSystemTools.createNewDirectory(directory);
+        try {
+            MS_OffHeapCachingRepository<String, Integer> repository = newRepository(new MS_OffHeapCacheSetup()
+                    .withSlabSize(SLAB_SIZE).withMappedFilesDirectory(directory));
+            for (int i = 0; i < 20; i++)
+                repository.put(i, Pair.of(TEXT + i, null));
+            assertThat(new File(directory).list()).hasSize(3);
+            assertThat(repository.get(19).getLeft()).isEqualTo(TEXT + 19);
+            repository.removeAll();
+            assertThat(new File(directory).list()).isEmpty();
+        } finally {
+            MS_FileSystemTools.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testIntegrationWithCache() {
+        MS_Cache<String, Integer> cache = new MS_Cache<>(newRepository(new MS_OffHeapCacheSetup()));
+        cache.getRepository().put(1, Pair.of("Cached", LocalDateTime.now().plusMinutes(1)));
+        cache.getRepository().put(2, Pair.of("Expired", LocalDateTime.now().minusMinutes(1)));
+        assertThat(cache.retrieve(1)).isEqualTo("Cached");
+        assertThat(cache.retrieve(2)).isNull();
+    }
+
+    @Test(expected = MS_RepositoryDataExchangeException.class)
+    public void testObjectLargerThanSlab() {
+        newRepository(new MS_OffHeapCacheSetup().withSlabSize(SLAB_SIZE)).put(1, Pair.of(StringUtils.repeat('x', SLAB_SIZE), null));
+    }
+
+    @Test(expected = MS_BadSetupException.class)
+    public void testTooSmallSlab() {
+        new MS_OffHeapCacheSetup().withSlabSize(10);
+    }
+
+    private MS_OffHeapCachingRepository<String, Integer> newRepository(MS_OffHeapCacheSetup setup) {
+        return new MS_OffHeapCachingRepository<>(MS_OffHeapCachingRepository._DEFAULT_REPOSITORY_ROOT_NAME,
+                MS_OffHeapCachingRepository._DEFAULT_CACHE_NAME, new MS_StringBytesDTOAlgorithm(), setup);
+    }
+}
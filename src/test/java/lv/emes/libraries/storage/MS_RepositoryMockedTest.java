@@ -29,6 +29,7 @@ public class MS_RepositoryMockedTest {
             allItems.put(i, String.valueOf(i));
         }
         when(repository.doFindAll()).thenReturn(allItems);
+        when(repository.doIterate()).thenCallRealMethod();
         when(repository.doFindPage(anyInt(), anyInt())).thenCallRealMethod();
 
         // Preparations
@@ -8,12 +8,16 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 /**
  * All tests depends on previous test data.
@@ -150,6 +154,53 @@ public class MS_RepositoryTest {
         assertThat(repository2.isInitialized()).isTrue(); //it's still initialized
     }
 
+    @Test
+    public void test31BatchOperations() { //DATA till here: {[1][1]} {}
+        repository2 = new MS_RepositoryForTest(PROJECT_NAME2, CATEGORY_NAME2);
+        Map<String, String> items = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) items.put(ITEM_IDS[i], ITEMS[i]);
+        repository2.putAll(items);
+        assertThat(repository2.length()).isEqualTo(3);
+        assertThat(repository2.findAll(Arrays.asList(ITEM_IDS[2], "Nonexistent", ITEM_IDS[0])))
+                .containsExactly(entry(ITEM_IDS[2], ITEMS[2]), entry(ITEM_IDS[0], ITEMS[0]));
+
+        repository2.removeAll(Arrays.asList(ITEM_IDS[0], ITEM_IDS[1], "Nonexistent"));
+        assertThat(repository2.findAll()).containsExactly(entry(ITEM_IDS[2], ITEMS[2]));
+        //other repository is untouched
+        assertThat(new MS_RepositoryForTest(PROJECT_NAME1, CATEGORY_NAME1).length()).isEqualTo(1);
+    }
+
+    @Test
+    public void test32Upsert() { //DATA till here: {[1][1]} {[2][2]}
+        repository2 = new MS_RepositoryForTest(PROJECT_NAME2, CATEGORY_NAME2);
+        assertThat(repository2.upsert(ITEM_IDS[0], (current, id) -> current == null ? ITEMS[0] : ITEMS[3])).isEqualTo(ITEMS[0]);
+        assertThat(repository2.upsert(ITEM_IDS[0], (current, id) -> current == null ? ITEMS[0] : ITEMS[3])).isEqualTo(ITEMS[3]);
+        assertThat(repository2.get(ITEM_IDS[0])).isEqualTo(ITEMS[3]);
+        assertThat(repository2.upsert(ITEM_IDS[2], (current, id) -> null)).isNull();
+        assertThat(repository2.findAll()).containsExactly(entry(ITEM_IDS[0], ITEMS[3]));
+    }
+
+    @Test
+    public void test33StreamAndPageAfter() { //DATA till here: {[1][1]} {[0][3]}
+        repository2 = new MS_RepositoryForTest(PROJECT_NAME2, CATEGORY_NAME2);
+        repository2.put(ITEM_IDS[1], ITEMS[1]);
+        repository2.put(ITEM_IDS[2], ITEMS[2]);
+        //unchanged item isn't rewritten, so it keeps its position
+        assertThat(repository2.upsert(ITEM_IDS[0], (current, id) -> current)).isEqualTo(ITEMS[3]);
+        try (Stream<Map.Entry<String, String>> items = repository2.stream()) {
+            assertThat(items.map(Map.Entry::getValue).collect(Collectors.toList()))
+                    .containsExactly(ITEMS[3], ITEMS[1], ITEMS[2]);
+        }
+
+        Map<String, String> page = repository2.findPageAfter(null, 2);
+        assertThat(page).containsExactly(entry(ITEM_IDS[0], ITEMS[3]), entry(ITEM_IDS[1], ITEMS[1]));
+        page = repository2.findPageAfter(ITEM_IDS[1], 2);
+        assertThat(page).containsExactly(entry(ITEM_IDS[2], ITEMS[2]));
+        assertThat(repository2.findPageAfter(ITEM_IDS[2], 2)).isEmpty();
+        assertThat(repository2.findPage(2, 2)).containsExactly(entry(ITEM_IDS[2], ITEMS[2]));
+        assertThat(repository2.findPage(3, 2)).isEmpty();
+    }
+
     //*** Repository implementation ***
 
     private static final class MS_RepositoryForTest extends MS_Repository<String, String> {
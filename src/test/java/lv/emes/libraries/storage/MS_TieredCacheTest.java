@@ -0,0 +1,113 @@
+package lv.emes.libraries.storage;
+
+import lv.emes.libraries.tools.MS_BadSetupException;
+import lv.emes.libraries.utilities.MS_CodingUtils;
+import lv.emes.libraries.utilities.MS_ObjectRetrievalFailureException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MS_TieredCacheTest {
+
+    private MS_Cache<String, Integer> firstTier;
+    private MS_Cache<String, Integer> secondTier;
+    private AtomicInteger loadCount;
+    private MS_TieredCache<String, Integer> cache;
+
+    @Before
+    public void setUp() {
+        firstTier = new MS_Cache<>(new MS_InMemoryCachingRepository<>());
+        secondTier = new MS_Cache<>(new MS_InMemoryCachingRepository<>());
+        loadCount = new AtomicInteger();
+        cache = new MS_TieredCache<String, Integer>()
+                .withTier(firstTier)
+                .withTier(secondTier)
+                .withLoader(id -> {
+                    loadCount.incrementAndGet();
+                    MS_CodingUtils.sleep(200);
+                    return id < 0 ? null : "Object" + id;
+                });
+    }
+
+    @Test
+    public void testLoadedObjectIsWrittenBackToAllTiers() {
+        assertThat(cache.get(1)).isEqualTo("Object1");
+        //object is written back before request is completed
+        assertThat(firstTier.retrieve(1)).isEqualTo("Object1");
+        assertThat(secondTier.retrieve(1)).isEqualTo("Object1");
+        assertThat(cache.get(1)).isEqualTo("Object1");
+        assertThat(loadCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHitInSlowerTierIsWrittenBackToFastestTier() {
+        secondTier.getRepository().put(2, Pair.of("Stored", null));
+        cache.withWriteBackMode(MS_TierWriteBackModeEnum.FASTEST_TIER);
+        assertThat(cache.get(2)).isEqualTo("Stored");
+        assertThat(firstTier.retrieve(2)).isEqualTo("Stored");
+        assertThat(loadCount.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testNoWriteBack() {
+        cache.withWriteBackMode(MS_TierWriteBackModeEnum.NONE);
+        assertThat(cache.get(3)).isEqualTo("Object3");
+        assertThat(cache.get(3)).isEqualTo("Object3");
+        assertThat(loadCount.get()).isEqualTo(2);
+        assertThat(firstTier.getRepository().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentRequestsOfColdObjectAreLoadedOnce() throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<String> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                String object = cache.get(4);
+                synchronized (results) {
+                    results.add(object);
+                }
+            }));
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+
+        assertThat(results).hasSize(50).containsOnly("Object4");
+        assertThat(cache.getInFlightLoadCount()).isEqualTo(0);
+        //requests after completed load find object in the fastest tier
+        assertThat(cache.get(4)).isEqualTo("Object4");
+        assertThat(loadCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMissingObject() {
+        assertThat(cache.get(-1)).isNull();
+        assertThat(cache.get(null)).isNull();
+    }
+
+    @Test(expected = MS_ObjectRetrievalFailureException.class)
+    public void testLoaderFailure() {
+        new MS_TieredCache<String, Integer>()
+                .withLoader(id -> {
+                    throw new IllegalStateException("Source is unavailable");
+                })
+                .get(5);
+    }
+
+    @Test(expected = MS_BadSetupException.class)
+    public void testNothingToRetrieveFrom() {
+        new MS_TieredCache<String, Integer>().get(6);
+    }
+}
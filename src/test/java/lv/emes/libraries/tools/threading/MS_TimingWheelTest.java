@@ -0,0 +1,68 @@
+package lv.emes.libraries.tools.threading;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MS_TimingWheelTest {
+
+    private static MS_TimingWheel wheel;
+
+    @BeforeClass
+    public static void initWheel() {
+        //tasks are executed directly in wheel's thread
+        wheel = new MS_TimingWheel(1, TimeUnit.MILLISECONDS, 2, Runnable::run, "Test timing wheel");
+    }
+
+    @AfterClass
+    public static void stopWheel() {
+        wheel.stop();
+    }
+
+    @Test
+    public void testTasksAreExecutedNotEarlierThanScheduled() throws InterruptedException {
+        int taskCount = 200;
+        CountDownLatch latch = new CountDownLatch(taskCount);
+        AtomicInteger executedTooEarly = new AtomicInteger();
+        for (int i = 0; i < taskCount; i++) {
+            long delay = i * 3; //also covers delays longer than whole first level
+            long scheduledAt = System.nanoTime();
+            wheel.schedule(() -> {
+                if (System.nanoTime() - scheduledAt < TimeUnit.MILLISECONDS.toNanos(delay))
+                    executedTooEarly.incrementAndGet();
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertThat(latch.await(5, TimeUnit.SECONDS)).as("Not all the tasks are executed in time").isTrue();
+        assertThat(executedTooEarly.get()).isEqualTo(0);
+        assertThat(wheel.getPendingTaskCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testDelaysLongerThanAllLevelsAreSupported() throws InterruptedException {
+        //2 levels of 1 ms ticks cover only 4096 ms
+        CountDownLatch latch = new CountDownLatch(1);
+        MS_TimingWheel.Timeout timeout = wheel.schedule(latch::countDown, 4200, TimeUnit.MILLISECONDS);
+        assertThat(latch.await(3, TimeUnit.SECONDS)).isFalse();
+        assertThat(latch.await(3, TimeUnit.SECONDS)).isTrue();
+        assertThat(timeout.isExpired()).isTrue();
+    }
+
+    @Test
+    public void testCancelledTaskIsNotExecuted() throws InterruptedException {
+        AtomicInteger executions = new AtomicInteger();
+        MS_TimingWheel.Timeout timeout = wheel.schedule(executions::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        assertThat(timeout.cancel()).isTrue();
+        assertThat(timeout.cancel()).isFalse();
+        Thread.sleep(150);
+        assertThat(executions.get()).isEqualTo(0);
+        assertThat(timeout.isCancelled()).isTrue();
+        assertThat(timeout.isExpired()).isFalse();
+    }
+}